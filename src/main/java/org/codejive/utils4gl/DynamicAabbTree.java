@@ -0,0 +1,691 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Tuple3f;
+
+/**
+ * A bounding volume tree for objects that move around a lot, stored by
+ * their axis-aligned bounding boxes. Unlike an octree it doesn't depend on
+ * a fixed division of the world, objects are inserted next to the objects
+ * whose bounds they increase the least and rotations keep the tree
+ * balanced as objects come and go.
+ * <p>
+ * The tree stores each object with "fat" bounds, its bounds enlarged by a
+ * margin on all sides. Moving an object only changes the tree when its new
+ * bounds are no longer contained by its fat bounds, so the cost of updating
+ * the tree depends on the number of objects that moved a significant
+ * distance and not on the total number of objects that moved. Those objects
+ * are remembered until the next call to queryPairs(), which reports the
+ * objects they now overlap, as is needed for the broad phase of collision
+ * detection.
+ * <p>
+ * Objects are identified by the handle returned when they are added. The
+ * nodes are stored in arrays and reused through a free list. The tree may
+ * be queried from several threads at the same time, but not while objects
+ * are being added, moved or removed.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class DynamicAabbTree<T> {
+	/** The default margin the bounds of objects are enlarged by */
+	public static final float DEFAULT_MARGIN = 0.1f;
+
+	private static final int NO_NODE = -1;
+	/** Replaces zero direction components to keep the slab tests free of NaNs */
+	private static final float TINY = 1.0e-30f;
+
+	/**
+	 * Receives the pairs of objects found by queryPairs()
+	 */
+	public interface PairListener<T> {
+		/**
+		 * Called for each pair of objects whose fat bounds overlap
+		 * @param _first The first object
+		 * @param _second The second object
+		 */
+		public void pairFound(T _first, T _second);
+	}
+
+	private float m_fMargin;
+	private int m_nRoot;
+	private int m_nObjectCount;
+
+	private int m_nNodeCapacity;
+	private int m_nFreeNode;
+	/** The fat bounds of the leaves and the combined bounds of the other nodes */
+	private float[] m_bounds;
+	/** The exact bounds of the leaves */
+	private float[] m_tightBounds;
+	private int[] m_parents;
+	private int[] m_children1;
+	private int[] m_children2;
+	/** The height of the subtree of each node, leaves have height 0 and free nodes -1 */
+	private int[] m_heights;
+	private Object[] m_payloads;
+
+	private int[] m_moved;
+	private int m_nMovedCount;
+	private boolean[] m_movedFlags;
+
+	/**
+	 * Creates an empty tree that enlarges the bounds of objects by
+	 * DEFAULT_MARGIN
+	 */
+	public DynamicAabbTree() {
+		this(DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Creates an empty tree that enlarges the bounds of objects by the
+	 * given margin
+	 * @param _fMargin The distance the bounds are enlarged by on all sides
+	 */
+	public DynamicAabbTree(float _fMargin) {
+		m_fMargin = _fMargin;
+		m_nNodeCapacity = 64;
+		m_bounds = new float[m_nNodeCapacity * 6];
+		m_tightBounds = new float[m_nNodeCapacity * 6];
+		m_parents = new int[m_nNodeCapacity];
+		m_children1 = new int[m_nNodeCapacity];
+		m_children2 = new int[m_nNodeCapacity];
+		m_heights = new int[m_nNodeCapacity];
+		m_payloads = new Object[m_nNodeCapacity];
+		m_movedFlags = new boolean[m_nNodeCapacity];
+		m_moved = new int[16];
+		clear();
+	}
+
+	/**
+	 * Removes all objects from the tree. Handles of removed objects
+	 * will be reused.
+	 */
+	public void clear() {
+		m_nRoot = NO_NODE;
+		m_nObjectCount = 0;
+		m_nMovedCount = 0;
+		Arrays.fill(m_payloads, null);
+		Arrays.fill(m_movedFlags, false);
+		m_nFreeNode = NO_NODE;
+		for (int i = m_nNodeCapacity - 1; i >= 0; i--) {
+			m_heights[i] = -1;
+			m_parents[i] = m_nFreeNode;
+			m_nFreeNode = i;
+		}
+	}
+
+	/**
+	 * Returns the number of objects in the tree
+	 * @return The number of objects
+	 */
+	public int getCount() {
+		return m_nObjectCount;
+	}
+
+	/**
+	 * Returns the height of the tree, which is 0 for a tree with a single
+	 * object and grows with the logarithm of the number of objects
+	 * @return The height of the tree or -1 if it is empty
+	 */
+	public int getHeight() {
+		return (m_nRoot != NO_NODE) ? m_heights[m_nRoot] : -1;
+	}
+
+	/**
+	 * Adds an object to the tree
+	 * @param _object The object
+	 * @param _fMinX The minimum x-coordinate of the bounds of the object
+	 * @param _fMinY The minimum y-coordinate of the bounds of the object
+	 * @param _fMinZ The minimum z-coordinate of the bounds of the object
+	 * @param _fMaxX The maximum x-coordinate of the bounds of the object
+	 * @param _fMaxY The maximum y-coordinate of the bounds of the object
+	 * @param _fMaxZ The maximum z-coordinate of the bounds of the object
+	 * @return The handle used to move or remove the object
+	 */
+	public int add(T _object, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		int nLeaf = allocateNode();
+		m_payloads[nLeaf] = _object;
+		m_heights[nLeaf] = 0;
+		setBounds(nLeaf, _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ);
+		insertLeaf(nLeaf);
+		addMoved(nLeaf);
+		m_nObjectCount++;
+		return nLeaf;
+	}
+
+	/**
+	 * Removes an object from the tree
+	 * @param _nHandle The handle returned when the object was added
+	 */
+	public void remove(int _nHandle) {
+		checkHandle(_nHandle);
+		if (m_movedFlags[_nHandle]) {
+			m_movedFlags[_nHandle] = false;
+			for (int i = 0; i < m_nMovedCount; i++) {
+				if (m_moved[i] == _nHandle) {
+					m_moved[i] = NO_NODE;
+				}
+			}
+		}
+		removeLeaf(_nHandle);
+		m_payloads[_nHandle] = null;
+		freeNode(_nHandle);
+		m_nObjectCount--;
+	}
+
+	/**
+	 * Changes the bounds of an object. The tree is only changed when the
+	 * new bounds are not contained by the fat bounds of the object, in
+	 * which case the object is reinserted with new fat bounds and will be
+	 * included in the next call to queryPairs().
+	 * @param _nHandle The handle returned when the object was added
+	 * @param _fMinX The minimum x-coordinate of the new bounds of the object
+	 * @param _fMinY The minimum y-coordinate of the new bounds of the object
+	 * @param _fMinZ The minimum z-coordinate of the new bounds of the object
+	 * @param _fMaxX The maximum x-coordinate of the new bounds of the object
+	 * @param _fMaxY The maximum y-coordinate of the new bounds of the object
+	 * @param _fMaxZ The maximum z-coordinate of the new bounds of the object
+	 * @return true if the object was reinserted, false if its fat bounds still contained it
+	 */
+	public boolean move(int _nHandle, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		checkHandle(_nHandle);
+		int b = _nHandle * 6;
+		float[] tight = m_tightBounds;
+		tight[b] = _fMinX;
+		tight[b + 1] = _fMinY;
+		tight[b + 2] = _fMinZ;
+		tight[b + 3] = _fMaxX;
+		tight[b + 4] = _fMaxY;
+		tight[b + 5] = _fMaxZ;
+		float[] fat = m_bounds;
+		if ((fat[b] <= _fMinX) && (fat[b + 1] <= _fMinY) && (fat[b + 2] <= _fMinZ)
+				&& (fat[b + 3] >= _fMaxX) && (fat[b + 4] >= _fMaxY) && (fat[b + 5] >= _fMaxZ)) {
+			return false;
+		}
+		removeLeaf(_nHandle);
+		setBounds(_nHandle, _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ);
+		insertLeaf(_nHandle);
+		addMoved(_nHandle);
+		return true;
+	}
+
+	/**
+	 * Returns the object with the given handle
+	 * @param _nHandle The handle returned when the object was added
+	 * @return The object
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int _nHandle) {
+		checkHandle(_nHandle);
+		return (T)m_payloads[_nHandle];
+	}
+
+	/**
+	 * Copies the fat bounds of the object with the given handle to the given array
+	 * @param _nHandle The handle returned when the object was added
+	 * @param _bounds Will hold the minimum x, y and z-coordinates followed by the maximum ones
+	 */
+	public void getFatBounds(int _nHandle, float[] _bounds) {
+		checkHandle(_nHandle);
+		System.arraycopy(m_bounds, _nHandle * 6, _bounds, 0, 6);
+	}
+
+	/**
+	 * Adds all objects whose bounds are (partly) inside the given frustum
+	 * to the given list. Subtrees that lie completely inside the frustum
+	 * have all their objects added without testing them and the children
+	 * of nodes that intersect it only test the sides they intersect.
+	 * @param _frustum The frustum to test against
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int queryFrustum(FrustumVisibilityTester _frustum, List<? super T> _result) {
+		if (m_nRoot == NO_NODE) {
+			return 0;
+		}
+		return queryFrustum(m_nRoot, _frustum, FrustumVisibilityTester.ALL_PLANES, _result);
+	}
+
+	/**
+	 * Adds all objects whose bounds are hit by the given ray to the given
+	 * list, in no particular order
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength The length of the ray in units of the direction or
+	 * zero if the ray shouldn't be limited
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int queryRay(Tuple3f _origin, Tuple3f _direction, float _fLength, List<? super T> _result) {
+		if (m_nRoot == NO_NODE) {
+			return 0;
+		}
+		float fMaxT = (_fLength != 0) ? _fLength : Float.POSITIVE_INFINITY;
+		float fInvX = 1.0f / ((_direction.x != 0) ? _direction.x : TINY);
+		float fInvY = 1.0f / ((_direction.y != 0) ? _direction.y : TINY);
+		float fInvZ = 1.0f / ((_direction.z != 0) ? _direction.z : TINY);
+		return queryRay(m_nRoot, _origin, fInvX, fInvY, fInvZ, fMaxT, _result);
+	}
+
+	/**
+	 * Adds all objects whose bounds overlap the given box to the given list
+	 * @param _fMinX The minimum x-coordinate of the box
+	 * @param _fMinY The minimum y-coordinate of the box
+	 * @param _fMinZ The minimum z-coordinate of the box
+	 * @param _fMaxX The maximum x-coordinate of the box
+	 * @param _fMaxY The maximum y-coordinate of the box
+	 * @param _fMaxZ The maximum z-coordinate of the box
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int queryBox(float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ, List<? super T> _result) {
+		if (m_nRoot == NO_NODE) {
+			return 0;
+		}
+		return queryBox(m_nRoot, _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ, _result);
+	}
+
+	/**
+	 * Reports all pairs of objects with overlapping fat bounds of which at
+	 * least one was added or reinserted by move() since the previous call.
+	 * Each pair is reported once. Pairs of objects that both stayed within
+	 * their fat bounds are not reported again, the caller is expected to
+	 * remember them until one of them moves or is removed.
+	 * @param _listener The listener receiving the pairs
+	 * @return The number of pairs reported
+	 */
+	@SuppressWarnings("unchecked")
+	public int queryPairs(PairListener<? super T> _listener) {
+		int nPairs = 0;
+		for (int i = 0; i < m_nMovedCount; i++) {
+			int nLeaf = m_moved[i];
+			if (nLeaf != NO_NODE) {
+				nPairs += queryPairs(m_nRoot, nLeaf, _listener);
+			}
+		}
+		for (int i = 0; i < m_nMovedCount; i++) {
+			if (m_moved[i] != NO_NODE) {
+				m_movedFlags[m_moved[i]] = false;
+			}
+		}
+		m_nMovedCount = 0;
+		return nPairs;
+	}
+
+	private int queryFrustum(int _nNode, FrustumVisibilityTester _frustum, int _nPlaneMask, List<? super T> _result) {
+		float[] bounds = (m_children1[_nNode] == NO_NODE) ? m_tightBounds : m_bounds;
+		int b = _nNode * 6;
+		int nMask = _frustum.classifyBox(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5], _nPlaneMask);
+		if (FrustumVisibilityTester.isOutside(nMask)) {
+			return 0;
+		} else if (nMask == FrustumVisibilityTester.INSIDE) {
+			return addAll(_nNode, _result);
+		} else if (m_children1[_nNode] == NO_NODE) {
+			return addObject(_nNode, _result);
+		}
+		return queryFrustum(m_children1[_nNode], _frustum, nMask, _result) + queryFrustum(m_children2[_nNode], _frustum, nMask, _result);
+	}
+
+	private int queryRay(int _nNode, Tuple3f _origin, float _fInvX, float _fInvY, float _fInvZ, float _fMaxT, List<? super T> _result) {
+		boolean bLeaf = (m_children1[_nNode] == NO_NODE);
+		float[] bounds = bLeaf ? m_tightBounds : m_bounds;
+		int b = _nNode * 6;
+		float t1 = (bounds[b] - _origin.x) * _fInvX, t2 = (bounds[b + 3] - _origin.x) * _fInvX;
+		float fNear = Math.min(t1, t2), fFar = Math.max(t1, t2);
+		t1 = (bounds[b + 1] - _origin.y) * _fInvY;
+		t2 = (bounds[b + 4] - _origin.y) * _fInvY;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2));
+		t1 = (bounds[b + 2] - _origin.z) * _fInvZ;
+		t2 = (bounds[b + 5] - _origin.z) * _fInvZ;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2));
+		if ((fNear > fFar) || (fFar < 0) || (fNear > _fMaxT)) {
+			return 0;
+		} else if (bLeaf) {
+			return addObject(_nNode, _result);
+		}
+		return queryRay(m_children1[_nNode], _origin, _fInvX, _fInvY, _fInvZ, _fMaxT, _result)
+				+ queryRay(m_children2[_nNode], _origin, _fInvX, _fInvY, _fInvZ, _fMaxT, _result);
+	}
+
+	private int queryBox(int _nNode, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ, List<? super T> _result) {
+		boolean bLeaf = (m_children1[_nNode] == NO_NODE);
+		float[] bounds = bLeaf ? m_tightBounds : m_bounds;
+		int b = _nNode * 6;
+		if ((bounds[b] > _fMaxX) || (bounds[b + 1] > _fMaxY) || (bounds[b + 2] > _fMaxZ)
+				|| (bounds[b + 3] < _fMinX) || (bounds[b + 4] < _fMinY) || (bounds[b + 5] < _fMinZ)) {
+			return 0;
+		} else if (bLeaf) {
+			return addObject(_nNode, _result);
+		}
+		return queryBox(m_children1[_nNode], _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ, _result)
+				+ queryBox(m_children2[_nNode], _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ, _result);
+	}
+
+	/**
+	 * Reports the leaves in the subtree of the given node whose fat bounds
+	 * overlap those of the given leaf. When both leaves were moved the pair
+	 * is only reported while querying for the one with the lowest handle.
+	 */
+	@SuppressWarnings("unchecked")
+	private int queryPairs(int _nNode, int _nLeaf, PairListener<? super T> _listener) {
+		float[] bounds = m_bounds;
+		int b = _nNode * 6;
+		int l = _nLeaf * 6;
+		if ((bounds[b] > bounds[l + 3]) || (bounds[b + 1] > bounds[l + 4]) || (bounds[b + 2] > bounds[l + 5])
+				|| (bounds[b + 3] < bounds[l]) || (bounds[b + 4] < bounds[l + 1]) || (bounds[b + 5] < bounds[l + 2])) {
+			return 0;
+		} else if (m_children1[_nNode] == NO_NODE) {
+			if ((_nNode == _nLeaf) || (m_movedFlags[_nNode] && (_nNode < _nLeaf))) {
+				return 0;
+			}
+			_listener.pairFound((T)m_payloads[_nLeaf], (T)m_payloads[_nNode]);
+			return 1;
+		}
+		return queryPairs(m_children1[_nNode], _nLeaf, _listener) + queryPairs(m_children2[_nNode], _nLeaf, _listener);
+	}
+
+	/**
+	 * Adds all objects in the subtree of the given node without testing them
+	 */
+	private int addAll(int _nNode, List<? super T> _result) {
+		if (m_children1[_nNode] == NO_NODE) {
+			return addObject(_nNode, _result);
+		}
+		return addAll(m_children1[_nNode], _result) + addAll(m_children2[_nNode], _result);
+	}
+
+	@SuppressWarnings("unchecked")
+	private int addObject(int _nLeaf, List<? super T> _result) {
+		_result.add((T)m_payloads[_nLeaf]);
+		return 1;
+	}
+
+	private void checkHandle(int _nHandle) {
+		if ((_nHandle < 0) || (_nHandle >= m_nNodeCapacity) || (m_heights[_nHandle] != 0)) {
+			throw new IllegalArgumentException("Invalid handle " + _nHandle);
+		}
+	}
+
+	/**
+	 * Stores the exact bounds of a leaf and its fat bounds
+	 */
+	private void setBounds(int _nLeaf, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		int b = _nLeaf * 6;
+		m_tightBounds[b] = _fMinX;
+		m_tightBounds[b + 1] = _fMinY;
+		m_tightBounds[b + 2] = _fMinZ;
+		m_tightBounds[b + 3] = _fMaxX;
+		m_tightBounds[b + 4] = _fMaxY;
+		m_tightBounds[b + 5] = _fMaxZ;
+		m_bounds[b] = _fMinX - m_fMargin;
+		m_bounds[b + 1] = _fMinY - m_fMargin;
+		m_bounds[b + 2] = _fMinZ - m_fMargin;
+		m_bounds[b + 3] = _fMaxX + m_fMargin;
+		m_bounds[b + 4] = _fMaxY + m_fMargin;
+		m_bounds[b + 5] = _fMaxZ + m_fMargin;
+	}
+
+	private void addMoved(int _nLeaf) {
+		if (!m_movedFlags[_nLeaf]) {
+			if (m_nMovedCount == m_moved.length) {
+				m_moved = Arrays.copyOf(m_moved, m_moved.length * 2);
+			}
+			m_moved[m_nMovedCount++] = _nLeaf;
+			m_movedFlags[_nLeaf] = true;
+		}
+	}
+
+	/**
+	 * Returns the surface area of the box enclosing the bounds of the two
+	 * given nodes, or of a single node if both are the same
+	 */
+	private float combinedArea(int _nNode1, int _nNode2) {
+		int a = _nNode1 * 6;
+		int b = _nNode2 * 6;
+		float dx = Math.max(m_bounds[a + 3], m_bounds[b + 3]) - Math.min(m_bounds[a], m_bounds[b]);
+		float dy = Math.max(m_bounds[a + 4], m_bounds[b + 4]) - Math.min(m_bounds[a + 1], m_bounds[b + 1]);
+		float dz = Math.max(m_bounds[a + 5], m_bounds[b + 5]) - Math.min(m_bounds[a + 2], m_bounds[b + 2]);
+		return 2.0f * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Sets the bounds of a node to those enclosing the bounds of two others
+	 */
+	private void combine(int _nNode, int _nNode1, int _nNode2) {
+		int n = _nNode * 6;
+		int a = _nNode1 * 6;
+		int b = _nNode2 * 6;
+		for (int i = 0; i < 3; i++) {
+			m_bounds[n + i] = Math.min(m_bounds[a + i], m_bounds[b + i]);
+			m_bounds[n + 3 + i] = Math.max(m_bounds[a + 3 + i], m_bounds[b + 3 + i]);
+		}
+	}
+
+	/**
+	 * Inserts a leaf next to the node whose bounds, together with those of
+	 * all its ancestors, grow the least by adding it, measured by surface
+	 * area, then walks back up to fix the bounds and balance of the ancestors
+	 */
+	private void insertLeaf(int _nLeaf) {
+		if (m_nRoot == NO_NODE) {
+			m_nRoot = _nLeaf;
+			m_parents[_nLeaf] = NO_NODE;
+			return;
+		}
+
+		int nIndex = m_nRoot;
+		while (m_children1[nIndex] != NO_NODE) {
+			int nChild1 = m_children1[nIndex];
+			int nChild2 = m_children2[nIndex];
+			float fArea = combinedArea(nIndex, nIndex);
+			float fCombinedArea = combinedArea(nIndex, _nLeaf);
+			// Cost of making a new parent for this node and the leaf
+			float fCost = 2.0f * fCombinedArea;
+			// Minimum cost of pushing the leaf further down the tree
+			float fInheritance = 2.0f * (fCombinedArea - fArea);
+			float fCost1 = combinedArea(nChild1, _nLeaf) + fInheritance;
+			if (m_children1[nChild1] != NO_NODE) {
+				fCost1 -= combinedArea(nChild1, nChild1);
+			}
+			float fCost2 = combinedArea(nChild2, _nLeaf) + fInheritance;
+			if (m_children1[nChild2] != NO_NODE) {
+				fCost2 -= combinedArea(nChild2, nChild2);
+			}
+			if ((fCost < fCost1) && (fCost < fCost2)) {
+				break;
+			}
+			nIndex = (fCost1 < fCost2) ? nChild1 : nChild2;
+		}
+
+		int nSibling = nIndex;
+		int nOldParent = m_parents[nSibling];
+		int nNewParent = allocateNode();
+		m_parents[nNewParent] = nOldParent;
+		m_payloads[nNewParent] = null;
+		combine(nNewParent, nSibling, _nLeaf);
+		m_heights[nNewParent] = m_heights[nSibling] + 1;
+		if (nOldParent != NO_NODE) {
+			if (m_children1[nOldParent] == nSibling) {
+				m_children1[nOldParent] = nNewParent;
+			} else {
+				m_children2[nOldParent] = nNewParent;
+			}
+		} else {
+			m_nRoot = nNewParent;
+		}
+		m_children1[nNewParent] = nSibling;
+		m_children2[nNewParent] = _nLeaf;
+		m_parents[nSibling] = nNewParent;
+		m_parents[_nLeaf] = nNewParent;
+
+		refitAncestors(m_parents[_nLeaf]);
+	}
+
+	private void removeLeaf(int _nLeaf) {
+		if (_nLeaf == m_nRoot) {
+			m_nRoot = NO_NODE;
+			return;
+		}
+		int nParent = m_parents[_nLeaf];
+		int nGrandParent = m_parents[nParent];
+		int nSibling = (m_children1[nParent] == _nLeaf) ? m_children2[nParent] : m_children1[nParent];
+		if (nGrandParent != NO_NODE) {
+			if (m_children1[nGrandParent] == nParent) {
+				m_children1[nGrandParent] = nSibling;
+			} else {
+				m_children2[nGrandParent] = nSibling;
+			}
+			m_parents[nSibling] = nGrandParent;
+			freeNode(nParent);
+			refitAncestors(nGrandParent);
+		} else {
+			m_nRoot = nSibling;
+			m_parents[nSibling] = NO_NODE;
+			freeNode(nParent);
+		}
+	}
+
+	/**
+	 * Balances the given node and all its ancestors and recomputes their
+	 * heights and bounds
+	 */
+	private void refitAncestors(int _nNode) {
+		int nIndex = _nNode;
+		while (nIndex != NO_NODE) {
+			nIndex = balance(nIndex);
+			int nChild1 = m_children1[nIndex];
+			int nChild2 = m_children2[nIndex];
+			m_heights[nIndex] = 1 + Math.max(m_heights[nChild1], m_heights[nChild2]);
+			combine(nIndex, nChild1, nChild2);
+			nIndex = m_parents[nIndex];
+		}
+	}
+
+	/**
+	 * Rotates the taller grandchild of the given node up if the heights of
+	 * its children differ by more than one
+	 * @return The node that took the place of the given node
+	 */
+	private int balance(int _nA) {
+		if ((m_children1[_nA] == NO_NODE) || (m_heights[_nA] < 2)) {
+			return _nA;
+		}
+		int nB = m_children1[_nA];
+		int nC = m_children2[_nA];
+		int nBalance = m_heights[nC] - m_heights[nB];
+		if (nBalance > 1) {
+			rotateUp(_nA, nC, nB, false);
+			return nC;
+		} else if (nBalance < -1) {
+			rotateUp(_nA, nB, nC, true);
+			return nB;
+		}
+		return _nA;
+	}
+
+	/**
+	 * Makes the given child of a node take its place, with the node as its
+	 * first child and the shorter of its own children as the child of the
+	 * node in the place it occupied itself
+	 */
+	private void rotateUp(int _nA, int _nUp, int _nOther, boolean _bUpWasFirst) {
+		int nF = m_children1[_nUp];
+		int nG = m_children2[_nUp];
+
+		// Swap A and the child moving up
+		m_children1[_nUp] = _nA;
+		m_parents[_nUp] = m_parents[_nA];
+		m_parents[_nA] = _nUp;
+		int nParent = m_parents[_nUp];
+		if (nParent != NO_NODE) {
+			if (m_children1[nParent] == _nA) {
+				m_children1[nParent] = _nUp;
+			} else {
+				m_children2[nParent] = _nUp;
+			}
+		} else {
+			m_nRoot = _nUp;
+		}
+
+		// The taller grandchild stays with the node moving up, A gets the other
+		int nKeep = (m_heights[nF] > m_heights[nG]) ? nF : nG;
+		int nGive = (nKeep == nF) ? nG : nF;
+		m_children2[_nUp] = nKeep;
+		if (_bUpWasFirst) {
+			m_children1[_nA] = nGive;
+		} else {
+			m_children2[_nA] = nGive;
+		}
+		m_parents[nGive] = _nA;
+		combine(_nA, _nOther, nGive);
+		combine(_nUp, _nA, nKeep);
+		m_heights[_nA] = 1 + Math.max(m_heights[_nOther], m_heights[nGive]);
+		m_heights[_nUp] = 1 + Math.max(m_heights[_nA], m_heights[nKeep]);
+	}
+
+	private int allocateNode() {
+		if (m_nFreeNode == NO_NODE) {
+			growNodes();
+		}
+		int nNode = m_nFreeNode;
+		m_nFreeNode = m_parents[nNode];
+		m_parents[nNode] = NO_NODE;
+		m_children1[nNode] = NO_NODE;
+		m_children2[nNode] = NO_NODE;
+		m_heights[nNode] = 0;
+		return nNode;
+	}
+
+	private void freeNode(int _nNode) {
+		m_heights[_nNode] = -1;
+		m_parents[_nNode] = m_nFreeNode;
+		m_nFreeNode = _nNode;
+	}
+
+	private void growNodes() {
+		int nOldCapacity = m_nNodeCapacity;
+		m_nNodeCapacity *= 2;
+		m_bounds = Arrays.copyOf(m_bounds, m_nNodeCapacity * 6);
+		m_tightBounds = Arrays.copyOf(m_tightBounds, m_nNodeCapacity * 6);
+		m_parents = Arrays.copyOf(m_parents, m_nNodeCapacity);
+		m_children1 = Arrays.copyOf(m_children1, m_nNodeCapacity);
+		m_children2 = Arrays.copyOf(m_children2, m_nNodeCapacity);
+		m_heights = Arrays.copyOf(m_heights, m_nNodeCapacity);
+		m_payloads = Arrays.copyOf(m_payloads, m_nNodeCapacity);
+		m_movedFlags = Arrays.copyOf(m_movedFlags, m_nNodeCapacity);
+		for (int i = m_nNodeCapacity - 1; i >= nOldCapacity; i--) {
+			m_heights[i] = -1;
+			m_parents[i] = m_nFreeNode;
+			m_nFreeNode = i;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
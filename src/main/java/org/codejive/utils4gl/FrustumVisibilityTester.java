@@ -6,6 +6,13 @@
 
 package org.codejive.utils4gl;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Tuple3f;
+
 import com.jogamp.opengl.GL2;
 
 /**
@@ -31,7 +38,21 @@ public class FrustumVisibilityTester {
 	public static final int D = 3;	// The distance the plane is from the origin
 	
 	
+	// The results of the classify methods, any positive result means the object
+	// intersects the sides of the frustum whose bits are set.
+	public static final int INSIDE = 0;			// The object is completely inside the frustum
+	public static final int ALL_PLANES = 0x3f;	// The mask to start classifying with, one bit per side
+
+	/** The number of 64 object words below which a batch is not split up any further */
+	public static final int BATCH_CHUNK_WORDS = 64;
+
 	private float[][] m_Frustum = new float[6][4];
+	private float[] m_planes = new float[24];						// The same planes in a single array (side * 4 + ABCD)
+	private float[] m_absNormals = new float[18];					// The absolute values of their normals (side * 3 + ABC)
+
+	private float[] m_proj = new float[16];							// This will hold our projection matrix
+	private float[] m_modl = new float[16];							// This will hold our modelview matrix
+	private float[] m_clip = new float[16];							// This will hold the clipping planes
 
 	
 	///////////////////////////////// NORMALIZE PLANE \\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\*
@@ -64,19 +85,101 @@ public class FrustumVisibilityTester {
 	/////
 	///////////////////////////////// CALCULATE FRUSTUM \\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\*
 
+	/**
+	 * Extracts the frustum from the current projection and modelview
+	 * matrices of OpenGL. Reading the matrices back forces OpenGL to finish
+	 * all pending commands, so the other versions of this method should be
+	 * preferred when the matrices are known anyway.
+	 * @param _gl The GL context to read the matrices from
+	 */
 	public void calculateFrustum(GL2 _gl) {    
-		float[] proj = new float[16];								// This will hold our projection matrix
-		float[] modl = new float[16];								// This will hold our modelview matrix
-		float[] clip = new float[16];								// This will hold the clipping planes
-
 		// glGetFloatv() is used to extract information about our OpenGL world.
 		// Below, we pass in GL_PROJECTION_MATRIX to abstract our projection matrix.
 		// It then stores the matrix into an array of [16].
-		_gl.glGetFloatv( GL2.GL_PROJECTION_MATRIX, proj, 0 );
+		_gl.glGetFloatv( GL2.GL_PROJECTION_MATRIX, m_proj, 0 );
 
 		// By passing in GL_MODELVIEW_MATRIX, we can abstract our model view matrix.
 		// This also stores it in an array of [16].
-		_gl.glGetFloatv( GL2.GL_MODELVIEW_MATRIX, modl, 0 );
+		_gl.glGetFloatv( GL2.GL_MODELVIEW_MATRIX, m_modl, 0 );
+
+		combineMatrices();
+		extractPlanes();
+	}
+
+	/**
+	 * Extracts the frustum from the given projection and modelview matrices
+	 * without using OpenGL, which means it can be called from any thread
+	 * and for any camera
+	 * @param _projection The projection matrix as 16 floats in OpenGL's column-major order
+	 * @param _nProjectionOffset The index of the first element of the projection matrix
+	 * @param _modelview The modelview matrix as 16 floats in OpenGL's column-major order
+	 * @param _nModelviewOffset The index of the first element of the modelview matrix
+	 */
+	public void calculateFrustum(float[] _projection, int _nProjectionOffset, float[] _modelview, int _nModelviewOffset) {
+		System.arraycopy(_projection, _nProjectionOffset, m_proj, 0, 16);
+		System.arraycopy(_modelview, _nModelviewOffset, m_modl, 0, 16);
+		combineMatrices();
+		extractPlanes();
+	}
+
+	/**
+	 * Extracts the frustum from the given projection and modelview matrices
+	 * without using OpenGL, which means it can be called from any thread
+	 * and for any camera
+	 * @param _projection The projection matrix
+	 * @param _modelview The modelview matrix
+	 */
+	public void calculateFrustum(Matrix4f _projection, Matrix4f _modelview) {
+		copy(_projection, m_proj);
+		copy(_modelview, m_modl);
+		combineMatrices();
+		extractPlanes();
+	}
+
+	/**
+	 * Extracts the frustum from the given combined projection and modelview
+	 * matrix (projection * modelview) without using OpenGL
+	 * @param _matrix The matrix as 16 floats in OpenGL's column-major order
+	 * @param _nOffset The index of the first element of the matrix
+	 */
+	public void calculateFrustum(float[] _matrix, int _nOffset) {
+		System.arraycopy(_matrix, _nOffset, m_clip, 0, 16);
+		extractPlanes();
+	}
+
+	/**
+	 * Extracts the frustum from the given combined projection and modelview
+	 * matrix (projection * modelview) without using OpenGL
+	 * @param _matrix The matrix
+	 */
+	public void calculateFrustum(Matrix4f _matrix) {
+		copy(_matrix, m_clip);
+		extractPlanes();
+	}
+
+	/**
+	 * Returns the combined projection and modelview matrix the frustum
+	 * was last calculated from, in OpenGL's column-major order
+	 */
+	float[] getCombinedMatrix() {
+		return m_clip;
+	}
+
+	/**
+	 * Copies the given matrix to the given array in column-major order
+	 */
+	private static void copy(Matrix4f _matrix, float[] _dest) {
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				_dest[c * 4 + r] = _matrix.getElement(r, c);
+			}
+		}
+	}
+
+	private void combineMatrices() {
+		float[] proj = m_proj;
+		float[] modl = m_modl;
+		float[] clip = m_clip;
 
 		// Now that we have our modelview and projection matrix, if we combine these 2 matrices,
 		// it will give us our clipping planes.  To combine 2 matrices, we multiply them.
@@ -100,6 +203,10 @@ public class FrustumVisibilityTester {
 		clip[13] = modl[12] * proj[ 1] + modl[13] * proj[ 5] + modl[14] * proj[ 9] + modl[15] * proj[13];
 		clip[14] = modl[12] * proj[ 2] + modl[13] * proj[ 6] + modl[14] * proj[10] + modl[15] * proj[14];
 		clip[15] = modl[12] * proj[ 3] + modl[13] * proj[ 7] + modl[14] * proj[11] + modl[15] * proj[15];
+	}
+
+	private void extractPlanes() {
+		float[] clip = m_clip;
 
 		// Now we actually want to get the sides of the frustum.  To do this we take
 		// the clipping planes we received above and extract the sides from them.
@@ -160,6 +267,13 @@ public class FrustumVisibilityTester {
 
 		// Normalize the FRONT side
 		normalizePlane(m_Frustum, FRONT);
+
+		for (int i = 0; i < 6; i++) {
+			System.arraycopy(m_Frustum[i], 0, m_planes, i * 4, 4);
+			m_absNormals[i * 3] = Math.abs(m_Frustum[i][A]);
+			m_absNormals[i * 3 + 1] = Math.abs(m_Frustum[i][B]);
+			m_absNormals[i * 3 + 2] = Math.abs(m_Frustum[i][C]);
+		}
 	}
 
 	// The code below will allow us to make checks within the frustum.  For example,
@@ -242,41 +356,447 @@ public class FrustumVisibilityTester {
 	///////////////////////////////// CUBE IN FRUSTUM \\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\\*
 
 	public boolean isCubeInFrustum(float _x, float _y, float _z, float _size) {
-		// This test is a bit more work, but not too much more complicated.
-		// Basically, what is going on is, that we are given the center of the cube,
-		// and half the length.  Think of it like a radius.  Then we checking each point
-		// in the cube and seeing if it is inside the frustum.  If a point is found in front
-		// of a side, then we skip to the next side.  If we get to a plane that does NOT have
-		// a point in front of it, then it will return false.
+		// A cube is just a box with the same extent along each axis.
 
 		// *Note* - This will sometimes say that a cube is inside the frustum when it isn't.
 		// This happens when all the corners of the bounding box are not behind any one plane.
 		// This is rare and shouldn't effect the overall rendering speed.
 
+		return isBoxInFrustum(_x, _y, _z, _size, _size, _size);
+	}
+
+	/**
+	 * Determines if an axis-aligned box is in or around the frustum. Instead
+	 * of testing all 8 corners against each side only the corner farthest in
+	 * front of it (the p-vertex) is tested, which comes down to comparing
+	 * the distance of the center with the extents projected on the normal.
+	 * Like isCubeInFrustum() this can report boxes near the corners of the
+	 * frustum as inside when they aren't.
+	 * @param _x The x-coordinate of the center
+	 * @param _y The y-coordinate of the center
+	 * @param _z The z-coordinate of the center
+	 * @param _extentX Half the size of the box along the x-axis
+	 * @param _extentY Half the size of the box along the y-axis
+	 * @param _extentZ Half the size of the box along the z-axis
+	 * @return true if the box is (partly) inside the frustum
+	 */
+	public boolean isBoxInFrustum(float _x, float _y, float _z, float _extentX, float _extentY, float _extentZ) {
 		for (int i = 0; i < 6; i++) {
-			if(m_Frustum[i][A] * (_x - _size) + m_Frustum[i][B] * (_y - _size) + m_Frustum[i][C] * (_z - _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x + _size) + m_Frustum[i][B] * (_y - _size) + m_Frustum[i][C] * (_z - _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x - _size) + m_Frustum[i][B] * (_y + _size) + m_Frustum[i][C] * (_z - _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x + _size) + m_Frustum[i][B] * (_y + _size) + m_Frustum[i][C] * (_z - _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x - _size) + m_Frustum[i][B] * (_y - _size) + m_Frustum[i][C] * (_z + _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x + _size) + m_Frustum[i][B] * (_y - _size) + m_Frustum[i][C] * (_z + _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x - _size) + m_Frustum[i][B] * (_y + _size) + m_Frustum[i][C] * (_z + _size) + m_Frustum[i][D] > 0)
-			   continue;
-			if(m_Frustum[i][A] * (_x + _size) + m_Frustum[i][B] * (_y + _size) + m_Frustum[i][C] * (_z + _size) + m_Frustum[i][D] > 0)
-			   continue;
-
-			// If we get here, it isn't in the frustum
-			return false;
+			float fDist = m_planes[i * 4] * _x + m_planes[i * 4 + 1] * _y + m_planes[i * 4 + 2] * _z + m_planes[i * 4 + 3];
+			float fRadius = m_absNormals[i * 3] * _extentX + m_absNormals[i * 3 + 1] * _extentY + m_absNormals[i * 3 + 2] * _extentZ;
+			if (fDist <= -fRadius) {
+				return false;
+			}
 		}
+		return true;
+	}
 
+	/**
+	 * Determines if an oriented box is in or around the frustum. The box is
+	 * tested the same way as by isBoxInFrustum(), projecting its extents
+	 * along its own axes on the normal of each side.
+	 * @param _center The center of the box
+	 * @param _axes The orientation of the box, its columns being the unit
+	 * length x, y and z-axis of the box
+	 * @param _extents Half the size of the box along each of its axes
+	 * @return true if the box is (partly) inside the frustum
+	 */
+	public boolean isOrientedBoxInFrustum(Tuple3f _center, Matrix3f _axes, Tuple3f _extents) {
+		for (int i = 0; i < 6; i++) {
+			float a = m_planes[i * 4], b = m_planes[i * 4 + 1], c = m_planes[i * 4 + 2];
+			float fDist = a * _center.x + b * _center.y + c * _center.z + m_planes[i * 4 + 3];
+			float fRadius = _extents.x * Math.abs(a * _axes.m00 + b * _axes.m10 + c * _axes.m20)
+					+ _extents.y * Math.abs(a * _axes.m01 + b * _axes.m11 + c * _axes.m21)
+					+ _extents.z * Math.abs(a * _axes.m02 + b * _axes.m12 + c * _axes.m22);
+			if (fDist <= -fRadius) {
+				return false;
+			}
+		}
 		return true;
 	}
+
+	/**
+	 * Determines if a sphere lies inside, outside or partly inside the
+	 * frustum, testing only the sides whose bits are set in the given mask.
+	 * The result is INSIDE (0) when the sphere lies in front of all those
+	 * sides, a negative number when it lies behind one of them and otherwise
+	 * the mask of the sides it intersects. That mask can be passed on when
+	 * classifying objects contained by the sphere, like the children of a
+	 * node in a spatial hierarchy, so they skip the sides the sphere was
+	 * already completely in front of.
+	 * <p>
+	 * For an object that is outside getRejectingPlane() of the result tells
+	 * which side rejected it. Passing that side as _nFirstPlane the next
+	 * time the same object is tested usually rejects it with a single test.
+	 * @param _x The x-coordinate of the center
+	 * @param _y The y-coordinate of the center
+	 * @param _z The z-coordinate of the center
+	 * @param _radius The radius
+	 * @param _nPlaneMask The sides to test, ALL_PLANES for an object without a parent
+	 * @param _nFirstPlane The side to test first (0 .. 5)
+	 * @return INSIDE, a negative number for outside or the mask of intersected sides
+	 */
+	public int classifySphere(float _x, float _y, float _z, float _radius, int _nPlaneMask, int _nFirstPlane) {
+		int nMask = 0;
+		for (int k = 0; k < 6; k++) {
+			int i = (_nFirstPlane + k) % 6;
+			int nBit = 1 << i;
+			if ((_nPlaneMask & nBit) != 0) {
+				float fDist = m_planes[i * 4] * _x + m_planes[i * 4 + 1] * _y + m_planes[i * 4 + 2] * _z + m_planes[i * 4 + 3];
+				if (fDist <= -_radius) {
+					return ~i;
+				} else if (fDist <= _radius) {
+					nMask |= nBit;
+				}
+			}
+		}
+		return nMask;
+	}
+
+	/**
+	 * Determines if a sphere lies inside, outside or partly inside the
+	 * frustum. See classifySphere(float, float, float, float, int, int).
+	 * @param _x The x-coordinate of the center
+	 * @param _y The y-coordinate of the center
+	 * @param _z The z-coordinate of the center
+	 * @param _radius The radius
+	 * @param _nPlaneMask The sides to test, ALL_PLANES for an object without a parent
+	 * @return INSIDE, a negative number for outside or the mask of intersected sides
+	 */
+	public int classifySphere(float _x, float _y, float _z, float _radius, int _nPlaneMask) {
+		return classifySphere(_x, _y, _z, _radius, _nPlaneMask, 0);
+	}
+
+	/**
+	 * Determines if an axis-aligned box lies inside, outside or partly
+	 * inside the frustum, testing only the sides whose bits are set in the
+	 * given mask. For each side only the corner farthest in front of it
+	 * (the p-vertex) and the one farthest behind it (the n-vertex) are
+	 * tested, see isBoxInFrustum(). The result is interpreted the same way as for
+	 * classifySphere(float, float, float, float, int, int).
+	 * @param _fMinX The minimum x-coordinate of the box
+	 * @param _fMinY The minimum y-coordinate of the box
+	 * @param _fMinZ The minimum z-coordinate of the box
+	 * @param _fMaxX The maximum x-coordinate of the box
+	 * @param _fMaxY The maximum y-coordinate of the box
+	 * @param _fMaxZ The maximum z-coordinate of the box
+	 * @param _nPlaneMask The sides to test, ALL_PLANES for an object without a parent
+	 * @param _nFirstPlane The side to test first (0 .. 5)
+	 * @return INSIDE, a negative number for outside or the mask of intersected sides
+	 */
+	public int classifyBox(float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ, int _nPlaneMask, int _nFirstPlane) {
+		float x = (_fMinX + _fMaxX) * 0.5f, y = (_fMinY + _fMaxY) * 0.5f, z = (_fMinZ + _fMaxZ) * 0.5f;
+		float ex = (_fMaxX - _fMinX) * 0.5f, ey = (_fMaxY - _fMinY) * 0.5f, ez = (_fMaxZ - _fMinZ) * 0.5f;
+		int nMask = 0;
+		for (int k = 0; k < 6; k++) {
+			int i = (_nFirstPlane + k) % 6;
+			int nBit = 1 << i;
+			if ((_nPlaneMask & nBit) != 0) {
+				float fDist = m_planes[i * 4] * x + m_planes[i * 4 + 1] * y + m_planes[i * 4 + 2] * z + m_planes[i * 4 + 3];
+				float fRadius = m_absNormals[i * 3] * ex + m_absNormals[i * 3 + 1] * ey + m_absNormals[i * 3 + 2] * ez;
+				if (fDist <= -fRadius) {
+					return ~i;
+				} else if (fDist <= fRadius) {
+					nMask |= nBit;
+				}
+			}
+		}
+		return nMask;
+	}
+
+	/**
+	 * Determines if an axis-aligned box lies inside, outside or partly
+	 * inside the frustum. See classifyBox(float, float, float, float, float, float, int, int).
+	 * @param _fMinX The minimum x-coordinate of the box
+	 * @param _fMinY The minimum y-coordinate of the box
+	 * @param _fMinZ The minimum z-coordinate of the box
+	 * @param _fMaxX The maximum x-coordinate of the box
+	 * @param _fMaxY The maximum y-coordinate of the box
+	 * @param _fMaxZ The maximum z-coordinate of the box
+	 * @param _nPlaneMask The sides to test, ALL_PLANES for an object without a parent
+	 * @return INSIDE, a negative number for outside or the mask of intersected sides
+	 */
+	public int classifyBox(float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ, int _nPlaneMask) {
+		return classifyBox(_fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ, _nPlaneMask, 0);
+	}
+
+	/**
+	 * Determines if a result of one of the classify methods means the
+	 * object is completely outside the frustum
+	 * @param _nResult The result of a classify method
+	 * @return true if the object is outside
+	 */
+	public static boolean isOutside(int _nResult) {
+		return (_nResult < 0);
+	}
+
+	/**
+	 * Returns the side that rejected an object that is outside the frustum,
+	 * to be passed as the first side to test the next time
+	 * @param _nResult The result of a classify method that was outside
+	 * @return The side (0 .. 5)
+	 */
+	public static int getRejectingPlane(int _nResult) {
+		return ~_nResult;
+	}
+
+	/**
+	 * Tests a batch of spheres against the frustum. The spheres are given
+	 * as separate arrays for each component and the result is a bitset
+	 * where bit (i % 64) of word (i / 64) is set when sphere i is visible.
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _radius The radii
+	 * @param _nCount The number of spheres to test
+	 * @param _visible Will hold the bitset, must have room for at least (_nCount + 63) / 64 words
+	 * @return The number of visible spheres
+	 */
+	public int areSpheresInFrustum(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, long[] _visible) {
+		return cullRange(_x, _y, _z, _radius, null, null, 0, (_nCount + 63) >>> 6, _nCount, _visible);
+	}
+
+	/**
+	 * Tests a batch of spheres against the frustum, splitting the work up
+	 * over the given pool when the batch is large enough. The result is
+	 * the same as for areSpheresInFrustum(float[], float[], float[], float[], int, long[]).
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _radius The radii
+	 * @param _nCount The number of spheres to test
+	 * @param _visible Will hold the bitset, must have room for at least (_nCount + 63) / 64 words
+	 * @param _pool The pool to run the tests on or null to run them on the calling thread
+	 * @return The number of visible spheres
+	 */
+	public int areSpheresInFrustum(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, long[] _visible, ForkJoinPool _pool) {
+		return cull(_x, _y, _z, _radius, null, null, _nCount, _visible, _pool);
+	}
+
+	/**
+	 * Tests a batch of spheres against the frustum and stores the indices
+	 * of the visible ones in ascending order
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _radius The radii
+	 * @param _nCount The number of spheres to test
+	 * @param _indices Will hold the indices of the visible spheres, must have room for _nCount indices
+	 * @return The number of visible spheres
+	 */
+	public int areSpheresInFrustum(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, int[] _indices) {
+		return cullIndices(_x, _y, _z, _radius, null, null, _nCount, _indices);
+	}
+
+	/**
+	 * Tests a batch of axis-aligned boxes against the frustum. The boxes
+	 * are given as separate arrays for each component of their centers and
+	 * half-extents and the result is a bitset where bit (i % 64) of word
+	 * (i / 64) is set when box i is visible. A box is only reported as
+	 * outside when it lies completely behind one of the sides.
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _extentX Half the sizes of the boxes along the x-axis
+	 * @param _extentY Half the sizes of the boxes along the y-axis
+	 * @param _extentZ Half the sizes of the boxes along the z-axis
+	 * @param _nCount The number of boxes to test
+	 * @param _visible Will hold the bitset, must have room for at least (_nCount + 63) / 64 words
+	 * @return The number of visible boxes
+	 */
+	public int areBoxesInFrustum(float[] _x, float[] _y, float[] _z, float[] _extentX, float[] _extentY, float[] _extentZ, int _nCount, long[] _visible) {
+		return cullRange(_x, _y, _z, _extentX, _extentY, _extentZ, 0, (_nCount + 63) >>> 6, _nCount, _visible);
+	}
+
+	/**
+	 * Tests a batch of axis-aligned boxes against the frustum, splitting the
+	 * work up over the given pool when the batch is large enough. The result
+	 * is the same as for areBoxesInFrustum(float[], float[], float[], float[], float[], float[], int, long[]).
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _extentX Half the sizes of the boxes along the x-axis
+	 * @param _extentY Half the sizes of the boxes along the y-axis
+	 * @param _extentZ Half the sizes of the boxes along the z-axis
+	 * @param _nCount The number of boxes to test
+	 * @param _visible Will hold the bitset, must have room for at least (_nCount + 63) / 64 words
+	 * @param _pool The pool to run the tests on or null to run them on the calling thread
+	 * @return The number of visible boxes
+	 */
+	public int areBoxesInFrustum(float[] _x, float[] _y, float[] _z, float[] _extentX, float[] _extentY, float[] _extentZ, int _nCount, long[] _visible, ForkJoinPool _pool) {
+		return cull(_x, _y, _z, _extentX, _extentY, _extentZ, _nCount, _visible, _pool);
+	}
+
+	/**
+	 * Tests a batch of axis-aligned boxes against the frustum and stores the
+	 * indices of the visible ones in ascending order
+	 * @param _x The x-coordinates of the centers
+	 * @param _y The y-coordinates of the centers
+	 * @param _z The z-coordinates of the centers
+	 * @param _extentX Half the sizes of the boxes along the x-axis
+	 * @param _extentY Half the sizes of the boxes along the y-axis
+	 * @param _extentZ Half the sizes of the boxes along the z-axis
+	 * @param _nCount The number of boxes to test
+	 * @param _indices Will hold the indices of the visible boxes, must have room for _nCount indices
+	 * @return The number of visible boxes
+	 */
+	public int areBoxesInFrustum(float[] _x, float[] _y, float[] _z, float[] _extentX, float[] _extentY, float[] _extentZ, int _nCount, int[] _indices) {
+		return cullIndices(_x, _y, _z, _extentX, _extentY, _extentZ, _nCount, _indices);
+	}
+
+	/**
+	 * Turns a visibility bitset into a list of the indices of the set bits
+	 * in ascending order
+	 * @param _visible The bitset
+	 * @param _nCount The number of objects the bitset was computed for
+	 * @param _indices Will hold the indices, must have room for all set bits
+	 * @return The number of indices stored
+	 */
+	public static int getIndices(long[] _visible, int _nCount, int[] _indices) {
+		int nIndices = 0;
+		for (int w = 0; w < (_nCount + 63) >>> 6; w++) {
+			long nBits = _visible[w];
+			while (nBits != 0) {
+				_indices[nIndices++] = (w << 6) + Long.numberOfTrailingZeros(nBits);
+				nBits &= nBits - 1;
+			}
+		}
+		return nIndices;
+	}
+
+	private int cull(float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nCount, long[] _visible, ForkJoinPool _pool) {
+		int nWords = (_nCount + 63) >>> 6;
+		if ((_pool != null) && (nWords > BATCH_CHUNK_WORDS)) {
+			return _pool.invoke(new CullTask(_x, _y, _z, _e0, _e1, _e2, 0, nWords, _nCount, _visible)).intValue();
+		} else {
+			return cullRange(_x, _y, _z, _e0, _e1, _e2, 0, nWords, _nCount, _visible);
+		}
+	}
+
+	private int cullIndices(float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nCount, int[] _indices) {
+		int nIndices = 0;
+		for (int w = 0; w < (_nCount + 63) >>> 6; w++) {
+			long nBits = cullWord(_x, _y, _z, _e0, _e1, _e2, w << 6, Math.min(64, _nCount - (w << 6)));
+			while (nBits != 0) {
+				_indices[nIndices++] = (w << 6) + Long.numberOfTrailingZeros(nBits);
+				nBits &= nBits - 1;
+			}
+		}
+		return nIndices;
+	}
+
+	/**
+	 * Tests the objects of the given range of bitset words
+	 * @return The number of visible objects
+	 */
+	private int cullRange(float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nStartWord, int _nEndWord, int _nCount, long[] _visible) {
+		int nVisible = 0;
+		for (int w = _nStartWord; w < _nEndWord; w++) {
+			long nBits = cullWord(_x, _y, _z, _e0, _e1, _e2, w << 6, Math.min(64, _nCount - (w << 6)));
+			_visible[w] = nBits;
+			nVisible += Long.bitCount(nBits);
+		}
+		return nVisible;
+	}
+
+	/**
+	 * Tests up to 64 spheres (when _e1 is null) or boxes and returns their
+	 * visibility as bits. The planes are kept in local variables and all
+	 * six of them are tested for every object without branches, which is
+	 * faster than stopping at the first rejecting plane when thousands of
+	 * objects are tested in a row. Only reads the planes, so it can be used
+	 * by several threads at the same time.
+	 */
+	long cullWord(float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nFirst, int _nCount) {
+		float[] p = m_planes;
+		float a0 = p[0], b0 = p[1], c0 = p[2], d0 = p[3];
+		float a1 = p[4], b1 = p[5], c1 = p[6], d1 = p[7];
+		float a2 = p[8], b2 = p[9], c2 = p[10], d2 = p[11];
+		float a3 = p[12], b3 = p[13], c3 = p[14], d3 = p[15];
+		float a4 = p[16], b4 = p[17], c4 = p[18], d4 = p[19];
+		float a5 = p[20], b5 = p[21], c5 = p[22], d5 = p[23];
+		long nBits = 0;
+		if (_e1 == null) {
+			for (int j = 0; j < _nCount; j++) {
+				int i = _nFirst + j;
+				float x = _x[i], y = _y[i], z = _z[i], r = -_e0[i];
+				boolean bVisible = (a0 * x + b0 * y + c0 * z + d0 > r)
+						& (a1 * x + b1 * y + c1 * z + d1 > r)
+						& (a2 * x + b2 * y + c2 * z + d2 > r)
+						& (a3 * x + b3 * y + c3 * z + d3 > r)
+						& (a4 * x + b4 * y + c4 * z + d4 > r)
+						& (a5 * x + b5 * y + c5 * z + d5 > r);
+				if (bVisible) {
+					nBits |= 1L << j;
+				}
+			}
+		} else {
+			// A box is outside when its corner farthest along the normal (the
+			// p-vertex) is behind a plane, which is the case when the distance
+			// of its center is less than the projection of its extents on the normal
+			float[] n = m_absNormals;
+			float aa0 = n[0], ab0 = n[1], ac0 = n[2];
+			float aa1 = n[3], ab1 = n[4], ac1 = n[5];
+			float aa2 = n[6], ab2 = n[7], ac2 = n[8];
+			float aa3 = n[9], ab3 = n[10], ac3 = n[11];
+			float aa4 = n[12], ab4 = n[13], ac4 = n[14];
+			float aa5 = n[15], ab5 = n[16], ac5 = n[17];
+			for (int j = 0; j < _nCount; j++) {
+				int i = _nFirst + j;
+				float x = _x[i], y = _y[i], z = _z[i];
+				float ex = _e0[i], ey = _e1[i], ez = _e2[i];
+				boolean bVisible = (a0 * x + b0 * y + c0 * z + d0 > -(aa0 * ex + ab0 * ey + ac0 * ez))
+						& (a1 * x + b1 * y + c1 * z + d1 > -(aa1 * ex + ab1 * ey + ac1 * ez))
+						& (a2 * x + b2 * y + c2 * z + d2 > -(aa2 * ex + ab2 * ey + ac2 * ez))
+						& (a3 * x + b3 * y + c3 * z + d3 > -(aa3 * ex + ab3 * ey + ac3 * ez))
+						& (a4 * x + b4 * y + c4 * z + d4 > -(aa4 * ex + ab4 * ey + ac4 * ez))
+						& (a5 * x + b5 * y + c5 * z + d5 > -(aa5 * ex + ab5 * ey + ac5 * ez));
+				if (bVisible) {
+					nBits |= 1L << j;
+				}
+			}
+		}
+		return nBits;
+	}
+
+	/**
+	 * Tests a range of bitset words, splitting it up to test the parts in parallel
+	 */
+	private class CullTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private float[] m_x, m_y, m_z;
+		private float[] m_e0, m_e1, m_e2;
+		private int m_nStartWord;
+		private int m_nEndWord;
+		private int m_nCount;
+		private long[] m_visible;
+
+		CullTask(float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nStartWord, int _nEndWord, int _nCount, long[] _visible) {
+			m_x = _x;
+			m_y = _y;
+			m_z = _z;
+			m_e0 = _e0;
+			m_e1 = _e1;
+			m_e2 = _e2;
+			m_nStartWord = _nStartWord;
+			m_nEndWord = _nEndWord;
+			m_nCount = _nCount;
+			m_visible = _visible;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (m_nEndWord - m_nStartWord <= BATCH_CHUNK_WORDS) {
+				return Integer.valueOf(cullRange(m_x, m_y, m_z, m_e0, m_e1, m_e2, m_nStartWord, m_nEndWord, m_nCount, m_visible));
+			}
+			int nMid = (m_nStartWord + m_nEndWord) >>> 1;
+			CullTask left = new CullTask(m_x, m_y, m_z, m_e0, m_e1, m_e2, m_nStartWord, nMid, m_nCount, m_visible);
+			CullTask right = new CullTask(m_x, m_y, m_z, m_e0, m_e1, m_e2, nMid, m_nEndWord, m_nCount, m_visible);
+			left.fork();
+			int nVisible = right.compute().intValue();
+			return Integer.valueOf(nVisible + left.join().intValue());
+		}
+	}
 }
 
 /////////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,150 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stands in for OpenGL when replaying a GLCommandBuffer, remembering the
+ * calls as text like "glBindTexture(3553, 7)" instead of drawing anything.
+ * It makes it possible to check what is sent to OpenGL without a display
+ * or a GL context.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class GLCallLog implements GLCommandTarget {
+	private List<String> m_calls;
+
+	/**
+	 * Creates an empty log
+	 */
+	public GLCallLog() {
+		m_calls = new ArrayList<String>();
+	}
+
+	/**
+	 * Returns the number of calls logged
+	 * @return The number of calls
+	 */
+	public int getCallCount() {
+		return m_calls.size();
+	}
+
+	/**
+	 * Returns a logged call
+	 * @param _nIndex The index of the call, 0 being the first one made
+	 * @return The name of the method followed by its arguments
+	 */
+	public String getCall(int _nIndex) {
+		return m_calls.get(_nIndex);
+	}
+
+	/**
+	 * Returns all logged calls in the order they were made
+	 * @return The calls
+	 */
+	public List<String> getCalls() {
+		return m_calls;
+	}
+
+	/**
+	 * Forgets all logged calls
+	 */
+	public void clear() {
+		m_calls.clear();
+	}
+
+	public void glBindTexture(int _nTarget, int _nTexture) {
+		log("glBindTexture(" + _nTarget + ", " + _nTexture + ")");
+	}
+
+	public void glEnable(int _nCap) {
+		log("glEnable(" + _nCap + ")");
+	}
+
+	public void glDisable(int _nCap) {
+		log("glDisable(" + _nCap + ")");
+	}
+
+	public void glMatrixMode(int _nMode) {
+		log("glMatrixMode(" + _nMode + ")");
+	}
+
+	public void glLoadMatrixf(float[] _matrix, int _nOffset) {
+		log("glLoadMatrixf(" + Arrays.toString(Arrays.copyOfRange(_matrix, _nOffset, _nOffset + 16)) + ")");
+	}
+
+	public void glMultMatrixf(float[] _matrix, int _nOffset) {
+		log("glMultMatrixf(" + Arrays.toString(Arrays.copyOfRange(_matrix, _nOffset, _nOffset + 16)) + ")");
+	}
+
+	public void glLoadIdentity() {
+		log("glLoadIdentity()");
+	}
+
+	public void glPushMatrix() {
+		log("glPushMatrix()");
+	}
+
+	public void glPopMatrix() {
+		log("glPopMatrix()");
+	}
+
+	public void glScissor(int _nX, int _nY, int _nWidth, int _nHeight) {
+		log("glScissor(" + _nX + ", " + _nY + ", " + _nWidth + ", " + _nHeight + ")");
+	}
+
+	public void glViewport(int _nX, int _nY, int _nWidth, int _nHeight) {
+		log("glViewport(" + _nX + ", " + _nY + ", " + _nWidth + ", " + _nHeight + ")");
+	}
+
+	public void glColor4f(float _fRed, float _fGreen, float _fBlue, float _fAlpha) {
+		log("glColor4f(" + _fRed + ", " + _fGreen + ", " + _fBlue + ", " + _fAlpha + ")");
+	}
+
+	public void glBindBuffer(int _nTarget, int _nBuffer) {
+		log("glBindBuffer(" + _nTarget + ", " + _nBuffer + ")");
+	}
+
+	public void glDrawArrays(int _nMode, int _nFirst, int _nCount) {
+		log("glDrawArrays(" + _nMode + ", " + _nFirst + ", " + _nCount + ")");
+	}
+
+	public void glDrawElements(int _nMode, int _nCount, int _nType, long _nOffset) {
+		log("glDrawElements(" + _nMode + ", " + _nCount + ", " + _nType + ", " + _nOffset + ")");
+	}
+
+	public void glCallList(int _nList) {
+		log("glCallList(" + _nList + ")");
+	}
+
+	private void log(String _sCall) {
+		m_calls.add(_sCall);
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,562 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import javax.vecmath.Matrix4f;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Records OpenGL commands so they can be executed later on the thread
+ * that owns the GL context. Only that thread may make GL calls, but
+ * recording doesn't need the context at all, so the work of preparing a
+ * frame can be divided between several threads that each record into a
+ * buffer of their own. The thread owning the context then replays the
+ * buffers one after another.
+ * <p>
+ * The commands are stored as words of 32 bits in a direct buffer, an
+ * opcode followed by its arguments, which is reused after clear() so
+ * recording a frame doesn't create any objects once the buffer has grown
+ * large enough. A buffer must not be recorded into by several threads at
+ * the same time, nor be replayed while it is being recorded into.
+ * <p>
+ * A GLCallLog can be used to replay a buffer without OpenGL.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class GLCommandBuffer {
+	private static final int BIND_TEXTURE = 1;
+	private static final int ENABLE = 2;
+	private static final int DISABLE = 3;
+	private static final int MATRIX_MODE = 4;
+	private static final int LOAD_MATRIX = 5;
+	private static final int MULT_MATRIX = 6;
+	private static final int LOAD_IDENTITY = 7;
+	private static final int PUSH_MATRIX = 8;
+	private static final int POP_MATRIX = 9;
+	private static final int SCISSOR = 10;
+	private static final int VIEWPORT = 11;
+	private static final int COLOR = 12;
+	private static final int BIND_BUFFER = 13;
+	private static final int DRAW_ARRAYS = 14;
+	private static final int DRAW_ELEMENTS = 15;
+	private static final int CALL_LIST = 16;
+
+	private ByteBuffer m_buffer;
+	private IntBuffer m_ints;
+	private FloatBuffer m_floats;
+	private int m_nSize;
+	private int m_nCommandCount;
+	private float[] m_matrix;
+	private GL2Target m_glTarget;
+	private ContextTarget m_contextTarget;
+
+	/**
+	 * Creates an empty command buffer
+	 */
+	public GLCommandBuffer() {
+		this(1024);
+	}
+
+	/**
+	 * Creates an empty command buffer with room for the given number of words
+	 * @param _nCapacity The number of words that can be recorded before the buffer has to grow
+	 */
+	public GLCommandBuffer(int _nCapacity) {
+		allocate(Math.max(_nCapacity, 32));
+		m_matrix = new float[16];
+	}
+
+	/**
+	 * Returns the number of commands recorded
+	 * @return The number of commands
+	 */
+	public int getCommandCount() {
+		return m_nCommandCount;
+	}
+
+	/**
+	 * Returns the number of 32-bit words used by the recorded commands
+	 * @return The number of words
+	 */
+	public int getSize() {
+		return m_nSize;
+	}
+
+	/**
+	 * Removes all recorded commands
+	 */
+	public void clear() {
+		m_nSize = 0;
+		m_nCommandCount = 0;
+	}
+
+	/**
+	 * Records a call to glBindTexture()
+	 * @param _nTarget The texture target, for example GL_TEXTURE_2D
+	 * @param _nTexture The texture handle
+	 */
+	public void bindTexture(int _nTarget, int _nTexture) {
+		int i = begin(BIND_TEXTURE, 2);
+		m_ints.put(i, _nTarget);
+		m_ints.put(i + 1, _nTexture);
+	}
+
+	/**
+	 * Records a call to glEnable()
+	 * @param _nCap The capability to enable
+	 */
+	public void enable(int _nCap) {
+		m_ints.put(begin(ENABLE, 1), _nCap);
+	}
+
+	/**
+	 * Records a call to glDisable()
+	 * @param _nCap The capability to disable
+	 */
+	public void disable(int _nCap) {
+		m_ints.put(begin(DISABLE, 1), _nCap);
+	}
+
+	/**
+	 * Records a call to glMatrixMode()
+	 * @param _nMode The matrix stack that subsequent matrix commands affect
+	 */
+	public void matrixMode(int _nMode) {
+		m_ints.put(begin(MATRIX_MODE, 1), _nMode);
+	}
+
+	/**
+	 * Records a call to glLoadMatrixf()
+	 * @param _matrix The matrix as 16 floats in OpenGL's column-major order
+	 * @param _nOffset The index of the first element of the matrix
+	 */
+	public void loadMatrix(float[] _matrix, int _nOffset) {
+		putMatrix(begin(LOAD_MATRIX, 16), _matrix, _nOffset);
+	}
+
+	/**
+	 * Records a call to glLoadMatrixf()
+	 * @param _matrix The matrix
+	 */
+	public void loadMatrix(Matrix4f _matrix) {
+		putMatrix(begin(LOAD_MATRIX, 16), _matrix);
+	}
+
+	/**
+	 * Records a call to glMultMatrixf()
+	 * @param _matrix The matrix as 16 floats in OpenGL's column-major order
+	 * @param _nOffset The index of the first element of the matrix
+	 */
+	public void multMatrix(float[] _matrix, int _nOffset) {
+		putMatrix(begin(MULT_MATRIX, 16), _matrix, _nOffset);
+	}
+
+	/**
+	 * Records a call to glMultMatrixf()
+	 * @param _matrix The matrix
+	 */
+	public void multMatrix(Matrix4f _matrix) {
+		putMatrix(begin(MULT_MATRIX, 16), _matrix);
+	}
+
+	/**
+	 * Records a call to glLoadIdentity()
+	 */
+	public void loadIdentity() {
+		begin(LOAD_IDENTITY, 0);
+	}
+
+	/**
+	 * Records a call to glPushMatrix()
+	 */
+	public void pushMatrix() {
+		begin(PUSH_MATRIX, 0);
+	}
+
+	/**
+	 * Records a call to glPopMatrix()
+	 */
+	public void popMatrix() {
+		begin(POP_MATRIX, 0);
+	}
+
+	/**
+	 * Records a call to glScissor()
+	 * @param _nX The left side of the scissor box
+	 * @param _nY The bottom side of the scissor box
+	 * @param _nWidth The width of the scissor box
+	 * @param _nHeight The height of the scissor box
+	 */
+	public void scissor(int _nX, int _nY, int _nWidth, int _nHeight) {
+		putRectangle(begin(SCISSOR, 4), _nX, _nY, _nWidth, _nHeight);
+	}
+
+	/**
+	 * Records a call to glViewport()
+	 * @param _nX The left side of the viewport
+	 * @param _nY The bottom side of the viewport
+	 * @param _nWidth The width of the viewport
+	 * @param _nHeight The height of the viewport
+	 */
+	public void viewport(int _nX, int _nY, int _nWidth, int _nHeight) {
+		putRectangle(begin(VIEWPORT, 4), _nX, _nY, _nWidth, _nHeight);
+	}
+
+	/**
+	 * Records a call to glColor4f()
+	 * @param _fRed The red component
+	 * @param _fGreen The green component
+	 * @param _fBlue The blue component
+	 * @param _fAlpha The alpha component
+	 */
+	public void color(float _fRed, float _fGreen, float _fBlue, float _fAlpha) {
+		int i = begin(COLOR, 4);
+		m_floats.put(i, _fRed);
+		m_floats.put(i + 1, _fGreen);
+		m_floats.put(i + 2, _fBlue);
+		m_floats.put(i + 3, _fAlpha);
+	}
+
+	/**
+	 * Records a call to glBindBuffer()
+	 * @param _nTarget The buffer target, for example GL_ARRAY_BUFFER
+	 * @param _nBuffer The buffer handle
+	 */
+	public void bindBuffer(int _nTarget, int _nBuffer) {
+		int i = begin(BIND_BUFFER, 2);
+		m_ints.put(i, _nTarget);
+		m_ints.put(i + 1, _nBuffer);
+	}
+
+	/**
+	 * Records a call to glDrawArrays()
+	 * @param _nMode The kind of primitives to draw, for example GL_TRIANGLES
+	 * @param _nFirst The index of the first vertex to draw
+	 * @param _nCount The number of vertices to draw
+	 */
+	public void drawArrays(int _nMode, int _nFirst, int _nCount) {
+		int i = begin(DRAW_ARRAYS, 3);
+		m_ints.put(i, _nMode);
+		m_ints.put(i + 1, _nFirst);
+		m_ints.put(i + 2, _nCount);
+	}
+
+	/**
+	 * Records a call to glDrawElements() using the indices in the element
+	 * array buffer that is bound when the command is replayed
+	 * @param _nMode The kind of primitives to draw, for example GL_TRIANGLES
+	 * @param _nCount The number of indices to draw
+	 * @param _nType The type of the indices, for example GL_UNSIGNED_SHORT
+	 * @param _nOffset The offset in bytes of the first index in the buffer
+	 */
+	public void drawElements(int _nMode, int _nCount, int _nType, int _nOffset) {
+		int i = begin(DRAW_ELEMENTS, 4);
+		m_ints.put(i, _nMode);
+		m_ints.put(i + 1, _nCount);
+		m_ints.put(i + 2, _nType);
+		m_ints.put(i + 3, _nOffset);
+	}
+
+	/**
+	 * Records a call to glCallList()
+	 * @param _nList The display list to execute
+	 */
+	public void callList(int _nList) {
+		m_ints.put(begin(CALL_LIST, 1), _nList);
+	}
+
+	/**
+	 * Executes the recorded commands on the given context. Texture binds,
+	 * enables, disables and scissor boxes go through the state tracking of
+	 * the context, so those that wouldn't change anything are skipped. The
+	 * commands stay recorded so the buffer can be replayed again.
+	 * @param _context The context to execute the commands on
+	 */
+	public void replay(RenderContext _context) {
+		if ((m_contextTarget == null) || (m_contextTarget.m_context != _context)) {
+			m_contextTarget = new ContextTarget(_context);
+		}
+		replay(m_contextTarget);
+	}
+
+	/**
+	 * Executes the recorded commands using the given GL object. The
+	 * commands stay recorded so the buffer can be replayed again.
+	 * @param _gl The GL object to execute the commands with
+	 */
+	public void replay(GL2 _gl) {
+		if ((m_glTarget == null) || (m_glTarget.m_gl != _gl)) {
+			m_glTarget = new GL2Target(_gl);
+		}
+		replay(m_glTarget);
+	}
+
+	/**
+	 * Executes the recorded commands on the given target. The commands
+	 * stay recorded so the buffer can be replayed again.
+	 * @param _target The target to execute the commands on
+	 */
+	public void replay(GLCommandTarget _target) {
+		IntBuffer ints = m_ints;
+		FloatBuffer floats = m_floats;
+		int nEnd = m_nSize;
+		int i = 0;
+		while (i < nEnd) {
+			int nOpcode = ints.get(i++);
+			switch (nOpcode) {
+				case BIND_TEXTURE:
+					_target.glBindTexture(ints.get(i), ints.get(i + 1));
+					i += 2;
+					break;
+				case ENABLE:
+					_target.glEnable(ints.get(i++));
+					break;
+				case DISABLE:
+					_target.glDisable(ints.get(i++));
+					break;
+				case MATRIX_MODE:
+					_target.glMatrixMode(ints.get(i++));
+					break;
+				case LOAD_MATRIX:
+					_target.glLoadMatrixf(getMatrix(floats, i), 0);
+					i += 16;
+					break;
+				case MULT_MATRIX:
+					_target.glMultMatrixf(getMatrix(floats, i), 0);
+					i += 16;
+					break;
+				case LOAD_IDENTITY:
+					_target.glLoadIdentity();
+					break;
+				case PUSH_MATRIX:
+					_target.glPushMatrix();
+					break;
+				case POP_MATRIX:
+					_target.glPopMatrix();
+					break;
+				case SCISSOR:
+					_target.glScissor(ints.get(i), ints.get(i + 1), ints.get(i + 2), ints.get(i + 3));
+					i += 4;
+					break;
+				case VIEWPORT:
+					_target.glViewport(ints.get(i), ints.get(i + 1), ints.get(i + 2), ints.get(i + 3));
+					i += 4;
+					break;
+				case COLOR:
+					_target.glColor4f(floats.get(i), floats.get(i + 1), floats.get(i + 2), floats.get(i + 3));
+					i += 4;
+					break;
+				case BIND_BUFFER:
+					_target.glBindBuffer(ints.get(i), ints.get(i + 1));
+					i += 2;
+					break;
+				case DRAW_ARRAYS:
+					_target.glDrawArrays(ints.get(i), ints.get(i + 1), ints.get(i + 2));
+					i += 3;
+					break;
+				case DRAW_ELEMENTS:
+					_target.glDrawElements(ints.get(i), ints.get(i + 1), ints.get(i + 2), ints.get(i + 3));
+					i += 4;
+					break;
+				case CALL_LIST:
+					_target.glCallList(ints.get(i++));
+					break;
+				default:
+					throw new IllegalStateException("Unknown opcode " + nOpcode + " at word " + (i - 1));
+			}
+		}
+	}
+
+	/**
+	 * Reserves room for a command and writes its opcode
+	 * @return The index of the word holding the first argument
+	 */
+	private int begin(int _nOpcode, int _nArguments) {
+		int nNeeded = m_nSize + 1 + _nArguments;
+		if (nNeeded > m_ints.capacity()) {
+			grow(nNeeded);
+		}
+		int i = m_nSize;
+		m_ints.put(i, _nOpcode);
+		m_nSize = nNeeded;
+		m_nCommandCount++;
+		return i + 1;
+	}
+
+	private void putRectangle(int _nIndex, int _nX, int _nY, int _nWidth, int _nHeight) {
+		m_ints.put(_nIndex, _nX);
+		m_ints.put(_nIndex + 1, _nY);
+		m_ints.put(_nIndex + 2, _nWidth);
+		m_ints.put(_nIndex + 3, _nHeight);
+	}
+
+	private void putMatrix(int _nIndex, float[] _matrix, int _nOffset) {
+		for (int j = 0; j < 16; j++) {
+			m_floats.put(_nIndex + j, _matrix[_nOffset + j]);
+		}
+	}
+
+	private void putMatrix(int _nIndex, Matrix4f _matrix) {
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				m_floats.put(_nIndex + c * 4 + r, _matrix.getElement(r, c));
+			}
+		}
+	}
+
+	private float[] getMatrix(FloatBuffer _floats, int _nIndex) {
+		float[] matrix = m_matrix;
+		for (int j = 0; j < 16; j++) {
+			matrix[j] = _floats.get(_nIndex + j);
+		}
+		return matrix;
+	}
+
+	private void grow(int _nNeeded) {
+		IntBuffer oldInts = m_ints;
+		allocate(Math.max(_nNeeded, oldInts.capacity() * 2));
+		for (int i = 0; i < m_nSize; i++) {
+			m_ints.put(i, oldInts.get(i));
+		}
+	}
+
+	private void allocate(int _nWords) {
+		m_buffer = ByteBuffer.allocateDirect(_nWords * 4).order(ByteOrder.nativeOrder());
+		m_ints = m_buffer.asIntBuffer();
+		m_floats = m_buffer.asFloatBuffer();
+	}
+
+	/**
+	 * Passes the commands on to a GL2 object
+	 */
+	private static class GL2Target implements GLCommandTarget {
+		private GL2 m_gl;
+
+		GL2Target(GL2 _gl) {
+			m_gl = _gl;
+		}
+
+		public void glBindTexture(int _nTarget, int _nTexture) {
+			m_gl.glBindTexture(_nTarget, _nTexture);
+		}
+
+		public void glEnable(int _nCap) {
+			m_gl.glEnable(_nCap);
+		}
+
+		public void glDisable(int _nCap) {
+			m_gl.glDisable(_nCap);
+		}
+
+		public void glMatrixMode(int _nMode) {
+			m_gl.glMatrixMode(_nMode);
+		}
+
+		public void glLoadMatrixf(float[] _matrix, int _nOffset) {
+			m_gl.glLoadMatrixf(_matrix, _nOffset);
+		}
+
+		public void glMultMatrixf(float[] _matrix, int _nOffset) {
+			m_gl.glMultMatrixf(_matrix, _nOffset);
+		}
+
+		public void glLoadIdentity() {
+			m_gl.glLoadIdentity();
+		}
+
+		public void glPushMatrix() {
+			m_gl.glPushMatrix();
+		}
+
+		public void glPopMatrix() {
+			m_gl.glPopMatrix();
+		}
+
+		public void glScissor(int _nX, int _nY, int _nWidth, int _nHeight) {
+			m_gl.glScissor(_nX, _nY, _nWidth, _nHeight);
+		}
+
+		public void glViewport(int _nX, int _nY, int _nWidth, int _nHeight) {
+			m_gl.glViewport(_nX, _nY, _nWidth, _nHeight);
+		}
+
+		public void glColor4f(float _fRed, float _fGreen, float _fBlue, float _fAlpha) {
+			m_gl.glColor4f(_fRed, _fGreen, _fBlue, _fAlpha);
+		}
+
+		public void glBindBuffer(int _nTarget, int _nBuffer) {
+			m_gl.glBindBuffer(_nTarget, _nBuffer);
+		}
+
+		public void glDrawArrays(int _nMode, int _nFirst, int _nCount) {
+			m_gl.glDrawArrays(_nMode, _nFirst, _nCount);
+		}
+
+		public void glDrawElements(int _nMode, int _nCount, int _nType, long _nOffset) {
+			m_gl.glDrawElements(_nMode, _nCount, _nType, _nOffset);
+		}
+
+		public void glCallList(int _nList) {
+			m_gl.glCallList(_nList);
+		}
+	}
+
+	/**
+	 * Passes the commands on to the GL2 object of a RenderContext, letting
+	 * the context skip state changes that wouldn't change anything
+	 */
+	private static class ContextTarget extends GL2Target {
+		private RenderContext m_context;
+
+		ContextTarget(RenderContext _context) {
+			super(_context.getGl());
+			m_context = _context;
+		}
+
+		public void glBindTexture(int _nTarget, int _nTexture) {
+			m_context.bindTexture(_nTarget, _nTexture);
+		}
+
+		public void glEnable(int _nCap) {
+			m_context.enable(_nCap);
+		}
+
+		public void glDisable(int _nCap) {
+			m_context.disable(_nCap);
+		}
+
+		public void glScissor(int _nX, int _nY, int _nWidth, int _nHeight) {
+			m_context.setScissor(_nX, _nY, _nWidth, _nHeight);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,54 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+/**
+ * The OpenGL calls a GLCommandBuffer can replay. The methods have the
+ * same names and arguments as those of GL2, which is what the commands
+ * are normally replayed on, but having them in a small interface of their
+ * own makes it possible to replay them on something else, like a GLCallLog.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public interface GLCommandTarget {
+	public void glBindTexture(int _nTarget, int _nTexture);
+	public void glEnable(int _nCap);
+	public void glDisable(int _nCap);
+	public void glMatrixMode(int _nMode);
+	public void glLoadMatrixf(float[] _matrix, int _nOffset);
+	public void glMultMatrixf(float[] _matrix, int _nOffset);
+	public void glLoadIdentity();
+	public void glPushMatrix();
+	public void glPopMatrix();
+	public void glScissor(int _nX, int _nY, int _nWidth, int _nHeight);
+	public void glViewport(int _nX, int _nY, int _nWidth, int _nHeight);
+	public void glColor4f(float _fRed, float _fGreen, float _fBlue, float _fAlpha);
+	public void glBindBuffer(int _nTarget, int _nBuffer);
+	public void glDrawArrays(int _nMode, int _nFirst, int _nCount);
+	public void glDrawElements(int _nMode, int _nCount, int _nType, long _nOffset);
+	public void glCallList(int _nList);
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,309 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Chooses the level of detail for objects by the size of their bounding
+ * spheres on the screen and drops objects that would cover too few pixels
+ * to be worth drawing. The size is calculated from the same combined
+ * projection and modelview matrix FrustumVisibilityTester uses, so it works
+ * for perspective and orthographic projections alike.
+ * <p>
+ * Levels are numbered from 0, the most detailed, up to the number of
+ * thresholds, the least detailed. Level i is used for objects whose radius
+ * covers at least threshold i pixels but less than threshold i - 1. To keep
+ * objects near a threshold from switching back and forth every frame, an
+ * object only changes level once its size is past the threshold by a
+ * fraction called the hysteresis, which is why the level it had in the
+ * previous frame is passed in.
+ * <p>
+ * Selecting levels only reads the state of the selector, so it can be
+ * done by several threads at the same time.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class LodSelector {
+	/** The level returned for objects that are too small to draw */
+	public static final int CULLED = -1;
+
+	/** The default fraction a size must pass a threshold by to change level */
+	public static final float DEFAULT_HYSTERESIS = 0.1f;
+
+	/** The number of objects below which a batch is not split up any further */
+	public static final int BATCH_CHUNK_SIZE = 4096;
+
+	private float[] m_thresholds;
+	private float m_fMinSize;
+	private float m_fHysteresis;
+
+	// The rows of the combined matrix that calculate y and w in clip space
+	private float m_fWx, m_fWy, m_fWz, m_fWw;
+	private float m_fWLength;
+	// The number of pixels a unit in clip space covers at w = 1
+	private float m_fPixelScale;
+	private float[] m_matrix = new float[16];
+
+	/**
+	 * Creates a selector using the default hysteresis
+	 * @param _thresholds The radii in pixels at which each level below
+	 * the most detailed one starts, in descending order
+	 * @param _fMinSize The radius in pixels below which objects are culled
+	 */
+	public LodSelector(float[] _thresholds, float _fMinSize) {
+		this(_thresholds, _fMinSize, DEFAULT_HYSTERESIS);
+	}
+
+	/**
+	 * Creates a selector
+	 * @param _thresholds The radii in pixels at which each level below
+	 * the most detailed one starts, in descending order
+	 * @param _fMinSize The radius in pixels below which objects are culled
+	 * @param _fHysteresis The fraction a size must pass a threshold by to change level
+	 */
+	public LodSelector(float[] _thresholds, float _fMinSize, float _fHysteresis) {
+		m_thresholds = _thresholds.clone();
+		m_fMinSize = _fMinSize;
+		m_fHysteresis = _fHysteresis;
+		m_fWw = 1.0f;
+	}
+
+	/**
+	 * Returns the number of levels objects can be given
+	 * @return The number of thresholds plus one
+	 */
+	public int getLevelCount() {
+		return m_thresholds.length + 1;
+	}
+
+	/**
+	 * Takes the view from the matrices the given frustum was calculated from
+	 * @param _frustum The frustum
+	 * @param _nViewportHeight The height of the viewport in pixels
+	 */
+	public void setView(FrustumVisibilityTester _frustum, int _nViewportHeight) {
+		setView(_frustum.getCombinedMatrix(), 0, _nViewportHeight);
+	}
+
+	/**
+	 * Takes the view from the given combined projection and modelview
+	 * matrix (projection * modelview)
+	 * @param _matrix The matrix as 16 floats in OpenGL's column-major order
+	 * @param _nOffset The index of the first element of the matrix
+	 * @param _nViewportHeight The height of the viewport in pixels
+	 */
+	public void setView(float[] _matrix, int _nOffset, int _nViewportHeight) {
+		float yx = _matrix[_nOffset + 1], yy = _matrix[_nOffset + 5], yz = _matrix[_nOffset + 9];
+		m_fWx = _matrix[_nOffset + 3];
+		m_fWy = _matrix[_nOffset + 7];
+		m_fWz = _matrix[_nOffset + 11];
+		m_fWw = _matrix[_nOffset + 15];
+		m_fWLength = (float)Math.sqrt(m_fWx * m_fWx + m_fWy * m_fWy + m_fWz * m_fWz);
+		// Clip space runs from -w to w, which covers the height of the viewport
+		m_fPixelScale = (float)Math.sqrt(yx * yx + yy * yy + yz * yz) * _nViewportHeight * 0.5f;
+	}
+
+	/**
+	 * Takes the view from the given combined projection and modelview
+	 * matrix (projection * modelview)
+	 * @param _matrix The matrix
+	 * @param _nViewportHeight The height of the viewport in pixels
+	 */
+	public void setView(Matrix4f _matrix, int _nViewportHeight) {
+		float[] m = m_matrix;
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				m[c * 4 + r] = _matrix.getElement(r, c);
+			}
+		}
+		setView(m, 0, _nViewportHeight);
+	}
+
+	/**
+	 * Returns the number of pixels covered by a length in world space at
+	 * the given position, which can be the radius of a bounding sphere or
+	 * the geometric error of a level of detail. Spheres that reach the
+	 * plane of the eye are considered infinitely large.
+	 * @param _fX The x-coordinate of the position
+	 * @param _fY The y-coordinate of the position
+	 * @param _fZ The z-coordinate of the position
+	 * @param _fSize The length in world space
+	 * @return The number of pixels
+	 */
+	public float getScreenSize(float _fX, float _fY, float _fZ, float _fSize) {
+		float w = m_fWx * _fX + m_fWy * _fY + m_fWz * _fZ + m_fWw;
+		if (w <= _fSize * m_fWLength) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return _fSize * m_fPixelScale / w;
+	}
+
+	/**
+	 * Calculates the size on the screen of a batch of bounding spheres
+	 * @param _x The x-coordinates of the centers of the spheres
+	 * @param _y The y-coordinates of the centers of the spheres
+	 * @param _z The z-coordinates of the centers of the spheres
+	 * @param _radius The radii of the spheres
+	 * @param _nCount The number of spheres
+	 * @param _sizes Will hold the radii of the spheres in pixels
+	 */
+	public void getScreenSizes(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, float[] _sizes) {
+		for (int i = 0; i < _nCount; i++) {
+			_sizes[i] = getScreenSize(_x[i], _y[i], _z[i], _radius[i]);
+		}
+	}
+
+	/**
+	 * Returns the level of detail for an object of the given size on the screen
+	 * @param _fSize The radius of the object in pixels
+	 * @param _nPreviousLevel The level the object had before or CULLED if it
+	 * wasn't drawn or is new
+	 * @return The level or CULLED if the object is too small to draw
+	 */
+	public int selectLevel(float _fSize, int _nPreviousLevel) {
+		float fUp = 1.0f + m_fHysteresis;
+		float fDown = 1.0f - m_fHysteresis;
+		if (_fSize < m_fMinSize * ((_nPreviousLevel == CULLED) ? fUp : fDown)) {
+			return CULLED;
+		}
+		float[] thresholds = m_thresholds;
+		int nLevel = 0;
+		if (_nPreviousLevel == CULLED) {
+			// Objects without a previous level get the level their size asks for
+			while ((nLevel < thresholds.length) && (_fSize < thresholds[nLevel])) {
+				nLevel++;
+			}
+		} else {
+			// Becoming more detailed than before takes a size above the
+			// threshold, becoming less detailed one below it
+			while ((nLevel < thresholds.length) && (_fSize < thresholds[nLevel] * ((nLevel < _nPreviousLevel) ? fUp : fDown))) {
+				nLevel++;
+			}
+		}
+		return nLevel;
+	}
+
+	/**
+	 * Returns the level of detail for the given bounding sphere
+	 * @param _fX The x-coordinate of the center of the sphere
+	 * @param _fY The y-coordinate of the center of the sphere
+	 * @param _fZ The z-coordinate of the center of the sphere
+	 * @param _fRadius The radius of the sphere
+	 * @param _nPreviousLevel The level the object had before or CULLED if it
+	 * wasn't drawn or is new
+	 * @return The level or CULLED if the object is too small to draw
+	 */
+	public int selectLevel(float _fX, float _fY, float _fZ, float _fRadius, int _nPreviousLevel) {
+		return selectLevel(getScreenSize(_fX, _fY, _fZ, _fRadius), _nPreviousLevel);
+	}
+
+	/**
+	 * Selects the level of detail for a batch of bounding spheres
+	 * @param _x The x-coordinates of the centers of the spheres
+	 * @param _y The y-coordinates of the centers of the spheres
+	 * @param _z The z-coordinates of the centers of the spheres
+	 * @param _radius The radii of the spheres
+	 * @param _nCount The number of spheres
+	 * @param _levels Holds the levels of the previous frame (CULLED for
+	 * new objects) and will be overwritten with the new ones
+	 * @return The number of objects that are not culled
+	 */
+	public int selectLevels(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, int[] _levels) {
+		return selectRange(_x, _y, _z, _radius, 0, _nCount, _levels);
+	}
+
+	/**
+	 * Selects the level of detail for a batch of bounding spheres, splitting
+	 * large batches up to be processed in parallel on the given pool
+	 * @param _x The x-coordinates of the centers of the spheres
+	 * @param _y The y-coordinates of the centers of the spheres
+	 * @param _z The z-coordinates of the centers of the spheres
+	 * @param _radius The radii of the spheres
+	 * @param _nCount The number of spheres
+	 * @param _levels Holds the levels of the previous frame (CULLED for
+	 * new objects) and will be overwritten with the new ones
+	 * @param _pool The pool to run on or null to run on the calling thread
+	 * @return The number of objects that are not culled
+	 */
+	public int selectLevels(float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, int[] _levels, ForkJoinPool _pool) {
+		if ((_pool != null) && (_nCount > BATCH_CHUNK_SIZE)) {
+			return _pool.invoke(new SelectTask(_x, _y, _z, _radius, 0, _nCount, _levels)).intValue();
+		} else {
+			return selectRange(_x, _y, _z, _radius, 0, _nCount, _levels);
+		}
+	}
+
+	private int selectRange(float[] _x, float[] _y, float[] _z, float[] _radius, int _nStart, int _nEnd, int[] _levels) {
+		int nDrawn = 0;
+		for (int i = _nStart; i < _nEnd; i++) {
+			int nLevel = selectLevel(getScreenSize(_x[i], _y[i], _z[i], _radius[i]), _levels[i]);
+			_levels[i] = nLevel;
+			if (nLevel != CULLED) {
+				nDrawn++;
+			}
+		}
+		return nDrawn;
+	}
+
+	/**
+	 * Splits a range of objects in two until it is small enough to process directly
+	 */
+	private class SelectTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private float[] m_x, m_y, m_z, m_radius;
+		private int m_nStart;
+		private int m_nEnd;
+		private int[] m_levels;
+
+		SelectTask(float[] _x, float[] _y, float[] _z, float[] _radius, int _nStart, int _nEnd, int[] _levels) {
+			m_x = _x;
+			m_y = _y;
+			m_z = _z;
+			m_radius = _radius;
+			m_nStart = _nStart;
+			m_nEnd = _nEnd;
+			m_levels = _levels;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (m_nEnd - m_nStart <= BATCH_CHUNK_SIZE) {
+				return Integer.valueOf(selectRange(m_x, m_y, m_z, m_radius, m_nStart, m_nEnd, m_levels));
+			}
+			int nMid = (m_nStart + m_nEnd) >>> 1;
+			SelectTask left = new SelectTask(m_x, m_y, m_z, m_radius, m_nStart, nMid, m_levels);
+			SelectTask right = new SelectTask(m_x, m_y, m_z, m_radius, nMid, m_nEnd, m_levels);
+			left.fork();
+			int nDrawn = right.compute().intValue();
+			return Integer.valueOf(nDrawn + left.join().intValue());
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,633 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Tuple3f;
+
+/**
+ * A loose octree that stores objects of any type by their axis-aligned
+ * bounding boxes, meant to quickly find the Renderables that are within
+ * the view frustum, hit by a ray or near a point.
+ * <p>
+ * Each node covers a cube of the world but accepts any object whose center
+ * lies within that cube and whose size is at most half the size of the
+ * cube, because its loose bounds are twice as large as the cube itself.
+ * This means the node an object belongs to only depends on its center and
+ * its size, so it can be found without comparing the object to any other,
+ * and an object that moves a little usually stays in the same node, in
+ * which case moving it takes constant time. Objects whose centers lie
+ * outside the cube given to the constructor are kept in a separate list
+ * that is tested by every query.
+ * <p>
+ * Objects are identified by the handle returned when they are added. The
+ * nodes and objects are stored in arrays, the nodes in blocks of eight
+ * siblings that are reused when a part of the tree becomes empty. The tree
+ * may be queried from several threads at the same time, but not while
+ * objects are being added, moved or removed.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class LooseOctree<T> {
+	/** The default maximum depth of the tree */
+	public static final int DEFAULT_MAX_DEPTH = 6;
+
+	private static final int NO_NODE = -1;
+	private static final int OVERFLOW = -2;
+	private static final int FREE = -3;
+	/** Replaces zero direction components to keep the slab tests free of NaNs */
+	private static final float TINY = 1.0e-30f;
+
+	private float m_fCenterX, m_fCenterY, m_fCenterZ;
+	private int m_nMaxDepth;
+	/** The half size of the cube of the nodes of each depth */
+	private float[] m_halfSizes;
+
+	private int m_nNodeCount;
+	private int m_nFreeBlock;
+	private float[] m_nodeCenters;
+	private int[] m_nodeDepths;
+	private int[] m_nodeParents;
+	/** The first of the eight children of each node or NO_NODE, for free blocks the next free block */
+	private int[] m_nodeChildren;
+	private int[] m_nodeFirstObjects;
+	/** The number of objects in the subtree of each node */
+	private int[] m_nodeCounts;
+
+	private int m_nObjectCount;
+	private int m_nObjectCapacity;
+	private int m_nFreeObject;
+	private int m_nOverflowFirst;
+	private Object[] m_payloads;
+	private float[] m_bounds;
+	private int[] m_objectNodes;
+	private int[] m_objectNext;
+	private int[] m_objectPrev;
+
+	/**
+	 * Creates an empty tree for the given cube of the world with a maximum
+	 * depth of DEFAULT_MAX_DEPTH
+	 * @param _fMinX The minimum x-coordinate of the cube
+	 * @param _fMinY The minimum y-coordinate of the cube
+	 * @param _fMinZ The minimum z-coordinate of the cube
+	 * @param _fSize The length of the sides of the cube
+	 */
+	public LooseOctree(float _fMinX, float _fMinY, float _fMinZ, float _fSize) {
+		this(_fMinX, _fMinY, _fMinZ, _fSize, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * Creates an empty tree for the given cube of the world
+	 * @param _fMinX The minimum x-coordinate of the cube
+	 * @param _fMinY The minimum y-coordinate of the cube
+	 * @param _fMinZ The minimum z-coordinate of the cube
+	 * @param _fSize The length of the sides of the cube
+	 * @param _nMaxDepth The maximum depth of the tree, the root having depth 0
+	 */
+	public LooseOctree(float _fMinX, float _fMinY, float _fMinZ, float _fSize, int _nMaxDepth) {
+		float fHalfSize = _fSize * 0.5f;
+		m_fCenterX = _fMinX + fHalfSize;
+		m_fCenterY = _fMinY + fHalfSize;
+		m_fCenterZ = _fMinZ + fHalfSize;
+		m_nMaxDepth = Math.max(_nMaxDepth, 0);
+		m_halfSizes = new float[m_nMaxDepth + 1];
+		for (int i = 0; i <= m_nMaxDepth; i++) {
+			m_halfSizes[i] = fHalfSize;
+			fHalfSize *= 0.5f;
+		}
+
+		int nNodes = 1 + 8 * 16;
+		m_nodeCenters = new float[nNodes * 3];
+		m_nodeDepths = new int[nNodes];
+		m_nodeParents = new int[nNodes];
+		m_nodeChildren = new int[nNodes];
+		m_nodeFirstObjects = new int[nNodes];
+		m_nodeCounts = new int[nNodes];
+
+		m_nObjectCapacity = 64;
+		m_payloads = new Object[m_nObjectCapacity];
+		m_bounds = new float[m_nObjectCapacity * 6];
+		m_objectNodes = new int[m_nObjectCapacity];
+		m_objectNext = new int[m_nObjectCapacity];
+		m_objectPrev = new int[m_nObjectCapacity];
+		clear();
+	}
+
+	/**
+	 * Removes all objects from the tree. Handles of removed objects
+	 * will be reused.
+	 */
+	public void clear() {
+		m_nNodeCount = 1;
+		m_nFreeBlock = NO_NODE;
+		m_nodeCenters[0] = m_fCenterX;
+		m_nodeCenters[1] = m_fCenterY;
+		m_nodeCenters[2] = m_fCenterZ;
+		m_nodeDepths[0] = 0;
+		m_nodeParents[0] = NO_NODE;
+		m_nodeChildren[0] = NO_NODE;
+		m_nodeFirstObjects[0] = NO_NODE;
+		m_nodeCounts[0] = 0;
+
+		m_nObjectCount = 0;
+		m_nFreeObject = NO_NODE;
+		m_nOverflowFirst = NO_NODE;
+		Arrays.fill(m_payloads, null);
+		for (int i = m_nObjectCapacity - 1; i >= 0; i--) {
+			m_objectNodes[i] = FREE;
+			m_objectNext[i] = m_nFreeObject;
+			m_nFreeObject = i;
+		}
+	}
+
+	/**
+	 * Returns the number of objects in the tree
+	 * @return The number of objects
+	 */
+	public int getCount() {
+		return m_nObjectCount;
+	}
+
+	/**
+	 * Adds an object to the tree
+	 * @param _object The object
+	 * @param _fMinX The minimum x-coordinate of the bounds of the object
+	 * @param _fMinY The minimum y-coordinate of the bounds of the object
+	 * @param _fMinZ The minimum z-coordinate of the bounds of the object
+	 * @param _fMaxX The maximum x-coordinate of the bounds of the object
+	 * @param _fMaxY The maximum y-coordinate of the bounds of the object
+	 * @param _fMaxZ The maximum z-coordinate of the bounds of the object
+	 * @return The handle used to move or remove the object
+	 */
+	public int add(T _object, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		if (m_nFreeObject == NO_NODE) {
+			growObjects();
+		}
+		int nHandle = m_nFreeObject;
+		m_nFreeObject = m_objectNext[nHandle];
+		m_payloads[nHandle] = _object;
+		setBounds(nHandle, _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ);
+		link(nHandle);
+		m_nObjectCount++;
+		return nHandle;
+	}
+
+	/**
+	 * Removes an object from the tree
+	 * @param _nHandle The handle returned when the object was added
+	 */
+	public void remove(int _nHandle) {
+		checkHandle(_nHandle);
+		unlink(_nHandle);
+		m_payloads[_nHandle] = null;
+		m_objectNodes[_nHandle] = FREE;
+		m_objectNext[_nHandle] = m_nFreeObject;
+		m_nFreeObject = _nHandle;
+		m_nObjectCount--;
+	}
+
+	/**
+	 * Changes the bounds of an object. As long as the center of the object
+	 * stays within the cube of its node and the object doesn't grow too
+	 * large for it this only stores the new bounds.
+	 * @param _nHandle The handle returned when the object was added
+	 * @param _fMinX The minimum x-coordinate of the new bounds of the object
+	 * @param _fMinY The minimum y-coordinate of the new bounds of the object
+	 * @param _fMinZ The minimum z-coordinate of the new bounds of the object
+	 * @param _fMaxX The maximum x-coordinate of the new bounds of the object
+	 * @param _fMaxY The maximum y-coordinate of the new bounds of the object
+	 * @param _fMaxZ The maximum z-coordinate of the new bounds of the object
+	 */
+	public void move(int _nHandle, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		checkHandle(_nHandle);
+		setBounds(_nHandle, _fMinX, _fMinY, _fMinZ, _fMaxX, _fMaxY, _fMaxZ);
+		int nNode = m_objectNodes[_nHandle];
+		if ((nNode == OVERFLOW) || !fits(_nHandle, nNode)) {
+			unlink(_nHandle);
+			link(_nHandle);
+		}
+	}
+
+	/**
+	 * Returns the object with the given handle
+	 * @param _nHandle The handle returned when the object was added
+	 * @return The object
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int _nHandle) {
+		checkHandle(_nHandle);
+		return (T)m_payloads[_nHandle];
+	}
+
+	/**
+	 * Copies the bounds of the object with the given handle to the given array
+	 * @param _nHandle The handle returned when the object was added
+	 * @param _bounds Will hold the minimum x, y and z-coordinates followed by the maximum ones
+	 */
+	public void getBounds(int _nHandle, float[] _bounds) {
+		checkHandle(_nHandle);
+		System.arraycopy(m_bounds, _nHandle * 6, _bounds, 0, 6);
+	}
+
+	/**
+	 * Adds all objects whose bounds are (partly) inside the given frustum
+	 * to the given list. Nodes that lie completely inside the frustum have
+	 * all their objects added without testing them and the children of
+	 * nodes that intersect it only test the sides they intersect.
+	 * @param _frustum The frustum to test against
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int queryFrustum(FrustumVisibilityTester _frustum, List<? super T> _result) {
+		int nFound = 0;
+		for (int i = m_nOverflowFirst; i != NO_NODE; i = m_objectNext[i]) {
+			if (!FrustumVisibilityTester.isOutside(classifyObject(_frustum, i, FrustumVisibilityTester.ALL_PLANES))) {
+				nFound += addObject(i, _result);
+			}
+		}
+		return nFound + queryFrustum(0, _frustum, FrustumVisibilityTester.ALL_PLANES, _result);
+	}
+
+	/**
+	 * Adds all objects whose bounds are hit by the given ray to the given
+	 * list, in no particular order
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength The length of the ray in units of the direction or
+	 * zero if the ray shouldn't be limited
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int queryRay(Tuple3f _origin, Tuple3f _direction, float _fLength, List<? super T> _result) {
+		float fMaxT = (_fLength != 0) ? _fLength : Float.POSITIVE_INFINITY;
+		float fInvX = 1.0f / ((_direction.x != 0) ? _direction.x : TINY);
+		float fInvY = 1.0f / ((_direction.y != 0) ? _direction.y : TINY);
+		float fInvZ = 1.0f / ((_direction.z != 0) ? _direction.z : TINY);
+		int nFound = 0;
+		for (int i = m_nOverflowFirst; i != NO_NODE; i = m_objectNext[i]) {
+			if (rayHitsObject(i, _origin, fInvX, fInvY, fInvZ, fMaxT)) {
+				nFound += addObject(i, _result);
+			}
+		}
+		return nFound + queryRay(0, _origin, fInvX, fInvY, fInvZ, fMaxT, _result);
+	}
+
+	/**
+	 * Adds all objects whose bounds overlap the given sphere to the given list
+	 * @param _x The x-coordinate of the center of the sphere
+	 * @param _y The y-coordinate of the center of the sphere
+	 * @param _z The z-coordinate of the center of the sphere
+	 * @param _radius The radius of the sphere
+	 * @param _result The list the objects will be added to
+	 * @return The number of objects added
+	 */
+	public int querySphere(float _x, float _y, float _z, float _radius, List<? super T> _result) {
+		float fRadiusSquared = _radius * _radius;
+		int nFound = 0;
+		for (int i = m_nOverflowFirst; i != NO_NODE; i = m_objectNext[i]) {
+			int b = i * 6;
+			if (distanceSquared(_x, _y, _z, m_bounds[b], m_bounds[b + 1], m_bounds[b + 2], m_bounds[b + 3], m_bounds[b + 4], m_bounds[b + 5]) <= fRadiusSquared) {
+				nFound += addObject(i, _result);
+			}
+		}
+		return nFound + querySphere(0, _x, _y, _z, fRadiusSquared, _result);
+	}
+
+	private int queryFrustum(int _nNode, FrustumVisibilityTester _frustum, int _nPlaneMask, List<? super T> _result) {
+		if (m_nodeCounts[_nNode] == 0) {
+			return 0;
+		}
+		float fLoose = m_halfSizes[m_nodeDepths[_nNode]] * 2.0f;
+		float x = m_nodeCenters[_nNode * 3], y = m_nodeCenters[_nNode * 3 + 1], z = m_nodeCenters[_nNode * 3 + 2];
+		int nMask = _frustum.classifyBox(x - fLoose, y - fLoose, z - fLoose, x + fLoose, y + fLoose, z + fLoose, _nPlaneMask);
+		if (FrustumVisibilityTester.isOutside(nMask)) {
+			return 0;
+		} else if (nMask == FrustumVisibilityTester.INSIDE) {
+			return addAll(_nNode, _result);
+		}
+		int nFound = 0;
+		for (int i = m_nodeFirstObjects[_nNode]; i != NO_NODE; i = m_objectNext[i]) {
+			if (!FrustumVisibilityTester.isOutside(classifyObject(_frustum, i, nMask))) {
+				nFound += addObject(i, _result);
+			}
+		}
+		int nChild = m_nodeChildren[_nNode];
+		if (nChild != NO_NODE) {
+			for (int c = 0; c < 8; c++) {
+				nFound += queryFrustum(nChild + c, _frustum, nMask, _result);
+			}
+		}
+		return nFound;
+	}
+
+	private int queryRay(int _nNode, Tuple3f _origin, float _fInvX, float _fInvY, float _fInvZ, float _fMaxT, List<? super T> _result) {
+		if (m_nodeCounts[_nNode] == 0) {
+			return 0;
+		}
+		float fLoose = m_halfSizes[m_nodeDepths[_nNode]] * 2.0f;
+		float x = m_nodeCenters[_nNode * 3], y = m_nodeCenters[_nNode * 3 + 1], z = m_nodeCenters[_nNode * 3 + 2];
+		if (!rayHitsBox(_origin, _fInvX, _fInvY, _fInvZ, _fMaxT, x - fLoose, y - fLoose, z - fLoose, x + fLoose, y + fLoose, z + fLoose)) {
+			return 0;
+		}
+		int nFound = 0;
+		for (int i = m_nodeFirstObjects[_nNode]; i != NO_NODE; i = m_objectNext[i]) {
+			if (rayHitsObject(i, _origin, _fInvX, _fInvY, _fInvZ, _fMaxT)) {
+				nFound += addObject(i, _result);
+			}
+		}
+		int nChild = m_nodeChildren[_nNode];
+		if (nChild != NO_NODE) {
+			for (int c = 0; c < 8; c++) {
+				nFound += queryRay(nChild + c, _origin, _fInvX, _fInvY, _fInvZ, _fMaxT, _result);
+			}
+		}
+		return nFound;
+	}
+
+	private int querySphere(int _nNode, float _x, float _y, float _z, float _fRadiusSquared, List<? super T> _result) {
+		if (m_nodeCounts[_nNode] == 0) {
+			return 0;
+		}
+		float fLoose = m_halfSizes[m_nodeDepths[_nNode]] * 2.0f;
+		float x = m_nodeCenters[_nNode * 3], y = m_nodeCenters[_nNode * 3 + 1], z = m_nodeCenters[_nNode * 3 + 2];
+		if (distanceSquared(_x, _y, _z, x - fLoose, y - fLoose, z - fLoose, x + fLoose, y + fLoose, z + fLoose) > _fRadiusSquared) {
+			return 0;
+		}
+		int nFound = 0;
+		for (int i = m_nodeFirstObjects[_nNode]; i != NO_NODE; i = m_objectNext[i]) {
+			int b = i * 6;
+			if (distanceSquared(_x, _y, _z, m_bounds[b], m_bounds[b + 1], m_bounds[b + 2], m_bounds[b + 3], m_bounds[b + 4], m_bounds[b + 5]) <= _fRadiusSquared) {
+				nFound += addObject(i, _result);
+			}
+		}
+		int nChild = m_nodeChildren[_nNode];
+		if (nChild != NO_NODE) {
+			for (int c = 0; c < 8; c++) {
+				nFound += querySphere(nChild + c, _x, _y, _z, _fRadiusSquared, _result);
+			}
+		}
+		return nFound;
+	}
+
+	/**
+	 * Adds all objects in the subtree of the given node without testing them
+	 */
+	private int addAll(int _nNode, List<? super T> _result) {
+		int nFound = 0;
+		for (int i = m_nodeFirstObjects[_nNode]; i != NO_NODE; i = m_objectNext[i]) {
+			nFound += addObject(i, _result);
+		}
+		int nChild = m_nodeChildren[_nNode];
+		if (nChild != NO_NODE) {
+			for (int c = 0; c < 8; c++) {
+				if (m_nodeCounts[nChild + c] != 0) {
+					nFound += addAll(nChild + c, _result);
+				}
+			}
+		}
+		return nFound;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int addObject(int _nHandle, List<? super T> _result) {
+		_result.add((T)m_payloads[_nHandle]);
+		return 1;
+	}
+
+	private int classifyObject(FrustumVisibilityTester _frustum, int _nHandle, int _nPlaneMask) {
+		int b = _nHandle * 6;
+		return _frustum.classifyBox(m_bounds[b], m_bounds[b + 1], m_bounds[b + 2], m_bounds[b + 3], m_bounds[b + 4], m_bounds[b + 5], _nPlaneMask);
+	}
+
+	private boolean rayHitsObject(int _nHandle, Tuple3f _origin, float _fInvX, float _fInvY, float _fInvZ, float _fMaxT) {
+		int b = _nHandle * 6;
+		return rayHitsBox(_origin, _fInvX, _fInvY, _fInvZ, _fMaxT, m_bounds[b], m_bounds[b + 1], m_bounds[b + 2], m_bounds[b + 3], m_bounds[b + 4], m_bounds[b + 5]);
+	}
+
+	/**
+	 * Determines if a ray hits a box using the slab test
+	 */
+	private static boolean rayHitsBox(Tuple3f _origin, float _fInvX, float _fInvY, float _fInvZ, float _fMaxT, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		float t1 = (_fMinX - _origin.x) * _fInvX, t2 = (_fMaxX - _origin.x) * _fInvX;
+		float fNear = Math.min(t1, t2), fFar = Math.max(t1, t2);
+		t1 = (_fMinY - _origin.y) * _fInvY;
+		t2 = (_fMaxY - _origin.y) * _fInvY;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2));
+		t1 = (_fMinZ - _origin.z) * _fInvZ;
+		t2 = (_fMaxZ - _origin.z) * _fInvZ;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2));
+		return (fNear <= fFar) && (fFar >= 0) && (fNear <= _fMaxT);
+	}
+
+	/**
+	 * Returns the squared distance between a point and a box
+	 */
+	private static float distanceSquared(float _x, float _y, float _z, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		float dx = Math.max(Math.max(_fMinX - _x, _x - _fMaxX), 0.0f);
+		float dy = Math.max(Math.max(_fMinY - _y, _y - _fMaxY), 0.0f);
+		float dz = Math.max(Math.max(_fMinZ - _z, _z - _fMaxZ), 0.0f);
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private void checkHandle(int _nHandle) {
+		if ((_nHandle < 0) || (_nHandle >= m_nObjectCapacity) || (m_objectNodes[_nHandle] == FREE)) {
+			throw new IllegalArgumentException("Invalid handle " + _nHandle);
+		}
+	}
+
+	private void setBounds(int _nHandle, float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		int b = _nHandle * 6;
+		m_bounds[b] = _fMinX;
+		m_bounds[b + 1] = _fMinY;
+		m_bounds[b + 2] = _fMinZ;
+		m_bounds[b + 3] = _fMaxX;
+		m_bounds[b + 4] = _fMaxY;
+		m_bounds[b + 5] = _fMaxZ;
+	}
+
+	/**
+	 * Determines if the center of the object lies within the cube of the
+	 * given node and the object is small enough for its loose bounds
+	 */
+	private boolean fits(int _nHandle, int _nNode) {
+		int b = _nHandle * 6;
+		float fHalfSize = m_halfSizes[m_nodeDepths[_nNode]];
+		float fExtent = Math.max(Math.max(m_bounds[b + 3] - m_bounds[b], m_bounds[b + 4] - m_bounds[b + 1]), m_bounds[b + 5] - m_bounds[b + 2]) * 0.5f;
+		return (fExtent <= fHalfSize)
+				&& (Math.abs((m_bounds[b] + m_bounds[b + 3]) * 0.5f - m_nodeCenters[_nNode * 3]) <= fHalfSize)
+				&& (Math.abs((m_bounds[b + 1] + m_bounds[b + 4]) * 0.5f - m_nodeCenters[_nNode * 3 + 1]) <= fHalfSize)
+				&& (Math.abs((m_bounds[b + 2] + m_bounds[b + 5]) * 0.5f - m_nodeCenters[_nNode * 3 + 2]) <= fHalfSize);
+	}
+
+	/**
+	 * Puts an object in the deepest node whose loose bounds can hold it,
+	 * creating the nodes on the way down when necessary
+	 */
+	private void link(int _nHandle) {
+		int b = _nHandle * 6;
+		float cx = (m_bounds[b] + m_bounds[b + 3]) * 0.5f;
+		float cy = (m_bounds[b + 1] + m_bounds[b + 4]) * 0.5f;
+		float cz = (m_bounds[b + 2] + m_bounds[b + 5]) * 0.5f;
+		float fExtent = Math.max(Math.max(m_bounds[b + 3] - m_bounds[b], m_bounds[b + 4] - m_bounds[b + 1]), m_bounds[b + 5] - m_bounds[b + 2]) * 0.5f;
+		int nNode;
+		if (!fits(_nHandle, 0)) {
+			nNode = OVERFLOW;
+			m_objectNext[_nHandle] = m_nOverflowFirst;
+			if (m_nOverflowFirst != NO_NODE) {
+				m_objectPrev[m_nOverflowFirst] = _nHandle;
+			}
+			m_nOverflowFirst = _nHandle;
+		} else {
+			nNode = 0;
+			m_nodeCounts[0]++;
+			int nDepth = 0;
+			while ((nDepth < m_nMaxDepth) && (fExtent <= m_halfSizes[nDepth + 1])) {
+				if (m_nodeChildren[nNode] == NO_NODE) {
+					createChildren(nNode);
+				}
+				int c = ((cx >= m_nodeCenters[nNode * 3]) ? 1 : 0)
+						| ((cy >= m_nodeCenters[nNode * 3 + 1]) ? 2 : 0)
+						| ((cz >= m_nodeCenters[nNode * 3 + 2]) ? 4 : 0);
+				nNode = m_nodeChildren[nNode] + c;
+				m_nodeCounts[nNode]++;
+				nDepth++;
+			}
+			int nFirst = m_nodeFirstObjects[nNode];
+			m_objectNext[_nHandle] = nFirst;
+			if (nFirst != NO_NODE) {
+				m_objectPrev[nFirst] = _nHandle;
+			}
+			m_nodeFirstObjects[nNode] = _nHandle;
+		}
+		m_objectPrev[_nHandle] = NO_NODE;
+		m_objectNodes[_nHandle] = nNode;
+	}
+
+	/**
+	 * Takes an object out of its node, releasing the parts of the tree
+	 * that become empty
+	 */
+	private void unlink(int _nHandle) {
+		int nNode = m_objectNodes[_nHandle];
+		int nPrev = m_objectPrev[_nHandle];
+		int nNext = m_objectNext[_nHandle];
+		if (nNext != NO_NODE) {
+			m_objectPrev[nNext] = nPrev;
+		}
+		if (nPrev != NO_NODE) {
+			m_objectNext[nPrev] = nNext;
+		} else if (nNode == OVERFLOW) {
+			m_nOverflowFirst = nNext;
+		} else {
+			m_nodeFirstObjects[nNode] = nNext;
+		}
+		if (nNode != OVERFLOW) {
+			int nEmpty = NO_NODE;
+			for (int n = nNode; n != NO_NODE; n = m_nodeParents[n]) {
+				if (--m_nodeCounts[n] == 0) {
+					nEmpty = n;
+				}
+			}
+			if ((nEmpty != NO_NODE) && (m_nodeChildren[nEmpty] != NO_NODE)) {
+				freeChildren(nEmpty);
+			}
+		}
+	}
+
+	private void createChildren(int _nNode) {
+		int nFirst;
+		if (m_nFreeBlock != NO_NODE) {
+			nFirst = m_nFreeBlock;
+			m_nFreeBlock = m_nodeChildren[nFirst];
+		} else {
+			nFirst = m_nNodeCount;
+			m_nNodeCount += 8;
+			if (m_nNodeCount > m_nodeDepths.length) {
+				growNodes();
+			}
+		}
+		int nDepth = m_nodeDepths[_nNode] + 1;
+		float fOffset = m_halfSizes[nDepth];
+		for (int c = 0; c < 8; c++) {
+			int n = nFirst + c;
+			m_nodeCenters[n * 3] = m_nodeCenters[_nNode * 3] + (((c & 1) != 0) ? fOffset : -fOffset);
+			m_nodeCenters[n * 3 + 1] = m_nodeCenters[_nNode * 3 + 1] + (((c & 2) != 0) ? fOffset : -fOffset);
+			m_nodeCenters[n * 3 + 2] = m_nodeCenters[_nNode * 3 + 2] + (((c & 4) != 0) ? fOffset : -fOffset);
+			m_nodeDepths[n] = nDepth;
+			m_nodeParents[n] = _nNode;
+			m_nodeChildren[n] = NO_NODE;
+			m_nodeFirstObjects[n] = NO_NODE;
+			m_nodeCounts[n] = 0;
+		}
+		m_nodeChildren[_nNode] = nFirst;
+	}
+
+	/**
+	 * Returns the (empty) children of the given node and all their
+	 * descendants to the pool of free blocks
+	 */
+	private void freeChildren(int _nNode) {
+		int nFirst = m_nodeChildren[_nNode];
+		for (int c = 0; c < 8; c++) {
+			if (m_nodeChildren[nFirst + c] != NO_NODE) {
+				freeChildren(nFirst + c);
+			}
+		}
+		m_nodeChildren[nFirst] = m_nFreeBlock;
+		m_nFreeBlock = nFirst;
+		m_nodeChildren[_nNode] = NO_NODE;
+	}
+
+	private void growNodes() {
+		int nSize = Math.max(m_nodeDepths.length * 2, m_nNodeCount);
+		m_nodeCenters = Arrays.copyOf(m_nodeCenters, nSize * 3);
+		m_nodeDepths = Arrays.copyOf(m_nodeDepths, nSize);
+		m_nodeParents = Arrays.copyOf(m_nodeParents, nSize);
+		m_nodeChildren = Arrays.copyOf(m_nodeChildren, nSize);
+		m_nodeFirstObjects = Arrays.copyOf(m_nodeFirstObjects, nSize);
+		m_nodeCounts = Arrays.copyOf(m_nodeCounts, nSize);
+	}
+
+	private void growObjects() {
+		int nOldCapacity = m_nObjectCapacity;
+		m_nObjectCapacity *= 2;
+		m_payloads = Arrays.copyOf(m_payloads, m_nObjectCapacity);
+		m_bounds = Arrays.copyOf(m_bounds, m_nObjectCapacity * 6);
+		m_objectNodes = Arrays.copyOf(m_objectNodes, m_nObjectCapacity);
+		m_objectNext = Arrays.copyOf(m_objectNext, m_nObjectCapacity);
+		m_objectPrev = Arrays.copyOf(m_objectPrev, m_nObjectCapacity);
+		for (int i = m_nObjectCapacity - 1; i >= nOldCapacity; i--) {
+			m_objectNodes[i] = FREE;
+			m_objectNext[i] = m_nFreeObject;
+			m_nFreeObject = i;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,601 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Tuple3f;
+
+import org.codejive.utils4gl.geometries.Geometry;
+import org.codejive.utils4gl.geometries.VertexBuffer;
+
+/**
+ * A low resolution depth buffer that is rendered on the CPU and can be used
+ * to find out if objects are hidden behind large occluders like walls and
+ * terrain before sending them to OpenGL.
+ * <p>
+ * Each frame the view-projection matrix is set, the buffer is cleared,
+ * the occluders are added and render() is called. The triangles of the
+ * occluders are sorted into tiles of TILE_SIZE by TILE_SIZE pixels when
+ * they are added and render() rasterizes the tiles in parallel, after which
+ * it builds a pyramid of mip levels where each texel holds the farthest
+ * depth of the four texels below it. Bounding boxes can then be tested
+ * using isBoxVisible(), which compares the nearest depth of the box with
+ * a few texels of the level that matches its size on screen.
+ * <p>
+ * Depths are stored the way OpenGL does, 0 at the near plane and 1 at the
+ * far plane. Occluders are drawn double sided. Triangles that cross the
+ * near plane are left out, which only makes the buffer hide fewer objects.
+ * A pixel is covered when a triangle covers its center, so objects that
+ * stick out less than a pixel past the edge of an occluder can be hidden.
+ * Occluders should be simple stand-ins for the real geometry, the cost
+ * of the buffer grows with the number of triangles.
+ * Everything happens on the CPU so the buffer can be used without an
+ * OpenGL context. Once render() has been called isBoxVisible() may be
+ * called from several threads at the same time, all other methods must
+ * be called from a single thread.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class OcclusionBuffer {
+	/** The width and height in pixels of the tiles that are rasterized in parallel */
+	public static final int TILE_SIZE = 32;
+
+	/** The number of tiles below which rendering is not split up any further */
+	private static final int TILES_PER_TASK = 4;
+
+	/** The number of values stored per triangle: 3 edge functions and the depth plane */
+	private static final int SETUP_SIZE = 12;
+
+	private ForkJoinPool m_pool;
+	private int m_nWidth, m_nHeight;
+	private int m_nTilesX, m_nTilesY;
+
+	private float[] m_viewProjection;
+	private float[] m_model;
+	private float[] m_matrix;
+
+	private int m_nTriangleCount;
+	/** Edge functions (a, b, c) for the three edges followed by the depth plane (a, b, c) */
+	private float[] m_setup;
+	/** The pixel bounds of each triangle (min x, min y, max x, max y) */
+	private int[] m_bounds;
+	private int[][] m_bins;
+	private int[] m_binCounts;
+
+	private float[][] m_levels;
+	private int[] m_levelWidths;
+	private int[] m_levelHeights;
+
+	private float[] m_clip;
+	private int[] m_vertices;
+
+	/**
+	 * Creates a buffer of the given size that renders using the common
+	 * fork/join pool
+	 * @param _nWidth The width of the buffer in pixels
+	 * @param _nHeight The height of the buffer in pixels
+	 */
+	public OcclusionBuffer(int _nWidth, int _nHeight) {
+		this(_nWidth, _nHeight, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a buffer of the given size that renders using the given pool
+	 * @param _nWidth The width of the buffer in pixels
+	 * @param _nHeight The height of the buffer in pixels
+	 * @param _pool The pool to render on or null to render on the calling thread
+	 */
+	public OcclusionBuffer(int _nWidth, int _nHeight, ForkJoinPool _pool) {
+		m_pool = _pool;
+		m_nWidth = Math.max(_nWidth, 1);
+		m_nHeight = Math.max(_nHeight, 1);
+		m_nTilesX = (m_nWidth + TILE_SIZE - 1) / TILE_SIZE;
+		m_nTilesY = (m_nHeight + TILE_SIZE - 1) / TILE_SIZE;
+
+		m_viewProjection = new float[16];
+		m_viewProjection[0] = m_viewProjection[5] = m_viewProjection[10] = m_viewProjection[15] = 1.0f;
+		m_model = new float[16];
+		m_matrix = new float[16];
+
+		m_setup = new float[64 * SETUP_SIZE];
+		m_bounds = new int[64 * 4];
+		m_bins = new int[m_nTilesX * m_nTilesY][];
+		for (int i = 0; i < m_bins.length; i++) {
+			m_bins[i] = new int[16];
+		}
+		m_binCounts = new int[m_bins.length];
+
+		int nLevels = 1;
+		for (int w = m_nWidth, h = m_nHeight; (w > 1) || (h > 1); w = (w + 1) / 2, h = (h + 1) / 2) {
+			nLevels++;
+		}
+		m_levels = new float[nLevels][];
+		m_levelWidths = new int[nLevels];
+		m_levelHeights = new int[nLevels];
+		for (int i = 0, w = m_nWidth, h = m_nHeight; i < nLevels; i++, w = (w + 1) / 2, h = (h + 1) / 2) {
+			m_levels[i] = new float[w * h];
+			m_levelWidths[i] = w;
+			m_levelHeights[i] = h;
+			Arrays.fill(m_levels[i], 1.0f);
+		}
+
+		m_clip = new float[12];
+		m_vertices = new int[3];
+	}
+
+	/**
+	 * Returns the width of the buffer
+	 * @return The width in pixels
+	 */
+	public int getWidth() {
+		return m_nWidth;
+	}
+
+	/**
+	 * Returns the height of the buffer
+	 * @return The height in pixels
+	 */
+	public int getHeight() {
+		return m_nHeight;
+	}
+
+	/**
+	 * Returns the number of levels of the depth pyramid, level 0 being the
+	 * buffer itself and the last level consisting of a single texel
+	 * @return The number of levels
+	 */
+	public int getLevelCount() {
+		return m_levels.length;
+	}
+
+	/**
+	 * Returns the width of the given level of the depth pyramid
+	 * @param _nLevel The level
+	 * @return The width in texels
+	 */
+	public int getLevelWidth(int _nLevel) {
+		return m_levelWidths[_nLevel];
+	}
+
+	/**
+	 * Returns the height of the given level of the depth pyramid
+	 * @param _nLevel The level
+	 * @return The height in texels
+	 */
+	public int getLevelHeight(int _nLevel) {
+		return m_levelHeights[_nLevel];
+	}
+
+	/**
+	 * Returns the depth stored in the given texel of the given level of the
+	 * depth pyramid. Row 0 is at the bottom of the screen like in OpenGL.
+	 * @param _nLevel The level
+	 * @param _nX The column of the texel
+	 * @param _nY The row of the texel
+	 * @return The farthest depth (0 .. 1) of the texel
+	 */
+	public float getDepth(int _nLevel, int _nX, int _nY) {
+		return m_levels[_nLevel][_nY * m_levelWidths[_nLevel] + _nX];
+	}
+
+	/**
+	 * Returns the number of occluder triangles that will be rendered
+	 * @return The number of triangles added since the last clear()
+	 */
+	public int getTriangleCount() {
+		return m_nTriangleCount;
+	}
+
+	/**
+	 * Sets the combined view and projection matrix used to transform the
+	 * occluders and the tested boxes from world coordinates to clip
+	 * coordinates. Must be set before adding the occluders.
+	 * @param _matrix The matrix as 16 floats in OpenGL's column-major order
+	 * @param _nOffset The index of the first element in the array
+	 */
+	public void setViewProjection(float[] _matrix, int _nOffset) {
+		System.arraycopy(_matrix, _nOffset, m_viewProjection, 0, 16);
+	}
+
+	/**
+	 * Sets the combined view and projection matrix used to transform the
+	 * occluders and the tested boxes from world coordinates to clip
+	 * coordinates. Must be set before adding the occluders.
+	 * @param _matrix The matrix
+	 */
+	public void setViewProjection(Matrix4f _matrix) {
+		copy(_matrix, m_viewProjection);
+	}
+
+	/**
+	 * Removes all occluders. The depths of the previous frame remain
+	 * available until the next call to render().
+	 */
+	public void clear() {
+		m_nTriangleCount = 0;
+		Arrays.fill(m_binCounts, 0);
+	}
+
+	/**
+	 * Adds the triangles of the given Geometry, whose vertices are in world
+	 * coordinates, as occluders
+	 * @param _geometry The occluder
+	 */
+	public void addOccluder(Geometry _geometry) {
+		addTriangles(_geometry, m_viewProjection);
+	}
+
+	/**
+	 * Adds the triangles of the given Geometry as occluders after
+	 * transforming them from model to world coordinates
+	 * @param _geometry The occluder
+	 * @param _transform The model transformation of the Geometry
+	 */
+	public void addOccluder(Geometry _geometry, Matrix4f _transform) {
+		copy(_transform, m_model);
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				m_matrix[c * 4 + r] = m_viewProjection[r] * m_model[c * 4]
+						+ m_viewProjection[4 + r] * m_model[c * 4 + 1]
+						+ m_viewProjection[8 + r] * m_model[c * 4 + 2]
+						+ m_viewProjection[12 + r] * m_model[c * 4 + 3];
+			}
+		}
+		addTriangles(_geometry, m_matrix);
+	}
+
+	/**
+	 * Rasterizes all occluders added since the last clear() and builds
+	 * the depth pyramid
+	 */
+	public void render() {
+		RasterTask task = new RasterTask(0, m_bins.length);
+		if ((m_pool != null) && (m_bins.length > TILES_PER_TASK)) {
+			m_pool.invoke(task);
+		} else {
+			task.compute();
+		}
+		buildPyramid();
+	}
+
+	/**
+	 * Determines if the given axis-aligned box, in world coordinates, might
+	 * be visible. A box is reported as hidden when every pixel its screen
+	 * rectangle touches is covered by occluders that lie in front of it.
+	 * Because a pixel counts as covered when an occluder covers its center,
+	 * a box that sticks out less than a pixel past the edge of an occluder
+	 * can be reported as hidden even though a sliver of it is visible.
+	 * Boxes crossing the near plane are always visible, boxes that fall
+	 * completely outside the screen never are.
+	 * @param _fMinX The minimum x-coordinate of the box
+	 * @param _fMinY The minimum y-coordinate of the box
+	 * @param _fMinZ The minimum z-coordinate of the box
+	 * @param _fMaxX The maximum x-coordinate of the box
+	 * @param _fMaxY The maximum y-coordinate of the box
+	 * @param _fMaxZ The maximum z-coordinate of the box
+	 * @return true if the box might be visible, false if it is hidden
+	 */
+	public boolean isBoxVisible(float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		float[] m = m_viewProjection;
+		float fMinSX = Float.POSITIVE_INFINITY, fMinSY = Float.POSITIVE_INFINITY, fMinDepth = Float.POSITIVE_INFINITY;
+		float fMaxSX = Float.NEGATIVE_INFINITY, fMaxSY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < 8; i++) {
+			float x = ((i & 1) == 0) ? _fMinX : _fMaxX;
+			float y = ((i & 2) == 0) ? _fMinY : _fMaxY;
+			float z = ((i & 4) == 0) ? _fMinZ : _fMaxZ;
+			float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+			float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+			if ((cw <= 0.0f) || (cz < -cw)) {
+				return true;
+			}
+			float fInvW = 1.0f / cw;
+			float sx = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * fInvW * 0.5f + 0.5f) * m_nWidth;
+			float sy = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * fInvW * 0.5f + 0.5f) * m_nHeight;
+			float fDepth = cz * fInvW * 0.5f + 0.5f;
+			fMinSX = Math.min(fMinSX, sx);
+			fMaxSX = Math.max(fMaxSX, sx);
+			fMinSY = Math.min(fMinSY, sy);
+			fMaxSY = Math.max(fMaxSY, sy);
+			fMinDepth = Math.min(fMinDepth, fDepth);
+		}
+
+		// All pixels the box touches, not just the ones whose centers it covers
+		int nX0 = Math.max((int)Math.floor(fMinSX), 0);
+		int nY0 = Math.max((int)Math.floor(fMinSY), 0);
+		int nX1 = Math.min((int)Math.floor(fMaxSX), m_nWidth - 1);
+		int nY1 = Math.min((int)Math.floor(fMaxSY), m_nHeight - 1);
+		if ((nX0 > nX1) || (nY0 > nY1)) {
+			return false;
+		}
+
+		// Go up the pyramid until the box covers at most 2 by 2 texels
+		int nLevel = 0;
+		while ((nLevel < m_levels.length - 1) && ((((nX1 >> nLevel) - (nX0 >> nLevel)) > 1) || (((nY1 >> nLevel) - (nY0 >> nLevel)) > 1))) {
+			nLevel++;
+		}
+		float[] depths = m_levels[nLevel];
+		int nLevelWidth = m_levelWidths[nLevel];
+		for (int y = nY0 >> nLevel; y <= (nY1 >> nLevel); y++) {
+			for (int x = nX0 >> nLevel; x <= (nX1 >> nLevel); x++) {
+				if (fMinDepth <= depths[y * nLevelWidth + x]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines if the given axis-aligned box, in world coordinates, might
+	 * be visible. See isBoxVisible(float, float, float, float, float, float).
+	 * @param _min The minimum corner of the box
+	 * @param _max The maximum corner of the box
+	 * @return true if the box might be visible, false if it is hidden
+	 */
+	public boolean isBoxVisible(Tuple3f _min, Tuple3f _max) {
+		return isBoxVisible(_min.x, _min.y, _min.z, _max.x, _max.y, _max.z);
+	}
+
+	/**
+	 * Copies the given matrix to the given array in column-major order
+	 */
+	private static void copy(Matrix4f _matrix, float[] _dest) {
+		for (int c = 0; c < 4; c++) {
+			for (int r = 0; r < 4; r++) {
+				_dest[c * 4 + r] = _matrix.getElement(r, c);
+			}
+		}
+	}
+
+	/**
+	 * Transforms the triangles of the given Geometry to the screen and
+	 * sorts them into the bins of the tiles they touch
+	 */
+	private void addTriangles(Geometry _geometry, float[] _matrix) {
+		VertexBuffer vbuf = _geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		float[] m = _matrix;
+		float[] clip = m_clip;
+		int nCount = _geometry.getTriangleCount();
+		for (int t = 0; t < nCount; t++) {
+			_geometry.getTriangle(t, m_vertices, 0);
+			boolean bClipped = false;
+			for (int c = 0; c < 3; c++) {
+				int nIdx = vbuf.getVertexOffset(m_vertices[c]);
+				float x = coords.get(nIdx), y = coords.get(nIdx + 1), z = coords.get(nIdx + 2);
+				float cz = m[2] * x + m[6] * y + m[10] * z + m[14];
+				float cw = m[3] * x + m[7] * y + m[11] * z + m[15];
+				if ((cw <= 0.0f) || (cz < -cw)) {
+					bClipped = true;
+					break;
+				}
+				float fInvW = 1.0f / cw;
+				clip[c * 3] = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * fInvW * 0.5f + 0.5f) * m_nWidth;
+				clip[c * 3 + 1] = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * fInvW * 0.5f + 0.5f) * m_nHeight;
+				clip[c * 3 + 2] = cz * fInvW * 0.5f + 0.5f;
+			}
+			if (!bClipped) {
+				addTriangle(clip);
+			}
+		}
+	}
+
+	/**
+	 * Sets up the edge functions and depth plane of a triangle in screen
+	 * coordinates and adds it to the bins of the tiles it touches
+	 */
+	private void addTriangle(float[] _v) {
+		float x0 = _v[0], y0 = _v[1], z0 = _v[2];
+		float x1 = _v[3], y1 = _v[4], z1 = _v[5];
+		float x2 = _v[6], y2 = _v[7], z2 = _v[8];
+		float fArea = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+		if ((fArea == 0.0f) || Float.isNaN(fArea)) {
+			return;
+		}
+		if (fArea < 0.0f) {
+			// Occluders are double sided, make the winding counter-clockwise
+			float f;
+			f = x1; x1 = x2; x2 = f;
+			f = y1; y1 = y2; y2 = f;
+			f = z1; z1 = z2; z2 = f;
+			fArea = -fArea;
+		}
+
+		// Pixels whose centers lie within the bounds of the triangle
+		int nX0 = Math.max((int)Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f), 0);
+		int nY0 = Math.max((int)Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f), 0);
+		int nX1 = Math.min((int)Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f), m_nWidth - 1);
+		int nY1 = Math.min((int)Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f), m_nHeight - 1);
+		if ((nX0 > nX1) || (nY0 > nY1)) {
+			return;
+		}
+
+		int nTri = m_nTriangleCount++;
+		if (m_nTriangleCount * SETUP_SIZE > m_setup.length) {
+			m_setup = Arrays.copyOf(m_setup, m_setup.length * 2);
+			m_bounds = Arrays.copyOf(m_bounds, m_bounds.length * 2);
+		}
+		float[] s = m_setup;
+		int i = nTri * SETUP_SIZE;
+		// Edge functions a * x + b * y + c, positive on the inside
+		setupEdge(s, i, y0 - y1, x1 - x0, x0 * y1 - x1 * y0);
+		setupEdge(s, i + 3, y1 - y2, x2 - x1, x1 * y2 - x2 * y1);
+		setupEdge(s, i + 6, y2 - y0, x0 - x2, x2 * y0 - x0 * y2);
+		// Depth plane, moved back by half a pixel so each pixel gets the farthest depth it covers
+		float fDzDx = ((z1 - z0) * (y2 - y0) - (z2 - z0) * (y1 - y0)) / fArea;
+		float fDzDy = ((z2 - z0) * (x1 - x0) - (z1 - z0) * (x2 - x0)) / fArea;
+		s[i + 9] = fDzDx;
+		s[i + 10] = fDzDy;
+		s[i + 11] = z0 - fDzDx * x0 - fDzDy * y0 + 0.5f * (Math.abs(fDzDx) + Math.abs(fDzDy));
+		int[] b = m_bounds;
+		b[nTri * 4] = nX0;
+		b[nTri * 4 + 1] = nY0;
+		b[nTri * 4 + 2] = nX1;
+		b[nTri * 4 + 3] = nY1;
+
+		for (int ty = nY0 / TILE_SIZE; ty <= nY1 / TILE_SIZE; ty++) {
+			for (int tx = nX0 / TILE_SIZE; tx <= nX1 / TILE_SIZE; tx++) {
+				int nBin = ty * m_nTilesX + tx;
+				if (m_binCounts[nBin] == m_bins[nBin].length) {
+					m_bins[nBin] = Arrays.copyOf(m_bins[nBin], m_bins[nBin].length * 2);
+				}
+				m_bins[nBin][m_binCounts[nBin]++] = nTri;
+			}
+		}
+	}
+
+	/**
+	 * Stores the edge function a * x + b * y + c in a form that gives the
+	 * column of the first or last pixel center on its inside for a row
+	 * without a division. For horizontal edges the function of y is kept.
+	 */
+	private static void setupEdge(float[] _setup, int _nIndex, float _fA, float _fB, float _fC) {
+		_setup[_nIndex] = _fA;
+		if (_fA != 0.0f) {
+			_setup[_nIndex + 1] = -_fB / _fA;
+			_setup[_nIndex + 2] = -_fC / _fA - 0.5f;
+		} else {
+			_setup[_nIndex + 1] = _fB;
+			_setup[_nIndex + 2] = _fC;
+		}
+	}
+
+	/**
+	 * Clears the given tile and rasterizes the triangles in its bin
+	 */
+	private void renderTile(int _nTile) {
+		float[] depths = m_levels[0];
+		float[] s = m_setup;
+		int[] b = m_bounds;
+		int nTileX0 = (_nTile % m_nTilesX) * TILE_SIZE;
+		int nTileY0 = (_nTile / m_nTilesX) * TILE_SIZE;
+		int nTileX1 = Math.min(nTileX0 + TILE_SIZE, m_nWidth) - 1;
+		int nTileY1 = Math.min(nTileY0 + TILE_SIZE, m_nHeight) - 1;
+		for (int y = nTileY0; y <= nTileY1; y++) {
+			Arrays.fill(depths, y * m_nWidth + nTileX0, y * m_nWidth + nTileX1 + 1, 1.0f);
+		}
+
+		int[] bin = m_bins[_nTile];
+		int nCount = m_binCounts[_nTile];
+		for (int n = 0; n < nCount; n++) {
+			int nTri = bin[n];
+			int i = nTri * SETUP_SIZE;
+			int nX0 = Math.max(b[nTri * 4], nTileX0);
+			int nY0 = Math.max(b[nTri * 4 + 1], nTileY0);
+			int nX1 = Math.min(b[nTri * 4 + 2], nTileX1);
+			int nY1 = Math.min(b[nTri * 4 + 3], nTileY1);
+			float fDzDx = s[i + 9];
+			for (int y = nY0; y <= nY1; y++) {
+				float fy = y + 0.5f;
+				// Intersect the row with the three edges to find the span of covered pixels
+				float fLeft = nX0, fRight = nX1;
+				for (int e = 0; e < 9; e += 3) {
+					float a = s[i + e];
+					float fBound = s[i + e + 1] * fy + s[i + e + 2];
+					if (a > 0.0f) {
+						fLeft = Math.max(fLeft, (float)Math.ceil(fBound));
+					} else if (a < 0.0f) {
+						fRight = Math.min(fRight, (float)Math.floor(fBound));
+					} else if (fBound < 0.0f) {
+						fRight = fLeft - 1.0f;
+					}
+				}
+				if (fLeft > fRight) {
+					continue;
+				}
+				int nStart = y * m_nWidth;
+				int nLeft = (int)fLeft;
+				int nRight = (int)fRight;
+				float fRowDepth = s[i + 10] * fy + s[i + 11] + fDzDx * 0.5f;
+				// A plain loop without dependencies the JIT can vectorize
+				for (int x = nLeft; x <= nRight; x++) {
+					float fDepth = fRowDepth + fDzDx * x;
+					if (fDepth < depths[nStart + x]) {
+						depths[nStart + x] = fDepth;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the levels of the depth pyramid with the farthest depth of the
+	 * (up to) four texels they cover in the level below
+	 */
+	private void buildPyramid() {
+		for (int l = 1; l < m_levels.length; l++) {
+			float[] src = m_levels[l - 1];
+			float[] dst = m_levels[l];
+			int nSrcWidth = m_levelWidths[l - 1];
+			int nSrcHeight = m_levelHeights[l - 1];
+			int nWidth = m_levelWidths[l];
+			int nHeight = m_levelHeights[l];
+			for (int y = 0; y < nHeight; y++) {
+				int nRow0 = (y * 2) * nSrcWidth;
+				int nRow1 = Math.min(y * 2 + 1, nSrcHeight - 1) * nSrcWidth;
+				for (int x = 0; x < nWidth; x++) {
+					int x0 = x * 2;
+					int x1 = Math.min(x0 + 1, nSrcWidth - 1);
+					dst[y * nWidth + x] = Math.max(Math.max(src[nRow0 + x0], src[nRow0 + x1]), Math.max(src[nRow1 + x0], src[nRow1 + x1]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders a range of tiles, splitting it up to render the parts in parallel
+	 */
+	private class RasterTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int m_nStart, m_nEnd;
+
+		public RasterTask(int _nStart, int _nEnd) {
+			m_nStart = _nStart;
+			m_nEnd = _nEnd;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		protected void compute() {
+			if ((m_pool != null) && ((m_nEnd - m_nStart) > TILES_PER_TASK)) {
+				int nMiddle = (m_nStart + m_nEnd) >>> 1;
+				invokeAll(new RasterTask(m_nStart, nMiddle), new RasterTask(nMiddle, m_nEnd));
+			} else {
+				for (int i = m_nStart; i < m_nEnd; i++) {
+					renderTile(i);
+				}
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -22,7 +22,7 @@
 package org.codejive.utils4gl;
 
 import java.awt.Rectangle;
-import java.util.Stack;
+import java.util.Arrays;
 
 import org.codejive.utils4gl.textures.*;
 
@@ -37,14 +37,38 @@ import com.jogamp.opengl.util.gl2.GLUT;
  * GLUT objects to those objects that need them. This saves having
  * to pass all of them around all of the time.
  * The object is also used to set and retrieve any managed textures.
+ * <p>
+ * The context also keeps track of part of the OpenGL state: the textures
+ * bound to each texture unit, the enabled capabilities and client arrays
+ * and the scissor box. Changing that state through the methods of the
+ * context skips the GL call when it wouldn't change anything. Code that
+ * changes the same state by calling GL directly must call
+ * invalidateState() afterwards.
  * @author Tako
  * @version $Revision: 357 $
  */
 public class RenderContext {
+	/** The number of texture units whose bindings are tracked */
+	public static final int TEXTURE_UNIT_COUNT = 32;
+
 	private GL2 m_gl;
 
 	private Texture m_textures[];
-	private Stack<Rectangle> m_clippingRegions;
+	private Rectangle[] m_clippingRegions;
+	private int m_nClippingDepth;
+
+	// The shadowed GL state, UNKNOWN where it hasn't been set through the context
+	private int m_nActiveTextureUnit;
+	private int[] m_boundTextures;
+	private StateSet m_capabilities;
+	private StateSet m_clientStates;
+	private int[] m_scissorBox;
+	private int m_nElidedCallCount;
+
+	private static final int UNKNOWN = -1;
+	private static final int[] TEXTURE_TARGETS = {
+		GL2.GL_TEXTURE_1D, GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_3D, GL2.GL_TEXTURE_CUBE_MAP, GL2.GL_TEXTURE_RECTANGLE
+	};
 		
 	private static final GLU m_glu = new GLUgl2();
 	private static final GLUT m_glut = new GLUT();
@@ -59,7 +83,15 @@ public class RenderContext {
 		// Just an arbitrary number for now until I decide how to handle this
 		m_textures = new Texture[10];
 		
-		m_clippingRegions = new Stack<Rectangle>();
+		m_clippingRegions = new Rectangle[4];
+
+		m_boundTextures = new int[TEXTURE_UNIT_COUNT * TEXTURE_TARGETS.length];
+		m_capabilities = new StateSet();
+		m_clientStates = new StateSet();
+		m_scissorBox = new int[4];
+		invalidateState();
+		// OpenGL starts out with the first texture unit active
+		m_nActiveTextureUnit = 0;
 	}
 	
 	/** Returns the reference to the GL object
@@ -108,8 +140,17 @@ public class RenderContext {
 	 * @param _clipRect The new region to clip against
 	 */
 	public void pushClippingRegion(Rectangle _clipRect) {
-		Rectangle newRect = new Rectangle(_clipRect);
-		m_clippingRegions.push(newRect);
+		if (m_nClippingDepth == m_clippingRegions.length) {
+			m_clippingRegions = Arrays.copyOf(m_clippingRegions, m_nClippingDepth * 2);
+		}
+		// The rectangles on the stack are reused instead of allocating new ones
+		Rectangle newRect = m_clippingRegions[m_nClippingDepth];
+		if (newRect == null) {
+			newRect = new Rectangle();
+			m_clippingRegions[m_nClippingDepth] = newRect;
+		}
+		newRect.setBounds(_clipRect);
+		m_nClippingDepth++;
 		setClippingRegion(newRect);
 	}
 	
@@ -118,17 +159,14 @@ public class RenderContext {
 	 * the previous region. Clipping will be turned of completely
 	 * if no more regions remain in the stack.
 	 * @return The region that was current and has been popped or
-	 * null if no clipping region was currently active.
+	 * null if no clipping region was currently active. The object
+	 * will be reused by the next call to pushClippingRegion().
 	 */
 	public Rectangle popClippingRegion() {
 		Rectangle rect = null;
-		if (!m_clippingRegions.isEmpty()) {
-			rect = m_clippingRegions.pop();
-			Rectangle newRect = null;
-			if (!m_clippingRegions.isEmpty()) {
-				newRect = m_clippingRegions.peek();
-			}
-			setClippingRegion(newRect);
+		if (m_nClippingDepth > 0) {
+			rect = m_clippingRegions[--m_nClippingDepth];
+			setClippingRegion(getClippingRegion());
 		}
 		return rect;
 	}
@@ -140,18 +178,206 @@ public class RenderContext {
 	 */
 	public Rectangle getClippingRegion() {
 		Rectangle rect = null;
-		if (!m_clippingRegions.isEmpty()) {
-			rect = m_clippingRegions.peek();
+		if (m_nClippingDepth > 0) {
+			rect = m_clippingRegions[m_nClippingDepth - 1];
 		}
 		return rect;
 	}
 
 	private void setClippingRegion(Rectangle _clipRect) {
 		if (_clipRect != null) {
-			m_gl.glScissor(_clipRect.x, _clipRect.y, _clipRect.width, _clipRect.height);
-			m_gl.glEnable(GL3.GL_SCISSOR_TEST);
+			setScissor(_clipRect.x, _clipRect.y, _clipRect.width, _clipRect.height);
+			enable(GL3.GL_SCISSOR_TEST);
+		} else {
+			disable(GL3.GL_SCISSOR_TEST);
+		}
+	}
+
+	/**
+	 * Makes the given texture unit the one that texture binds apply to,
+	 * using glActiveTexture()
+	 * @param _nUnit The index of the unit, 0 for GL_TEXTURE0
+	 */
+	public void setActiveTextureUnit(int _nUnit) {
+		if (_nUnit == m_nActiveTextureUnit) {
+			m_nElidedCallCount++;
+			return;
+		}
+		m_gl.glActiveTexture(GL2.GL_TEXTURE0 + _nUnit);
+		m_nActiveTextureUnit = _nUnit;
+	}
+
+	/**
+	 * Binds a texture to the active texture unit using glBindTexture(),
+	 * unless it is bound already
+	 * @param _nTarget The texture target, for example GL_TEXTURE_2D
+	 * @param _nTexture The texture handle
+	 */
+	public void bindTexture(int _nTarget, int _nTexture) {
+		int nSlot = getTextureSlot(_nTarget);
+		if (nSlot != UNKNOWN) {
+			if (m_boundTextures[nSlot] == _nTexture) {
+				m_nElidedCallCount++;
+				return;
+			}
+			m_boundTextures[nSlot] = _nTexture;
+		}
+		m_gl.glBindTexture(_nTarget, _nTexture);
+	}
+
+	/**
+	 * Enables a capability using glEnable(), unless it is enabled already
+	 * @param _nCap The capability, for example GL_DEPTH_TEST
+	 */
+	public void enable(int _nCap) {
+		if (m_capabilities.set(_nCap, true)) {
+			m_gl.glEnable(_nCap);
+		} else {
+			m_nElidedCallCount++;
+		}
+	}
+
+	/**
+	 * Disables a capability using glDisable(), unless it is disabled already
+	 * @param _nCap The capability, for example GL_DEPTH_TEST
+	 */
+	public void disable(int _nCap) {
+		if (m_capabilities.set(_nCap, false)) {
+			m_gl.glDisable(_nCap);
+		} else {
+			m_nElidedCallCount++;
+		}
+	}
+
+	/**
+	 * Enables a client array using glEnableClientState(), unless it is
+	 * enabled already
+	 * @param _nArray The array, for example GL_VERTEX_ARRAY
+	 */
+	public void enableClientState(int _nArray) {
+		if (m_clientStates.set(_nArray, true)) {
+			m_gl.glEnableClientState(_nArray);
+		} else {
+			m_nElidedCallCount++;
+		}
+	}
+
+	/**
+	 * Disables a client array using glDisableClientState(), unless it is
+	 * disabled already
+	 * @param _nArray The array, for example GL_VERTEX_ARRAY
+	 */
+	public void disableClientState(int _nArray) {
+		if (m_clientStates.set(_nArray, false)) {
+			m_gl.glDisableClientState(_nArray);
 		} else {
-			m_gl.glDisable(GL3.GL_SCISSOR_TEST);
+			m_nElidedCallCount++;
+		}
+	}
+
+	/**
+	 * Sets the scissor box using glScissor(), unless it is set to the
+	 * same box already
+	 * @param _nX The left side of the box
+	 * @param _nY The bottom side of the box
+	 * @param _nWidth The width of the box
+	 * @param _nHeight The height of the box
+	 */
+	public void setScissor(int _nX, int _nY, int _nWidth, int _nHeight) {
+		int[] box = m_scissorBox;
+		if ((box[0] == _nX) && (box[1] == _nY) && (box[2] == _nWidth) && (box[3] == _nHeight)) {
+			m_nElidedCallCount++;
+			return;
+		}
+		box[0] = _nX;
+		box[1] = _nY;
+		box[2] = _nWidth;
+		box[3] = _nHeight;
+		m_gl.glScissor(_nX, _nY, _nWidth, _nHeight);
+	}
+
+	/**
+	 * Forgets the tracked GL state so the next call to each of the state
+	 * changing methods of the context is passed on to GL. Must be called
+	 * when code changed that state by calling GL directly. Texture binds
+	 * aren't tracked again until setActiveTextureUnit() has been called.
+	 */
+	public void invalidateState() {
+		m_nActiveTextureUnit = UNKNOWN;
+		Arrays.fill(m_boundTextures, UNKNOWN);
+		m_capabilities.clear();
+		m_clientStates.clear();
+		// A negative width is never valid, so no box will match it
+		Arrays.fill(m_scissorBox, UNKNOWN);
+	}
+
+	/**
+	 * Returns the number of GL calls that were skipped because they
+	 * wouldn't have changed the state
+	 * @return The number of skipped calls since the last reset
+	 */
+	public int getElidedCallCount() {
+		return m_nElidedCallCount;
+	}
+
+	/**
+	 * Sets the number of skipped GL calls back to zero, for example at
+	 * the start of each frame
+	 */
+	public void resetElidedCallCount() {
+		m_nElidedCallCount = 0;
+	}
+
+	/**
+	 * Returns the index in m_boundTextures for the given target on the
+	 * active unit or UNKNOWN if the binding isn't tracked
+	 */
+	private int getTextureSlot(int _nTarget) {
+		if ((m_nActiveTextureUnit < 0) || (m_nActiveTextureUnit >= TEXTURE_UNIT_COUNT)) {
+			return UNKNOWN;
+		}
+		for (int i = 0; i < TEXTURE_TARGETS.length; i++) {
+			if (TEXTURE_TARGETS[i] == _nTarget) {
+				return m_nActiveTextureUnit * TEXTURE_TARGETS.length + i;
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Remembers which of a small number of GL enums are enabled
+	 */
+	private static class StateSet {
+		private int[] m_keys = new int[16];
+		private boolean[] m_enabled = new boolean[16];
+		private int m_nCount;
+
+		/**
+		 * Records the new state of the given enum
+		 * @return true if the state was unknown or different, false if it was the same
+		 */
+		boolean set(int _nKey, boolean _bEnabled) {
+			for (int i = 0; i < m_nCount; i++) {
+				if (m_keys[i] == _nKey) {
+					if (m_enabled[i] == _bEnabled) {
+						return false;
+					}
+					m_enabled[i] = _bEnabled;
+					return true;
+				}
+			}
+			if (m_nCount == m_keys.length) {
+				m_keys = Arrays.copyOf(m_keys, m_nCount * 2);
+				m_enabled = Arrays.copyOf(m_enabled, m_nCount * 2);
+			}
+			m_keys[m_nCount] = _nKey;
+			m_enabled[m_nCount] = _bEnabled;
+			m_nCount++;
+			return true;
+		}
+
+		void clear() {
+			m_nCount = 0;
 		}
 	}
 }
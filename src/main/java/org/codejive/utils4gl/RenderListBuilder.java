@@ -0,0 +1,214 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the list of objects to render for a frame by testing their
+ * bounds against a frustum on a fork/join pool. The scene is passed as
+ * flat arrays of bounds next to an array of the Renderables they belong
+ * to and is split up in chunks of a fixed size. Each chunk is culled by a
+ * single worker into a render list of its own, which is kept between
+ * frames and is large enough to hold the whole chunk, so the workers
+ * never allocate memory or share anything they write to. Afterwards the
+ * lists are appended to the result in the order of the chunks, making the
+ * result the same as that of culling the objects one by one, no matter
+ * how the work was divided between the threads.
+ * <p>
+ * The thread rendering the frame only needs to pass the resulting list
+ * on to OpenGL. An instance of this class must not be used by several
+ * threads at the same time, but the frustum tester it uses is only read.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class RenderListBuilder {
+	/** The number of objects culled by a single worker */
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private ForkJoinPool m_pool;
+	private int m_nChunkSize;
+	private Renderable[][] m_chunkLists;
+	private int[] m_chunkCounts;
+
+	/**
+	 * Creates a builder that uses the common fork/join pool
+	 */
+	public RenderListBuilder() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a builder that uses the given pool
+	 * @param _pool The pool to cull on or null to cull on the calling thread
+	 * @param _nChunkSize The number of objects culled by a single worker,
+	 * will be rounded up to a multiple of 64
+	 */
+	public RenderListBuilder(ForkJoinPool _pool, int _nChunkSize) {
+		m_pool = _pool;
+		m_nChunkSize = (Math.max(_nChunkSize, 1) + 63) & ~63;
+		m_chunkLists = new Renderable[0][];
+		m_chunkCounts = new int[0];
+	}
+
+	/**
+	 * Adds the objects whose bounding spheres are (partly) inside the
+	 * given frustum to the given list, in the order they have in the arrays
+	 * @param _frustum The frustum to test against
+	 * @param _objects The objects
+	 * @param _x The x-coordinates of the centers of the spheres
+	 * @param _y The y-coordinates of the centers of the spheres
+	 * @param _z The z-coordinates of the centers of the spheres
+	 * @param _radius The radii of the spheres
+	 * @param _nCount The number of objects
+	 * @param _result The list the visible objects will be added to
+	 * @return The number of visible objects
+	 */
+	public int buildFromSpheres(FrustumVisibilityTester _frustum, Renderable[] _objects, float[] _x, float[] _y, float[] _z, float[] _radius, int _nCount, List<? super Renderable> _result) {
+		return build(_frustum, _objects, _x, _y, _z, _radius, null, null, _nCount, _result);
+	}
+
+	/**
+	 * Adds the objects whose axis-aligned bounding boxes are (partly)
+	 * inside the given frustum to the given list, in the order they have in
+	 * the arrays
+	 * @param _frustum The frustum to test against
+	 * @param _objects The objects
+	 * @param _x The x-coordinates of the centers of the boxes
+	 * @param _y The y-coordinates of the centers of the boxes
+	 * @param _z The z-coordinates of the centers of the boxes
+	 * @param _extentX The half sizes of the boxes along the x-axis
+	 * @param _extentY The half sizes of the boxes along the y-axis
+	 * @param _extentZ The half sizes of the boxes along the z-axis
+	 * @param _nCount The number of objects
+	 * @param _result The list the visible objects will be added to
+	 * @return The number of visible objects
+	 */
+	public int buildFromBoxes(FrustumVisibilityTester _frustum, Renderable[] _objects, float[] _x, float[] _y, float[] _z, float[] _extentX, float[] _extentY, float[] _extentZ, int _nCount, List<? super Renderable> _result) {
+		return build(_frustum, _objects, _x, _y, _z, _extentX, _extentY, _extentZ, _nCount, _result);
+	}
+
+	private int build(FrustumVisibilityTester _frustum, Renderable[] _objects, float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nCount, List<? super Renderable> _result) {
+		int nChunks = (_nCount + m_nChunkSize - 1) / m_nChunkSize;
+		ensureChunkLists(nChunks);
+		CullTask task = new CullTask(_frustum, _objects, _x, _y, _z, _e0, _e1, _e2, _nCount, 0, nChunks);
+		if ((m_pool != null) && (nChunks > 1)) {
+			m_pool.invoke(task);
+		} else {
+			task.compute();
+		}
+
+		// Merge in the order of the chunks so the result doesn't depend on the scheduling
+		int nVisible = 0;
+		for (int c = 0; c < nChunks; c++) {
+			Renderable[] list = m_chunkLists[c];
+			int nChunkCount = m_chunkCounts[c];
+			for (int i = 0; i < nChunkCount; i++) {
+				_result.add(list[i]);
+				list[i] = null;
+			}
+			nVisible += nChunkCount;
+		}
+		return nVisible;
+	}
+
+	private void ensureChunkLists(int _nChunks) {
+		if (_nChunks > m_chunkLists.length) {
+			Renderable[][] lists = new Renderable[_nChunks][];
+			System.arraycopy(m_chunkLists, 0, lists, 0, m_chunkLists.length);
+			for (int c = m_chunkLists.length; c < _nChunks; c++) {
+				lists[c] = new Renderable[m_nChunkSize];
+			}
+			m_chunkLists = lists;
+			m_chunkCounts = new int[_nChunks];
+		}
+	}
+
+	/**
+	 * Culls the objects of a single chunk into the render list of that chunk
+	 */
+	private void cullChunk(FrustumVisibilityTester _frustum, Renderable[] _objects, float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nCount, int _nChunk) {
+		Renderable[] list = m_chunkLists[_nChunk];
+		int nVisible = 0;
+		int nStart = _nChunk * m_nChunkSize;
+		int nEnd = Math.min(nStart + m_nChunkSize, _nCount);
+		for (int nFirst = nStart; nFirst < nEnd; nFirst += 64) {
+			long nBits = _frustum.cullWord(_x, _y, _z, _e0, _e1, _e2, nFirst, Math.min(64, nEnd - nFirst));
+			while (nBits != 0) {
+				list[nVisible++] = _objects[nFirst + Long.numberOfTrailingZeros(nBits)];
+				nBits &= nBits - 1;
+			}
+		}
+		m_chunkCounts[_nChunk] = nVisible;
+	}
+
+	/**
+	 * Splits a range of chunks in two until a single chunk is left to cull
+	 */
+	private class CullTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private FrustumVisibilityTester m_frustum;
+		private Renderable[] m_objects;
+		private float[] m_x, m_y, m_z;
+		private float[] m_e0, m_e1, m_e2;
+		private int m_nCount;
+		private int m_nStartChunk;
+		private int m_nEndChunk;
+
+		CullTask(FrustumVisibilityTester _frustum, Renderable[] _objects, float[] _x, float[] _y, float[] _z, float[] _e0, float[] _e1, float[] _e2, int _nCount, int _nStartChunk, int _nEndChunk) {
+			m_frustum = _frustum;
+			m_objects = _objects;
+			m_x = _x;
+			m_y = _y;
+			m_z = _z;
+			m_e0 = _e0;
+			m_e1 = _e1;
+			m_e2 = _e2;
+			m_nCount = _nCount;
+			m_nStartChunk = _nStartChunk;
+			m_nEndChunk = _nEndChunk;
+		}
+
+		@Override
+		protected void compute() {
+			if ((m_pool == null) || (m_nEndChunk - m_nStartChunk <= 1)) {
+				for (int c = m_nStartChunk; c < m_nEndChunk; c++) {
+					cullChunk(m_frustum, m_objects, m_x, m_y, m_z, m_e0, m_e1, m_e2, m_nCount, c);
+				}
+				return;
+			}
+			int nMid = (m_nStartChunk + m_nEndChunk) >>> 1;
+			CullTask left = new CullTask(m_frustum, m_objects, m_x, m_y, m_z, m_e0, m_e1, m_e2, m_nCount, m_nStartChunk, nMid);
+			CullTask right = new CullTask(m_frustum, m_objects, m_x, m_y, m_z, m_e0, m_e1, m_e2, m_nCount, nMid, m_nEndChunk);
+			left.fork();
+			right.compute();
+			left.join();
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
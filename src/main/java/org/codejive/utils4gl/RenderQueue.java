@@ -0,0 +1,302 @@
+/*
+ * [utils4gl] OpenGL utilities library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl;
+
+import java.util.Arrays;
+
+/**
+ * Collects the objects to render for a frame and renders them in an order
+ * that keeps the number of OpenGL state changes low. Each object is added
+ * with a 64-bit sort key made by makeKey() from its layer, whether it is
+ * translucent, the texture it uses and its depth. Objects are rendered by
+ * layer, opaque objects before translucent ones. Opaque objects are then
+ * grouped by texture and rendered front to back within each group, so
+ * the depth test rejects as much as possible. Translucent objects are
+ * rendered back to front, as blending requires, and only grouped by
+ * texture when they are at the same depth.
+ * <p>
+ * The keys are sorted with a radix sort using arrays that are kept
+ * between frames, so once the queue has grown to the number of objects
+ * in a frame it no longer allocates any memory. Objects with the same key
+ * keep the order they were added in.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class RenderQueue {
+	/** The number of layers a key can hold */
+	public static final int LAYER_COUNT = 256;
+
+	/** The number of different texture handles a key can distinguish */
+	public static final int TEXTURE_RANGE = 1 << 24;
+
+	private static final int LAYER_SHIFT = 56;
+	private static final int TRANSLUCENT_SHIFT = 55;
+	private static final int HIGH_FIELD_SHIFT = 31;
+	private static final int LOW_FIELD_SHIFT = 7;
+	private static final int FIELD_MASK = 0xffffff;
+
+	private Renderable[] m_items;
+	private long[] m_keys;
+	private int[] m_order;
+	private long[] m_sortedKeys;
+	private long[] m_tmpKeys;
+	private int[] m_tmpOrder;
+	private int[] m_counts;
+	private int m_nCount;
+	private boolean m_bSorted;
+
+	/**
+	 * Creates an empty queue
+	 */
+	public RenderQueue() {
+		this(256);
+	}
+
+	/**
+	 * Creates an empty queue with room for the given number of objects
+	 * @param _nCapacity The number of objects that can be added before the queue has to grow
+	 */
+	public RenderQueue(int _nCapacity) {
+		int nCapacity = Math.max(_nCapacity, 1);
+		m_items = new Renderable[nCapacity];
+		m_keys = new long[nCapacity];
+		m_order = new int[nCapacity];
+		m_sortedKeys = new long[nCapacity];
+		m_tmpKeys = new long[nCapacity];
+		m_tmpOrder = new int[nCapacity];
+		m_counts = new int[8 * 256];
+		m_bSorted = true;
+	}
+
+	/**
+	 * Returns a sort key for an object
+	 * @param _nLayer The layer the object belongs to, lower layers are
+	 * rendered first, must be less than LAYER_COUNT
+	 * @param _bTranslucent true if the object is blended with what lies behind it
+	 * @param _nTexture The handle of the texture the object uses, 0 for
+	 * none. Only the lowest 24 bits are used.
+	 * @param _fDepth The distance of the object to the viewer scaled to
+	 * the range 0 - 1, for example by dividing it by the distance of the
+	 * far plane. Values outside the range are clamped.
+	 * @return The key
+	 */
+	public static long makeKey(int _nLayer, boolean _bTranslucent, int _nTexture, float _fDepth) {
+		float fDepth = Math.min(Math.max(_fDepth, 0.0f), 1.0f);
+		long nDepth = (long)(fDepth * FIELD_MASK);
+		long nTexture = _nTexture & FIELD_MASK;
+		long nKey = (long)(_nLayer & (LAYER_COUNT - 1)) << LAYER_SHIFT;
+		if (_bTranslucent) {
+			nKey |= 1L << TRANSLUCENT_SHIFT;
+			nKey |= (FIELD_MASK - nDepth) << HIGH_FIELD_SHIFT;
+			nKey |= nTexture << LOW_FIELD_SHIFT;
+		} else {
+			nKey |= nTexture << HIGH_FIELD_SHIFT;
+			nKey |= nDepth << LOW_FIELD_SHIFT;
+		}
+		return nKey;
+	}
+
+	/**
+	 * Returns the layer stored in the given key
+	 * @param _nKey A key made by makeKey()
+	 * @return The layer
+	 */
+	public static int getLayer(long _nKey) {
+		return (int)(_nKey >>> LAYER_SHIFT);
+	}
+
+	/**
+	 * Returns if the given key is that of a translucent object
+	 * @param _nKey A key made by makeKey()
+	 * @return true if the object is translucent
+	 */
+	public static boolean isTranslucent(long _nKey) {
+		return ((_nKey >>> TRANSLUCENT_SHIFT) & 1) != 0;
+	}
+
+	/**
+	 * Returns the texture handle stored in the given key
+	 * @param _nKey A key made by makeKey()
+	 * @return The lowest 24 bits of the texture handle
+	 */
+	public static int getTexture(long _nKey) {
+		int nShift = isTranslucent(_nKey) ? LOW_FIELD_SHIFT : HIGH_FIELD_SHIFT;
+		return (int)(_nKey >>> nShift) & FIELD_MASK;
+	}
+
+	/**
+	 * Returns the number of objects in the queue
+	 * @return The number of objects
+	 */
+	public int getCount() {
+		return m_nCount;
+	}
+
+	/**
+	 * Adds an object to the queue
+	 * @param _object The object to render
+	 * @param _nKey The sort key of the object as returned by makeKey()
+	 */
+	public void add(Renderable _object, long _nKey) {
+		if (m_nCount == m_items.length) {
+			grow();
+		}
+		m_items[m_nCount] = _object;
+		m_keys[m_nCount] = _nKey;
+		m_nCount++;
+		m_bSorted = false;
+	}
+
+	/**
+	 * Adds an object to the queue
+	 * @param _object The object to render
+	 * @param _nLayer The layer the object belongs to
+	 * @param _bTranslucent true if the object is blended with what lies behind it
+	 * @param _nTexture The handle of the texture the object uses, 0 for none
+	 * @param _fDepth The distance of the object to the viewer scaled to the range 0 - 1
+	 */
+	public void add(Renderable _object, int _nLayer, boolean _bTranslucent, int _nTexture, float _fDepth) {
+		add(_object, makeKey(_nLayer, _bTranslucent, _nTexture, _fDepth));
+	}
+
+	/**
+	 * Removes all objects from the queue
+	 */
+	public void clear() {
+		for (int i = 0; i < m_nCount; i++) {
+			m_items[i] = null;
+		}
+		m_nCount = 0;
+		m_bSorted = true;
+	}
+
+	/**
+	 * Sorts the objects by their keys. Called automatically by the methods
+	 * that need the sorted order.
+	 */
+	public void sort() {
+		if (m_bSorted) {
+			return;
+		}
+		int n = m_nCount;
+		long[] keys = m_sortedKeys;
+		int[] order = m_order;
+		System.arraycopy(m_keys, 0, keys, 0, n);
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+
+		// Count the digits of all eight passes at once
+		int[] counts = m_counts;
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < n; i++) {
+			long nKey = keys[i];
+			for (int p = 0; p < 8; p++) {
+				counts[(p << 8) + (int)((nKey >>> (p << 3)) & 0xff)]++;
+			}
+		}
+
+		long[] tmpKeys = m_tmpKeys;
+		int[] tmpOrder = m_tmpOrder;
+		for (int p = 0; p < 8; p++) {
+			int nBase = p << 8;
+			int nShift = p << 3;
+			// A pass where all keys have the same digit wouldn't change anything
+			if (counts[nBase + (int)((keys[0] >>> nShift) & 0xff)] == n) {
+				continue;
+			}
+			int nSum = 0;
+			for (int d = 0; d < 256; d++) {
+				int c = counts[nBase + d];
+				counts[nBase + d] = nSum;
+				nSum += c;
+			}
+			for (int i = 0; i < n; i++) {
+				long nKey = keys[i];
+				int nPos = counts[nBase + (int)((nKey >>> nShift) & 0xff)]++;
+				tmpKeys[nPos] = nKey;
+				tmpOrder[nPos] = order[i];
+			}
+			long[] swapKeys = keys;
+			keys = tmpKeys;
+			tmpKeys = swapKeys;
+			int[] swapOrder = order;
+			order = tmpOrder;
+			tmpOrder = swapOrder;
+		}
+		m_sortedKeys = keys;
+		m_order = order;
+		m_tmpKeys = tmpKeys;
+		m_tmpOrder = tmpOrder;
+		m_bSorted = true;
+	}
+
+	/**
+	 * Returns the object at the given position in the sorted order
+	 * @param _nIndex The position
+	 * @return The object
+	 */
+	public Renderable getRenderable(int _nIndex) {
+		sort();
+		return m_items[m_order[_nIndex]];
+	}
+
+	/**
+	 * Returns the key of the object at the given position in the sorted order
+	 * @param _nIndex The position
+	 * @return The key
+	 */
+	public long getKey(int _nIndex) {
+		sort();
+		return m_sortedKeys[_nIndex];
+	}
+
+	/**
+	 * Renders all objects in the queue in the order of their keys. The
+	 * queue isn't cleared afterwards.
+	 * @param _context The context to render with
+	 * @param _observer An optional object observing the rendering process
+	 */
+	public void render(RenderContext _context, RenderObserver _observer) {
+		sort();
+		Renderable[] items = m_items;
+		int[] order = m_order;
+		for (int i = 0; i < m_nCount; i++) {
+			items[order[i]].render(_context, _observer);
+		}
+	}
+
+	private void grow() {
+		int nCapacity = m_items.length * 2;
+		m_items = Arrays.copyOf(m_items, nCapacity);
+		m_keys = Arrays.copyOf(m_keys, nCapacity);
+		m_order = new int[nCapacity];
+		m_sortedKeys = new long[nCapacity];
+		m_tmpKeys = new long[nCapacity];
+		m_tmpOrder = new int[nCapacity];
+	}
+}
+
+/*
+ * $Log$
+ */
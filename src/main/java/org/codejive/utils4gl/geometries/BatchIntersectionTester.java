@@ -0,0 +1,295 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Performs large numbers of ray intersection tests at once. The rays are
+ * passed as flat arrays or buffers of coordinates (3 per ray) and the
+ * results are stored in a RayHits object, so no objects are created per ray.
+ * Large batches are split up and tested in parallel on a fork/join pool,
+ * each worker thread using its own IntersectionTester.
+ * The same test is used for each ray as Geometry.intersectClosest() would
+ * use, so the results are the same as testing the rays one by one.
+ * <p>
+ * The Geometry (and its hierarchy) must not be changed while a batch is
+ * being tested. A single instance of this class can be used by several
+ * threads at the same time.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class BatchIntersectionTester {
+	/** The number of rays below which a batch is not split up any further */
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	/** The number of rays tested together as a packet when only triangle data is available */
+	private static final int PACKET_SIZE = 16;
+
+	private ForkJoinPool m_pool;
+	private int m_nChunkSize;
+	private ThreadLocal<IntersectionTester> m_testers;
+	private ThreadLocal<Scratch> m_scratch;
+
+	/**
+	 * Creates a tester that uses the common fork/join pool
+	 */
+	public BatchIntersectionTester() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a tester that uses the given pool
+	 * @param _pool The pool to run the tests on or null to run them on the calling thread
+	 * @param _nChunkSize The number of rays below which a batch is not split up any further
+	 */
+	public BatchIntersectionTester(ForkJoinPool _pool, int _nChunkSize) {
+		m_pool = _pool;
+		m_nChunkSize = Math.max(_nChunkSize, 1);
+		m_testers = new ThreadLocal<IntersectionTester>() {
+			protected IntersectionTester initialValue() {
+				return new IntersectionTester();
+			}
+		};
+		m_scratch = new ThreadLocal<Scratch>() {
+			protected Scratch initialValue() {
+				return new Scratch();
+			}
+		};
+	}
+
+	/**
+	 * Tests a batch of rays against the given Geometry. If the Geometry has
+	 * a bounding volume hierarchy it is brought up-to-date and used.
+	 *
+	 * @param _origins The origins of the rays, 3 elements per ray
+	 * @param _directions The directions of the rays, 3 elements per ray
+	 * @param _lengths Optional lengths to make the rays segments (zero for
+	 * rays that shouldn't be limited) or null if none of them should be
+	 * @param _nOffset The index of the first ray in the arrays
+	 * @param _nCount The number of rays to test
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs for each ray
+	 * @param _hits Will hold the results, the result for the first ray tested has index 0
+	 * @return The number of rays that hit a triangle
+	 */
+	public int intersect(float[] _origins, float[] _directions, float[] _lengths, int _nOffset, int _nCount, Geometry _geometry, boolean _bAnyIntersect, RayHits _hits) {
+		FloatBuffer lengths = (_lengths != null) ? FloatBuffer.wrap(_lengths, _nOffset, _nCount).slice() : null;
+		return intersect(FloatBuffer.wrap(_origins, _nOffset * 3, _nCount * 3).slice(), FloatBuffer.wrap(_directions, _nOffset * 3, _nCount * 3).slice(), lengths, _nCount, _geometry, _bAnyIntersect, _hits);
+	}
+
+	/**
+	 * Tests a batch of rays against the given Geometry. If the Geometry has
+	 * a bounding volume hierarchy it is brought up-to-date and used.
+	 * The rays are read starting at the current positions of the buffers,
+	 * the positions themselves are left alone.
+	 *
+	 * @param _origins The origins of the rays, 3 elements per ray
+	 * @param _directions The directions of the rays, 3 elements per ray
+	 * @param _lengths Optional lengths to make the rays segments (zero for
+	 * rays that shouldn't be limited) or null if none of them should be
+	 * @param _nCount The number of rays to test
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs for each ray
+	 * @param _hits Will hold the results, the result for the first ray tested has index 0
+	 * @return The number of rays that hit a triangle
+	 */
+	public int intersect(FloatBuffer _origins, FloatBuffer _directions, FloatBuffer _lengths, int _nCount, Geometry _geometry, boolean _bAnyIntersect, RayHits _hits) {
+		BoundingVolumeHierarchy bvh = null;
+		if (_geometry instanceof GeometryBase) {
+			GeometryBase base = (GeometryBase)_geometry;
+			bvh = base.getBoundingVolumeHierarchy();
+			// Must happen before the workers start, updates are not thread-safe
+			if (bvh != null) {
+				bvh.update();
+			} else if (base.getTriangleData() != null) {
+				base.getTriangleData().update();
+			}
+		}
+		_hits.setCount(_nCount);
+		BatchTask task = new BatchTask(_origins.slice(), _directions.slice(), (_lengths != null) ? _lengths.slice() : null, 0, _nCount, _geometry, bvh, _bAnyIntersect, _hits);
+		if ((m_pool != null) && (_nCount > m_nChunkSize)) {
+			return m_pool.invoke(task).intValue();
+		} else {
+			return task.compute().intValue();
+		}
+	}
+
+	/**
+	 * Tests the given range of rays on the current thread
+	 */
+	private int intersectRange(FloatBuffer _origins, FloatBuffer _directions, FloatBuffer _lengths, int _nStart, int _nEnd, Geometry _geometry, BoundingVolumeHierarchy _bvh, boolean _bAnyIntersect, RayHits _hits) {
+		IntersectionTester tester = m_testers.get();
+		Scratch scratch = m_scratch.get();
+		Point3d origin = scratch.m_origin;
+		Vector3d direction = scratch.m_direction;
+		GeometryBase base = (_geometry instanceof GeometryBase) ? (GeometryBase)_geometry : null;
+		TriangleData data = (base != null) ? base.getTriangleData() : null;
+		int nHits = 0;
+		if ((_bvh == null) && (data != null)) {
+			// Test the rays in packets so each triangle gets fetched once per packet
+			RayPacket packet = scratch.m_packet;
+			Point3d point = scratch.m_point;
+			Vector3d normal = scratch.m_normal;
+			for (int nFirst = _nStart; nFirst < _nEnd; nFirst += PACKET_SIZE) {
+				int nLast = Math.min(nFirst + PACKET_SIZE, _nEnd);
+				packet.reset();
+				for (int i = nFirst; i < nLast; i++) {
+					packet.addRay(_origins.get(i * 3), _origins.get(i * 3 + 1), _origins.get(i * 3 + 2),
+							_directions.get(i * 3), _directions.get(i * 3 + 1), _directions.get(i * 3 + 2),
+							(_lengths != null) ? _lengths.get(i) : 0.0f);
+				}
+				tester.intersect(packet, _geometry, _bAnyIntersect);
+				for (int i = nFirst; i < nLast; i++) {
+					int nLane = i - nFirst;
+					int nTriangle = packet.getTriangle(nLane);
+					if (nTriangle >= 0) {
+						// Derive the distance and normal the same way the single ray test does
+						origin.set(_origins.get(i * 3), _origins.get(i * 3 + 1), _origins.get(i * 3 + 2));
+						float t = packet.getT(nLane);
+						point.x = origin.x + (double)_directions.get(i * 3) * t;
+						point.y = origin.y + (double)_directions.get(i * 3 + 1) * t;
+						point.z = origin.z + (double)_directions.get(i * 3 + 2) * t;
+						IntersectionTester.triangleNormal(data, nTriangle, normal);
+						_hits.setHit(i, nTriangle, (float)Math.sqrt(origin.distanceSquared(point)), packet.getU(nLane), packet.getV(nLane), (float)normal.x, (float)normal.y, (float)normal.z);
+						nHits++;
+					} else {
+						_hits.setMiss(i);
+					}
+				}
+			}
+		} else {
+			// Test the rays one by one with the same test intersectClosest() uses
+			boolean bTriangles = (base != null) && base.hasTrianglePolygons();
+			Intersection intersection = scratch.m_intersection;
+			for (int i = _nStart; i < _nEnd; i++) {
+				origin.set(_origins.get(i * 3), _origins.get(i * 3 + 1), _origins.get(i * 3 + 2));
+				direction.set(_directions.get(i * 3), _directions.get(i * 3 + 1), _directions.get(i * 3 + 2));
+				float fLength = (_lengths != null) ? _lengths.get(i) : 0.0f;
+				boolean bHit;
+				if (_bvh != null) {
+					bHit = tester.intersect(origin, direction, fLength, _bvh, _bAnyIntersect, intersection);
+				} else if (bTriangles) {
+					bHit = tester.intersectTriangles(origin, direction, fLength, _geometry, _bAnyIntersect, intersection);
+				} else {
+					bHit = tester.intersect(origin, direction, fLength, _geometry, _bAnyIntersect, intersection);
+				}
+				if (bHit) {
+					Vector3d normal = intersection.getNormal();
+					_hits.setHit(i, intersection.getTriangle(), (float)intersection.getDistance(), (float)intersection.getU(), (float)intersection.getV(), (float)normal.x, (float)normal.y, (float)normal.z);
+					nHits++;
+				} else {
+					_hits.setMiss(i);
+				}
+			}
+		}
+		return nHits;
+	}
+
+	/**
+	 * Stores a hit including the normalized normal of the given triangle
+	 */
+	static void storeHit(RayHits _hits, int _nRay, int _nTriangle, float _fDistance, float _fU, float _fV, VertexBuffer _vbuf, FloatBuffer _coords, int[] _vertices) {
+		int i0 = _vbuf.getVertexOffset(_vertices[0]);
+		int i1 = _vbuf.getVertexOffset(_vertices[1]);
+		int i2 = _vbuf.getVertexOffset(_vertices[2]);
+		float e1x = _coords.get(i1) - _coords.get(i0);
+		float e1y = _coords.get(i1 + 1) - _coords.get(i0 + 1);
+		float e1z = _coords.get(i1 + 2) - _coords.get(i0 + 2);
+		float e2x = _coords.get(i2) - _coords.get(i0);
+		float e2y = _coords.get(i2 + 1) - _coords.get(i0 + 1);
+		float e2z = _coords.get(i2 + 2) - _coords.get(i0 + 2);
+		float nx = e1y * e2z - e1z * e2y;
+		float ny = e1z * e2x - e1x * e2z;
+		float nz = e1x * e2y - e1y * e2x;
+		float fLength = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (fLength > 0) {
+			nx /= fLength;
+			ny /= fLength;
+			nz /= fLength;
+		}
+		_hits.setHit(_nRay, _nTriangle, _fDistance, _fU, _fV, nx, ny, nz);
+	}
+
+	/**
+	 * The objects each worker thread reuses for all the rays it tests
+	 */
+	private static class Scratch {
+		RayPacket m_packet = new RayPacket(PACKET_SIZE);
+		Point3d m_origin = new Point3d();
+		Vector3d m_direction = new Vector3d();
+		Point3d m_point = new Point3d();
+		Vector3d m_normal = new Vector3d();
+		Intersection m_intersection = new Intersection();
+	}
+
+	/**
+	 * Splits a range of rays in two until it is small enough to test directly
+	 */
+	private class BatchTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private FloatBuffer m_origins;
+		private FloatBuffer m_directions;
+		private FloatBuffer m_lengths;
+		private int m_nStart;
+		private int m_nEnd;
+		private Geometry m_geometry;
+		private BoundingVolumeHierarchy m_bvh;
+		private boolean m_bAnyIntersect;
+		private RayHits m_hits;
+
+		BatchTask(FloatBuffer _origins, FloatBuffer _directions, FloatBuffer _lengths, int _nStart, int _nEnd, Geometry _geometry, BoundingVolumeHierarchy _bvh, boolean _bAnyIntersect, RayHits _hits) {
+			m_origins = _origins;
+			m_directions = _directions;
+			m_lengths = _lengths;
+			m_nStart = _nStart;
+			m_nEnd = _nEnd;
+			m_geometry = _geometry;
+			m_bvh = _bvh;
+			m_bAnyIntersect = _bAnyIntersect;
+			m_hits = _hits;
+		}
+
+		@Override
+		protected Integer compute() {
+			if ((m_pool == null) || (m_nEnd - m_nStart <= m_nChunkSize)) {
+				return Integer.valueOf(intersectRange(m_origins, m_directions, m_lengths, m_nStart, m_nEnd, m_geometry, m_bvh, m_bAnyIntersect, m_hits));
+			}
+			int nMid = (m_nStart + m_nEnd) >>> 1;
+			BatchTask left = new BatchTask(m_origins, m_directions, m_lengths, m_nStart, nMid, m_geometry, m_bvh, m_bAnyIntersect, m_hits);
+			BatchTask right = new BatchTask(m_origins, m_directions, m_lengths, nMid, m_nEnd, m_geometry, m_bvh, m_bAnyIntersect, m_hits);
+			left.fork();
+			int nHits = right.compute().intValue();
+			return Integer.valueOf(nHits + left.join().intValue());
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
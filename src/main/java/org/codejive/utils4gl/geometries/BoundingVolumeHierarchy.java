@@ -0,0 +1,503 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A bounding volume hierarchy over the triangles of a Geometry that can be
+ * used to speed up intersection tests. Once set on a GeometryBase using
+ * setBoundingVolumeHierarchy() the Geometry's intersection methods will
+ * use it automatically.
+ * <p>
+ * The hierarchy is stored in flat arrays of primitives and can be shared
+ * by any number of IntersectionTesters. The triangles are referred to by
+ * "slots", the position of the triangle in the order used by the hierarchy,
+ * getTriangle() translates a slot back to the index of the triangle in
+ * the Geometry.
+ * <p>
+ * When the vertices of the Geometry move the hierarchy can be refitted,
+ * which updates the bounds of all nodes in linear time without changing
+ * the structure of the tree. Each refit estimates the quality of the tree
+ * and once it has become too much worse than that of a freshly built one
+ * a full rebuild is started in the background, which gets installed by the
+ * first call to update() after it has finished. GeometryBase calls update()
+ * before each query so normally none of this needs to be done by hand.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class BoundingVolumeHierarchy {
+	/**
+	 * The maximum number of triangles stored in a leaf if none is specified
+	 */
+	public static final int DEFAULT_MAX_LEAF_SIZE = 4;
+
+	/**
+	 * Build using the surface area heuristic, slowest to build but gives the fastest queries
+	 */
+	public static final int BUILD_SAH = 0;
+	/**
+	 * Build by sorting the triangles along a Morton curve, very fast to build
+	 * but gives slower queries. Useful for Geometries that change often.
+	 */
+	public static final int BUILD_MORTON = 1;
+	/**
+	 * Build using multiple threads of the common fork/join pool. The
+	 * resulting hierarchy is exactly the same as when built using a single
+	 * thread. Only has effect in combination with BUILD_SAH.
+	 */
+	public static final int BUILD_PARALLEL = 2;
+	/**
+	 * Keep a copy of the vertices of all triangles in slot order in a
+	 * TriangleData. Costs 36 bytes per triangle but makes ray queries
+	 * faster and watertight.
+	 */
+	public static final int BUILD_TRIANGLE_DATA = 4;
+
+	/**
+	 * The default ratio between the current and the original cost of the
+	 * hierarchy at which a refit schedules a rebuild
+	 */
+	public static final float DEFAULT_MAX_COST_RATIO = 1.5f;
+
+	private static final int MASK_BUILD_METHOD = 1;
+
+	private Geometry m_geometry;
+	private int m_nMaxLeafSize;
+	private int m_nBuildFlags;
+	private float m_fMaxCostRatio;
+
+	private int m_nVertexStamp;
+	private int m_nIndexStamp;
+	private float m_fBuildCost;
+	private float m_fCost;
+	private int m_nVersion;
+	private RebuildTask m_pendingRebuild;
+
+	int m_nTriangleCount;
+	/** The index of the triangle in the Geometry for each slot */
+	int[] m_triangles;
+	/** The three vertex indices of the triangle in each slot */
+	int[] m_triVertices;
+	/** The coordinates of the triangle in each slot, null if not kept */
+	TriangleData m_triangleData;
+
+	int m_nNodeCount;
+	int m_nDepth;
+	/** Node bounds, 6 floats per node (minX, minY, minZ, maxX, maxY, maxZ) */
+	float[] m_bounds;
+	/** Node data, 2 ints per node, see BvhBuilder for the layout */
+	int[] m_nodes;
+
+	/**
+	 * Creates a hierarchy for the given Geometry using the default leaf size
+	 * @param _geometry The Geometry whose triangles to organize
+	 */
+	public BoundingVolumeHierarchy(Geometry _geometry) {
+		this(_geometry, DEFAULT_MAX_LEAF_SIZE);
+	}
+
+	/**
+	 * Creates a hierarchy for the given Geometry
+	 * @param _geometry The Geometry whose triangles to organize
+	 * @param _nMaxLeafSize The maximum number of triangles stored in a single leaf
+	 */
+	public BoundingVolumeHierarchy(Geometry _geometry, int _nMaxLeafSize) {
+		this(_geometry, _nMaxLeafSize, BUILD_SAH);
+	}
+
+	/**
+	 * Creates a hierarchy for the given Geometry
+	 * @param _geometry The Geometry whose triangles to organize
+	 * @param _nMaxLeafSize The maximum number of triangles stored in a single leaf
+	 * @param _nBuildFlags The way to build the hierarchy, either BUILD_SAH
+	 * or BUILD_MORTON optionally combined with BUILD_PARALLEL and BUILD_TRIANGLE_DATA
+	 */
+	public BoundingVolumeHierarchy(Geometry _geometry, int _nMaxLeafSize, int _nBuildFlags) {
+		m_geometry = _geometry;
+		m_nMaxLeafSize = _nMaxLeafSize;
+		m_nBuildFlags = _nBuildFlags;
+		m_fMaxCostRatio = DEFAULT_MAX_COST_RATIO;
+		rebuild();
+	}
+
+	/**
+	 * Returns the Geometry this hierarchy was built for
+	 * @return The Geometry
+	 */
+	public Geometry getGeometry() {
+		return m_geometry;
+	}
+
+	/**
+	 * Returns the flags that determine the way the hierarchy gets built
+	 * @return The build flags
+	 */
+	public int getBuildFlags() {
+		return m_nBuildFlags;
+	}
+
+	/**
+	 * Returns the number of triangles in the hierarchy
+	 * @return The number of triangles
+	 */
+	public int getTriangleCount() {
+		return m_nTriangleCount;
+	}
+
+	/**
+	 * Returns the index of the triangle in the Geometry for the given slot
+	 * @param _nSlot The position of the triangle within the hierarchy
+	 * @return The index of the triangle in the Geometry
+	 */
+	public int getTriangle(int _nSlot) {
+		return m_triangles[_nSlot];
+	}
+
+	/**
+	 * Returns the copy of the triangle vertices in slot order kept when
+	 * the hierarchy was created with BUILD_TRIANGLE_DATA
+	 * @return The triangle data or null if it isn't kept
+	 */
+	public TriangleData getTriangleData() {
+		return m_triangleData;
+	}
+
+	/**
+	 * Returns the number of nodes in the hierarchy
+	 * @return The number of nodes
+	 */
+	public int getNodeCount() {
+		return m_nNodeCount;
+	}
+
+	/**
+	 * Returns the number of levels in the hierarchy
+	 * @return The depth of the deepest leaf (1 for a hierarchy with just a root)
+	 */
+	public int getDepth() {
+		return m_nDepth;
+	}
+
+	/**
+	 * Stores the bounding box of the entire hierarchy in the given array.
+	 * Nothing is stored if the hierarchy is empty.
+	 * @param _bounds Float array of at least 6 elements (minX, minY, minZ, maxX, maxY, maxZ)
+	 * @return false if the hierarchy is empty, true otherwise
+	 */
+	public boolean getBounds(float[] _bounds) {
+		if (m_nNodeCount == 0) {
+			return false;
+		}
+		System.arraycopy(m_bounds, 0, _bounds, 0, 6);
+		return true;
+	}
+
+	/**
+	 * Returns a counter that gets incremented each time the hierarchy is
+	 * rebuilt or refitted. Can be used to determine if anything derived
+	 * from the hierarchy needs to be updated.
+	 * @return The version of the hierarchy
+	 */
+	public int getVersion() {
+		return m_nVersion;
+	}
+
+	/**
+	 * Returns the estimated cost of a query using the surface area heuristic.
+	 * This is the expected number of nodes visited plus triangles tested
+	 * by a ray that passes through the root.
+	 * @return The estimated cost
+	 */
+	public float getCost() {
+		return m_fCost;
+	}
+
+	/**
+	 * Returns the estimated cost of a query right after the hierarchy was
+	 * last (re)built
+	 * @return The estimated cost
+	 */
+	public float getBuildCost() {
+		return m_fBuildCost;
+	}
+
+	/**
+	 * Returns the ratio between the current and the original cost at which
+	 * a refit will schedule a rebuild of the hierarchy
+	 * @return The maximum cost ratio
+	 */
+	public float getMaxCostRatio() {
+		return m_fMaxCostRatio;
+	}
+
+	/**
+	 * Sets the ratio between the current and the original cost at which a
+	 * refit will schedule a rebuild of the hierarchy
+	 * @param _fMaxCostRatio The maximum cost ratio or 0 to never schedule rebuilds
+	 */
+	public void setMaxCostRatio(float _fMaxCostRatio) {
+		m_fMaxCostRatio = _fMaxCostRatio;
+	}
+
+	/**
+	 * Determines if a rebuild is running in the background
+	 * @return true if a rebuild has been scheduled but not yet installed
+	 */
+	public boolean isRebuilding() {
+		return (m_pendingRebuild != null);
+	}
+
+	/**
+	 * Brings the hierarchy up-to-date with the Geometry. Installs a finished
+	 * background rebuild, rebuilds the hierarchy if the triangles of the
+	 * Geometry have changed and refits it if only its vertices have moved.
+	 * @return true if anything was changed
+	 */
+	public boolean update() {
+		boolean bChanged = false;
+		VertexBuffer vbuf = m_geometry.getBuffer();
+		if ((m_pendingRebuild != null) && m_pendingRebuild.isDone()) {
+			RebuildTask task = m_pendingRebuild;
+			m_pendingRebuild = null;
+			task.join();
+			if (task.m_nIndexStamp == vbuf.getIndexModificationCount()) {
+				install(task.m_builder, task.m_vertices);
+				m_nVertexStamp = task.m_nVertexStamp;
+				bChanged = true;
+			}
+		}
+		if ((vbuf.getIndexModificationCount() != m_nIndexStamp) || (m_geometry.getTriangleCount() != m_nTriangleCount)) {
+			rebuild();
+			bChanged = true;
+		} else if (vbuf.getVertexModificationCount() != m_nVertexStamp) {
+			refit();
+			bChanged = true;
+		}
+		return bChanged;
+	}
+
+	/**
+	 * Rebuilds the entire hierarchy from the current contents of the Geometry.
+	 * Any rebuild running in the background is discarded.
+	 */
+	public void rebuild() {
+		if (m_pendingRebuild != null) {
+			m_pendingRebuild.cancel(false);
+			m_pendingRebuild = null;
+		}
+		RebuildTask task = new RebuildTask();
+		task.compute();
+		install(task.m_builder, task.m_vertices);
+		m_nVertexStamp = task.m_nVertexStamp;
+		m_nIndexStamp = task.m_nIndexStamp;
+	}
+
+	/**
+	 * Updates the bounds of all nodes to the current vertex positions of the
+	 * Geometry without changing the structure of the hierarchy. The triangles
+	 * of the Geometry must still be the same as when the hierarchy was built.
+	 * Schedules a rebuild in the background if the cost of the hierarchy has
+	 * grown beyond the maximum cost ratio.
+	 */
+	public void refit() {
+		VertexBuffer vbuf = m_geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		m_nVertexStamp = vbuf.getVertexModificationCount();
+
+		// Children always come after their parents so walking the nodes
+		// backwards updates them bottom-up
+		for (int n = m_nNodeCount - 1; n >= 0; n--) {
+			int nb = n * 6;
+			int nCount = m_nodes[n * 2 + 1];
+			if (nCount > 0) {
+				float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+				float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+				int nFirst = m_nodes[n * 2] * 3;
+				int nLast = nFirst + nCount * 3;
+				for (int i = nFirst; i < nLast; i++) {
+					int nIdx = vbuf.getVertexOffset(m_triVertices[i]);
+					float x = coords.get(nIdx);
+					float y = coords.get(nIdx + 1);
+					float z = coords.get(nIdx + 2);
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					minZ = Math.min(minZ, z);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+					maxZ = Math.max(maxZ, z);
+				}
+				m_bounds[nb] = minX;
+				m_bounds[nb + 1] = minY;
+				m_bounds[nb + 2] = minZ;
+				m_bounds[nb + 3] = maxX;
+				m_bounds[nb + 4] = maxY;
+				m_bounds[nb + 5] = maxZ;
+			} else {
+				int lb = (n + 1) * 6;
+				int rb = m_nodes[n * 2] * 6;
+				m_bounds[nb] = Math.min(m_bounds[lb], m_bounds[rb]);
+				m_bounds[nb + 1] = Math.min(m_bounds[lb + 1], m_bounds[rb + 1]);
+				m_bounds[nb + 2] = Math.min(m_bounds[lb + 2], m_bounds[rb + 2]);
+				m_bounds[nb + 3] = Math.max(m_bounds[lb + 3], m_bounds[rb + 3]);
+				m_bounds[nb + 4] = Math.max(m_bounds[lb + 4], m_bounds[rb + 4]);
+				m_bounds[nb + 5] = Math.max(m_bounds[lb + 5], m_bounds[rb + 5]);
+			}
+		}
+
+		if (m_triangleData != null) {
+			m_triangleData.load();
+		}
+
+		m_fCost = calculateCost();
+		m_nVersion++;
+		if ((m_fMaxCostRatio > 0.0f) && (m_pendingRebuild == null) && (m_fCost > m_fBuildCost * m_fMaxCostRatio)) {
+			m_pendingRebuild = new RebuildTask();
+			ForkJoinPool.commonPool().execute(m_pendingRebuild);
+		}
+	}
+
+	private void install(BvhBuilder _builder, int[] _vertices) {
+		m_nTriangleCount = _builder.m_order.length;
+		m_triangles = _builder.m_order;
+		m_triVertices = new int[m_nTriangleCount * 3];
+		for (int i = 0; i < m_nTriangleCount; i++) {
+			System.arraycopy(_vertices, m_triangles[i] * 3, m_triVertices, i * 3, 3);
+		}
+		if ((m_nBuildFlags & BUILD_TRIANGLE_DATA) != 0) {
+			if (m_triangleData == null) {
+				m_triangleData = new TriangleData(m_geometry.getBuffer(), m_triVertices);
+			} else {
+				m_triangleData.setVertices(m_triVertices);
+			}
+		}
+		m_bounds = _builder.m_bounds;
+		m_nodes = _builder.m_nodes;
+		m_nNodeCount = _builder.m_nNodeCount;
+		m_nDepth = _builder.m_nDepth;
+		m_fBuildCost = m_fCost = calculateCost();
+		m_nVersion++;
+	}
+
+	/**
+	 * Calculates the surface area heuristic cost of the hierarchy, counting
+	 * each node visit and each triangle test as 1
+	 */
+	private float calculateCost() {
+		if (m_nNodeCount == 0) {
+			return 0.0f;
+		}
+		float fRootArea = BvhBuilder.halfArea(m_bounds[0], m_bounds[1], m_bounds[2], m_bounds[3], m_bounds[4], m_bounds[5]);
+		if (fRootArea <= 0.0f) {
+			// All triangles lie on a line or in a point, a query visits the root and
+			// tests all triangles
+			return 1.0f + m_nTriangleCount;
+		}
+		float fCost = 0.0f;
+		for (int n = 0; n < m_nNodeCount; n++) {
+			int nb = n * 6;
+			float fArea = BvhBuilder.halfArea(m_bounds[nb], m_bounds[nb + 1], m_bounds[nb + 2], m_bounds[nb + 3], m_bounds[nb + 4], m_bounds[nb + 5]);
+			int nCount = m_nodes[n * 2 + 1];
+			fCost += fArea * ((nCount > 0) ? 1 + nCount : 1);
+		}
+		return fCost / fRootArea;
+	}
+
+	/**
+	 * Determines if the given node is a leaf
+	 */
+	final boolean isLeaf(int _nNode) {
+		return m_nodes[_nNode * 2 + 1] > 0;
+	}
+
+	static void triangleBounds(VertexBuffer _vbuf, FloatBuffer _coords, int[] _vertices, int _nOffset, float[] _bounds, int _nBoundsOffset) {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < 3; i++) {
+			int nIdx = _vbuf.getVertexOffset(_vertices[_nOffset + i]);
+			float x = _coords.get(nIdx);
+			float y = _coords.get(nIdx + 1);
+			float z = _coords.get(nIdx + 2);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			minZ = Math.min(minZ, z);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			maxZ = Math.max(maxZ, z);
+		}
+		_bounds[_nBoundsOffset] = minX;
+		_bounds[_nBoundsOffset + 1] = minY;
+		_bounds[_nBoundsOffset + 2] = minZ;
+		_bounds[_nBoundsOffset + 3] = maxX;
+		_bounds[_nBoundsOffset + 4] = maxY;
+		_bounds[_nBoundsOffset + 5] = maxZ;
+	}
+
+	/**
+	 * Takes a snapshot of the triangles of the Geometry when created and
+	 * builds a new hierarchy for them when run. The snapshot is taken on
+	 * the creating thread so the Geometry can be changed freely while the
+	 * build is running in the background.
+	 */
+	private class RebuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int m_nVertexStamp;
+		private int m_nIndexStamp;
+		private int[] m_vertices;
+		private float[] m_primBounds;
+		private BvhBuilder m_builder;
+
+		RebuildTask() {
+			VertexBuffer vbuf = m_geometry.getBuffer();
+			m_nVertexStamp = vbuf.getVertexModificationCount();
+			m_nIndexStamp = vbuf.getIndexModificationCount();
+			int nTriangleCount = m_geometry.getTriangleCount();
+			m_vertices = new int[nTriangleCount * 3];
+			m_primBounds = new float[nTriangleCount * 6];
+			FloatBuffer coords = vbuf.getVertices();
+			for (int t = 0; t < nTriangleCount; t++) {
+				m_geometry.getTriangle(t, m_vertices, t * 3);
+				triangleBounds(vbuf, coords, m_vertices, t * 3, m_primBounds, t * 6);
+			}
+		}
+
+		@Override
+		protected void compute() {
+			m_builder = new BvhBuilder(m_primBounds, m_vertices.length / 3, m_nMaxLeafSize);
+			if ((m_nBuildFlags & MASK_BUILD_METHOD) == BUILD_MORTON) {
+				m_builder.buildMorton();
+			} else if ((m_nBuildFlags & BUILD_PARALLEL) != 0) {
+				m_builder.build(ForkJoinPool.commonPool());
+			} else {
+				m_builder.build(null);
+			}
+			m_primBounds = null;
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
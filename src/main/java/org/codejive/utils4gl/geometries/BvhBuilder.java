@@ -0,0 +1,686 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the flat node arrays of a bounding volume hierarchy over a set of
+ * primitives described only by their bounding boxes. Two methods are
+ * available: the surface area heuristic evaluated over a fixed number of
+ * bins per axis, which gives the best trees, and a linear (Morton code)
+ * builder which is a lot faster but gives trees of lower quality.
+ * <p>
+ * Nodes are stored in depth-first order so the left child of a node always
+ * directly follows its parent. For each node the bounds array holds
+ * (minX, minY, minZ, maxX, maxY, maxZ) and the nodes array holds two ints:
+ * for leaves the first primitive and the (positive) number of primitives,
+ * for interior nodes the index of the right child and the negated split axis.
+ * <p>
+ * While building each subtree of n primitives gets a range of 2n - 1 node
+ * slots reserved (the most it can ever need) so subtrees can be built
+ * independently of each other. Afterwards the nodes are compacted in
+ * depth-first order, which means the result of a parallel build is exactly
+ * the same as that of a serial one.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+class BvhBuilder {
+	/** The number of bins used to evaluate the split candidates along each axis */
+	static final int BIN_COUNT = 16;
+	/** Subtrees with fewer primitives than this are built by a single task */
+	static final int PARALLEL_THRESHOLD = 4096;
+	/** Nodes with more primitives than this have their bounds and bins gathered in parallel */
+	static final int PARALLEL_SCAN_THRESHOLD = 65536;
+
+	private float[] m_primBounds;
+	private float[] m_centroids;
+	private int m_nPrimCount;
+	private int m_nMaxLeafSize;
+	private ForkJoinPool m_pool;
+	/** True if the builder is used for more than one build and should keep its working arrays */
+	private boolean m_bReused;
+
+	/** The nodes in their reserved slots, before compaction */
+	private float[] m_sparseBounds;
+	private int[] m_sparseNodes;
+
+	/** The order of the primitives after building, leaves refer to ranges within this array */
+	int[] m_order;
+	float[] m_bounds;
+	int[] m_nodes;
+	int m_nNodeCount;
+	int m_nDepth;
+
+	/**
+	 * Creates a builder for the given primitives
+	 * @param _primBounds Float array with 6 elements (minX, minY, minZ, maxX, maxY, maxZ) for each primitive
+	 * @param _nPrimCount The number of primitives
+	 * @param _nMaxLeafSize The maximum number of primitives stored in a single leaf
+	 */
+	BvhBuilder(float[] _primBounds, int _nPrimCount, int _nMaxLeafSize) {
+		m_primBounds = _primBounds;
+		m_nPrimCount = _nPrimCount;
+		m_nMaxLeafSize = Math.max(_nMaxLeafSize, 1);
+	}
+
+	/**
+	 * Sets the primitives for the next build. From then on the builder
+	 * keeps its working arrays after a build and all arrays of the previous
+	 * build are reused when they are large enough, which means the results
+	 * of the previous build are overwritten. m_bounds and m_nodes can be
+	 * larger than needed afterwards, m_order is only reused if the number
+	 * of primitives stays the same.
+	 * @param _primBounds Float array with 6 elements (minX, minY, minZ, maxX, maxY, maxZ) for each primitive
+	 * @param _nPrimCount The number of primitives
+	 */
+	void setPrimitives(float[] _primBounds, int _nPrimCount) {
+		m_primBounds = _primBounds;
+		m_nPrimCount = _nPrimCount;
+		m_bReused = true;
+	}
+
+	/**
+	 * Builds the hierarchy using the surface area heuristic, the results can
+	 * be found in m_order, m_bounds, m_nodes, m_nNodeCount and m_nDepth.
+	 * @param _pool The pool to use to build the hierarchy in parallel or
+	 * null to build it using only the current thread
+	 */
+	void build(ForkJoinPool _pool) {
+		m_pool = _pool;
+		prepare();
+		if (m_nPrimCount > 0) {
+			if ((m_pool != null) && (m_nPrimCount > PARALLEL_THRESHOLD)) {
+				m_pool.invoke(new BuildTask(0, 0, m_nPrimCount));
+			} else {
+				buildSah(0, 0, m_nPrimCount, new Bins());
+			}
+		}
+		compact();
+	}
+
+	/**
+	 * Builds the hierarchy by sorting the primitives along a Morton curve
+	 * and splitting at the highest differing bit of their codes, the results
+	 * can be found in m_order, m_bounds, m_nodes, m_nNodeCount and m_nDepth.
+	 */
+	void buildMorton() {
+		m_pool = null;
+		prepare();
+		if (m_nPrimCount > 0) {
+			int[] codes = sortByMortonCode();
+			buildMorton(0, 0, m_nPrimCount, codes);
+		}
+		compact();
+	}
+
+	private void prepare() {
+		if ((m_centroids == null) || (m_centroids.length < m_nPrimCount * 3)) {
+			m_centroids = new float[m_nPrimCount * 3];
+		}
+		if ((m_order == null) || (m_order.length != m_nPrimCount)) {
+			m_order = new int[m_nPrimCount];
+		}
+		for (int i = 0; i < m_nPrimCount; i++) {
+			m_centroids[i * 3] = (m_primBounds[i * 6] + m_primBounds[i * 6 + 3]) * 0.5f;
+			m_centroids[i * 3 + 1] = (m_primBounds[i * 6 + 1] + m_primBounds[i * 6 + 4]) * 0.5f;
+			m_centroids[i * 3 + 2] = (m_primBounds[i * 6 + 2] + m_primBounds[i * 6 + 5]) * 0.5f;
+			m_order[i] = i;
+		}
+
+		// A binary tree with at least one primitive per leaf never has more than 2n - 1 nodes
+		int nMaxNodes = Math.max(2 * m_nPrimCount - 1, 0);
+		if ((m_sparseNodes == null) || (m_sparseNodes.length < nMaxNodes * 2)) {
+			m_sparseBounds = new float[nMaxNodes * 6];
+			m_sparseNodes = new int[nMaxNodes * 2];
+		}
+	}
+
+	private void buildSah(int _nNode, int _nStart, int _nEnd, Bins _bins) {
+		int nCount = _nEnd - _nStart;
+
+		// Determine the bounds of the node and of the centroids it contains
+		_bins.clearBounds();
+		if ((m_pool != null) && (nCount > PARALLEL_SCAN_THRESHOLD)) {
+			ScanTask scan = new ScanTask(_nStart, _nEnd, 0, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f);
+			scan.invoke();
+			_bins.mergeBounds(scan.m_bins);
+		} else {
+			_bins.scanBounds(this, _nStart, _nEnd);
+		}
+		float[] b = _bins.m_bounds;
+		System.arraycopy(b, 0, m_sparseBounds, _nNode * 6, 6);
+
+		if (nCount <= m_nMaxLeafSize) {
+			m_sparseNodes[_nNode * 2] = _nStart;
+			m_sparseNodes[_nNode * 2 + 1] = nCount;
+			return;
+		}
+
+		// Bin the centroids along all three axes at once
+		float fScaleX = (b[9] > b[6]) ? BIN_COUNT / (b[9] - b[6]) : 0.0f;
+		float fScaleY = (b[10] > b[7]) ? BIN_COUNT / (b[10] - b[7]) : 0.0f;
+		float fScaleZ = (b[11] > b[8]) ? BIN_COUNT / (b[11] - b[8]) : 0.0f;
+		_bins.clearBins();
+		if ((m_pool != null) && (nCount > PARALLEL_SCAN_THRESHOLD)) {
+			ScanTask scan = new ScanTask(_nStart, _nEnd, 1, b[6], b[7], b[8], fScaleX, fScaleY, fScaleZ);
+			scan.invoke();
+			_bins.mergeBins(scan.m_bins);
+		} else {
+			_bins.scanBins(this, _nStart, _nEnd, b[6], b[7], b[8], fScaleX, fScaleY, fScaleZ);
+		}
+
+		// Find the cheapest split according to the surface area heuristic
+		float fBestCost = Float.POSITIVE_INFINITY;
+		int nBestAxis = -1;
+		int nBestBin = -1;
+		for (int nAxis = 0; nAxis < 3; nAxis++) {
+			if (b[9 + nAxis] <= b[6 + nAxis]) {
+				continue;
+			}
+			int nBin = _bins.findBestSplit(nAxis);
+			if ((nBin >= 0) && (_bins.m_fBestCost < fBestCost)) {
+				fBestCost = _bins.m_fBestCost;
+				nBestAxis = nAxis;
+				nBestBin = nBin;
+			}
+		}
+
+		int nMid;
+		if (nBestAxis < 0) {
+			// All centroids coincide, just split the primitives in two halves
+			nBestAxis = 0;
+			nMid = (_nStart + _nEnd) >>> 1;
+		} else {
+			float fScale = (nBestAxis == 0) ? fScaleX : (nBestAxis == 1) ? fScaleY : fScaleZ;
+			nMid = partition(_nStart, _nEnd, nBestAxis, b[6 + nBestAxis], fScale, nBestBin);
+		}
+
+		int nLeftChild = _nNode + 1;
+		int nRightChild = _nNode + 2 * (nMid - _nStart);
+		m_sparseNodes[_nNode * 2] = nRightChild;
+		m_sparseNodes[_nNode * 2 + 1] = -nBestAxis;
+		if ((m_pool != null) && (nCount > PARALLEL_THRESHOLD)) {
+			RecursiveAction.invokeAll(new BuildTask(nLeftChild, _nStart, nMid), new BuildTask(nRightChild, nMid, _nEnd));
+		} else {
+			buildSah(nLeftChild, _nStart, nMid, _bins);
+			buildSah(nRightChild, nMid, _nEnd, _bins);
+		}
+	}
+
+	/**
+	 * Reorders the primitives in the given range so that all primitives
+	 * falling in bins up to and including the given bin come first.
+	 * @return The index of the first primitive on the right side of the split
+	 */
+	private int partition(int _nStart, int _nEnd, int _nAxis, float _fMin, float _fScale, int _nSplitBin) {
+		int i = _nStart;
+		int j = _nEnd - 1;
+		while (i <= j) {
+			if (binOf(m_centroids[m_order[i] * 3 + _nAxis], _fMin, _fScale) <= _nSplitBin) {
+				i++;
+			} else {
+				int tmp = m_order[i];
+				m_order[i] = m_order[j];
+				m_order[j] = tmp;
+				j--;
+			}
+		}
+		return i;
+	}
+
+	private void buildMorton(int _nNode, int _nStart, int _nEnd, int[] _codes) {
+		int nCount = _nEnd - _nStart;
+		int nb = _nNode * 6;
+		if (nCount <= m_nMaxLeafSize) {
+			m_sparseNodes[_nNode * 2] = _nStart;
+			m_sparseNodes[_nNode * 2 + 1] = nCount;
+			m_sparseBounds[nb] = m_sparseBounds[nb + 1] = m_sparseBounds[nb + 2] = Float.POSITIVE_INFINITY;
+			m_sparseBounds[nb + 3] = m_sparseBounds[nb + 4] = m_sparseBounds[nb + 5] = Float.NEGATIVE_INFINITY;
+			for (int i = _nStart; i < _nEnd; i++) {
+				growBounds(m_sparseBounds, nb, m_primBounds, m_order[i] * 6);
+			}
+			return;
+		}
+
+		int nFirst = _codes[_nStart];
+		int nLast = _codes[_nEnd - 1];
+		int nMid;
+		int nAxis;
+		if (nFirst == nLast) {
+			// Identical codes, just split the primitives in two halves
+			nMid = (_nStart + _nEnd) >>> 1;
+			nAxis = 0;
+		} else {
+			// Find the last primitive that shares more than the common prefix with the first one
+			int nPrefix = Integer.numberOfLeadingZeros(nFirst ^ nLast);
+			int nLo = _nStart;
+			int nHi = _nEnd - 1;
+			while (nHi - nLo > 1) {
+				int nProbe = (nLo + nHi) >>> 1;
+				if (Integer.numberOfLeadingZeros(nFirst ^ _codes[nProbe]) > nPrefix) {
+					nLo = nProbe;
+				} else {
+					nHi = nProbe;
+				}
+			}
+			nMid = nHi;
+			// The bits are interleaved as ...zyxzyx so the bit position tells the axis
+			nAxis = (31 - nPrefix) % 3;
+		}
+
+		int nLeftChild = _nNode + 1;
+		int nRightChild = _nNode + 2 * (nMid - _nStart);
+		m_sparseNodes[_nNode * 2] = nRightChild;
+		m_sparseNodes[_nNode * 2 + 1] = -nAxis;
+		buildMorton(nLeftChild, _nStart, nMid, _codes);
+		buildMorton(nRightChild, nMid, _nEnd, _codes);
+
+		// The bounds are determined bottom-up from those of the children
+		System.arraycopy(m_sparseBounds, nLeftChild * 6, m_sparseBounds, nb, 6);
+		growBounds(m_sparseBounds, nb, m_sparseBounds, nRightChild * 6);
+	}
+
+	/**
+	 * Calculates a 30 bit Morton code for the centroid of each primitive and
+	 * sorts m_order according to those codes using a radix sort.
+	 * @return The sorted codes
+	 */
+	private int[] sortByMortonCode() {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < m_nPrimCount; i++) {
+			minX = Math.min(minX, m_centroids[i * 3]);
+			minY = Math.min(minY, m_centroids[i * 3 + 1]);
+			minZ = Math.min(minZ, m_centroids[i * 3 + 2]);
+			maxX = Math.max(maxX, m_centroids[i * 3]);
+			maxY = Math.max(maxY, m_centroids[i * 3 + 1]);
+			maxZ = Math.max(maxZ, m_centroids[i * 3 + 2]);
+		}
+		float fScaleX = (maxX > minX) ? 1023.0f / (maxX - minX) : 0.0f;
+		float fScaleY = (maxY > minY) ? 1023.0f / (maxY - minY) : 0.0f;
+		float fScaleZ = (maxZ > minZ) ? 1023.0f / (maxZ - minZ) : 0.0f;
+
+		int[] codes = new int[m_nPrimCount];
+		for (int i = 0; i < m_nPrimCount; i++) {
+			int x = (int)((m_centroids[i * 3] - minX) * fScaleX);
+			int y = (int)((m_centroids[i * 3 + 1] - minY) * fScaleY);
+			int z = (int)((m_centroids[i * 3 + 2] - minZ) * fScaleZ);
+			codes[i] = (expandBits(z) << 2) | (expandBits(y) << 1) | expandBits(x);
+		}
+
+		// Stable LSD radix sort, 3 passes of 10 bits each
+		int[] tmpCodes = new int[m_nPrimCount];
+		int[] tmpOrder = new int[m_nPrimCount];
+		int[] counts = new int[1024];
+		for (int nShift = 0; nShift < 30; nShift += 10) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < m_nPrimCount; i++) {
+				counts[(codes[i] >>> nShift) & 1023]++;
+			}
+			int nSum = 0;
+			for (int i = 0; i < 1024; i++) {
+				int c = counts[i];
+				counts[i] = nSum;
+				nSum += c;
+			}
+			for (int i = 0; i < m_nPrimCount; i++) {
+				int nPos = counts[(codes[i] >>> nShift) & 1023]++;
+				tmpCodes[nPos] = codes[i];
+				tmpOrder[nPos] = m_order[i];
+			}
+			int[] swap = codes;
+			codes = tmpCodes;
+			tmpCodes = swap;
+			swap = m_order;
+			m_order = tmpOrder;
+			tmpOrder = swap;
+		}
+		return codes;
+	}
+
+	/**
+	 * Spreads the lower 10 bits of the given value so there are two zero bits between each of them
+	 */
+	private static int expandBits(int _nValue) {
+		int v = _nValue & 0x3ff;
+		v = (v | (v << 16)) & 0x030000ff;
+		v = (v | (v << 8)) & 0x0300f00f;
+		v = (v | (v << 4)) & 0x030c30c3;
+		v = (v | (v << 2)) & 0x09249249;
+		return v;
+	}
+
+	/**
+	 * Copies the nodes from their reserved slots to dense arrays in depth-first order
+	 */
+	private void compact() {
+		m_nNodeCount = 0;
+		m_nDepth = 0;
+		if (m_nPrimCount == 0) {
+			if (m_nodes == null) {
+				m_bounds = new float[0];
+				m_nodes = new int[0];
+			}
+			return;
+		}
+
+		// First count the nodes so the arrays can be allocated with the right size
+		int[] stack = new int[64];
+		int nStackSize = 0;
+		int nCount = 0;
+		stack[nStackSize++] = 0;
+		while (nStackSize > 0) {
+			int nNode = stack[--nStackSize];
+			nCount++;
+			if (m_sparseNodes[nNode * 2 + 1] <= 0) {
+				if (nStackSize + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[nStackSize++] = m_sparseNodes[nNode * 2];
+				stack[nStackSize++] = nNode + 1;
+			}
+		}
+		if ((m_nodes == null) || (m_nodes.length < nCount * 2)) {
+			m_bounds = new float[nCount * 6];
+			m_nodes = new int[nCount * 2];
+		}
+
+		// Now copy them, each stack entry holds the sparse index of the node,
+		// the dense index of the parent whose right child it is (or -1) and its depth
+		stack[0] = 0;
+		stack[1] = -1;
+		stack[2] = 1;
+		nStackSize = 3;
+		while (nStackSize > 0) {
+			int nDepth = stack[--nStackSize];
+			int nParent = stack[--nStackSize];
+			int nNode = stack[--nStackSize];
+			int nDense = m_nNodeCount++;
+			if (nDepth > m_nDepth) {
+				m_nDepth = nDepth;
+			}
+			if (nParent >= 0) {
+				m_nodes[nParent * 2] = nDense;
+			}
+			System.arraycopy(m_sparseBounds, nNode * 6, m_bounds, nDense * 6, 6);
+			m_nodes[nDense * 2] = m_sparseNodes[nNode * 2];
+			m_nodes[nDense * 2 + 1] = m_sparseNodes[nNode * 2 + 1];
+			if (m_sparseNodes[nNode * 2 + 1] <= 0) {
+				if (nStackSize + 6 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[nStackSize++] = m_sparseNodes[nNode * 2];
+				stack[nStackSize++] = nDense;
+				stack[nStackSize++] = nDepth + 1;
+				stack[nStackSize++] = nNode + 1;
+				stack[nStackSize++] = -1;
+				stack[nStackSize++] = nDepth + 1;
+			}
+		}
+
+		if (!m_bReused) {
+			// Builders used only once don't need to hold on to their working arrays
+			m_sparseBounds = null;
+			m_sparseNodes = null;
+			m_centroids = null;
+		}
+	}
+
+	private static int binOf(float _fValue, float _fMin, float _fScale) {
+		int nBin = (int)((_fValue - _fMin) * _fScale);
+		return (nBin < BIN_COUNT) ? nBin : BIN_COUNT - 1;
+	}
+
+	private static void growBounds(float[] _bounds, int _nOffset, float[] _other, int _nOtherOffset) {
+		_bounds[_nOffset] = Math.min(_bounds[_nOffset], _other[_nOtherOffset]);
+		_bounds[_nOffset + 1] = Math.min(_bounds[_nOffset + 1], _other[_nOtherOffset + 1]);
+		_bounds[_nOffset + 2] = Math.min(_bounds[_nOffset + 2], _other[_nOtherOffset + 2]);
+		_bounds[_nOffset + 3] = Math.max(_bounds[_nOffset + 3], _other[_nOtherOffset + 3]);
+		_bounds[_nOffset + 4] = Math.max(_bounds[_nOffset + 4], _other[_nOtherOffset + 4]);
+		_bounds[_nOffset + 5] = Math.max(_bounds[_nOffset + 5], _other[_nOtherOffset + 5]);
+	}
+
+	/**
+	 * Returns half the surface area of the given box
+	 */
+	static float halfArea(float _fMinX, float _fMinY, float _fMinZ, float _fMaxX, float _fMaxY, float _fMaxZ) {
+		float dx = _fMaxX - _fMinX;
+		float dy = _fMaxY - _fMinY;
+		float dz = _fMaxZ - _fMinZ;
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	/**
+	 * Working storage for determining the bounds of a node and the
+	 * binned split candidates. Each thread building nodes has its own.
+	 * All operations are plain min/max/count so results merged from
+	 * several partial scans are exactly the same as those of a single scan.
+	 */
+	private static class Bins {
+		/** Node bounds (6) followed by the bounds of the centroids (6) */
+		float[] m_bounds = new float[12];
+		int[] m_counts = new int[3 * BIN_COUNT];
+		float[] m_binBounds = new float[3 * BIN_COUNT * 6];
+		float[] m_rightAreas = new float[BIN_COUNT];
+		int[] m_rightCounts = new int[BIN_COUNT];
+		float m_fBestCost;
+
+		void clearBounds() {
+			for (int i = 0; i < 12; i += 6) {
+				m_bounds[i] = m_bounds[i + 1] = m_bounds[i + 2] = Float.POSITIVE_INFINITY;
+				m_bounds[i + 3] = m_bounds[i + 4] = m_bounds[i + 5] = Float.NEGATIVE_INFINITY;
+			}
+		}
+
+		void clearBins() {
+			Arrays.fill(m_counts, 0);
+			for (int i = 0; i < m_binBounds.length; i += 6) {
+				m_binBounds[i] = m_binBounds[i + 1] = m_binBounds[i + 2] = Float.POSITIVE_INFINITY;
+				m_binBounds[i + 3] = m_binBounds[i + 4] = m_binBounds[i + 5] = Float.NEGATIVE_INFINITY;
+			}
+		}
+
+		void scanBounds(BvhBuilder _builder, int _nStart, int _nEnd) {
+			float[] primBounds = _builder.m_primBounds;
+			float[] centroids = _builder.m_centroids;
+			int[] order = _builder.m_order;
+			for (int i = _nStart; i < _nEnd; i++) {
+				int p = order[i];
+				growBounds(m_bounds, 0, primBounds, p * 6);
+				int c = p * 3;
+				m_bounds[6] = Math.min(m_bounds[6], centroids[c]);
+				m_bounds[7] = Math.min(m_bounds[7], centroids[c + 1]);
+				m_bounds[8] = Math.min(m_bounds[8], centroids[c + 2]);
+				m_bounds[9] = Math.max(m_bounds[9], centroids[c]);
+				m_bounds[10] = Math.max(m_bounds[10], centroids[c + 1]);
+				m_bounds[11] = Math.max(m_bounds[11], centroids[c + 2]);
+			}
+		}
+
+		void scanBins(BvhBuilder _builder, int _nStart, int _nEnd, float _fMinX, float _fMinY, float _fMinZ, float _fScaleX, float _fScaleY, float _fScaleZ) {
+			float[] primBounds = _builder.m_primBounds;
+			float[] centroids = _builder.m_centroids;
+			int[] order = _builder.m_order;
+			for (int i = _nStart; i < _nEnd; i++) {
+				int p = order[i];
+				int nBin = binOf(centroids[p * 3], _fMinX, _fScaleX);
+				m_counts[nBin]++;
+				growBounds(m_binBounds, nBin * 6, primBounds, p * 6);
+				nBin = BIN_COUNT + binOf(centroids[p * 3 + 1], _fMinY, _fScaleY);
+				m_counts[nBin]++;
+				growBounds(m_binBounds, nBin * 6, primBounds, p * 6);
+				nBin = 2 * BIN_COUNT + binOf(centroids[p * 3 + 2], _fMinZ, _fScaleZ);
+				m_counts[nBin]++;
+				growBounds(m_binBounds, nBin * 6, primBounds, p * 6);
+			}
+		}
+
+		void mergeBounds(Bins _other) {
+			growBounds(m_bounds, 0, _other.m_bounds, 0);
+			growBounds(m_bounds, 6, _other.m_bounds, 6);
+		}
+
+		void mergeBins(Bins _other) {
+			for (int i = 0; i < 3 * BIN_COUNT; i++) {
+				m_counts[i] += _other.m_counts[i];
+				growBounds(m_binBounds, i * 6, _other.m_binBounds, i * 6);
+			}
+		}
+
+		/**
+		 * Evaluates the surface area heuristic for each bin boundary along the given axis
+		 * @return The last bin on the left side of the best split or -1 if none was found,
+		 * the cost of the split can be found in m_fBestCost
+		 */
+		int findBestSplit(int _nAxis) {
+			int nFirstBin = _nAxis * BIN_COUNT;
+
+			// Sweep from the right to get the area and count to the right of each bin boundary
+			float rMinX = Float.POSITIVE_INFINITY, rMinY = Float.POSITIVE_INFINITY, rMinZ = Float.POSITIVE_INFINITY;
+			float rMaxX = Float.NEGATIVE_INFINITY, rMaxY = Float.NEGATIVE_INFINITY, rMaxZ = Float.NEGATIVE_INFINITY;
+			int nRight = 0;
+			for (int i = BIN_COUNT - 1; i > 0; i--) {
+				int nBin = nFirstBin + i;
+				if (m_counts[nBin] > 0) {
+					int bb = nBin * 6;
+					rMinX = Math.min(rMinX, m_binBounds[bb]);
+					rMinY = Math.min(rMinY, m_binBounds[bb + 1]);
+					rMinZ = Math.min(rMinZ, m_binBounds[bb + 2]);
+					rMaxX = Math.max(rMaxX, m_binBounds[bb + 3]);
+					rMaxY = Math.max(rMaxY, m_binBounds[bb + 4]);
+					rMaxZ = Math.max(rMaxZ, m_binBounds[bb + 5]);
+					nRight += m_counts[nBin];
+				}
+				m_rightCounts[i] = nRight;
+				m_rightAreas[i] = (nRight > 0) ? halfArea(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ) : 0.0f;
+			}
+
+			// And now sweep from the left evaluating each split
+			float lMinX = Float.POSITIVE_INFINITY, lMinY = Float.POSITIVE_INFINITY, lMinZ = Float.POSITIVE_INFINITY;
+			float lMaxX = Float.NEGATIVE_INFINITY, lMaxY = Float.NEGATIVE_INFINITY, lMaxZ = Float.NEGATIVE_INFINITY;
+			int nLeft = 0;
+			int nBestBin = -1;
+			m_fBestCost = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < BIN_COUNT - 1; i++) {
+				int nBin = nFirstBin + i;
+				if (m_counts[nBin] > 0) {
+					int bb = nBin * 6;
+					lMinX = Math.min(lMinX, m_binBounds[bb]);
+					lMinY = Math.min(lMinY, m_binBounds[bb + 1]);
+					lMinZ = Math.min(lMinZ, m_binBounds[bb + 2]);
+					lMaxX = Math.max(lMaxX, m_binBounds[bb + 3]);
+					lMaxY = Math.max(lMaxY, m_binBounds[bb + 4]);
+					lMaxZ = Math.max(lMaxZ, m_binBounds[bb + 5]);
+					nLeft += m_counts[nBin];
+				}
+				if ((nLeft == 0) || (m_rightCounts[i + 1] == 0)) {
+					continue;
+				}
+				float fCost = nLeft * halfArea(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ) + m_rightCounts[i + 1] * m_rightAreas[i + 1];
+				if (fCost < m_fBestCost) {
+					m_fBestCost = fCost;
+					nBestBin = i;
+				}
+			}
+			return nBestBin;
+		}
+	}
+
+	/**
+	 * Builds a subtree as a separate fork/join task
+	 */
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int m_nNode;
+		private int m_nStart;
+		private int m_nEnd;
+
+		BuildTask(int _nNode, int _nStart, int _nEnd) {
+			m_nNode = _nNode;
+			m_nStart = _nStart;
+			m_nEnd = _nEnd;
+		}
+
+		@Override
+		protected void compute() {
+			buildSah(m_nNode, m_nStart, m_nEnd, new Bins());
+		}
+	}
+
+	/**
+	 * Gathers either the bounds (mode 0) or the bins (mode 1) of a range
+	 * of primitives by splitting it up into parts that are scanned in parallel
+	 */
+	private class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int m_nStart;
+		private int m_nEnd;
+		private int m_nMode;
+		private float m_fMinX, m_fMinY, m_fMinZ;
+		private float m_fScaleX, m_fScaleY, m_fScaleZ;
+		Bins m_bins;
+
+		ScanTask(int _nStart, int _nEnd, int _nMode, float _fMinX, float _fMinY, float _fMinZ, float _fScaleX, float _fScaleY, float _fScaleZ) {
+			m_nStart = _nStart;
+			m_nEnd = _nEnd;
+			m_nMode = _nMode;
+			m_fMinX = _fMinX;
+			m_fMinY = _fMinY;
+			m_fMinZ = _fMinZ;
+			m_fScaleX = _fScaleX;
+			m_fScaleY = _fScaleY;
+			m_fScaleZ = _fScaleZ;
+		}
+
+		@Override
+		protected void compute() {
+			m_bins = new Bins();
+			m_bins.clearBounds();
+			m_bins.clearBins();
+			if (m_nEnd - m_nStart > PARALLEL_SCAN_THRESHOLD / 4) {
+				int nMid = (m_nStart + m_nEnd) >>> 1;
+				ScanTask left = new ScanTask(m_nStart, nMid, m_nMode, m_fMinX, m_fMinY, m_fMinZ, m_fScaleX, m_fScaleY, m_fScaleZ);
+				ScanTask right = new ScanTask(nMid, m_nEnd, m_nMode, m_fMinX, m_fMinY, m_fMinZ, m_fScaleX, m_fScaleY, m_fScaleZ);
+				invokeAll(left, right);
+				if (m_nMode == 0) {
+					m_bins.mergeBounds(left.m_bins);
+					m_bins.mergeBounds(right.m_bins);
+				} else {
+					m_bins.mergeBins(left.m_bins);
+					m_bins.mergeBins(right.m_bins);
+				}
+			} else if (m_nMode == 0) {
+				m_bins.scanBounds(BvhBuilder.this, m_nStart, m_nEnd);
+			} else {
+				m_bins.scanBins(BvhBuilder.this, m_nStart, m_nEnd, m_fMinX, m_fMinY, m_fMinZ, m_fScaleX, m_fScaleY, m_fScaleZ);
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,231 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import javax.vecmath.Tuple3f;
+
+/**
+ * Holds the contacts found by shape queries like Geometry.overlapSphere()
+ * in primitive arrays with a fixed capacity. Queries append to the buffer
+ * so the contacts with several Geometries can be collected in one go,
+ * call clear() to start over. Contacts that don't fit anymore are dropped
+ * and flagged by isOverflowed().
+ *
+ * Each contact consists of the index of the triangle that was touched,
+ * the point on the triangle closest to the shape, the normal pointing
+ * from the triangle towards the shape, the penetration depth and for
+ * sweeps the time of impact.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class ContactBuffer {
+	private int m_nCount;
+	private boolean m_bOverflowed;
+	private int[] m_triangles;
+	private float[] m_points;
+	private float[] m_normals;
+	private float[] m_depths;
+	private float[] m_times;
+
+	/**
+	 * Creates an empty buffer with room for the given number of contacts
+	 * @param _nCapacity The maximum number of contacts
+	 */
+	public ContactBuffer(int _nCapacity) {
+		m_nCount = 0;
+		m_bOverflowed = false;
+		m_triangles = new int[_nCapacity];
+		m_points = new float[_nCapacity * 3];
+		m_normals = new float[_nCapacity * 3];
+		m_depths = new float[_nCapacity];
+		m_times = new float[_nCapacity];
+	}
+
+	/**
+	 * Returns the maximum number of contacts this buffer can hold
+	 * @return The capacity of the buffer
+	 */
+	public int getCapacity() {
+		return m_triangles.length;
+	}
+
+	/**
+	 * Returns the number of contacts in the buffer
+	 * @return The number of contacts
+	 */
+	public int getCount() {
+		return m_nCount;
+	}
+
+	/**
+	 * Determines if any contacts were dropped because the buffer was full
+	 * @return true if contacts were lost, false if not
+	 */
+	public boolean isOverflowed() {
+		return m_bOverflowed;
+	}
+
+	/**
+	 * Removes all contacts from the buffer
+	 */
+	public void clear() {
+		m_nCount = 0;
+		m_bOverflowed = false;
+	}
+
+	/**
+	 * Returns the index of the triangle within the Geometry of the given
+	 * contact, as used by Geometry.getTriangle()
+	 * @param _nContact The index of the contact
+	 * @return The index of the triangle
+	 */
+	public int getTriangle(int _nContact) {
+		return m_triangles[_nContact];
+	}
+
+	/**
+	 * Stores the point on the triangle of the given contact in the given tuple
+	 * @param _nContact The index of the contact
+	 * @param _point The tuple that will hold the point
+	 */
+	public void getPoint(int _nContact, Tuple3f _point) {
+		_point.x = m_points[_nContact * 3];
+		_point.y = m_points[_nContact * 3 + 1];
+		_point.z = m_points[_nContact * 3 + 2];
+	}
+
+	/**
+	 * Stores the normalized contact normal, pointing from the triangle
+	 * towards the shape, of the given contact in the given tuple
+	 * @param _nContact The index of the contact
+	 * @param _normal The tuple that will hold the normal
+	 */
+	public void getNormal(int _nContact, Tuple3f _normal) {
+		_normal.x = m_normals[_nContact * 3];
+		_normal.y = m_normals[_nContact * 3 + 1];
+		_normal.z = m_normals[_nContact * 3 + 2];
+	}
+
+	/**
+	 * Returns the distance the shape of the given contact has to be moved
+	 * along the normal to stop touching the triangle. For sweeps this is
+	 * zero unless the sphere was already penetrating the triangle at the
+	 * start of the sweep.
+	 * @param _nContact The index of the contact
+	 * @return The penetration depth
+	 */
+	public float getDepth(int _nContact) {
+		return m_depths[_nContact];
+	}
+
+	/**
+	 * Returns the time of impact of the given contact as a fraction (0 .. 1)
+	 * of the movement of the sweep. For overlap queries this is always zero.
+	 * @param _nContact The index of the contact
+	 * @return The time of impact
+	 */
+	public float getTime(int _nContact) {
+		return m_times[_nContact];
+	}
+
+	/**
+	 * Returns the contact with the earliest time of impact, which for a
+	 * sweep is the position where the movement has to stop
+	 * @return The index of the earliest contact or -1 if the buffer is empty
+	 */
+	public int getEarliest() {
+		int nEarliest = -1;
+		for (int i = 0; i < m_nCount; i++) {
+			if ((nEarliest == -1) || (m_times[i] < m_times[nEarliest])) {
+				nEarliest = i;
+			}
+		}
+		return nEarliest;
+	}
+
+	/**
+	 * Returns the triangle indices of all contacts
+	 * @return The triangle index array
+	 */
+	public int[] getTriangles() {
+		return m_triangles;
+	}
+
+	/**
+	 * Returns the points of all contacts, 3 elements per contact
+	 * @return The point array
+	 */
+	public float[] getPoints() {
+		return m_points;
+	}
+
+	/**
+	 * Returns the normals of all contacts, 3 elements per contact
+	 * @return The normal array
+	 */
+	public float[] getNormals() {
+		return m_normals;
+	}
+
+	/**
+	 * Returns the penetration depths of all contacts
+	 * @return The depth array
+	 */
+	public float[] getDepths() {
+		return m_depths;
+	}
+
+	/**
+	 * Returns the times of impact of all contacts
+	 * @return The time array
+	 */
+	public float[] getTimes() {
+		return m_times;
+	}
+
+	/**
+	 * Adds a contact to the buffer
+	 * @return false if the buffer was full and the contact was dropped
+	 */
+	boolean add(int _nTriangle, float _fPX, float _fPY, float _fPZ, float _fNX, float _fNY, float _fNZ, float _fDepth, float _fTime) {
+		if (m_nCount == m_triangles.length) {
+			m_bOverflowed = true;
+			return false;
+		}
+		int i = m_nCount++;
+		m_triangles[i] = _nTriangle;
+		m_points[i * 3] = _fPX;
+		m_points[i * 3 + 1] = _fPY;
+		m_points[i * 3 + 2] = _fPZ;
+		m_normals[i * 3] = _fNX;
+		m_normals[i * 3 + 1] = _fNY;
+		m_normals[i * 3 + 2] = _fNZ;
+		m_depths[i] = _fDepth;
+		m_times[i] = _fTime;
+		return true;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -6,6 +6,7 @@ package org.codejive.utils4gl.geometries;
 import java.util.Iterator;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Point3f;
 import javax.vecmath.Vector3d;
 
 
@@ -50,6 +51,40 @@ public interface Geometry {
 	 */
 	public Iterator<Polygon> polygonIterator(int _nFormat);
 	
+	/**
+	 * Returns the number of triangles in the Geometry. Polygons consisting
+	 * of more than 3 vertices (like quads) are counted as multiple triangles.
+	 * The default implementation counts them using the polygon iterator.
+	 * 
+	 * @return The number of triangles
+	 */
+	public default int getTriangleCount() {
+		int nCount = 0;
+		Iterator<Polygon> i = polygonIterator(VertexBuffer.COORDINATES);
+		while (i.hasNext()) {
+			nCount += i.next().getVertexCount() - 2;
+		}
+		return nCount;
+	}
+	
+	/**
+	 * Returns the indices of the three vertices that make up the given triangle.
+	 * The indices refer directly to the vertex data in the VertexBuffer, for
+	 * indexed buffers they have already been looked up in the index.
+	 * All triangles returned this way will have the same winding.
+	 * The polygons returned by the polygon iterator don't know the indices
+	 * of their vertices so the default implementation throws an
+	 * UnsupportedOperationException. Bounding volume hierarchies and the
+	 * shape queries need this method.
+	 * 
+	 * @param _nTriangle The index of the triangle (0 .. getTriangleCount() - 1)
+	 * @param _indices Int array of at least 3 elements where the vertex indices will be stored
+	 * @param _nOffset The offset into the array where the first index should go
+	 */
+	public default void getTriangle(int _nTriangle, int[] _indices, int _nOffset) {
+		throw new UnsupportedOperationException();
+	}
+	
 	/** Test the geometry for intersection by "shooting" a ray of infinite length
 	 * from the given origin towards the given direction. The first intersection
 	 * found will be returned.
@@ -137,6 +172,72 @@ public interface Geometry {
 	 * @return true if there was an intersection, false if not
 	 */
 	public boolean intersectClosest(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection);
+	
+	/** Finds all triangles of the geometry that are touched by the given sphere.
+	 * The contacts are added to the given buffer.
+	 * The default implementation tests all triangles returned by getTriangle().
+	 *
+	 * @param _center The center of the sphere
+	 * @param _fRadius The radius of the sphere
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public default int overlapSphere(Point3f _center, float _fRadius, ContactBuffer _contacts) {
+		return new ShapeTester().overlapSphere(_center, _fRadius, this, _contacts);
+	}
+	
+	/** Finds all triangles of the geometry that are touched by the given axis-aligned box.
+	 * The contacts are added to the given buffer.
+	 * The default implementation tests all triangles returned by getTriangle().
+	 *
+	 * @param _min The corner of the box with the lowest coordinates
+	 * @param _max The corner of the box with the highest coordinates
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public default int overlapAABB(Point3f _min, Point3f _max, ContactBuffer _contacts) {
+		return new ShapeTester().overlapAABB(_min, _max, this, _contacts);
+	}
+	
+	/** Moves a sphere from the start to the end position and finds all triangles
+	 * of the geometry it touches on the way together with the time of impact.
+	 * The contacts are added to the given buffer, ContactBuffer.getEarliest()
+	 * returns the one where the movement should stop.
+	 * The default implementation tests all triangles returned by getTriangle().
+	 *
+	 * @param _start The center of the sphere at the start of the movement
+	 * @param _end The center of the sphere at the end of the movement
+	 * @param _fRadius The radius of the sphere
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public default int sweepCapsule(Point3f _start, Point3f _end, float _fRadius, ContactBuffer _contacts) {
+		return new ShapeTester().sweepCapsule(_start, _end, _fRadius, this, _contacts);
+	}
+	
+	/** Finds the point on the surface of the geometry closest to the given point.
+	 *
+	 * @param _point The point to find the closest surface point for
+	 * @param _fMaxDist The maximum distance to look for surface points. If the value is zero, it is ignored
+	 * @return Intersection object holding the closest point, its distance, triangle and barycentric coordinates
+	 */
+	public default Intersection closestPoint(Point3f _point, float _fMaxDist) {
+		Intersection result = new Intersection();
+		closestPoint(_point, _fMaxDist, result);
+		return result;
+	}
+	
+	/** Finds the point on the surface of the geometry closest to the given point.
+	 * The default implementation tests all triangles returned by getTriangle().
+	 *
+	 * @param _point The point to find the closest surface point for
+	 * @param _fMaxDist The maximum distance to look for surface points. If the value is zero, it is ignored
+	 * @param _result Will hold the closest point, its distance, triangle and barycentric coordinates. The isIntersecting member will be false if no point was found within the maximum distance.
+	 * @return true if a point was found, false if not
+	 */
+	public default boolean closestPoint(Point3f _point, float _fMaxDist, Intersection _result) {
+		return new ShapeTester().closestPoint(_point, _fMaxDist, this, _result);
+	}
 }
 
 
@@ -22,6 +22,7 @@
 package org.codejive.utils4gl.geometries;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Point3f;
 import javax.vecmath.Vector3d;
 
 
@@ -37,6 +38,9 @@ import javax.vecmath.Vector3d;
 public abstract class GeometryBase implements Geometry {
 	private VertexBuffer m_buffer;
 	private IntersectionTester intersections;
+	private ShapeTester m_shapes;
+	private BoundingVolumeHierarchy m_bvh;
+	private TriangleData m_triangleData;
 	
 	/**
 	 * Creates a Geometry using the given VertexBuffer for its vertex data.
@@ -53,6 +57,80 @@ public abstract class GeometryBase implements Geometry {
 		return m_buffer;
 	}
 	
+	/**
+	 * Returns the index of the vertex data for the n-th vertex of the Geometry.
+	 * For indexed buffers the index is looked up, otherwise it is returned as is.
+	 * @param _nIndex The index of the vertex within the Geometry
+	 * @return The index of the vertex data within the VertexBuffer
+	 */
+	protected int getVertexIndex(int _nIndex) {
+		return (m_buffer.isIndexed()) ? m_buffer.getIndex(_nIndex) : _nIndex;
+	}
+	
+	/**
+	 * Returns the bounding volume hierarchy used to speed up intersection tests
+	 * @return The bounding volume hierarchy or null if none was set
+	 */
+	public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+		return m_bvh;
+	}
+	
+	/**
+	 * Sets the bounding volume hierarchy to use to speed up intersection tests.
+	 * The hierarchy must have been built for this Geometry.
+	 * @param _bvh The bounding volume hierarchy or null to test all polygons
+	 */
+	public void setBoundingVolumeHierarchy(BoundingVolumeHierarchy _bvh) {
+		if ((_bvh != null) && (_bvh.getGeometry() != this)) {
+			throw new IllegalArgumentException("Bounding volume hierarchy was built for a different Geometry");
+		}
+		m_bvh = _bvh;
+	}
+	
+	/**
+	 * Builds a bounding volume hierarchy for this Geometry and sets it
+	 * so it will be used to speed up intersection tests from now on.
+	 * @return The new bounding volume hierarchy
+	 */
+	public BoundingVolumeHierarchy buildBoundingVolumeHierarchy() {
+		setBoundingVolumeHierarchy(new BoundingVolumeHierarchy(this));
+		return m_bvh;
+	}
+	
+	/**
+	 * Returns the precomputed triangle data used to speed up intersection
+	 * tests when there is no bounding volume hierarchy
+	 * @return The triangle data or null if none was set
+	 */
+	public TriangleData getTriangleData() {
+		return m_triangleData;
+	}
+	
+	/**
+	 * Sets the precomputed triangle data to use to speed up intersection
+	 * tests when there is no bounding volume hierarchy. The data must have
+	 * been created for this Geometry.
+	 * @param _data The triangle data or null to read the triangles from the VertexBuffer
+	 */
+	public void setTriangleData(TriangleData _data) {
+		if ((_data != null) && (_data.getGeometry() != this)) {
+			throw new IllegalArgumentException("Triangle data was created for a different Geometry");
+		}
+		m_triangleData = _data;
+	}
+	
+	/**
+	 * Copies the vertices of all triangles into a TriangleData and sets it
+	 * so ray intersection tests will use it from now on when there is no
+	 * bounding volume hierarchy. To get the same benefit with a hierarchy
+	 * build it with BoundingVolumeHierarchy.BUILD_TRIANGLE_DATA.
+	 * @return The new triangle data
+	 */
+	public TriangleData buildTriangleData() {
+		setTriangleData(new TriangleData(this));
+		return m_triangleData;
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.codejive.utils4gl.geometries.Geometry#intersectAny(javax.vecmath.Point3d, javax.vecmath.Vector3d)
 	 */
@@ -72,7 +150,7 @@ public abstract class GeometryBase implements Geometry {
 	 */
 	public Intersection intersectAny(Point3d _origin, Vector3d _direction, float _fLength) {
 		Intersection intersection = new Intersection();
-		intersections.intersect(_origin, _direction, _fLength, this, true, intersection);
+		intersect(_origin, _direction, _fLength, true, intersection, null);
 		return intersection;
 	}
 
@@ -81,7 +159,7 @@ public abstract class GeometryBase implements Geometry {
 	 */
 	public Intersection intersectClosest(Point3d _origin, Vector3d _direction, float _fLength) {
 		Intersection intersection = new Intersection();
-		intersections.intersect(_origin, _direction, _fLength, this, false, intersection);
+		intersect(_origin, _direction, _fLength, false, intersection, null);
 		return intersection;
 	}
 
@@ -103,14 +181,179 @@ public abstract class GeometryBase implements Geometry {
 	 * @see org.codejive.utils4gl.geometries.Geometry#intersectAny(javax.vecmath.Point3d, javax.vecmath.Vector3d, float, org.codejive.utils4gl.Intersection)
 	 */
 	public boolean intersectAny(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection) {
-		return intersections.intersect(_origin, _direction, _fLength, this, true, _intersection);
+		return intersect(_origin, _direction, _fLength, true, _intersection, null);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.codejive.utils4gl.geometries.Geometry#intersectClosest(javax.vecmath.Point3d, javax.vecmath.Vector3d, float, org.codejive.utils4gl.Intersection)
 	 */
 	public boolean intersectClosest(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection) {
-		return intersections.intersect(_origin, _direction, _fLength, this, false, _intersection);
+		return intersect(_origin, _direction, _fLength, false, _intersection, null);
+	}
+	
+	/**
+	 * Same as intersectAny(Point3d, Vector3d, float, Intersection) but when
+	 * the Geometry has a bounding volume hierarchy the triangles near the one
+	 * hit by the previous query using the same cache are tested first.
+	 * See HitCache for when this is useful.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @param _cache The cache holding the previous hit, which will be updated with this one
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersectAny(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection, HitCache _cache) {
+		return intersect(_origin, _direction, _fLength, true, _intersection, _cache);
+	}
+	
+	/**
+	 * Same as intersectClosest(Point3d, Vector3d, float, Intersection) but when
+	 * the Geometry has a bounding volume hierarchy the triangles near the one
+	 * hit by the previous query using the same cache are tested first.
+	 * See HitCache for when this is useful.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @param _cache The cache holding the previous hit, which will be updated with this one
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersectClosest(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection, HitCache _cache) {
+		return intersect(_origin, _direction, _fLength, false, _intersection, _cache);
+	}
+	
+	/**
+	 * Finds all triangles hit by the ray and reports them to the listener
+	 * ordered by their distance from the origin.
+	 * See IntersectionTester.intersectAll() for details.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _listener The listener that will receive the hits
+	 * @return The number of hits reported
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, HitListener _listener) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return intersections.intersectAll(_origin, _direction, _fLength, m_bvh, _listener);
+		} else {
+			return intersections.intersectAll(_origin, _direction, _fLength, this, _listener);
+		}
+	}
+	
+	/**
+	 * Finds the nearest triangles hit by the ray and stores them in the
+	 * given buffer ordered by their distance from the origin.
+	 * See IntersectionTester.intersectAll() for details.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _nMaxHits The maximum number of hits to find or 0 to find all of them
+	 * @param _hits The buffer that will hold the hits, its count is set to the number of hits
+	 * @return The number of hits found
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, int _nMaxHits, RayHits _hits) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return intersections.intersectAll(_origin, _direction, _fLength, m_bvh, _nMaxHits, _hits);
+		} else {
+			return intersections.intersectAll(_origin, _direction, _fLength, this, _nMaxHits, _hits);
+		}
+	}
+	
+	private boolean intersect(Point3d _origin, Vector3d _direction, float _fLength, boolean _bAnyIntersect, Intersection _intersection, HitCache _cache) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return intersections.intersect(_origin, _direction, _fLength, m_bvh, _bAnyIntersect, _intersection, _cache);
+		} else if (m_triangleData != null) {
+			m_triangleData.update();
+			return intersections.intersect(_origin, _direction, _fLength, m_triangleData, _bAnyIntersect, _intersection);
+		} else if (hasTrianglePolygons()) {
+			return intersections.intersectTriangles(_origin, _direction, _fLength, this, _bAnyIntersect, _intersection);
+		} else {
+			return intersections.intersect(_origin, _direction, _fLength, this, _bAnyIntersect, _intersection);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.codejive.utils4gl.geometries.Geometry#overlapSphere(javax.vecmath.Point3f, float, org.codejive.utils4gl.geometries.ContactBuffer)
+	 */
+	public int overlapSphere(Point3f _center, float _fRadius, ContactBuffer _contacts) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return getShapeTester().overlapSphere(_center, _fRadius, m_bvh, _contacts);
+		} else {
+			return getShapeTester().overlapSphere(_center, _fRadius, this, _contacts);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.codejive.utils4gl.geometries.Geometry#overlapAABB(javax.vecmath.Point3f, javax.vecmath.Point3f, org.codejive.utils4gl.geometries.ContactBuffer)
+	 */
+	public int overlapAABB(Point3f _min, Point3f _max, ContactBuffer _contacts) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return getShapeTester().overlapAABB(_min, _max, m_bvh, _contacts);
+		} else {
+			return getShapeTester().overlapAABB(_min, _max, this, _contacts);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.codejive.utils4gl.geometries.Geometry#sweepCapsule(javax.vecmath.Point3f, javax.vecmath.Point3f, float, org.codejive.utils4gl.geometries.ContactBuffer)
+	 */
+	public int sweepCapsule(Point3f _start, Point3f _end, float _fRadius, ContactBuffer _contacts) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return getShapeTester().sweepCapsule(_start, _end, _fRadius, m_bvh, _contacts);
+		} else {
+			return getShapeTester().sweepCapsule(_start, _end, _fRadius, this, _contacts);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.codejive.utils4gl.geometries.Geometry#closestPoint(javax.vecmath.Point3f, float)
+	 */
+	public Intersection closestPoint(Point3f _point, float _fMaxDist) {
+		Intersection result = new Intersection();
+		closestPoint(_point, _fMaxDist, result);
+		return result;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.codejive.utils4gl.geometries.Geometry#closestPoint(javax.vecmath.Point3f, float, org.codejive.utils4gl.geometries.Intersection)
+	 */
+	public boolean closestPoint(Point3f _point, float _fMaxDist, Intersection _result) {
+		if (m_bvh != null) {
+			m_bvh.update();
+			return getShapeTester().closestPoint(_point, _fMaxDist, m_bvh, _result);
+		} else {
+			return getShapeTester().closestPoint(_point, _fMaxDist, this, _result);
+		}
+	}
+	
+	private ShapeTester getShapeTester() {
+		// Only Geometries that are actually used for shape queries need one
+		if (m_shapes == null) {
+			m_shapes = new ShapeTester();
+		}
+		return m_shapes;
+	}
+	
+	/**
+	 * Determines if all polygons returned by the polygon iterator are the
+	 * triangles returned by getTriangle(). If so intersection tests can
+	 * read the triangles directly from the VertexBuffer instead of having
+	 * to go through the polygon iterator.
+	 * @return true if the Geometry consists of triangles only, false otherwise
+	 */
+	protected boolean hasTrianglePolygons() {
+		return false;
 	}
 	
 }
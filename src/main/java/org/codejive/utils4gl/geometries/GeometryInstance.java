@@ -0,0 +1,183 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * A Geometry placed in the world using an affine transformation, for use
+ * in an InstanceHierarchy. Any number of instances can share the same
+ * Geometry and with it the same bounding volume hierarchy.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class GeometryInstance {
+	private BoundingVolumeHierarchy m_bvh;
+	private Object m_userData;
+
+	Matrix4f m_transform;
+	/** The transformation from world space to the space of the Geometry */
+	Matrix4f m_inverse;
+	/** The bounds of the instance in world space */
+	float[] m_worldBounds;
+	/** The version of the bounding volume hierarchy the world bounds were calculated for */
+	int m_nBvhVersion;
+	boolean m_bMoved;
+
+	/**
+	 * Creates an instance of the given Geometry. If the Geometry already has
+	 * a bounding volume hierarchy it is used, otherwise one is built and set
+	 * (if the Geometry is a GeometryBase) so other instances can share it.
+	 * @param _geometry The Geometry to place in the world
+	 * @param _transform The transformation from the space of the Geometry to world space
+	 */
+	public GeometryInstance(Geometry _geometry, Matrix4f _transform) {
+		this(hierarchyOf(_geometry), _transform);
+	}
+
+	/**
+	 * Creates an instance of the Geometry of the given bounding volume hierarchy
+	 * @param _bvh The hierarchy of the Geometry to place in the world
+	 * @param _transform The transformation from the space of the Geometry to world space
+	 */
+	public GeometryInstance(BoundingVolumeHierarchy _bvh, Matrix4f _transform) {
+		m_bvh = _bvh;
+		m_transform = new Matrix4f();
+		m_inverse = new Matrix4f();
+		m_worldBounds = new float[6];
+		setTransform(_transform);
+	}
+
+	private static BoundingVolumeHierarchy hierarchyOf(Geometry _geometry) {
+		if (_geometry instanceof GeometryBase) {
+			GeometryBase geom = (GeometryBase)_geometry;
+			if (geom.getBoundingVolumeHierarchy() == null) {
+				geom.buildBoundingVolumeHierarchy();
+			}
+			return geom.getBoundingVolumeHierarchy();
+		}
+		return new BoundingVolumeHierarchy(_geometry);
+	}
+
+	/**
+	 * Returns the Geometry of this instance
+	 * @return The Geometry
+	 */
+	public Geometry getGeometry() {
+		return m_bvh.getGeometry();
+	}
+
+	/**
+	 * Returns the bounding volume hierarchy of the Geometry of this instance
+	 * @return The bounding volume hierarchy
+	 */
+	public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+		return m_bvh;
+	}
+
+	/**
+	 * Stores the transformation of this instance in the given matrix
+	 * @param _transform The matrix that will hold the transformation
+	 */
+	public void getTransform(Matrix4f _transform) {
+		_transform.set(m_transform);
+	}
+
+	/**
+	 * Changes the transformation of this instance. The hierarchy it is part
+	 * of will pick up the change the next time it is updated.
+	 * @param _transform The transformation from the space of the Geometry to world space
+	 */
+	public void setTransform(Matrix4f _transform) {
+		m_transform.set(_transform);
+		m_inverse.invert(_transform);
+		m_bMoved = true;
+	}
+
+	/**
+	 * Returns the object associated with this instance
+	 * @return The user data or null if none was set
+	 */
+	public Object getUserData() {
+		return m_userData;
+	}
+
+	/**
+	 * Associates an object with this instance, for example the scene object
+	 * it represents so it can be found easily after picking
+	 * @param _userData The user data
+	 */
+	public void setUserData(Object _userData) {
+		m_userData = _userData;
+	}
+
+	/**
+	 * Recalculates the world space bounds if the instance has moved or the
+	 * Geometry has changed since the last time
+	 * @return true if the bounds were changed
+	 */
+	boolean updateBounds() {
+		m_bvh.update();
+		if (!m_bMoved && (m_nBvhVersion == m_bvh.getVersion())) {
+			return false;
+		}
+		m_bMoved = false;
+		m_nBvhVersion = m_bvh.getVersion();
+
+		float[] b = m_worldBounds;
+		if (m_bvh.m_nNodeCount == 0) {
+			b[0] = b[1] = b[2] = Float.POSITIVE_INFINITY;
+			b[3] = b[4] = b[5] = Float.NEGATIVE_INFINITY;
+			return true;
+		}
+
+		// Transform the local box by taking for each row of the matrix the
+		// extreme contributions of each axis (Arvo's method)
+		float[] lb = m_bvh.m_bounds;
+		Matrix4f m = m_transform;
+		b[0] = b[3] = m.m03;
+		b[1] = b[4] = m.m13;
+		b[2] = b[5] = m.m23;
+		addExtent(b, 0, m.m00, lb[0], lb[3]);
+		addExtent(b, 0, m.m01, lb[1], lb[4]);
+		addExtent(b, 0, m.m02, lb[2], lb[5]);
+		addExtent(b, 1, m.m10, lb[0], lb[3]);
+		addExtent(b, 1, m.m11, lb[1], lb[4]);
+		addExtent(b, 1, m.m12, lb[2], lb[5]);
+		addExtent(b, 2, m.m20, lb[0], lb[3]);
+		addExtent(b, 2, m.m21, lb[1], lb[4]);
+		addExtent(b, 2, m.m22, lb[2], lb[5]);
+		return true;
+	}
+
+	private static void addExtent(float[] _bounds, int _nAxis, float _fFactor, float _fMin, float _fMax) {
+		float a = _fFactor * _fMin;
+		float b = _fFactor * _fMax;
+		_bounds[_nAxis] += Math.min(a, b);
+		_bounds[_nAxis + 3] += Math.max(a, b);
+	}
+}
+
+/*
+ * $Log$
+ */
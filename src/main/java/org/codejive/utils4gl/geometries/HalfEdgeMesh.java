@@ -0,0 +1,472 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Array based half-edge structure holding the adjacency information of
+ * the triangles of a Geometry. Each triangle t owns the three half-edges
+ * 3t, 3t + 1 and 3t + 2, half-edge h runs from getVertex(h) to
+ * getVertex(getNext(h)) and its twin is the half-edge running in the
+ * opposite direction in the neighbouring triangle (or -1 if the edge
+ * lies on the boundary of the mesh).
+ * <p>
+ * Adjacency is determined by vertex index so vertices shared between
+ * triangles must actually be shared in the VertexBuffer (which is normally
+ * the case for indexed buffers). Edges shared by more than two triangles
+ * are only linked for the first two triangles found.
+ * <p>
+ * None of the query methods allocate any memory, methods returning
+ * multiple results write them to caller supplied arrays.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class HalfEdgeMesh {
+	private Geometry m_geometry;
+	private int m_nTriangleCount;
+	private int m_nVertexCount;
+
+	/** The vertex each half-edge starts from */
+	private int[] m_vertices;
+	/** The opposite half-edge of each half-edge or -1 for boundary edges */
+	private int[] m_twins;
+	/** An outgoing half-edge for each vertex, a boundary edge if there is one */
+	private int[] m_vertexEdges;
+	/** The plane equation (A, B, C, D) of each triangle */
+	private float[] m_planes;
+
+	/**
+	 * Creates the adjacency information for the given Geometry
+	 * @param _geometry The Geometry to determine the adjacency information for
+	 */
+	public HalfEdgeMesh(Geometry _geometry) {
+		m_geometry = _geometry;
+		build();
+	}
+
+	/**
+	 * Returns the Geometry this adjacency information was built from
+	 * @return The Geometry
+	 */
+	public Geometry getGeometry() {
+		return m_geometry;
+	}
+
+	/**
+	 * Returns the number of triangles in the mesh
+	 * @return The number of triangles
+	 */
+	public int getTriangleCount() {
+		return m_nTriangleCount;
+	}
+
+	/**
+	 * Returns the number of vertices referenced by the mesh, this is one
+	 * more than the highest vertex index used by any of its triangles.
+	 * @return The number of vertices
+	 */
+	public int getVertexCount() {
+		return m_nVertexCount;
+	}
+
+	/**
+	 * Returns the number of half-edges in the mesh (3 for each triangle)
+	 * @return The number of half-edges
+	 */
+	public int getHalfEdgeCount() {
+		return m_nTriangleCount * 3;
+	}
+
+	/**
+	 * Returns the vertex the given half-edge starts from
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return The index of the vertex in the VertexBuffer
+	 */
+	public int getVertex(int _nHalfEdge) {
+		return m_vertices[_nHalfEdge];
+	}
+
+	/**
+	 * Returns the half-edge following the given half-edge within its triangle
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return The index of the next half-edge
+	 */
+	public int getNext(int _nHalfEdge) {
+		return ((_nHalfEdge % 3) == 2) ? _nHalfEdge - 2 : _nHalfEdge + 1;
+	}
+
+	/**
+	 * Returns the half-edge preceding the given half-edge within its triangle
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return The index of the previous half-edge
+	 */
+	public int getPrevious(int _nHalfEdge) {
+		return ((_nHalfEdge % 3) == 0) ? _nHalfEdge + 2 : _nHalfEdge - 1;
+	}
+
+	/**
+	 * Returns the half-edge running in the opposite direction in the neighbouring triangle
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return The index of the opposite half-edge or -1 if the edge lies on the boundary
+	 */
+	public int getTwin(int _nHalfEdge) {
+		return m_twins[_nHalfEdge];
+	}
+
+	/**
+	 * Returns the triangle the given half-edge belongs to
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return The index of the triangle
+	 */
+	public int getTriangle(int _nHalfEdge) {
+		return _nHalfEdge / 3;
+	}
+
+	/**
+	 * Returns the triangle sharing the given edge with the given triangle
+	 * @param _nTriangle The index of the triangle
+	 * @param _nEdge The edge of the triangle (0, 1 or 2) where edge n runs from vertex n to vertex n + 1
+	 * @return The index of the neighbouring triangle or -1 if the edge lies on the boundary
+	 */
+	public int getNeighbour(int _nTriangle, int _nEdge) {
+		int nTwin = m_twins[_nTriangle * 3 + _nEdge];
+		return (nTwin >= 0) ? nTwin / 3 : -1;
+	}
+
+	/**
+	 * Returns one of the half-edges starting from the given vertex. If the
+	 * vertex lies on the boundary the returned half-edge will be a boundary
+	 * edge, which makes it the first of the half-edges found when rotating
+	 * around the vertex using getNextOutgoing().
+	 * @param _nVertex The index of the vertex
+	 * @return The index of an outgoing half-edge or -1 if the vertex isn't used by any triangle
+	 */
+	public int getOutgoing(int _nVertex) {
+		return m_vertexEdges[_nVertex];
+	}
+
+	/**
+	 * Returns the next half-edge starting from the same vertex as the given half-edge
+	 * @param _nHalfEdge The index of an outgoing half-edge
+	 * @return The index of the next outgoing half-edge or -1 if the boundary was reached
+	 */
+	public int getNextOutgoing(int _nHalfEdge) {
+		return m_twins[getPrevious(_nHalfEdge)];
+	}
+
+	/**
+	 * Determines if the given half-edge lies on the boundary of the mesh
+	 * @param _nHalfEdge The index of the half-edge
+	 * @return A boolean indicating if the half-edge is a boundary edge
+	 */
+	public boolean isBoundary(int _nHalfEdge) {
+		return (m_twins[_nHalfEdge] < 0);
+	}
+
+	/**
+	 * Determines if the given vertex lies on the boundary of the mesh
+	 * @param _nVertex The index of the vertex
+	 * @return A boolean indicating if the vertex is a boundary vertex
+	 */
+	public boolean isBoundaryVertex(int _nVertex) {
+		int nEdge = m_vertexEdges[_nVertex];
+		return (nEdge >= 0) && (m_twins[nEdge] < 0);
+	}
+
+	/**
+	 * Returns the number of edges connected to the given vertex
+	 * @param _nVertex The index of the vertex
+	 * @return The number of neighbouring vertices
+	 */
+	public int getValence(int _nVertex) {
+		int nStart = m_vertexEdges[_nVertex];
+		if (nStart < 0) {
+			return 0;
+		}
+		int nCount = 0;
+		int nEdge = nStart;
+		do {
+			nCount++;
+			int nNext = getNextOutgoing(nEdge);
+			if (nNext < 0) {
+				// One extra neighbour at the end of an open fan
+				nCount++;
+				break;
+			}
+			nEdge = nNext;
+		} while (nEdge != nStart);
+		return nCount;
+	}
+
+	/**
+	 * Stores the vertices connected to the given vertex by an edge in the given array.
+	 * The array must be large enough to hold getValence(_nVertex) elements.
+	 * @param _nVertex The index of the vertex
+	 * @param _neighbours Int array where the indices of the neighbouring vertices will be stored
+	 * @param _nOffset The offset into the array where the first index should go
+	 * @return The number of neighbouring vertices
+	 */
+	public int getOneRing(int _nVertex, int[] _neighbours, int _nOffset) {
+		int nStart = m_vertexEdges[_nVertex];
+		if (nStart < 0) {
+			return 0;
+		}
+		int nCount = 0;
+		int nEdge = nStart;
+		do {
+			_neighbours[_nOffset + nCount++] = m_vertices[getNext(nEdge)];
+			int nNext = getNextOutgoing(nEdge);
+			if (nNext < 0) {
+				_neighbours[_nOffset + nCount++] = m_vertices[getPrevious(nEdge)];
+				break;
+			}
+			nEdge = nNext;
+		} while (nEdge != nStart);
+		return nCount;
+	}
+
+	/**
+	 * Stores the triangles using the given vertex in the given array.
+	 * The array must be large enough to hold getValence(_nVertex) elements.
+	 * @param _nVertex The index of the vertex
+	 * @param _triangles Int array where the indices of the triangles will be stored
+	 * @param _nOffset The offset into the array where the first index should go
+	 * @return The number of triangles
+	 */
+	public int getVertexTriangles(int _nVertex, int[] _triangles, int _nOffset) {
+		int nStart = m_vertexEdges[_nVertex];
+		if (nStart < 0) {
+			return 0;
+		}
+		int nCount = 0;
+		int nEdge = nStart;
+		do {
+			_triangles[_nOffset + nCount++] = nEdge / 3;
+			nEdge = getNextOutgoing(nEdge);
+		} while ((nEdge >= 0) && (nEdge != nStart));
+		return nCount;
+	}
+
+	/**
+	 * Returns the number of half-edges lying on the boundary of the mesh
+	 * @return The number of boundary edges
+	 */
+	public int getBoundaryEdgeCount() {
+		int nCount = 0;
+		for (int i = m_nTriangleCount * 3; --i >= 0;) {
+			if (m_twins[i] < 0) {
+				nCount++;
+			}
+		}
+		return nCount;
+	}
+
+	/**
+	 * Stores all half-edges lying on the boundary of the mesh in the given array.
+	 * The array must be large enough to hold getBoundaryEdgeCount() elements.
+	 * @param _edges Int array where the indices of the half-edges will be stored
+	 * @param _nOffset The offset into the array where the first index should go
+	 * @return The number of boundary edges
+	 */
+	public int getBoundaryEdges(int[] _edges, int _nOffset) {
+		int nCount = 0;
+		int nHalfEdges = m_nTriangleCount * 3;
+		for (int i = 0; i < nHalfEdges; i++) {
+			if (m_twins[i] < 0) {
+				_edges[_nOffset + nCount++] = i;
+			}
+		}
+		return nCount;
+	}
+
+	/**
+	 * Determines if the given triangle faces the given point or direction.
+	 * @param _nTriangle The index of the triangle
+	 * @param _fX The x coordinate of the point or direction
+	 * @param _fY The y coordinate of the point or direction
+	 * @param _fZ The z coordinate of the point or direction
+	 * @param _fW 1 to indicate the coordinates are those of a point, 0 to
+	 * indicate a direction (pointing towards the light or eye)
+	 * @return A boolean indicating if the triangle is front-facing
+	 */
+	public boolean isFacing(int _nTriangle, float _fX, float _fY, float _fZ, float _fW) {
+		int nIdx = _nTriangle * 4;
+		return (m_planes[nIdx] * _fX + m_planes[nIdx + 1] * _fY + m_planes[nIdx + 2] * _fZ + m_planes[nIdx + 3] * _fW) > 0;
+	}
+
+	/**
+	 * Stores the silhouette edges of the mesh as seen from the given point or
+	 * direction in the given array. Silhouette edges are those edges separating
+	 * a front-facing triangle from a back-facing one or front-facing boundary
+	 * edges. Each edge is returned only once as the half-edge belonging to the
+	 * front-facing triangle, which is what is needed to extrude shadow volumes.
+	 * The array must be large enough to hold all the edges found, at most
+	 * getHalfEdgeCount() elements.
+	 * @param _fX The x coordinate of the point or direction
+	 * @param _fY The y coordinate of the point or direction
+	 * @param _fZ The z coordinate of the point or direction
+	 * @param _fW 1 to indicate the coordinates are those of a point, 0 to
+	 * indicate a direction (pointing towards the light or eye)
+	 * @param _edges Int array where the indices of the half-edges will be stored
+	 * @param _nOffset The offset into the array where the first index should go
+	 * @return The number of silhouette edges
+	 */
+	public int getSilhouetteEdges(float _fX, float _fY, float _fZ, float _fW, int[] _edges, int _nOffset) {
+		int nCount = 0;
+		for (int t = 0; t < m_nTriangleCount; t++) {
+			if (isFacing(t, _fX, _fY, _fZ, _fW)) {
+				for (int i = t * 3; i < t * 3 + 3; i++) {
+					int nTwin = m_twins[i];
+					if ((nTwin < 0) || !isFacing(nTwin / 3, _fX, _fY, _fZ, _fW)) {
+						_edges[_nOffset + nCount++] = i;
+					}
+				}
+			}
+		}
+		return nCount;
+	}
+
+	/**
+	 * Recalculates the triangle planes used for the facing and silhouette
+	 * tests. Must be called when the vertex coordinates in the Geometry's
+	 * VertexBuffer have changed (the adjacency itself does not change).
+	 */
+	public void updatePlanes() {
+		VertexBuffer vbuf = m_geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		for (int t = 0; t < m_nTriangleCount; t++) {
+			int i0 = vbuf.getVertexOffset(m_vertices[t * 3]);
+			int i1 = vbuf.getVertexOffset(m_vertices[t * 3 + 1]);
+			int i2 = vbuf.getVertexOffset(m_vertices[t * 3 + 2]);
+			float x0 = coords.get(i0), y0 = coords.get(i0 + 1), z0 = coords.get(i0 + 2);
+			float e1x = coords.get(i1) - x0, e1y = coords.get(i1 + 1) - y0, e1z = coords.get(i1 + 2) - z0;
+			float e2x = coords.get(i2) - x0, e2y = coords.get(i2 + 1) - y0, e2z = coords.get(i2 + 2) - z0;
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			int nIdx = t * 4;
+			m_planes[nIdx] = nx;
+			m_planes[nIdx + 1] = ny;
+			m_planes[nIdx + 2] = nz;
+			m_planes[nIdx + 3] = -(nx * x0 + ny * y0 + nz * z0);
+		}
+	}
+
+	private void build() {
+		m_nTriangleCount = m_geometry.getTriangleCount();
+		int nHalfEdges = m_nTriangleCount * 3;
+		m_vertices = new int[nHalfEdges];
+		m_twins = new int[nHalfEdges];
+		m_planes = new float[m_nTriangleCount * 4];
+
+		m_nVertexCount = 0;
+		for (int t = 0; t < m_nTriangleCount; t++) {
+			m_geometry.getTriangle(t, m_vertices, t * 3);
+			for (int i = t * 3; i < t * 3 + 3; i++) {
+				if (m_vertices[i] >= m_nVertexCount) {
+					m_nVertexCount = m_vertices[i] + 1;
+				}
+			}
+		}
+
+		linkTwins();
+
+		m_vertexEdges = new int[m_nVertexCount];
+		Arrays.fill(m_vertexEdges, -1);
+		for (int i = 0; i < nHalfEdges; i++) {
+			int v = m_vertices[i];
+			if ((m_vertexEdges[v] < 0) || (m_twins[i] < 0)) {
+				m_vertexEdges[v] = i;
+			}
+		}
+
+		updatePlanes();
+	}
+
+	/**
+	 * Pairs up the half-edges using an open addressing hash table that
+	 * maps each unpaired directed edge (a, b) to its half-edge. A half-edge
+	 * (b, a) finding an unpaired (a, b) in the table becomes its twin.
+	 */
+	private void linkTwins() {
+		int nHalfEdges = m_nTriangleCount * 3;
+		Arrays.fill(m_twins, -1);
+
+		int nTableSize = Integer.highestOneBit(Math.max(nHalfEdges, 1)) << 2;
+		int nMask = nTableSize - 1;
+		long[] keys = new long[nTableSize];
+		int[] edges = new int[nTableSize];
+		Arrays.fill(keys, -1L);
+
+		for (int i = 0; i < nHalfEdges; i++) {
+			int a = m_vertices[i];
+			int b = m_vertices[getNext(i)];
+			if (a == b) {
+				// Degenerate edge, leave it on the boundary
+				continue;
+			}
+
+			// Look for the opposite edge
+			long lOpposite = edgeKey(b, a);
+			int nSlot = hashSlot(lOpposite, nMask);
+			boolean bLinked = false;
+			while (keys[nSlot] != -1L) {
+				if ((keys[nSlot] == lOpposite) && (m_twins[edges[nSlot]] < 0)) {
+					m_twins[edges[nSlot]] = i;
+					m_twins[i] = edges[nSlot];
+					bLinked = true;
+					break;
+				}
+				nSlot = (nSlot + 1) & nMask;
+			}
+
+			if (!bLinked) {
+				// No partner (yet), register the edge for later half-edges
+				long lKey = edgeKey(a, b);
+				nSlot = hashSlot(lKey, nMask);
+				while ((keys[nSlot] != -1L) && (keys[nSlot] != lKey)) {
+					nSlot = (nSlot + 1) & nMask;
+				}
+				if (keys[nSlot] == -1L) {
+					keys[nSlot] = lKey;
+					edges[nSlot] = i;
+				}
+			}
+		}
+	}
+
+	private static long edgeKey(int _nFrom, int _nTo) {
+		return ((long)_nFrom << 32) | (_nTo & 0xffffffffL);
+	}
+
+	private static int hashSlot(long _lKey, int _nMask) {
+		long h = _lKey * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & _nMask;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,89 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+/**
+ * Remembers where in a bounding volume hierarchy the previous ray query
+ * found its hit so the next query can test that part first. Meant for
+ * queries that are repeated every frame with rays that change only a
+ * little, like mouse picking or keeping a camera on the ground. Use one
+ * cache for each such place in the code, sharing a cache between
+ * unrelated queries only makes it less effective.
+ * <p>
+ * The cache never affects the results, only the time it takes to find
+ * them. It survives refits of the hierarchy and simply stops helping
+ * until the next hit when the hierarchy gets rebuilt.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class HitCache {
+	private BoundingVolumeHierarchy m_bvh;
+	private int m_nLeaf;
+
+	/**
+	 * Creates an empty cache
+	 */
+	public HitCache() {
+		clear();
+	}
+
+	/**
+	 * Forgets the previous hit
+	 */
+	public void clear() {
+		m_bvh = null;
+		m_nLeaf = -1;
+	}
+
+	/**
+	 * Determines if the cache holds a hit to test first
+	 * @return true if the cache is empty, false if not
+	 */
+	public boolean isEmpty() {
+		return (m_bvh == null);
+	}
+
+	/**
+	 * Returns the leaf holding the previous hit if it was in the given
+	 * hierarchy and the node is still a leaf
+	 * @return The index of the leaf node or -1 if none
+	 */
+	int getLeaf(BoundingVolumeHierarchy _bvh) {
+		if ((_bvh != m_bvh) || (m_nLeaf >= _bvh.m_nNodeCount) || !_bvh.isLeaf(m_nLeaf)) {
+			return -1;
+		}
+		return m_nLeaf;
+	}
+
+	/**
+	 * Remembers the leaf holding the hit of the current query
+	 */
+	void setLeaf(BoundingVolumeHierarchy _bvh, int _nLeaf) {
+		m_bvh = _bvh;
+		m_nLeaf = _nLeaf;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,48 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+/**
+ * Receives the hits of a multi-hit ray query like
+ * IntersectionTester.intersectAll() one by one, ordered by their
+ * distance from the origin of the ray.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public interface HitListener {
+
+	/**
+	 * Called for each triangle hit by the ray, nearest first
+	 *
+	 * @param _nTriangle The index of the triangle within the Geometry, as used by Geometry.getTriangle()
+	 * @param _fDistance The distance from the origin of the ray to the point hit
+	 * @param _fU The barycentric coordinate of the point hit for the second vertex of the triangle
+	 * @param _fV The barycentric coordinate of the point hit for the third vertex of the triangle
+	 * @return true to receive the next hit, false to end the query
+	 */
+	public boolean hit(int _nTriangle, float _fDistance, float _fU, float _fV);
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,476 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A two-level bounding volume hierarchy for scenes made of many instances
+ * of Geometries. The top level organizes the world space bounds of the
+ * instances, the bottom level is formed by the bounding volume hierarchies
+ * of the Geometries themselves, which are shared by all their instances.
+ * Rays are transformed into the space of each instance they reach so the
+ * Geometries never need to be transformed themselves.
+ * <p>
+ * When instances have been moved or their Geometries have changed update()
+ * must be called (normally once per frame) to refresh the top level, which
+ * is cheap because it only depends on the number of instances. The top
+ * level is then refitted to the new bounds of the instances, it is only
+ * rebuilt when instances have been added or removed or when its estimated
+ * cost has grown too much compared to that of the last rebuild. Adding or
+ * removing instances is picked up automatically by the next query.
+ * Like the other intersection classes this class is not thread-safe.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class InstanceHierarchy {
+	private List<GeometryInstance> m_instances;
+	private boolean m_bStructureChanged;
+	private IntersectionTester m_tester;
+
+	private int m_nNodeCount;
+	private int m_nDepth;
+	private float[] m_bounds;
+	private int[] m_nodes;
+	/** The instances referred to by the leaves of the top level */
+	private GeometryInstance[] m_leafInstances;
+	private int m_nLeafCount;
+
+	/** Kept between rebuilds so they can be reused */
+	private GeometryInstance[] m_buildInstances;
+	private float[] m_primBounds;
+	private BvhBuilder m_builder;
+
+	private float m_fMaxCostRatio;
+	private float m_fBuildCost;
+	private float m_fCost;
+
+	private int[] m_nodeStack;
+	private float[] m_nodeStackT;
+
+	/** The maximum number of instances stored in a leaf of the top level */
+	private static final int MAX_LEAF_SIZE = 2;
+
+	/**
+	 * Creates an empty hierarchy
+	 */
+	public InstanceHierarchy() {
+		m_instances = new ArrayList<GeometryInstance>();
+		m_tester = new IntersectionTester();
+		m_nodeStack = new int[64];
+		m_nodeStackT = new float[64];
+		m_leafInstances = new GeometryInstance[0];
+		m_buildInstances = new GeometryInstance[0];
+		m_primBounds = new float[0];
+		m_fMaxCostRatio = BoundingVolumeHierarchy.DEFAULT_MAX_COST_RATIO;
+		m_bStructureChanged = true;
+	}
+
+	/**
+	 * Adds an instance to the hierarchy
+	 * @param _instance The instance to add
+	 */
+	public void addInstance(GeometryInstance _instance) {
+		m_instances.add(_instance);
+		m_bStructureChanged = true;
+	}
+
+	/**
+	 * Adds an instance of the given Geometry to the hierarchy
+	 * @param _geometry The Geometry to place in the world
+	 * @param _transform The transformation from the space of the Geometry to world space
+	 * @return The new instance
+	 */
+	public GeometryInstance addInstance(Geometry _geometry, Matrix4f _transform) {
+		GeometryInstance instance = new GeometryInstance(_geometry, _transform);
+		addInstance(instance);
+		return instance;
+	}
+
+	/**
+	 * Removes an instance from the hierarchy
+	 * @param _instance The instance to remove
+	 * @return true if the instance was part of the hierarchy, false otherwise
+	 */
+	public boolean removeInstance(GeometryInstance _instance) {
+		boolean bRemoved = m_instances.remove(_instance);
+		m_bStructureChanged |= bRemoved;
+		return bRemoved;
+	}
+
+	/**
+	 * Returns the number of instances in the hierarchy
+	 * @return The number of instances
+	 */
+	public int getInstanceCount() {
+		return m_instances.size();
+	}
+
+	/**
+	 * Returns the instance with the given index
+	 * @param _nIndex The index of the instance
+	 * @return The instance
+	 */
+	public GeometryInstance getInstance(int _nIndex) {
+		return m_instances.get(_nIndex);
+	}
+
+	/**
+	 * Returns the estimated cost of a query of the top level using the
+	 * surface area heuristic
+	 * @return The estimated cost
+	 */
+	public float getCost() {
+		return m_fCost;
+	}
+
+	/**
+	 * Returns the ratio between the current and the original cost of the
+	 * top level at which an update rebuilds it instead of refitting it
+	 * @return The maximum cost ratio
+	 */
+	public float getMaxCostRatio() {
+		return m_fMaxCostRatio;
+	}
+
+	/**
+	 * Sets the ratio between the current and the original cost of the top
+	 * level at which an update rebuilds it instead of refitting it
+	 * @param _fMaxCostRatio The maximum cost ratio or 0 to only rebuild when instances are added or removed
+	 */
+	public void setMaxCostRatio(float _fMaxCostRatio) {
+		m_fMaxCostRatio = _fMaxCostRatio;
+	}
+
+	/**
+	 * Stores the world space bounding box of all instances in the given array.
+	 * Nothing is stored if the hierarchy is empty.
+	 * @param _bounds Float array of at least 6 elements (minX, minY, minZ, maxX, maxY, maxZ)
+	 * @return false if the hierarchy is empty, true otherwise
+	 */
+	public boolean getBounds(float[] _bounds) {
+		if (m_bStructureChanged) {
+			update();
+		}
+		if (m_nNodeCount == 0) {
+			return false;
+		}
+		System.arraycopy(m_bounds, 0, _bounds, 0, 6);
+		return true;
+	}
+
+	/**
+	 * Brings the bounds of all instances up-to-date and refits the top level
+	 * of the hierarchy if any of them changed. The top level is rebuilt
+	 * instead if instances were added or removed, if the Geometry of an
+	 * instance became empty or stopped being empty or if refitting made it
+	 * too costly. Also updates the bounding volume hierarchies of the
+	 * Geometries.
+	 * @return true if the top level was refitted or rebuilt
+	 */
+	public boolean update() {
+		boolean bMoved = false;
+		int nCount = 0;
+		for (int i = 0; i < m_instances.size(); i++) {
+			GeometryInstance instance = m_instances.get(i);
+			bMoved |= instance.updateBounds();
+			if (instance.getBoundingVolumeHierarchy().m_nNodeCount > 0) {
+				nCount++;
+			}
+		}
+		// Instances of empty Geometries are left out of the top level, so
+		// a Geometry becoming empty or non-empty changes its structure
+		boolean bRebuild = m_bStructureChanged || (nCount != m_nLeafCount);
+		for (int i = 0; !bRebuild && bMoved && (i < m_nLeafCount); i++) {
+			bRebuild = (m_leafInstances[i].getBoundingVolumeHierarchy().m_nNodeCount == 0);
+		}
+		if (bRebuild) {
+			rebuild();
+		} else if (bMoved) {
+			refit();
+			if ((m_fMaxCostRatio > 0.0f) && (m_fCost > m_fBuildCost * m_fMaxCostRatio)) {
+				rebuild();
+			}
+		}
+		m_bStructureChanged = false;
+		return bRebuild || bMoved;
+	}
+
+	private void rebuild() {
+		// Instances of empty Geometries are left out completely
+		int nSize = m_instances.size();
+		if (m_buildInstances.length < nSize) {
+			m_buildInstances = new GeometryInstance[nSize];
+			m_leafInstances = new GeometryInstance[nSize];
+			m_primBounds = new float[nSize * 6];
+		}
+		GeometryInstance[] instances = m_buildInstances;
+		int nCount = 0;
+		for (int i = 0; i < nSize; i++) {
+			GeometryInstance instance = m_instances.get(i);
+			if (instance.getBoundingVolumeHierarchy().m_nNodeCount > 0) {
+				instances[nCount++] = instance;
+			}
+		}
+		for (int i = 0; i < nCount; i++) {
+			System.arraycopy(instances[i].m_worldBounds, 0, m_primBounds, i * 6, 6);
+		}
+
+		if (m_builder == null) {
+			m_builder = new BvhBuilder(m_primBounds, 0, MAX_LEAF_SIZE);
+		}
+		m_builder.setPrimitives(m_primBounds, nCount);
+		m_builder.build(null);
+		for (int i = 0; i < nCount; i++) {
+			m_leafInstances[i] = instances[m_builder.m_order[i]];
+		}
+		// Don't keep removed instances alive
+		Arrays.fill(m_leafInstances, nCount, m_leafInstances.length, null);
+		Arrays.fill(instances, 0, instances.length, null);
+		m_nLeafCount = nCount;
+		m_bounds = m_builder.m_bounds;
+		m_nodes = m_builder.m_nodes;
+		m_nNodeCount = m_builder.m_nNodeCount;
+		m_nDepth = m_builder.m_nDepth;
+		if (m_nodeStack.length < m_nDepth + 1) {
+			m_nodeStack = new int[m_nDepth + 1];
+			m_nodeStackT = new float[m_nDepth + 1];
+		}
+		m_fBuildCost = m_fCost = calculateCost();
+	}
+
+	/**
+	 * Updates the bounds of all nodes of the top level to the current world
+	 * bounds of the instances without changing its structure
+	 */
+	private void refit() {
+		// Children always come after their parents so walking the nodes
+		// backwards updates them bottom-up
+		for (int n = m_nNodeCount - 1; n >= 0; n--) {
+			int nb = n * 6;
+			int nCount = m_nodes[n * 2 + 1];
+			if (nCount > 0) {
+				float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+				float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+				int nFirst = m_nodes[n * 2];
+				for (int i = nFirst; i < nFirst + nCount; i++) {
+					float[] b = m_leafInstances[i].m_worldBounds;
+					minX = Math.min(minX, b[0]);
+					minY = Math.min(minY, b[1]);
+					minZ = Math.min(minZ, b[2]);
+					maxX = Math.max(maxX, b[3]);
+					maxY = Math.max(maxY, b[4]);
+					maxZ = Math.max(maxZ, b[5]);
+				}
+				m_bounds[nb] = minX;
+				m_bounds[nb + 1] = minY;
+				m_bounds[nb + 2] = minZ;
+				m_bounds[nb + 3] = maxX;
+				m_bounds[nb + 4] = maxY;
+				m_bounds[nb + 5] = maxZ;
+			} else {
+				int lb = (n + 1) * 6;
+				int rb = m_nodes[n * 2] * 6;
+				m_bounds[nb] = Math.min(m_bounds[lb], m_bounds[rb]);
+				m_bounds[nb + 1] = Math.min(m_bounds[lb + 1], m_bounds[rb + 1]);
+				m_bounds[nb + 2] = Math.min(m_bounds[lb + 2], m_bounds[rb + 2]);
+				m_bounds[nb + 3] = Math.max(m_bounds[lb + 3], m_bounds[rb + 3]);
+				m_bounds[nb + 4] = Math.max(m_bounds[lb + 4], m_bounds[rb + 4]);
+				m_bounds[nb + 5] = Math.max(m_bounds[lb + 5], m_bounds[rb + 5]);
+			}
+		}
+		m_fCost = calculateCost();
+	}
+
+	/**
+	 * Calculates the surface area heuristic cost of the top level, counting
+	 * each node visit and each instance test as 1
+	 */
+	private float calculateCost() {
+		if (m_nNodeCount == 0) {
+			return 0.0f;
+		}
+		float fRootArea = BvhBuilder.halfArea(m_bounds[0], m_bounds[1], m_bounds[2], m_bounds[3], m_bounds[4], m_bounds[5]);
+		if (fRootArea <= 0.0f) {
+			// All instances lie on a line or in a point, a query visits the
+			// root and tests all instances
+			return 1.0f + m_nLeafCount;
+		}
+		float fCost = 0.0f;
+		for (int n = 0; n < m_nNodeCount; n++) {
+			int nb = n * 6;
+			float fArea = BvhBuilder.halfArea(m_bounds[nb], m_bounds[nb + 1], m_bounds[nb + 2], m_bounds[nb + 3], m_bounds[nb + 4], m_bounds[nb + 5]);
+			int nCount = m_nodes[n * 2 + 1];
+			fCost += fArea * ((nCount > 0) ? 1 + nCount : 1);
+		}
+		return fCost / fRootArea;
+	}
+
+	/** Performs a Ray - Scene intersection test. Returns the instance
+	 * closest to the origin of the picking ray.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _intersection Will hold the details of any intersection found in world space. The isIntersecting member will be false if no intersection was found.
+	 * @return The instance that was hit or null if there was no intersection
+	 */
+	public GeometryInstance intersectClosest(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection) {
+		return intersect(_origin, _direction, _fLength, false, _intersection);
+	}
+
+	/** Performs a Ray - Scene intersection test. Returns the first
+	 * instance found to intersect the picking ray.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _intersection Will hold the details of any intersection found in world space. The isIntersecting member will be false if no intersection was found.
+	 * @return The instance that was hit or null if there was no intersection
+	 */
+	public GeometryInstance intersectAny(Point3d _origin, Vector3d _direction, float _fLength, Intersection _intersection) {
+		return intersect(_origin, _direction, _fLength, true, _intersection);
+	}
+
+	private GeometryInstance intersect(Point3d _origin, Vector3d _direction, float _fLength, boolean _bAnyIntersect, Intersection _intersection) {
+		if (m_bStructureChanged) {
+			update();
+		}
+		_intersection.setIntersecting(false);
+		if (m_nNodeCount == 0) {
+			return null;
+		}
+
+		float ox = (float)_origin.x, oy = (float)_origin.y, oz = (float)_origin.z;
+		float dx = (float)_direction.x, dy = (float)_direction.y, dz = (float)_direction.z;
+		float fIDX = 1.0f / ((dx != 0) ? dx : IntersectionTester.TINY);
+		float fIDY = 1.0f / ((dy != 0) ? dy : IntersectionTester.TINY);
+		float fIDZ = 1.0f / ((dz != 0) ? dz : IntersectionTester.TINY);
+		float fMaxT = (_fLength != 0) ? (float)(_fLength / _direction.length()) : Float.POSITIVE_INFINITY;
+
+		GeometryInstance hitInstance = null;
+		int nHitSlot = -1;
+		float fHitU = 0.0f, fHitV = 0.0f;
+
+		if (IntersectionTester.intersectBounds(m_bounds, 0, ox, oy, oz, fIDX, fIDY, fIDZ, fMaxT) < 0) {
+			return null;
+		}
+		int nStackSize = 0;
+		int nNode = 0;
+		traversal:
+		while (true) {
+			int nInfo = m_nodes[nNode * 2 + 1];
+			if (nInfo > 0) {
+				int nEnd = m_nodes[nNode * 2] + nInfo;
+				for (int i = m_nodes[nNode * 2]; i < nEnd; i++) {
+					// Transform the ray into the space of the instance, the direction
+					// is not normalized so distances along the ray stay the same
+					GeometryInstance instance = m_leafInstances[i];
+					Matrix4f m = instance.m_inverse;
+					float lox = m.m00 * ox + m.m01 * oy + m.m02 * oz + m.m03;
+					float loy = m.m10 * ox + m.m11 * oy + m.m12 * oz + m.m13;
+					float loz = m.m20 * ox + m.m21 * oy + m.m22 * oz + m.m23;
+					float ldx = m.m00 * dx + m.m01 * dy + m.m02 * dz;
+					float ldy = m.m10 * dx + m.m11 * dy + m.m12 * dz;
+					float ldz = m.m20 * dx + m.m21 * dy + m.m22 * dz;
+					int nSlot = m_tester.intersectTriangles(instance.getBoundingVolumeHierarchy(), lox, loy, loz, ldx, ldy, ldz, fMaxT, _bAnyIntersect);
+					if (nSlot >= 0) {
+						fMaxT = m_tester.m_fHitT;
+						fHitU = m_tester.m_fHitU;
+						fHitV = m_tester.m_fHitV;
+						hitInstance = instance;
+						nHitSlot = nSlot;
+						if (_bAnyIntersect) {
+							break traversal;
+						}
+					}
+				}
+			} else {
+				int nLeft = nNode + 1;
+				int nRight = m_nodes[nNode * 2];
+				float fLeftT = IntersectionTester.intersectBounds(m_bounds, nLeft, ox, oy, oz, fIDX, fIDY, fIDZ, fMaxT);
+				float fRightT = IntersectionTester.intersectBounds(m_bounds, nRight, ox, oy, oz, fIDX, fIDY, fIDZ, fMaxT);
+				if (fLeftT >= 0) {
+					if (fRightT >= 0) {
+						if (fRightT < fLeftT) {
+							m_nodeStack[nStackSize] = nLeft;
+							m_nodeStackT[nStackSize++] = fLeftT;
+							nNode = nRight;
+						} else {
+							m_nodeStack[nStackSize] = nRight;
+							m_nodeStackT[nStackSize++] = fRightT;
+							nNode = nLeft;
+						}
+					} else {
+						nNode = nLeft;
+					}
+					continue;
+				} else if (fRightT >= 0) {
+					nNode = nRight;
+					continue;
+				}
+			}
+
+			do {
+				if (nStackSize == 0) {
+					break traversal;
+				}
+				nStackSize--;
+			} while (m_nodeStackT[nStackSize] > fMaxT);
+			nNode = m_nodeStack[nStackSize];
+		}
+
+		if (hitInstance != null) {
+			_intersection.getPoint().x = _origin.x + _direction.x * fMaxT;
+			_intersection.getPoint().y = _origin.y + _direction.y * fMaxT;
+			_intersection.getPoint().z = _origin.z + _direction.z * fMaxT;
+			_intersection.setDistanceSquared(_origin.distanceSquared(_intersection.getPoint()));
+
+			// Normals transform with the transpose of the inverse
+			BoundingVolumeHierarchy bvh = hitInstance.getBoundingVolumeHierarchy();
+			Vector3d n = _intersection.getNormal();
+			IntersectionTester.triangleNormal(bvh, nHitSlot, n);
+			Matrix4f m = hitInstance.m_inverse;
+			double nx = m.m00 * n.x + m.m10 * n.y + m.m20 * n.z;
+			double ny = m.m01 * n.x + m.m11 * n.y + m.m21 * n.z;
+			double nz = m.m02 * n.x + m.m12 * n.y + m.m22 * n.z;
+			n.set(nx, ny, nz);
+			n.normalize();
+
+			_intersection.setTriangle(bvh.getTriangle(nHitSlot));
+			_intersection.setBarycentric(fHitU, fHitV);
+			_intersection.setIntersecting(true);
+		}
+		return hitInstance;
+	}
+}
+
+/*
+ * $Log$
+ */
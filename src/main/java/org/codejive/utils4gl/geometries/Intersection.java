@@ -18,6 +18,9 @@ import javax.vecmath.Vector3d;
 	private Point3d m_intersectionPoint;
 	private Vector3d m_surfaceNormal;
 	private double m_distanceSquared;
+	private int m_nTriangle;
+	private double m_fU;
+	private double m_fV;
 
 	/**
 	 * Constructs a new Intersection
@@ -27,6 +30,7 @@ import javax.vecmath.Vector3d;
 		m_intersectionPoint = new Point3d();
 		m_surfaceNormal = new Vector3d();
 		m_distanceSquared = 0.0;
+		m_nTriangle = -1;
 	}
 
 	/**
@@ -34,6 +38,7 @@ import javax.vecmath.Vector3d;
 	 * @param _source The Intersection object to duplicate
 	 */
 	public Intersection(Intersection _source) {
+		this();
 		set(_source);
 	}
 	
@@ -102,6 +107,47 @@ import javax.vecmath.Vector3d;
 		return Math.sqrt(m_distanceSquared);
 	}
 	
+	/** Returns the index of the triangle within the Geometry that was hit,
+	 * as used by Geometry.getTriangle().
+	 * @return The index of the triangle or -1 if not known
+	 */
+	public int getTriangle() {
+		return m_nTriangle;
+	}
+
+	/** Sets the index of the triangle within the Geometry that was hit
+	 * @param _nTriangle The index of the triangle or -1 if not known
+	 */
+	public void setTriangle(int _nTriangle) {
+		m_nTriangle = _nTriangle;
+	}
+
+	/** Returns the first barycentric coordinate of the intersection point,
+	 * the weight of the second vertex of the triangle that was hit.
+	 * @return The barycentric u coordinate
+	 */
+	public double getU() {
+		return m_fU;
+	}
+
+	/** Returns the second barycentric coordinate of the intersection point,
+	 * the weight of the third vertex of the triangle that was hit.
+	 * The weight of the first vertex is 1 - u - v.
+	 * @return The barycentric v coordinate
+	 */
+	public double getV() {
+		return m_fV;
+	}
+
+	/** Sets the barycentric coordinates of the intersection point
+	 * @param _fU The weight of the second vertex of the triangle
+	 * @param _fV The weight of the third vertex of the triangle
+	 */
+	public void setBarycentric(double _fU, double _fV) {
+		m_fU = _fU;
+		m_fV = _fV;
+	}
+
 	/** Sets all members to the values specified in the given Intersection
 	 * @param _source Intersection object to duplicate
 	 */
@@ -110,6 +156,8 @@ import javax.vecmath.Vector3d;
 		setPoint(_source.getPoint());
 		setNormal(_source.getNormal());
 		setDistanceSquared(_source.getDistanceSquared());
+		setTriangle(_source.getTriangle());
+		setBarycentric(_source.getU(), _source.getV());
 	}
 }
 
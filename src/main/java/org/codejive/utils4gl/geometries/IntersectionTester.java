@@ -3,6 +3,8 @@
  */
 package org.codejive.utils4gl.geometries;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import javax.vecmath.Point3d;
@@ -32,9 +34,61 @@ public class IntersectionTester {
 	private Vector3d m_tmpVector1;
 	private Vector3d m_normal;
 
+	/** The vertex indices of the triangle currently being tested */
+	private int[] m_triangleVertices;
+
 	/** The current 2D vertex list that we work from */
 	private float[] m_working2dVertices;
 
+	/** The node stack used when traversing bounding volume hierarchies */
+	private int[] m_nodeStack;
+	/** The entry distances of the nodes on the node stack */
+	private float[] m_nodeStackT;
+
+	/** The details of the last triangle intersection found */
+	float m_fHitT;
+	float m_fHitU;
+	float m_fHitV;
+	/** The same for the double precision triangle test */
+	private double m_fHitDT;
+	private double m_fHitDU;
+	private double m_fHitDV;
+
+	/** The coordinates of the triangle data of the current watertight ray (corner * 3 + axis) */
+	private float[][] m_watertightCoords;
+	/** The axes of the current watertight ray, see setupWatertight() */
+	private int[] m_watertightAxes;
+	/** The shear constants and permuted origin of the current watertight ray, see setupWatertight() */
+	private float[] m_watertightRay;
+
+	/** The node heap used by multi-hit queries, ordered by the distance at which the ray enters the node */
+	private int[] m_nodeHeap;
+	private float[] m_nodeHeapT;
+	private int m_nNodeHeapSize;
+	/** The hits found by multi-hit queries that have not been reported yet, ordered by distance */
+	private int[] m_hitHeap;
+	private float[] m_hitHeapT;
+	private int m_nHitHeapSize;
+	/** The slot (or triangle) and barycentric coordinates of the hits, indexed by the ids on the hit heap */
+	private int[] m_hitSlots;
+	private float[] m_hitU;
+	private float[] m_hitV;
+	private int m_nHitCount;
+	/** Where the current multi-hit query reports its hits */
+	private HitListener m_hitListener;
+	private RayHits m_hitBuffer;
+	private int m_nMaxHits;
+	private int m_nReported;
+	private float m_fDirectionLength;
+	private BoundingVolumeHierarchy m_hitBvh;
+	private Geometry m_hitGeometry;
+
+	/** Widens the far distance of the slab tests to make up for rounding errors (1 + 2 * gamma(3), see Ize, "Robust BVH Ray Traversal") */
+	private static final float ROBUST_FAR = 1.0000004f;
+
+	/** Replaces zero direction components to keep the slab tests free of NaNs */
+	static final float TINY = 1.0e-30f;
+
 	/**
 	 * Create a default instance of this class with no internal data
 	 * structures allocated.
@@ -50,6 +104,12 @@ public class IntersectionTester {
 		m_normal = new Vector3d();
 
 		m_working2dVertices = new float[8];
+		m_triangleVertices = new int[3];
+		m_nodeStack = new int[64];
+		m_nodeStackT = new float[64];
+		m_watertightAxes = new int[3];
+		m_watertightRay = new float[6];
+		allocateHeaps();
 	}
 
 	/**
@@ -62,6 +122,19 @@ public class IntersectionTester {
 	 */
 	public void clear() {
 		m_working2dVertices = new float[8];
+		m_nodeStack = new int[64];
+		m_nodeStackT = new float[64];
+		allocateHeaps();
+	}
+
+	private void allocateHeaps() {
+		m_nodeHeap = new int[64];
+		m_nodeHeapT = new float[64];
+		m_hitHeap = new int[16];
+		m_hitHeapT = new float[16];
+		m_hitSlots = new int[16];
+		m_hitU = new float[16];
+		m_hitV = new float[16];
 	}
 
 	/** Performs a Ray - Geometry intersection test. Returns the closest
@@ -78,6 +151,9 @@ public class IntersectionTester {
 	public boolean intersect(Point3d _origin, Vector3d _direction, float _fLength, Geometry _geometry, boolean _bAnyIntersect, Intersection _intersection) {
 		double shortest_length = -1;
 
+		// Polygons are split into triangles as fans around their first vertex
+		// which is also the way Geometry.getTriangle() numbers them
+		int nFirstTriangle = 0;
 		Iterator<Polygon> i = _geometry.polygonIterator(VertexBuffer.COORDINATES);
 		while (i.hasNext()) {
 			Polygon p = i.next();
@@ -85,6 +161,55 @@ public class IntersectionTester {
 				if ((shortest_length == -1) || (m_workIntersect.getDistance() < shortest_length)) {
 					shortest_length = m_workIntersect.getDistance();
 					_intersection.set(m_workIntersect);
+					if (_intersection.getTriangle() >= 0) {
+						_intersection.setTriangle(nFirstTriangle + _intersection.getTriangle());
+					}
+					if (_bAnyIntersect) {
+						break;
+					}
+				}
+			}
+			nFirstTriangle += p.getVertexCount() - 2;
+		}
+
+		_intersection.setIntersecting((shortest_length != -1));
+
+		return _intersection.isIntersecting();
+	}
+
+	/** Performs a Ray - Geometry intersection test on the triangles returned
+	 * by Geometry.getTriangle(), reading their vertices directly from the
+	 * VertexBuffer. Returns the closest intersection point to the origin
+	 * of the picking ray.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersectTriangles(Point3d _origin, Vector3d _direction, float _fLength, Geometry _geometry, boolean _bAnyIntersect, Intersection _intersection) {
+		float fLengthSquared = _fLength * _fLength;
+		double shortest_length = -1;
+
+		VertexBuffer vbuf = _geometry.getBuffer();
+		int[] vertices = m_triangleVertices;
+		int nCount = _geometry.getTriangleCount();
+		for (int t = 0; t < nCount; t++) {
+			_geometry.getTriangle(t, vertices, 0);
+			vbuf.getVertex(vertices[0], m_polyVector0);
+			vbuf.getVertex(vertices[1], m_polyVector1);
+			vbuf.getVertex(vertices[2], m_polyVector2);
+			if (intersectTriangleChecked(_origin, _direction, m_polyVector0, m_polyVector1, m_polyVector2, m_workIntersect)) {
+				if ((_fLength != 0) && (m_workIntersect.getDistanceSquared() > fLengthSquared)) {
+					continue;
+				}
+				if ((shortest_length == -1) || (m_workIntersect.getDistanceSquared() < shortest_length)) {
+					shortest_length = m_workIntersect.getDistanceSquared();
+					m_workIntersect.setTriangle(t);
+					_intersection.set(m_workIntersect);
 					if (_bAnyIntersect) {
 						break;
 					}
@@ -97,6 +222,1037 @@ public class IntersectionTester {
 		return _intersection.isIntersecting();
 	}
 
+	/** Performs a Ray - Geometry intersection test against all triangles of
+	 * the given precomputed triangle data using the watertight algorithm.
+	 * Returns the closest intersection point to the origin of the picking ray.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _data The triangle data of the geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersect(Point3d _origin, Vector3d _direction, float _fLength, TriangleData _data, boolean _bAnyIntersect, Intersection _intersection) {
+		float fMaxT = (_fLength != 0) ? (float)(_fLength / _direction.length()) : Float.POSITIVE_INFINITY;
+		prepareWatertight(_data, (float)_origin.x, (float)_origin.y, (float)_origin.z, (float)_direction.x, (float)_direction.y, (float)_direction.z);
+		int nHit = -1;
+		int nCount = _data.m_nTriangleCount;
+		for (int i = 0; i < nCount; i++) {
+			if (intersectTriangleWatertight(m_watertightCoords, i, m_watertightAxes, 0, m_watertightRay, 0, fMaxT)) {
+				fMaxT = m_fHitT;
+				nHit = i;
+				if (_bAnyIntersect) {
+					break;
+				}
+			}
+		}
+		if (nHit >= 0) {
+			_intersection.getPoint().x = _origin.x + _direction.x * m_fHitT;
+			_intersection.getPoint().y = _origin.y + _direction.y * m_fHitT;
+			_intersection.getPoint().z = _origin.z + _direction.z * m_fHitT;
+			_intersection.setDistanceSquared(_origin.distanceSquared(_intersection.getPoint()));
+			triangleNormal(_data, nHit, _intersection.getNormal());
+			_intersection.setTriangle(nHit);
+			_intersection.setBarycentric(m_fHitU, m_fHitV);
+		}
+		_intersection.setIntersecting(nHit >= 0);
+
+		return _intersection.isIntersecting();
+	}
+
+	/** Performs a Ray - Geometry intersection test using a bounding volume
+	 * hierarchy built for the geometry to avoid testing most of its triangles.
+	 * Returns the closest intersection point to the origin of the picking ray.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _bvh The bounding volume hierarchy of the geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersect(Point3d _origin, Vector3d _direction, float _fLength, BoundingVolumeHierarchy _bvh, boolean _bAnyIntersect, Intersection _intersection) {
+		return intersect(_origin, _direction, _fLength, _bvh, _bAnyIntersect, _intersection, null);
+	}
+
+	/** Performs a Ray - Geometry intersection test using a bounding volume
+	 * hierarchy built for the geometry, first testing the triangles near the
+	 * one hit by the previous query that used the same cache. For rays that
+	 * hit the same part of the geometry query after query, like those used
+	 * for picking or to keep a camera on the ground, this immediately gives
+	 * a short maximum distance that lets most of the hierarchy be skipped.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _bvh The bounding volume hierarchy of the geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs
+	 * @param _intersection Will hold the details of any intersection found. The isIntersecting member will be false if no intersection was found.
+	 * @param _cache The cache holding the previous hit, which will be updated with this one. Can be null.
+	 * @return true if there was an intersection, false if not
+	 */
+	public boolean intersect(Point3d _origin, Vector3d _direction, float _fLength, BoundingVolumeHierarchy _bvh, boolean _bAnyIntersect, Intersection _intersection, HitCache _cache) {
+		float fMaxT = (_fLength != 0) ? (float)(_fLength / _direction.length()) : Float.POSITIVE_INFINITY;
+		int nSlot = intersectTriangles(_bvh, (float)_origin.x, (float)_origin.y, (float)_origin.z, (float)_direction.x, (float)_direction.y, (float)_direction.z, fMaxT, _bAnyIntersect, _cache);
+		if (nSlot >= 0) {
+			_intersection.getPoint().x = _origin.x + _direction.x * m_fHitT;
+			_intersection.getPoint().y = _origin.y + _direction.y * m_fHitT;
+			_intersection.getPoint().z = _origin.z + _direction.z * m_fHitT;
+			_intersection.setDistanceSquared(_origin.distanceSquared(_intersection.getPoint()));
+			triangleNormal(_bvh, nSlot, _intersection.getNormal());
+			_intersection.setTriangle(_bvh.getTriangle(nSlot));
+			_intersection.setBarycentric(m_fHitU, m_fHitV);
+		}
+		_intersection.setIntersecting(nSlot >= 0);
+
+		return _intersection.isIntersecting();
+	}
+
+	/**
+	 * Traverses the given hierarchy looking for the triangle closest to the
+	 * origin of the ray (or just any triangle). The details of the intersection
+	 * can be found in m_fHitT, m_fHitU and m_fHitV afterwards.
+	 *
+	 * @return The slot of the triangle that was hit or -1 if no triangle was hit
+	 */
+	int intersectTriangles(BoundingVolumeHierarchy _bvh, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fMaxT, boolean _bAnyIntersect) {
+		return intersectTriangles(_bvh, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, _fMaxT, _bAnyIntersect, null);
+	}
+
+	/**
+	 * Traverses the given hierarchy like the method above but first tests
+	 * the leaf stored in the cache, if any, and stores the leaf of the
+	 * triangle that was hit in the cache afterwards
+	 */
+	int intersectTriangles(BoundingVolumeHierarchy _bvh, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fMaxT, boolean _bAnyIntersect, HitCache _cache) {
+		if (_bvh.m_nNodeCount == 0) {
+			return -1;
+		}
+		ensureStackSize(_bvh.m_nDepth);
+
+		float[] bounds = _bvh.m_bounds;
+		int[] nodes = _bvh.m_nodes;
+		int[] triVertices = _bvh.m_triVertices;
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		TriangleData data = _bvh.m_triangleData;
+		if (data != null) {
+			prepareWatertight(data, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ);
+		}
+
+		float fIDX = 1.0f / ((_fDX != 0) ? _fDX : TINY);
+		float fIDY = 1.0f / ((_fDY != 0) ? _fDY : TINY);
+		float fIDZ = 1.0f / ((_fDZ != 0) ? _fDZ : TINY);
+
+		float fMaxT = _fMaxT;
+		int nHit = -1;
+		int nHitLeaf = -1;
+
+		// Start with the leaf that was hit last time
+		int nCachedLeaf = (_cache != null) ? _cache.getLeaf(_bvh) : -1;
+		if (nCachedLeaf >= 0) {
+			int nEnd = nodes[nCachedLeaf * 2] + nodes[nCachedLeaf * 2 + 1];
+			for (int i = nodes[nCachedLeaf * 2]; i < nEnd; i++) {
+				boolean bHit = (data != null)
+					? intersectTriangleWatertight(m_watertightCoords, i, m_watertightAxes, 0, m_watertightRay, 0, fMaxT)
+					: intersectTriangle(vbuf, coords, triVertices, i, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, fMaxT);
+				if (bHit) {
+					fMaxT = m_fHitT;
+					nHit = i;
+					nHitLeaf = nCachedLeaf;
+					if (_bAnyIntersect) {
+						return nHit;
+					}
+				}
+			}
+		}
+
+		int nStackSize = 0;
+		int nNode = 0;
+		if (intersectBounds(bounds, 0, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, fMaxT) < 0) {
+			return nHit;
+		}
+
+		while (true) {
+			int nInfo = nodes[nNode * 2 + 1];
+			if (nInfo > 0) {
+				// A leaf, test all its triangles unless it was the cached one
+				if (nNode != nCachedLeaf) {
+					int nEnd = nodes[nNode * 2] + nInfo;
+					for (int i = nodes[nNode * 2]; i < nEnd; i++) {
+						boolean bHit = (data != null)
+							? intersectTriangleWatertight(m_watertightCoords, i, m_watertightAxes, 0, m_watertightRay, 0, fMaxT)
+							: intersectTriangle(vbuf, coords, triVertices, i, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, fMaxT);
+						if (bHit) {
+							fMaxT = m_fHitT;
+							nHit = i;
+							nHitLeaf = nNode;
+							if (_bAnyIntersect) {
+								if (_cache != null) {
+									_cache.setLeaf(_bvh, nHitLeaf);
+								}
+								return nHit;
+							}
+						}
+					}
+				}
+			} else {
+				// Visit the nearest child first and save the other one for later
+				int nLeft = nNode + 1;
+				int nRight = nodes[nNode * 2];
+				float fLeftT = intersectBounds(bounds, nLeft, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, fMaxT);
+				float fRightT = intersectBounds(bounds, nRight, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, fMaxT);
+				if (fLeftT >= 0) {
+					if (fRightT >= 0) {
+						if (fRightT < fLeftT) {
+							m_nodeStack[nStackSize] = nLeft;
+							m_nodeStackT[nStackSize++] = fLeftT;
+							nNode = nRight;
+						} else {
+							m_nodeStack[nStackSize] = nRight;
+							m_nodeStackT[nStackSize++] = fRightT;
+							nNode = nLeft;
+						}
+					} else {
+						nNode = nLeft;
+					}
+					continue;
+				} else if (fRightT >= 0) {
+					nNode = nRight;
+					continue;
+				}
+			}
+
+			// Continue with the nearest node saved for later that's still in reach
+			do {
+				if (nStackSize == 0) {
+					if ((_cache != null) && (nHitLeaf >= 0)) {
+						_cache.setLeaf(_bvh, nHitLeaf);
+					}
+					return nHit;
+				}
+				nStackSize--;
+			} while (m_nodeStackT[nStackSize] > fMaxT);
+			nNode = m_nodeStack[nStackSize];
+		}
+	}
+
+	/** Performs a Ray - Geometry intersection test for all rays in the
+	 * given packet using a bounding volume hierarchy built for the geometry.
+	 * The packet is traversed through the hierarchy as a whole, each node
+	 * and each triangle is only fetched once for all rays in the packet.
+	 * When the hierarchy keeps a copy of the triangle data the rays are
+	 * tested with the same watertight test the single ray test uses.
+	 * The results are stored in the packet.
+	 *
+	 * @param _packet The rays to test
+	 * @param _bvh The bounding volume hierarchy of the geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs for each ray
+	 * @return The number of rays that hit a triangle
+	 */
+	public int intersect(RayPacket _packet, BoundingVolumeHierarchy _bvh, boolean _bAnyIntersect) {
+		_packet.prepare();
+		int nSize = _packet.getSize();
+		if ((nSize == 0) || (_bvh.m_nNodeCount == 0)) {
+			return 0;
+		}
+		ensureStackSize(_bvh.m_nDepth);
+
+		float[] bounds = _bvh.m_bounds;
+		int[] nodes = _bvh.m_nodes;
+		int[] triVertices = _bvh.m_triVertices;
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		TriangleData data = _bvh.m_triangleData;
+		if (data != null) {
+			_packet.prepareWatertight();
+		}
+
+		int nHits = 0;
+		int nStackSize = 0;
+		int nNode = 0;
+		while (true) {
+			int nInfo = nodes[nNode * 2 + 1];
+			if (intersectBounds(_packet, bounds, nNode, nInfo > 0)) {
+				if (nInfo > 0) {
+					// A leaf, test all its triangles against all rays
+					int nEnd = nodes[nNode * 2] + nInfo;
+					for (int i = nodes[nNode * 2]; i < nEnd; i++) {
+						if (data != null) {
+							nHits += intersectTriangleWatertight(_packet, data, i, _bvh.m_triangles[i], _bAnyIntersect);
+							continue;
+						}
+						int i0 = vbuf.getVertexOffset(triVertices[i * 3]);
+						int i1 = vbuf.getVertexOffset(triVertices[i * 3 + 1]);
+						int i2 = vbuf.getVertexOffset(triVertices[i * 3 + 2]);
+						float v0x = coords.get(i0), v0y = coords.get(i0 + 1), v0z = coords.get(i0 + 2);
+						nHits += intersectTriangle(_packet, _bvh.m_triangles[i], v0x, v0y, v0z,
+								coords.get(i1) - v0x, coords.get(i1 + 1) - v0y, coords.get(i1 + 2) - v0z,
+								coords.get(i2) - v0x, coords.get(i2 + 1) - v0y, coords.get(i2 + 2) - v0z,
+								_bAnyIntersect);
+					}
+					if (_bAnyIntersect && (nHits == nSize)) {
+						return nHits;
+					}
+				} else {
+					// Visit the child on the side the rays are coming from first,
+					// using the first ray as representative for the whole packet
+					int nLeft = nNode + 1;
+					int nRight = nodes[nNode * 2];
+					float fDir = (nInfo == 0) ? _packet.m_directionX[0] : (nInfo == -1) ? _packet.m_directionY[0] : _packet.m_directionZ[0];
+					if (fDir >= 0) {
+						m_nodeStack[nStackSize++] = nRight;
+						nNode = nLeft;
+					} else {
+						m_nodeStack[nStackSize++] = nLeft;
+						nNode = nRight;
+					}
+					continue;
+				}
+			}
+			if (nStackSize == 0) {
+				break;
+			}
+			nNode = m_nodeStack[--nStackSize];
+		}
+
+		if (!_bAnyIntersect) {
+			nHits = 0;
+			for (int i = 0; i < nSize; i++) {
+				if (_packet.m_triangles[i] >= 0) {
+					nHits++;
+				}
+			}
+		}
+		return nHits;
+	}
+
+	/** Performs a Ray - Geometry intersection test for all rays in the
+	 * given packet against all triangles returned by Geometry.getTriangle().
+	 * Each triangle is only fetched once for all rays in the packet. When
+	 * the geometry has triangle data the rays are tested with the same
+	 * watertight test the single ray test uses.
+	 * The results are stored in the packet.
+	 *
+	 * @param _packet The rays to test
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _bAnyIntersect True if we just want to know if any intersection occurs for each ray
+	 * @return The number of rays that hit a triangle
+	 */
+	public int intersect(RayPacket _packet, Geometry _geometry, boolean _bAnyIntersect) {
+		_packet.prepare();
+		int nSize = _packet.getSize();
+		for (int i = 0; i < nSize; i++) {
+			_packet.m_activeLanes[i] = i;
+		}
+		_packet.m_nActiveCount = nSize;
+		VertexBuffer vbuf = _geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		int[] vertices = m_triangleVertices;
+		TriangleData data = (_geometry instanceof GeometryBase) ? ((GeometryBase)_geometry).getTriangleData() : null;
+		if (data != null) {
+			data.update();
+			_packet.prepareWatertight();
+		}
+		int nHits = 0;
+		int nCount = (data != null) ? data.m_nTriangleCount : _geometry.getTriangleCount();
+		for (int t = 0; (t < nCount) && (nSize > 0); t++) {
+			if (data != null) {
+				nHits += intersectTriangleWatertight(_packet, data, t, t, _bAnyIntersect);
+				if (_bAnyIntersect && (nHits == nSize)) {
+					return nHits;
+				}
+				continue;
+			}
+			_geometry.getTriangle(t, vertices, 0);
+			int i0 = vbuf.getVertexOffset(vertices[0]);
+			int i1 = vbuf.getVertexOffset(vertices[1]);
+			int i2 = vbuf.getVertexOffset(vertices[2]);
+			float v0x = coords.get(i0), v0y = coords.get(i0 + 1), v0z = coords.get(i0 + 2);
+			nHits += intersectTriangle(_packet, t, v0x, v0y, v0z,
+					coords.get(i1) - v0x, coords.get(i1 + 1) - v0y, coords.get(i1 + 2) - v0z,
+					coords.get(i2) - v0x, coords.get(i2 + 1) - v0y, coords.get(i2 + 2) - v0z,
+					_bAnyIntersect);
+			if (_bAnyIntersect && (nHits == nSize)) {
+				return nHits;
+			}
+		}
+
+		if (!_bAnyIntersect) {
+			nHits = 0;
+			for (int i = 0; i < nSize; i++) {
+				if (_packet.m_triangles[i] >= 0) {
+					nHits++;
+				}
+			}
+		}
+		return nHits;
+	}
+
+	/**
+	 * Slab test of the rays in the packet against the bounds of the given node.
+	 * For leaves the lanes that hit the box are stored in the packet's list
+	 * of active lanes, for interior nodes the test stops at the first hit.
+	 * @return true if any of the rays that are still active hits the box
+	 */
+	private static boolean intersectBounds(RayPacket _packet, float[] _bounds, int _nNode, boolean _bLeaf) {
+		int b = _nNode * 6;
+		float fMinX = _bounds[b], fMinY = _bounds[b + 1], fMinZ = _bounds[b + 2];
+		float fMaxX = _bounds[b + 3], fMaxY = _bounds[b + 4], fMaxZ = _bounds[b + 5];
+		float[] ox = _packet.m_originX, oy = _packet.m_originY, oz = _packet.m_originZ;
+		float[] idx = _packet.m_invDirectionX, idy = _packet.m_invDirectionY, idz = _packet.m_invDirectionZ;
+		float[] limits = _packet.m_limitT;
+		int[] active = _packet.m_activeLanes;
+		int nSize = _packet.getSize();
+		int nCount = 0;
+		// Start with the lane that hit last time, coherent rays tend to keep hitting
+		int i = _packet.m_nLastHitLane;
+		for (int n = 0; n < nSize; n++) {
+			float t1 = (fMinX - ox[i]) * idx[i];
+			float t2 = (fMaxX - ox[i]) * idx[i];
+			float fNear = Math.min(t1, t2);
+			float fFar = Math.max(t1, t2);
+			t1 = (fMinY - oy[i]) * idy[i];
+			t2 = (fMaxY - oy[i]) * idy[i];
+			fNear = Math.max(fNear, Math.min(t1, t2));
+			fFar = Math.min(fFar, Math.max(t1, t2));
+			t1 = (fMinZ - oz[i]) * idz[i];
+			t2 = (fMaxZ - oz[i]) * idz[i];
+			fNear = Math.max(Math.max(fNear, Math.min(t1, t2)), 0.0f);
+			fFar = Math.min(Math.min(fFar, Math.max(t1, t2)) * ROBUST_FAR, limits[i]);
+			if (fNear <= fFar) {
+				if (!_bLeaf) {
+					_packet.m_nLastHitLane = i;
+					return true;
+				}
+				active[nCount++] = i;
+			}
+			if (++i == nSize) {
+				i = 0;
+			}
+		}
+		_packet.m_nActiveCount = nCount;
+		return (nCount > 0);
+	}
+
+	/**
+	 * Moller-Trumbore test of the active rays in the packet against the triangle
+	 * with the given first vertex and edges (v1 - v0) and (v2 - v0).
+	 * Gives exactly the same results for each ray as the single ray
+	 * Moller-Trumbore test.
+	 * @return The number of rays that hit the triangle
+	 */
+	private static int intersectTriangle(RayPacket _packet, int _nTriangle,
+			float _fV0X, float _fV0Y, float _fV0Z, float _fE1X, float _fE1Y, float _fE1Z, float _fE2X, float _fE2Y, float _fE2Z,
+			boolean _bAnyIntersect) {
+		float[] ox = _packet.m_originX, oy = _packet.m_originY, oz = _packet.m_originZ;
+		float[] dx = _packet.m_directionX, dy = _packet.m_directionY, dz = _packet.m_directionZ;
+		float[] limits = _packet.m_limitT;
+		int[] active = _packet.m_activeLanes;
+		int nCount = _packet.m_nActiveCount;
+		int nHits = 0;
+		for (int n = 0; n < nCount; n++) {
+			int i = active[n];
+			// P = D x E2
+			float px = dy[i] * _fE2Z - dz[i] * _fE2Y;
+			float py = dz[i] * _fE2X - dx[i] * _fE2Z;
+			float pz = dx[i] * _fE2Y - dy[i] * _fE2X;
+			float fDet = _fE1X * px + _fE1Y * py + _fE1Z * pz;
+			float fInvDet = 1.0f / fDet;
+
+			float sx = ox[i] - _fV0X;
+			float sy = oy[i] - _fV0Y;
+			float sz = oz[i] - _fV0Z;
+			float u = (sx * px + sy * py + sz * pz) * fInvDet;
+
+			// Q = S x E1
+			float qx = sy * _fE1Z - sz * _fE1Y;
+			float qy = sz * _fE1X - sx * _fE1Z;
+			float qz = sx * _fE1Y - sy * _fE1X;
+			float v = (dx[i] * qx + dy[i] * qy + dz[i] * qz) * fInvDet;
+			float t = (_fE2X * qx + _fE2Y * qy + _fE2Z * qz) * fInvDet;
+
+			if ((fDet != 0) && (u >= 0) && (u <= 1) && (v >= 0) && (u + v <= 1) && (t >= 0) && (t <= limits[i])) {
+				_packet.m_triangles[i] = _nTriangle;
+				_packet.m_t[i] = t;
+				_packet.m_u[i] = u;
+				_packet.m_v[i] = v;
+				limits[i] = (_bAnyIntersect) ? -1.0f : t;
+				nHits++;
+			}
+		}
+		return nHits;
+	}
+
+	/**
+	 * Watertight test of the active rays in the packet against the given
+	 * triangle of the triangle data, using the ray setup calculated by
+	 * RayPacket.prepareWatertight(). Each ray is tested with the same
+	 * method as single rays so the results are the same.
+	 * @return The number of rays that hit the triangle
+	 */
+	private int intersectTriangleWatertight(RayPacket _packet, TriangleData _data, int _nSlot, int _nTriangle, boolean _bAnyIntersect) {
+		float[][] coords = _data.m_coords;
+		float[] limits = _packet.m_limitT;
+		int[] active = _packet.m_activeLanes;
+		int nCount = _packet.m_nActiveCount;
+		int nHits = 0;
+		for (int n = 0; n < nCount; n++) {
+			int i = active[n];
+			if (intersectTriangleWatertight(coords, _nSlot, _packet.m_watertightAxes, i * 3, _packet.m_watertightRays, i * 6, limits[i])) {
+				_packet.m_triangles[i] = _nTriangle;
+				_packet.m_t[i] = m_fHitT;
+				_packet.m_u[i] = m_fHitU;
+				_packet.m_v[i] = m_fHitV;
+				limits[i] = (_bAnyIntersect) ? -1.0f : m_fHitT;
+				nHits++;
+			}
+		}
+		return nHits;
+	}
+
+	/** Finds all triangles hit by the ray using a bounding volume hierarchy
+	 * built for the geometry and reports them to the listener ordered by
+	 * their distance from the origin. The hierarchy is traversed in order
+	 * of distance as well and each hit is reported as soon as no closer
+	 * one can be found anymore, so a listener ending the query early also
+	 * saves the work of finding the hits further away.
+	 * All triangles hit are reported, so coplanar triangles each get a hit
+	 * and a ray going exactly through an edge may hit both of its triangles.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _bvh The bounding volume hierarchy of the geometry to perform intersection on
+	 * @param _listener The listener that will receive the hits
+	 * @return The number of hits reported
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, BoundingVolumeHierarchy _bvh, HitListener _listener) {
+		return intersectAll(_origin, _direction, _fLength, _bvh, null, _listener, null, 0);
+	}
+
+	/** Finds the nearest triangles hit by the ray using a bounding volume
+	 * hierarchy built for the geometry and stores them in the given buffer
+	 * ordered by their distance from the origin. See the method above for details.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _bvh The bounding volume hierarchy of the geometry to perform intersection on
+	 * @param _nMaxHits The maximum number of hits to find or 0 to find all of them
+	 * @param _hits The buffer that will hold the hits, its count is set to the number of hits
+	 * @return The number of hits found
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, BoundingVolumeHierarchy _bvh, int _nMaxHits, RayHits _hits) {
+		return intersectAll(_origin, _direction, _fLength, _bvh, null, null, _hits, _nMaxHits);
+	}
+
+	/** Finds all triangles returned by Geometry.getTriangle() that are hit
+	 * by the ray and reports them to the listener ordered by their distance
+	 * from the origin. All triangles are tested before the first hit is reported.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _listener The listener that will receive the hits
+	 * @return The number of hits reported
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, Geometry _geometry, HitListener _listener) {
+		return intersectAll(_origin, _direction, _fLength, null, _geometry, _listener, null, 0);
+	}
+
+	/** Finds the nearest triangles returned by Geometry.getTriangle() that
+	 * are hit by the ray and stores them in the given buffer ordered by
+	 * their distance from the origin.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length for to make the ray a segment. If the value is zero, it is ignored
+	 * @param _geometry The geometry to perform intersection on
+	 * @param _nMaxHits The maximum number of hits to find or 0 to find all of them
+	 * @param _hits The buffer that will hold the hits, its count is set to the number of hits
+	 * @return The number of hits found
+	 */
+	public int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, Geometry _geometry, int _nMaxHits, RayHits _hits) {
+		return intersectAll(_origin, _direction, _fLength, null, _geometry, null, _hits, _nMaxHits);
+	}
+
+	private int intersectAll(Point3d _origin, Vector3d _direction, float _fLength, BoundingVolumeHierarchy _bvh, Geometry _geometry, HitListener _listener, RayHits _hits, int _nMaxHits) {
+		m_fDirectionLength = (float)_direction.length();
+		float fMaxT = (_fLength != 0) ? _fLength / m_fDirectionLength : Float.POSITIVE_INFINITY;
+		m_hitBvh = _bvh;
+		m_hitGeometry = (_bvh != null) ? _bvh.getGeometry() : _geometry;
+		m_hitListener = _listener;
+		m_hitBuffer = _hits;
+		m_nMaxHits = _nMaxHits;
+		m_nReported = 0;
+		m_nHitHeapSize = 0;
+		m_nHitCount = 0;
+		m_nNodeHeapSize = 0;
+		if (_hits != null) {
+			_hits.setCount(0);
+		}
+		try {
+			float ox = (float)_origin.x, oy = (float)_origin.y, oz = (float)_origin.z;
+			float dx = (float)_direction.x, dy = (float)_direction.y, dz = (float)_direction.z;
+			if (_bvh != null) {
+				traverseAll(_bvh, ox, oy, oz, dx, dy, dz, fMaxT);
+			} else {
+				testAll(_geometry, ox, oy, oz, dx, dy, dz, fMaxT);
+			}
+			return m_nReported;
+		} finally {
+			m_hitBvh = null;
+			m_hitGeometry = null;
+			m_hitListener = null;
+			m_hitBuffer = null;
+		}
+	}
+
+	private void traverseAll(BoundingVolumeHierarchy _bvh, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fMaxT) {
+		if (_bvh.m_nNodeCount == 0) {
+			return;
+		}
+		float[] bounds = _bvh.m_bounds;
+		int[] nodes = _bvh.m_nodes;
+		int[] triVertices = _bvh.m_triVertices;
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		TriangleData data = _bvh.m_triangleData;
+		if (data != null) {
+			prepareWatertight(data, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ);
+		}
+
+		float fIDX = 1.0f / ((_fDX != 0) ? _fDX : TINY);
+		float fIDY = 1.0f / ((_fDY != 0) ? _fDY : TINY);
+		float fIDZ = 1.0f / ((_fDZ != 0) ? _fDZ : TINY);
+
+		float fRootT = intersectBounds(bounds, 0, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, _fMaxT);
+		if (fRootT >= 0) {
+			pushNode(0, fRootT);
+		}
+		while (m_nNodeHeapSize > 0) {
+			// Hits in front of the nearest node not visited yet are final
+			float fNearT = m_nodeHeapT[0];
+			while ((m_nHitHeapSize > 0) && (m_hitHeapT[0] <= fNearT)) {
+				if (!reportNextHit()) {
+					return;
+				}
+			}
+
+			int nNode = popNode();
+			int nInfo = nodes[nNode * 2 + 1];
+			if (nInfo > 0) {
+				int nEnd = nodes[nNode * 2] + nInfo;
+				for (int i = nodes[nNode * 2]; i < nEnd; i++) {
+					boolean bHit = (data != null)
+						? intersectTriangleWatertight(m_watertightCoords, i, m_watertightAxes, 0, m_watertightRay, 0, _fMaxT)
+						: intersectTriangle(vbuf, coords, triVertices, i, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, _fMaxT);
+					if (bHit) {
+						pushHit(i);
+					}
+				}
+			} else {
+				int nLeft = nNode + 1;
+				int nRight = nodes[nNode * 2];
+				float fLeftT = intersectBounds(bounds, nLeft, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, _fMaxT);
+				if (fLeftT >= 0) {
+					pushNode(nLeft, fLeftT);
+				}
+				float fRightT = intersectBounds(bounds, nRight, _fOX, _fOY, _fOZ, fIDX, fIDY, fIDZ, _fMaxT);
+				if (fRightT >= 0) {
+					pushNode(nRight, fRightT);
+				}
+			}
+		}
+
+		while (m_nHitHeapSize > 0) {
+			if (!reportNextHit()) {
+				break;
+			}
+		}
+	}
+
+	private void testAll(Geometry _geometry, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fMaxT) {
+		VertexBuffer vbuf = _geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		int[] vertices = m_triangleVertices;
+		int nCount = _geometry.getTriangleCount();
+		for (int t = 0; t < nCount; t++) {
+			_geometry.getTriangle(t, vertices, 0);
+			if (intersectTriangle(vbuf, coords, vertices, 0, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, _fMaxT)) {
+				pushHit(t);
+			}
+		}
+
+		while (m_nHitHeapSize > 0) {
+			if (!reportNextHit()) {
+				break;
+			}
+		}
+	}
+
+	private void pushNode(int _nNode, float _fT) {
+		if (m_nNodeHeapSize == m_nodeHeap.length) {
+			m_nodeHeap = Arrays.copyOf(m_nodeHeap, m_nNodeHeapSize * 2);
+			m_nodeHeapT = Arrays.copyOf(m_nodeHeapT, m_nNodeHeapSize * 2);
+		}
+		m_nodeHeap[m_nNodeHeapSize] = _nNode;
+		m_nodeHeapT[m_nNodeHeapSize] = _fT;
+		siftUp(m_nodeHeap, m_nodeHeapT, m_nNodeHeapSize++);
+	}
+
+	private int popNode() {
+		int nNode = m_nodeHeap[0];
+		if (--m_nNodeHeapSize > 0) {
+			m_nodeHeap[0] = m_nodeHeap[m_nNodeHeapSize];
+			m_nodeHeapT[0] = m_nodeHeapT[m_nNodeHeapSize];
+			siftDown(m_nodeHeap, m_nodeHeapT, m_nNodeHeapSize);
+		}
+		return nNode;
+	}
+
+	/**
+	 * Puts the last triangle intersection found on the hit heap
+	 */
+	private void pushHit(int _nSlot) {
+		if (m_nHitCount == m_hitSlots.length) {
+			int nCapacity = m_nHitCount * 2;
+			m_hitSlots = Arrays.copyOf(m_hitSlots, nCapacity);
+			m_hitU = Arrays.copyOf(m_hitU, nCapacity);
+			m_hitV = Arrays.copyOf(m_hitV, nCapacity);
+			m_hitHeap = Arrays.copyOf(m_hitHeap, nCapacity);
+			m_hitHeapT = Arrays.copyOf(m_hitHeapT, nCapacity);
+		}
+		int nId = m_nHitCount++;
+		m_hitSlots[nId] = _nSlot;
+		m_hitU[nId] = m_fHitU;
+		m_hitV[nId] = m_fHitV;
+		m_hitHeap[m_nHitHeapSize] = nId;
+		m_hitHeapT[m_nHitHeapSize] = m_fHitT;
+		siftUp(m_hitHeap, m_hitHeapT, m_nHitHeapSize++);
+	}
+
+	/**
+	 * Takes the nearest hit off the hit heap and reports it
+	 * @return false if the query should end
+	 */
+	private boolean reportNextHit() {
+		int nId = m_hitHeap[0];
+		float fT = m_hitHeapT[0];
+		if (--m_nHitHeapSize > 0) {
+			m_hitHeap[0] = m_hitHeap[m_nHitHeapSize];
+			m_hitHeapT[0] = m_hitHeapT[m_nHitHeapSize];
+			siftDown(m_hitHeap, m_hitHeapT, m_nHitHeapSize);
+		}
+
+		int nSlot = m_hitSlots[nId];
+		int nTriangle = (m_hitBvh != null) ? m_hitBvh.m_triangles[nSlot] : nSlot;
+		float fDistance = fT * m_fDirectionLength;
+		m_nReported++;
+		if (m_hitListener != null) {
+			if (!m_hitListener.hit(nTriangle, fDistance, m_hitU[nId], m_hitV[nId])) {
+				return false;
+			}
+		} else {
+			VertexBuffer vbuf = m_hitGeometry.getBuffer();
+			if (m_hitBvh != null) {
+				System.arraycopy(m_hitBvh.m_triVertices, nSlot * 3, m_triangleVertices, 0, 3);
+			} else {
+				m_hitGeometry.getTriangle(nTriangle, m_triangleVertices, 0);
+			}
+			m_hitBuffer.setCount(m_nReported);
+			BatchIntersectionTester.storeHit(m_hitBuffer, m_nReported - 1, nTriangle, fDistance, m_hitU[nId], m_hitV[nId], vbuf, vbuf.getVertices(), m_triangleVertices);
+		}
+		return (m_nMaxHits == 0) || (m_nReported < m_nMaxHits);
+	}
+
+	private static void siftUp(int[] _ids, float[] _keys, int _nPos) {
+		int nId = _ids[_nPos];
+		float fKey = _keys[_nPos];
+		while (_nPos > 0) {
+			int nParent = (_nPos - 1) >> 1;
+			if (_keys[nParent] <= fKey) {
+				break;
+			}
+			_ids[_nPos] = _ids[nParent];
+			_keys[_nPos] = _keys[nParent];
+			_nPos = nParent;
+		}
+		_ids[_nPos] = nId;
+		_keys[_nPos] = fKey;
+	}
+
+	private static void siftDown(int[] _ids, float[] _keys, int _nSize) {
+		int nId = _ids[0];
+		float fKey = _keys[0];
+		int nPos = 0;
+		while (true) {
+			int nChild = nPos * 2 + 1;
+			if (nChild >= _nSize) {
+				break;
+			}
+			if ((nChild + 1 < _nSize) && (_keys[nChild + 1] < _keys[nChild])) {
+				nChild++;
+			}
+			if (_keys[nChild] >= fKey) {
+				break;
+			}
+			_ids[nPos] = _ids[nChild];
+			_keys[nPos] = _keys[nChild];
+			nPos = nChild;
+		}
+		_ids[nPos] = nId;
+		_keys[nPos] = fKey;
+	}
+
+	/**
+	 * Ray - Box slab test against the bounds of the given node
+	 * @return The distance (as a multiple of the ray direction) at which
+	 * the ray enters the box or -1 if it misses the box completely
+	 */
+	static float intersectBounds(float[] _bounds, int _nNode, float _fOX, float _fOY, float _fOZ, float _fIDX, float _fIDY, float _fIDZ, float _fMaxT) {
+		int b = _nNode * 6;
+		float t1 = (_bounds[b] - _fOX) * _fIDX;
+		float t2 = (_bounds[b + 3] - _fOX) * _fIDX;
+		float fNear = Math.min(t1, t2);
+		float fFar = Math.max(t1, t2);
+		t1 = (_bounds[b + 1] - _fOY) * _fIDY;
+		t2 = (_bounds[b + 4] - _fOY) * _fIDY;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2));
+		t1 = (_bounds[b + 2] - _fOZ) * _fIDZ;
+		t2 = (_bounds[b + 5] - _fOZ) * _fIDZ;
+		fNear = Math.max(fNear, Math.min(t1, t2));
+		fFar = Math.min(fFar, Math.max(t1, t2)) * ROBUST_FAR;
+		if ((fNear > fFar) || (fFar < 0) || (fNear > _fMaxT)) {
+			return -1.0f;
+		}
+		return (fNear > 0) ? fNear : 0.0f;
+	}
+
+	private boolean intersectTriangle(VertexBuffer _vbuf, FloatBuffer _coords, int[] _triVertices, int _nSlot, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fMaxT) {
+		int i0 = _vbuf.getVertexOffset(_triVertices[_nSlot * 3]);
+		int i1 = _vbuf.getVertexOffset(_triVertices[_nSlot * 3 + 1]);
+		int i2 = _vbuf.getVertexOffset(_triVertices[_nSlot * 3 + 2]);
+		float v0x = _coords.get(i0), v0y = _coords.get(i0 + 1), v0z = _coords.get(i0 + 2);
+		return intersectTriangle(_fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ,
+				v0x, v0y, v0z,
+				_coords.get(i1) - v0x, _coords.get(i1 + 1) - v0y, _coords.get(i1 + 2) - v0z,
+				_coords.get(i2) - v0x, _coords.get(i2 + 1) - v0y, _coords.get(i2 + 2) - v0z,
+				_fMaxT);
+	}
+
+	/**
+	 * Moller-Trumbore Ray - Triangle intersection test for the triangle
+	 * with the given first vertex and edges (v1 - v0) and (v2 - v0).
+	 * When an intersection is found its details are stored in m_fHitT,
+	 * m_fHitU and m_fHitV.
+	 *
+	 * @return true if there was an intersection closer than _fMaxT, false if not
+	 */
+	private boolean intersectTriangle(float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ,
+			float _fV0X, float _fV0Y, float _fV0Z, float _fE1X, float _fE1Y, float _fE1Z, float _fE2X, float _fE2Y, float _fE2Z,
+			float _fMaxT) {
+		// P = D x E2
+		float px = _fDY * _fE2Z - _fDZ * _fE2Y;
+		float py = _fDZ * _fE2X - _fDX * _fE2Z;
+		float pz = _fDX * _fE2Y - _fDY * _fE2X;
+
+		// ray and plane parallel or degenerate triangle?
+		float fDet = _fE1X * px + _fE1Y * py + _fE1Z * pz;
+		if (fDet == 0) {
+			return false;
+		}
+		float fInvDet = 1.0f / fDet;
+
+		float sx = _fOX - _fV0X;
+		float sy = _fOY - _fV0Y;
+		float sz = _fOZ - _fV0Z;
+		float u = (sx * px + sy * py + sz * pz) * fInvDet;
+		if ((u < 0) || (u > 1)) {
+			return false;
+		}
+
+		// Q = S x E1
+		float qx = sy * _fE1Z - sz * _fE1Y;
+		float qy = sz * _fE1X - sx * _fE1Z;
+		float qz = sx * _fE1Y - sy * _fE1X;
+		float v = (_fDX * qx + _fDY * qy + _fDZ * qz) * fInvDet;
+		if ((v < 0) || (u + v > 1)) {
+			return false;
+		}
+
+		float t = (_fE2X * qx + _fE2Y * qy + _fE2Z * qz) * fInvDet;
+		if ((t < 0) || (t > _fMaxT)) {
+			return false;
+		}
+
+		m_fHitT = t;
+		m_fHitU = u;
+		m_fHitV = v;
+		return true;
+	}
+
+	/**
+	 * Prepares the watertight Ray - Triangle test for the given ray against
+	 * the given triangle data
+	 */
+	private void prepareWatertight(TriangleData _data, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ) {
+		m_watertightCoords = _data.m_coords;
+		setupWatertight(_fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, m_watertightAxes, 0, m_watertightRay, 0);
+	}
+
+	/**
+	 * Calculates the setup of the watertight Ray - Triangle test of Woop,
+	 * Benthin and Wald for the given ray. The coordinates are permuted so
+	 * the largest component of the direction becomes the z axis and the
+	 * shear constants are calculated that transform the ray into the unit
+	 * z direction. Stores the axes kx, ky and kz in _axes and the shear
+	 * constants Sx, Sy and Sz followed by the origin in permuted
+	 * coordinates in _ray.
+	 */
+	static void setupWatertight(float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, int[] _axes, int _nAxesOffset, float[] _ray, int _nRayOffset) {
+		float adx = Math.abs(_fDX);
+		float ady = Math.abs(_fDY);
+		float adz = Math.abs(_fDZ);
+		int kz = (adx > ady) ? ((adx > adz) ? 0 : 2) : ((ady > adz) ? 1 : 2);
+		int kx = (kz + 1) % 3;
+		int ky = (kx + 1) % 3;
+		float fDirZ = component(kz, _fDX, _fDY, _fDZ);
+		if (fDirZ < 0) {
+			// Keep the winding of the triangles the same
+			int tmp = kx;
+			kx = ky;
+			ky = tmp;
+		}
+		_axes[_nAxesOffset] = kx;
+		_axes[_nAxesOffset + 1] = ky;
+		_axes[_nAxesOffset + 2] = kz;
+		_ray[_nRayOffset] = component(kx, _fDX, _fDY, _fDZ) / fDirZ;
+		_ray[_nRayOffset + 1] = component(ky, _fDX, _fDY, _fDZ) / fDirZ;
+		_ray[_nRayOffset + 2] = 1.0f / fDirZ;
+		_ray[_nRayOffset + 3] = component(kx, _fOX, _fOY, _fOZ);
+		_ray[_nRayOffset + 4] = component(ky, _fOX, _fOY, _fOZ);
+		_ray[_nRayOffset + 5] = component(kz, _fOX, _fOY, _fOZ);
+	}
+
+	private static float component(int _nAxis, float _fX, float _fY, float _fZ) {
+		return (_nAxis == 0) ? _fX : (_nAxis == 1) ? _fY : _fZ;
+	}
+
+	/**
+	 * Watertight Ray - Triangle intersection test for the given triangle of
+	 * the triangle data coordinates, using a ray setup calculated by
+	 * setupWatertight(). The triangle is moved into the space of the ray
+	 * where the test reduces to a 2D test of the origin against the edges
+	 * of the triangle. Because the edge functions only depend on the two
+	 * vertices of an edge, the tests of triangles sharing an edge agree
+	 * exactly and no ray can slip through.
+	 * When an intersection is found its details are stored in m_fHitT,
+	 * m_fHitU and m_fHitV.
+	 *
+	 * @return true if there was an intersection closer than _fMaxT, false if not
+	 */
+	private boolean intersectTriangleWatertight(float[][] _coords, int _nTriangle, int[] _axes, int _nAxesOffset, float[] _ray, int _nRayOffset, float _fMaxT) {
+		int kx = _axes[_nAxesOffset];
+		int ky = _axes[_nAxesOffset + 1];
+		int kz = _axes[_nAxesOffset + 2];
+		float fShearX = _ray[_nRayOffset];
+		float fShearY = _ray[_nRayOffset + 1];
+		float fOX = _ray[_nRayOffset + 3];
+		float fOY = _ray[_nRayOffset + 4];
+		float fOZ = _ray[_nRayOffset + 5];
+		float az = _coords[kz][_nTriangle] - fOZ;
+		float bz = _coords[3 + kz][_nTriangle] - fOZ;
+		float cz = _coords[6 + kz][_nTriangle] - fOZ;
+		float ax = _coords[kx][_nTriangle] - fOX - fShearX * az;
+		float ay = _coords[ky][_nTriangle] - fOY - fShearY * az;
+		float bx = _coords[3 + kx][_nTriangle] - fOX - fShearX * bz;
+		float by = _coords[3 + ky][_nTriangle] - fOY - fShearY * bz;
+		float cx = _coords[6 + kx][_nTriangle] - fOX - fShearX * cz;
+		float cy = _coords[6 + ky][_nTriangle] - fOY - fShearY * cz;
+
+		float u = cx * by - cy * bx;
+		float v = ax * cy - ay * cx;
+		float w = bx * ay - by * ax;
+		if ((u == 0) || (v == 0) || (w == 0)) {
+			// The ray passes (very close to) an edge, only double precision
+			// gives a consistent answer
+			u = (float)((double)cx * by - (double)cy * bx);
+			v = (float)((double)ax * cy - (double)ay * cx);
+			w = (float)((double)bx * ay - (double)by * ax);
+		}
+		if (((u < 0) || (v < 0) || (w < 0)) && ((u > 0) || (v > 0) || (w > 0))) {
+			return false;
+		}
+
+		float fDet = u + v + w;
+		if (fDet == 0) {
+			return false;
+		}
+		float fInvDet = 1.0f / fDet;
+		float t = (u * az + v * bz + w * cz) * _ray[_nRayOffset + 2] * fInvDet;
+		if ((t < 0) || (t > _fMaxT)) {
+			return false;
+		}
+
+		m_fHitT = t;
+		m_fHitU = v * fInvDet;
+		m_fHitV = w * fInvDet;
+		return true;
+	}
+
+	/**
+	 * Stores the normalized normal of the given triangle of the triangle data in the given vector
+	 */
+	static void triangleNormal(TriangleData _data, int _nTriangle, Vector3d _normal) {
+		float[][] c = _data.m_coords;
+		double e1x = c[3][_nTriangle] - c[0][_nTriangle];
+		double e1y = c[4][_nTriangle] - c[1][_nTriangle];
+		double e1z = c[5][_nTriangle] - c[2][_nTriangle];
+		double e2x = c[6][_nTriangle] - c[0][_nTriangle];
+		double e2y = c[7][_nTriangle] - c[1][_nTriangle];
+		double e2z = c[8][_nTriangle] - c[2][_nTriangle];
+		_normal.x = e1y * e2z - e1z * e2y;
+		_normal.y = e1z * e2x - e1x * e2z;
+		_normal.z = e1x * e2y - e1y * e2x;
+		_normal.normalize();
+	}
+
+	/**
+	 * Stores the normalized normal of the triangle in the given slot in the given vector
+	 */
+	static void triangleNormal(BoundingVolumeHierarchy _bvh, int _nSlot, Vector3d _normal) {
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		int i0 = vbuf.getVertexOffset(_bvh.m_triVertices[_nSlot * 3]);
+		int i1 = vbuf.getVertexOffset(_bvh.m_triVertices[_nSlot * 3 + 1]);
+		int i2 = vbuf.getVertexOffset(_bvh.m_triVertices[_nSlot * 3 + 2]);
+		double e1x = coords.get(i1) - coords.get(i0);
+		double e1y = coords.get(i1 + 1) - coords.get(i0 + 1);
+		double e1z = coords.get(i1 + 2) - coords.get(i0 + 2);
+		double e2x = coords.get(i2) - coords.get(i0);
+		double e2y = coords.get(i2 + 1) - coords.get(i0 + 1);
+		double e2z = coords.get(i2 + 2) - coords.get(i0 + 2);
+		_normal.x = e1y * e2z - e1z * e2y;
+		_normal.y = e1z * e2x - e1x * e2z;
+		_normal.z = e1x * e2y - e1y * e2x;
+		_normal.normalize();
+	}
+
+	private void ensureStackSize(int _nDepth) {
+		// Each level of the hierarchy pushes at most one node
+		if (m_nodeStack.length < _nDepth + 1) {
+			m_nodeStack = new int[_nDepth + 1];
+			m_nodeStackT = new float[_nDepth + 1];
+		}
+	}
+
 	/** Private version of the Ray - Polygon intersection test that does not
 	 * do any bounds checking on arrays and assumes everything is correct.
 	 * Allows fast calls to this method for internal use as well as more
@@ -121,6 +1277,14 @@ public class IntersectionTester {
 		_polygon.getVertex(1, m_polyVector1);
 		_polygon.getVertex(2, m_polyVector2);
 		
+		if (_polygon.getVertexCount() == 3) {
+			if (intersectTriangleChecked(_origin, _direction, m_polyVector0, m_polyVector1, m_polyVector2, _intersection)) {
+				_intersection.setTriangle(0);
+				return ((_fLength == 0) || (_intersection.getDistanceSquared() <= _fLengthSquared));
+			}
+			return false;
+		}
+
 		m_tmpVector0.x = m_polyVector1.x - m_polyVector0.x;
 		m_tmpVector0.y = m_polyVector1.y - m_polyVector0.y;
 		m_tmpVector0.z = m_polyVector1.z - m_polyVector0.z;
@@ -285,7 +1449,112 @@ public class IntersectionTester {
 		// Step 6. If Nc odd, point inside else point outside.
 		// Note that we have already stored the intersection point way back up
 		// the start.
-		return ((crossings % 2) == 1);
+		if ((crossings % 2) == 1) {
+			findPolygonTriangle(_origin, _direction, _polygon, _intersection);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determines which triangle of the fan around the first vertex of the
+	 * given polygon contains the intersection that was found and stores its
+	 * index and the barycentric coordinates within that triangle. The index
+	 * is set to -1 if none of them does, which can happen for concave polygons.
+	 * The point, normal and distance of the intersection are left alone.
+	 */
+	private void findPolygonTriangle(Point3d _origin, Vector3d _direction, Polygon _polygon, Intersection _intersection) {
+		_intersection.setTriangle(-1);
+		_polygon.getVertex(0, m_polyVector0);
+		_polygon.getVertex(1, m_polyVector2);
+		for (int i = 2; i < _polygon.getVertexCount(); i++) {
+			m_polyVector1.set(m_polyVector2);
+			_polygon.getVertex(i, m_polyVector2);
+			if (intersectTriangleBarycentric(_origin, _direction, m_polyVector0, m_polyVector1, m_polyVector2)) {
+				_intersection.setTriangle(i - 2);
+				_intersection.setBarycentric(m_fHitDU, m_fHitDV);
+				return;
+			}
+		}
+	}
+
+	/** Moller-Trumbore Ray - Triangle intersection test done in double
+	 * precision. Gives the same results as the general polygon test for
+	 * triangles but without the projection and crossing count.
+	 * Stores the point, normal, distance and barycentric coordinates of any
+	 * intersection found in the given Intersection but not its triangle.
+	 *
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _v0 The first vertex of the triangle
+	 * @param _v1 The second vertex of the triangle
+	 * @param _v2 The third vertex of the triangle
+	 * @param _intersection Will hold the details of any intersection found
+	 * @return true if there was an intersection, false if not
+	 */
+	private boolean intersectTriangleChecked(Point3d _origin, Vector3d _direction, Vector3f _v0, Vector3f _v1, Vector3f _v2, Intersection _intersection) {
+		if (!intersectTriangleBarycentric(_origin, _direction, _v0, _v1, _v2)) {
+			return false;
+		}
+		double t = m_fHitDT;
+		_intersection.getPoint().x = _origin.x + _direction.x * t;
+		_intersection.getPoint().y = _origin.y + _direction.y * t;
+		_intersection.getPoint().z = _origin.z + _direction.z * t;
+		_intersection.setDistanceSquared(_origin.distanceSquared(_intersection.getPoint()));
+		_intersection.getNormal().cross(m_tmpVector0, m_tmpVector1);
+		_intersection.getNormal().normalize();
+		_intersection.setBarycentric(m_fHitDU, m_fHitDV);
+		return true;
+	}
+
+	/**
+	 * Moller-Trumbore test in double precision. On success the details can
+	 * be found in m_fHitDT, m_fHitDU and m_fHitDV and the edges (v1 - v0)
+	 * and (v2 - v0) in m_tmpVector0 and m_tmpVector1.
+	 */
+	private boolean intersectTriangleBarycentric(Point3d _origin, Vector3d _direction, Vector3f _v0, Vector3f _v1, Vector3f _v2) {
+		double e1x = _v1.x - _v0.x, e1y = _v1.y - _v0.y, e1z = _v1.z - _v0.z;
+		double e2x = _v2.x - _v0.x, e2y = _v2.y - _v0.y, e2z = _v2.z - _v0.z;
+
+		// P = D x E2
+		double px = _direction.y * e2z - _direction.z * e2y;
+		double py = _direction.z * e2x - _direction.x * e2z;
+		double pz = _direction.x * e2y - _direction.y * e2x;
+
+		// ray and plane parallel or degenerate triangle?
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0) {
+			return false;
+		}
+		double inv_det = 1.0 / det;
+
+		double sx = _origin.x - _v0.x, sy = _origin.y - _v0.y, sz = _origin.z - _v0.z;
+		double u = (sx * px + sy * py + sz * pz) * inv_det;
+		if ((u < 0) || (u > 1)) {
+			return false;
+		}
+
+		// Q = S x E1
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double v = (_direction.x * qx + _direction.y * qy + _direction.z * qz) * inv_det;
+		if ((v < 0) || (u + v > 1)) {
+			return false;
+		}
+
+		// intersection before the origin
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inv_det;
+		if (t < 0) {
+			return false;
+		}
+
+		m_tmpVector0.set(e1x, e1y, e1z);
+		m_tmpVector1.set(e2x, e2y, e2z);
+		m_fHitDT = t;
+		m_fHitDU = u;
+		m_fHitDV = v;
+		return true;
 	}
 }
 
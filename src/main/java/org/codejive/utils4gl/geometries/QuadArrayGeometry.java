@@ -57,6 +57,19 @@ public class QuadArrayGeometry extends GeometryBase {
 		return m_polyIter;
 	}
 	
+	public int getTriangleCount() {
+		return (getBuffer().getSize() / 4) * 2;
+	}
+	
+	public void getTriangle(int _nTriangle, int[] _indices, int _nOffset) {
+		// Each quad (0, 1, 2, 3) is split into triangles (0, 1, 2) and (0, 2, 3)
+		int nIdx = (_nTriangle >> 1) * 4;
+		int nSecond = _nTriangle & 1;
+		_indices[_nOffset + 0] = getVertexIndex(nIdx);
+		_indices[_nOffset + 1] = getVertexIndex(nIdx + 1 + nSecond);
+		_indices[_nOffset + 2] = getVertexIndex(nIdx + 2 + nSecond);
+	}
+	
 	private class PolygonIterator implements Iterator<Polygon> {
 		private Polygon m_polygon;
 		private int m_nIndex;
@@ -0,0 +1,210 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.util.Arrays;
+
+/**
+ * Holds the results of a batch of ray intersection tests in primitive
+ * arrays, one element (or three for the normals) per ray. For rays that
+ * didn't hit anything the triangle is -1 and the distance is infinite,
+ * the other values are undefined. The arrays grow as needed and can be
+ * accessed directly to avoid the overhead of calling a method per value.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class RayHits {
+	private int m_nCount;
+	private int[] m_triangles;
+	private float[] m_distances;
+	private float[] m_u;
+	private float[] m_v;
+	private float[] m_normals;
+
+	/**
+	 * Creates an empty result set
+	 */
+	public RayHits() {
+		this(0);
+	}
+
+	/**
+	 * Creates an empty result set with room for the given number of results
+	 * @param _nCapacity The number of results to allocate room for
+	 */
+	public RayHits(int _nCapacity) {
+		m_nCount = 0;
+		m_triangles = new int[_nCapacity];
+		m_distances = new float[_nCapacity];
+		m_u = new float[_nCapacity];
+		m_v = new float[_nCapacity];
+		m_normals = new float[_nCapacity * 3];
+	}
+
+	/**
+	 * Returns the number of results
+	 * @return The number of results
+	 */
+	public int getCount() {
+		return m_nCount;
+	}
+
+	/**
+	 * Sets the number of results, growing the arrays if necessary.
+	 * Existing results are kept.
+	 * @param _nCount The number of results
+	 */
+	public void setCount(int _nCount) {
+		if (_nCount > m_triangles.length) {
+			int nCapacity = Math.max(_nCount, m_triangles.length * 3 / 2);
+			m_triangles = Arrays.copyOf(m_triangles, nCapacity);
+			m_distances = Arrays.copyOf(m_distances, nCapacity);
+			m_u = Arrays.copyOf(m_u, nCapacity);
+			m_v = Arrays.copyOf(m_v, nCapacity);
+			m_normals = Arrays.copyOf(m_normals, nCapacity * 3);
+		}
+		m_nCount = _nCount;
+	}
+
+	/**
+	 * Determines if the given ray hit anything
+	 * @param _nRay The index of the ray
+	 * @return true if the ray hit a triangle, false if not
+	 */
+	public boolean isHit(int _nRay) {
+		return (m_triangles[_nRay] >= 0);
+	}
+
+	/**
+	 * Returns the index of the triangle within the Geometry hit by the
+	 * given ray, as used by Geometry.getTriangle()
+	 * @param _nRay The index of the ray
+	 * @return The index of the triangle or -1 if the ray didn't hit anything
+	 */
+	public int getTriangle(int _nRay) {
+		return m_triangles[_nRay];
+	}
+
+	/**
+	 * Returns the distance from the origin of the given ray to the point it hit
+	 * @param _nRay The index of the ray
+	 * @return The distance or Float.POSITIVE_INFINITY if the ray didn't hit anything
+	 */
+	public float getDistance(int _nRay) {
+		return m_distances[_nRay];
+	}
+
+	/**
+	 * Returns the first barycentric coordinate of the point hit by the given
+	 * ray, the weight of the second vertex of the triangle
+	 * @param _nRay The index of the ray
+	 * @return The barycentric u coordinate
+	 */
+	public float getU(int _nRay) {
+		return m_u[_nRay];
+	}
+
+	/**
+	 * Returns the second barycentric coordinate of the point hit by the given
+	 * ray, the weight of the third vertex of the triangle
+	 * @param _nRay The index of the ray
+	 * @return The barycentric v coordinate
+	 */
+	public float getV(int _nRay) {
+		return m_v[_nRay];
+	}
+
+	/**
+	 * Stores the normalized normal of the triangle hit by the given ray in the given array
+	 * @param _nRay The index of the ray
+	 * @param _normal Float array of at least 3 elements
+	 */
+	public void getNormal(int _nRay, float[] _normal) {
+		System.arraycopy(m_normals, _nRay * 3, _normal, 0, 3);
+	}
+
+	/**
+	 * Returns the triangle indices of all rays
+	 * @return The triangle index array
+	 */
+	public int[] getTriangles() {
+		return m_triangles;
+	}
+
+	/**
+	 * Returns the distances of all rays
+	 * @return The distance array
+	 */
+	public float[] getDistances() {
+		return m_distances;
+	}
+
+	/**
+	 * Returns the barycentric u coordinates of all rays
+	 * @return The u coordinate array
+	 */
+	public float[] getUs() {
+		return m_u;
+	}
+
+	/**
+	 * Returns the barycentric v coordinates of all rays
+	 * @return The v coordinate array
+	 */
+	public float[] getVs() {
+		return m_v;
+	}
+
+	/**
+	 * Returns the normals of all rays, 3 elements per ray
+	 * @return The normal array
+	 */
+	public float[] getNormals() {
+		return m_normals;
+	}
+
+	/**
+	 * Stores a hit for the given ray
+	 */
+	void setHit(int _nRay, int _nTriangle, float _fDistance, float _fU, float _fV, float _fNX, float _fNY, float _fNZ) {
+		m_triangles[_nRay] = _nTriangle;
+		m_distances[_nRay] = _fDistance;
+		m_u[_nRay] = _fU;
+		m_v[_nRay] = _fV;
+		m_normals[_nRay * 3] = _fNX;
+		m_normals[_nRay * 3 + 1] = _fNY;
+		m_normals[_nRay * 3 + 2] = _fNZ;
+	}
+
+	/**
+	 * Stores a miss for the given ray
+	 */
+	void setMiss(int _nRay) {
+		m_triangles[_nRay] = -1;
+		m_distances[_nRay] = Float.POSITIVE_INFINITY;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,337 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+/**
+ * A bundle of rays that get tested against a Geometry together using
+ * IntersectionTester.intersect(RayPacket, ...). All rays and their results
+ * are stored in separate primitive arrays, one element per ray ("lane"),
+ * so the tests can work on all lanes at once in simple loops. Packets work
+ * best for coherent rays, those that start close together and point in
+ * roughly the same direction, like the rays for a block of pixels or the
+ * samples for one point of an ambient occlusion bake. Packets of 4 to 64
+ * rays are a good size.
+ * <p>
+ * The results of a test are the index of the triangle hit by each ray
+ * (or -1 if the ray missed everything), the distance to the hit as a
+ * multiple of the ray's direction and the barycentric coordinates of
+ * the hit within the triangle.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class RayPacket {
+	private int m_nMaxSize;
+	private int m_nSize;
+
+	float[] m_originX;
+	float[] m_originY;
+	float[] m_originZ;
+	float[] m_directionX;
+	float[] m_directionY;
+	float[] m_directionZ;
+	float[] m_maxT;
+
+	/** Inverse directions, calculated at the start of each test */
+	float[] m_invDirectionX;
+	float[] m_invDirectionY;
+	float[] m_invDirectionZ;
+	/** The distance beyond which hits are ignored, negative for lanes that are done */
+	float[] m_limitT;
+	/** The lanes that hit the last leaf tested */
+	int[] m_activeLanes;
+	int m_nActiveCount;
+	/** The lane that hit the last interior node tested, tried first for the next one */
+	int m_nLastHitLane;
+
+	/** The axes of each ray for the watertight triangle test, 3 per ray, see IntersectionTester.setupWatertight() */
+	int[] m_watertightAxes;
+	/** The shear constants and permuted origin of each ray for the watertight triangle test, 6 per ray */
+	float[] m_watertightRays;
+
+	int[] m_triangles;
+	float[] m_t;
+	float[] m_u;
+	float[] m_v;
+
+	/**
+	 * Creates an empty packet that can hold the given number of rays
+	 * @param _nMaxSize The maximum number of rays in the packet
+	 */
+	public RayPacket(int _nMaxSize) {
+		m_nMaxSize = _nMaxSize;
+		m_nSize = 0;
+		m_originX = new float[_nMaxSize];
+		m_originY = new float[_nMaxSize];
+		m_originZ = new float[_nMaxSize];
+		m_directionX = new float[_nMaxSize];
+		m_directionY = new float[_nMaxSize];
+		m_directionZ = new float[_nMaxSize];
+		m_maxT = new float[_nMaxSize];
+		m_invDirectionX = new float[_nMaxSize];
+		m_invDirectionY = new float[_nMaxSize];
+		m_invDirectionZ = new float[_nMaxSize];
+		m_limitT = new float[_nMaxSize];
+		m_activeLanes = new int[_nMaxSize];
+		m_watertightAxes = new int[_nMaxSize * 3];
+		m_watertightRays = new float[_nMaxSize * 6];
+		m_triangles = new int[_nMaxSize];
+		m_t = new float[_nMaxSize];
+		m_u = new float[_nMaxSize];
+		m_v = new float[_nMaxSize];
+	}
+
+	/**
+	 * Returns the maximum number of rays the packet can hold
+	 * @return The maximum number of rays
+	 */
+	public int getMaxSize() {
+		return m_nMaxSize;
+	}
+
+	/**
+	 * Returns the number of rays in the packet
+	 * @return The number of rays
+	 */
+	public int getSize() {
+		return m_nSize;
+	}
+
+	/**
+	 * Sets the number of rays in the packet. Rays that were already set
+	 * keep their values.
+	 * @param _nSize The number of rays
+	 */
+	public void setSize(int _nSize) {
+		if ((_nSize < 0) || (_nSize > m_nMaxSize)) {
+			throw new IllegalArgumentException("Packet size out of range: " + _nSize);
+		}
+		m_nSize = _nSize;
+	}
+
+	/**
+	 * Removes all rays from the packet
+	 */
+	public void reset() {
+		m_nSize = 0;
+	}
+
+	/**
+	 * Adds a ray to the packet
+	 * @param _fOX The x coordinate of the origin of the ray
+	 * @param _fOY The y coordinate of the origin of the ray
+	 * @param _fOZ The z coordinate of the origin of the ray
+	 * @param _fDX The x coordinate of the direction of the ray
+	 * @param _fDY The y coordinate of the direction of the ray
+	 * @param _fDZ The z coordinate of the direction of the ray
+	 * @param _fLength An optional length to make the ray a segment. If the value is zero, it is ignored
+	 * @return The lane of the ray within the packet
+	 */
+	public int addRay(float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fLength) {
+		if (m_nSize >= m_nMaxSize) {
+			throw new IllegalStateException("Packet is full");
+		}
+		setRay(m_nSize, _fOX, _fOY, _fOZ, _fDX, _fDY, _fDZ, _fLength);
+		return m_nSize++;
+	}
+
+	/**
+	 * Adds a ray to the packet
+	 * @param _origin The origin of the ray
+	 * @param _direction The direction of the ray
+	 * @param _fLength An optional length to make the ray a segment. If the value is zero, it is ignored
+	 * @return The lane of the ray within the packet
+	 */
+	public int addRay(Point3d _origin, Vector3d _direction, float _fLength) {
+		return addRay((float)_origin.x, (float)_origin.y, (float)_origin.z, (float)_direction.x, (float)_direction.y, (float)_direction.z, _fLength);
+	}
+
+	/**
+	 * Changes the ray in the given lane
+	 * @param _nLane The lane of the ray within the packet
+	 * @param _fOX The x coordinate of the origin of the ray
+	 * @param _fOY The y coordinate of the origin of the ray
+	 * @param _fOZ The z coordinate of the origin of the ray
+	 * @param _fDX The x coordinate of the direction of the ray
+	 * @param _fDY The y coordinate of the direction of the ray
+	 * @param _fDZ The z coordinate of the direction of the ray
+	 * @param _fLength An optional length to make the ray a segment. If the value is zero, it is ignored
+	 */
+	public void setRay(int _nLane, float _fOX, float _fOY, float _fOZ, float _fDX, float _fDY, float _fDZ, float _fLength) {
+		m_originX[_nLane] = _fOX;
+		m_originY[_nLane] = _fOY;
+		m_originZ[_nLane] = _fOZ;
+		m_directionX[_nLane] = _fDX;
+		m_directionY[_nLane] = _fDY;
+		m_directionZ[_nLane] = _fDZ;
+		if (_fLength != 0) {
+			// Calculated in double precision like the single ray tests do
+			m_maxT[_nLane] = (float)(_fLength / Math.sqrt((double)_fDX * _fDX + (double)_fDY * _fDY + (double)_fDZ * _fDZ));
+		} else {
+			m_maxT[_nLane] = Float.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Determines if the ray in the given lane hit anything during the last test
+	 * @param _nLane The lane of the ray within the packet
+	 * @return true if the ray hit a triangle, false if not
+	 */
+	public boolean isHit(int _nLane) {
+		return (m_triangles[_nLane] >= 0);
+	}
+
+	/**
+	 * Returns the index of the triangle within the Geometry that was hit
+	 * by the ray in the given lane, as used by Geometry.getTriangle()
+	 * @param _nLane The lane of the ray within the packet
+	 * @return The index of the triangle or -1 if the ray didn't hit anything
+	 */
+	public int getTriangle(int _nLane) {
+		return m_triangles[_nLane];
+	}
+
+	/**
+	 * Returns the distance from the origin of the ray in the given lane to
+	 * the point it hit, as a multiple of the length of its direction.
+	 * Only valid if the ray hit something.
+	 * @param _nLane The lane of the ray within the packet
+	 * @return The distance along the ray
+	 */
+	public float getT(int _nLane) {
+		return m_t[_nLane];
+	}
+
+	/**
+	 * Returns the distance from the origin of the ray in the given lane to the point it hit
+	 * @param _nLane The lane of the ray within the packet
+	 * @return The distance to the intersection point
+	 */
+	public float getDistance(int _nLane) {
+		float dx = m_directionX[_nLane];
+		float dy = m_directionY[_nLane];
+		float dz = m_directionZ[_nLane];
+		return m_t[_nLane] * (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Returns the first barycentric coordinate of the point hit by the ray
+	 * in the given lane, the weight of the second vertex of the triangle
+	 * @param _nLane The lane of the ray within the packet
+	 * @return The barycentric u coordinate
+	 */
+	public float getU(int _nLane) {
+		return m_u[_nLane];
+	}
+
+	/**
+	 * Returns the second barycentric coordinate of the point hit by the ray
+	 * in the given lane, the weight of the third vertex of the triangle
+	 * @param _nLane The lane of the ray within the packet
+	 * @return The barycentric v coordinate
+	 */
+	public float getV(int _nLane) {
+		return m_v[_nLane];
+	}
+
+	/**
+	 * Stores the point hit by the ray in the given lane in the given point
+	 * @param _nLane The lane of the ray within the packet
+	 * @param _point The point that will hold the intersection point
+	 */
+	public void getPoint(int _nLane, Point3d _point) {
+		float t = m_t[_nLane];
+		_point.x = m_originX[_nLane] + m_directionX[_nLane] * t;
+		_point.y = m_originY[_nLane] + m_directionY[_nLane] * t;
+		_point.z = m_originZ[_nLane] + m_directionZ[_nLane] * t;
+	}
+
+	/**
+	 * Returns the triangle indices of all lanes, -1 for rays that didn't hit anything.
+	 * The array is owned by the packet and is overwritten by each test.
+	 * @return The triangle index array
+	 */
+	public int[] getTriangles() {
+		return m_triangles;
+	}
+
+	/**
+	 * Returns the distances along the rays of all lanes.
+	 * The array is owned by the packet and is overwritten by each test.
+	 * @return The distance array
+	 */
+	public float[] getTs() {
+		return m_t;
+	}
+
+	/**
+	 * Returns the barycentric u coordinates of all lanes.
+	 * The array is owned by the packet and is overwritten by each test.
+	 * @return The u coordinate array
+	 */
+	public float[] getUs() {
+		return m_u;
+	}
+
+	/**
+	 * Returns the barycentric v coordinates of all lanes.
+	 * The array is owned by the packet and is overwritten by each test.
+	 * @return The v coordinate array
+	 */
+	public float[] getVs() {
+		return m_v;
+	}
+
+	/**
+	 * Clears the results and prepares the inverse directions for a new test
+	 */
+	void prepare() {
+		m_nActiveCount = 0;
+		m_nLastHitLane = 0;
+		for (int i = 0; i < m_nSize; i++) {
+			m_triangles[i] = -1;
+			m_t[i] = m_maxT[i];
+			m_limitT[i] = m_maxT[i];
+			m_invDirectionX[i] = 1.0f / ((m_directionX[i] != 0) ? m_directionX[i] : IntersectionTester.TINY);
+			m_invDirectionY[i] = 1.0f / ((m_directionY[i] != 0) ? m_directionY[i] : IntersectionTester.TINY);
+			m_invDirectionZ[i] = 1.0f / ((m_directionZ[i] != 0) ? m_directionZ[i] : IntersectionTester.TINY);
+		}
+	}
+
+	/**
+	 * Prepares the watertight triangle test for all rays, calculating the
+	 * same permutation and shear constants as the single ray test does
+	 */
+	void prepareWatertight() {
+		for (int i = 0; i < m_nSize; i++) {
+			IntersectionTester.setupWatertight(m_originX[i], m_originY[i], m_originZ[i], m_directionX[i], m_directionY[i], m_directionZ[i],
+					m_watertightAxes, i * 3, m_watertightRays, i * 6);
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -0,0 +1,900 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.nio.FloatBuffer;
+
+import javax.vecmath.Point3f;
+
+/**
+ * This class can be used to find the triangles of a Geometry touched by
+ * simple shapes like spheres and boxes, for example to perform collision
+ * detection for characters moving through a level, and to find the point
+ * on a Geometry closest to a given point. All contacts found are
+ * added to a ContactBuffer supplied by the caller, no objects are created
+ * while performing the tests.
+ * For performance reasons it's best to re-use an object of this class as much as possible,
+ * but it has to be taken into account that the code is _not_ thread-safe!
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class ShapeTester {
+	private static final int SHAPE_SPHERE = 0;
+	private static final int SHAPE_BOX = 1;
+	private static final int SHAPE_SWEEP = 2;
+
+	/** The node stack used when traversing bounding volume hierarchies */
+	private int[] m_nodeStack;
+	/** The squared distances to the nodes on the node stack */
+	private float[] m_nodeStackD;
+	/** The vertex indices of the triangle currently being tested */
+	private int[] m_triangleVertices;
+	/** The coordinates of the triangle currently being tested */
+	private float[] m_triangle;
+	/** The coordinates of the triangle relative to the center of the box being tested */
+	private float[] m_localTriangle;
+
+	/** The kind of shape currently being tested */
+	private int m_nShape;
+	/** The bounds of the shape currently being tested */
+	private float[] m_queryBounds;
+	/** The center of the sphere or box or the start of the sweep */
+	private float m_fCX, m_fCY, m_fCZ;
+	/** The half extents of the box */
+	private float m_fEX, m_fEY, m_fEZ;
+	/** The movement of the sweep */
+	private float m_fDX, m_fDY, m_fDZ;
+	/** The inverse of the movement of the sweep for the slab tests */
+	private float m_fIDX, m_fIDY, m_fIDZ;
+	private float m_fRadius;
+
+	/** The point found by the last closest point or sweep calculation */
+	float m_fPX, m_fPY, m_fPZ;
+	/** The barycentric coordinates of the point found by the last closest point calculation */
+	float m_fU, m_fV;
+	/** The normal of the last triangle for which it was calculated */
+	private float m_fNX, m_fNY, m_fNZ;
+
+	/**
+	 * Creates a default instance of this class
+	 */
+	public ShapeTester() {
+		m_nodeStack = new int[64];
+		m_nodeStackD = new float[64];
+		m_triangleVertices = new int[3];
+		m_triangle = new float[9];
+		m_localTriangle = new float[9];
+		m_queryBounds = new float[6];
+	}
+
+	/**
+	 * Clear the current internal structures to reduce the amount of memory
+	 * used. See IntersectionTester.clear() for the caveats.
+	 */
+	public void clear() {
+		m_nodeStack = new int[64];
+		m_nodeStackD = new float[64];
+	}
+
+	/**
+	 * Finds all triangles of the Geometry that are touched by the given sphere.
+	 * All triangles of the Geometry are tested.
+	 *
+	 * @param _center The center of the sphere
+	 * @param _fRadius The radius of the sphere
+	 * @param _geometry The Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int overlapSphere(Point3f _center, float _fRadius, Geometry _geometry, ContactBuffer _contacts) {
+		setSphere(_center, _fRadius);
+		return query(_geometry, _contacts);
+	}
+
+	/**
+	 * Finds all triangles of the Geometry that are touched by the given sphere
+	 * using a bounding volume hierarchy built for the Geometry to avoid
+	 * testing most of its triangles.
+	 *
+	 * @param _center The center of the sphere
+	 * @param _fRadius The radius of the sphere
+	 * @param _bvh The bounding volume hierarchy of the Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int overlapSphere(Point3f _center, float _fRadius, BoundingVolumeHierarchy _bvh, ContactBuffer _contacts) {
+		setSphere(_center, _fRadius);
+		return query(_bvh, _contacts);
+	}
+
+	/**
+	 * Finds all triangles of the Geometry that are touched by the given
+	 * axis-aligned box. All triangles of the Geometry are tested.
+	 *
+	 * @param _min The corner of the box with the lowest coordinates
+	 * @param _max The corner of the box with the highest coordinates
+	 * @param _geometry The Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int overlapAABB(Point3f _min, Point3f _max, Geometry _geometry, ContactBuffer _contacts) {
+		setBox(_min, _max);
+		return query(_geometry, _contacts);
+	}
+
+	/**
+	 * Finds all triangles of the Geometry that are touched by the given
+	 * axis-aligned box using a bounding volume hierarchy built for the
+	 * Geometry to avoid testing most of its triangles.
+	 *
+	 * @param _min The corner of the box with the lowest coordinates
+	 * @param _max The corner of the box with the highest coordinates
+	 * @param _bvh The bounding volume hierarchy of the Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int overlapAABB(Point3f _min, Point3f _max, BoundingVolumeHierarchy _bvh, ContactBuffer _contacts) {
+		setBox(_min, _max);
+		return query(_bvh, _contacts);
+	}
+
+	/**
+	 * Moves a sphere from the start to the end position, the volume swept
+	 * being a capsule, and finds all triangles of the Geometry it touches
+	 * on the way together with the time of impact. Triangles already touched
+	 * at the start get a time of impact of zero. All triangles of the
+	 * Geometry are tested.
+	 *
+	 * @param _start The center of the sphere at the start of the movement
+	 * @param _end The center of the sphere at the end of the movement
+	 * @param _fRadius The radius of the sphere
+	 * @param _geometry The Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int sweepCapsule(Point3f _start, Point3f _end, float _fRadius, Geometry _geometry, ContactBuffer _contacts) {
+		setSweep(_start, _end, _fRadius);
+		return query(_geometry, _contacts);
+	}
+
+	/**
+	 * Moves a sphere from the start to the end position, the volume swept
+	 * being a capsule, and finds all triangles of the Geometry it touches
+	 * on the way together with the time of impact using a bounding volume
+	 * hierarchy built for the Geometry to avoid testing most of its triangles.
+	 *
+	 * @param _start The center of the sphere at the start of the movement
+	 * @param _end The center of the sphere at the end of the movement
+	 * @param _fRadius The radius of the sphere
+	 * @param _bvh The bounding volume hierarchy of the Geometry to test
+	 * @param _contacts The buffer the contacts will be added to
+	 * @return The number of contacts added to the buffer
+	 */
+	public int sweepCapsule(Point3f _start, Point3f _end, float _fRadius, BoundingVolumeHierarchy _bvh, ContactBuffer _contacts) {
+		setSweep(_start, _end, _fRadius);
+		return query(_bvh, _contacts);
+	}
+
+	/**
+	 * Finds the point on the surface of the Geometry closest to the given
+	 * point. All triangles of the Geometry are tested.
+	 *
+	 * @param _point The point to find the closest surface point for
+	 * @param _fMaxDist The maximum distance to look for surface points. If the value is zero, it is ignored
+	 * @param _geometry The Geometry to test
+	 * @param _result Will hold the closest point, its distance, triangle and barycentric coordinates and the normal of the triangle. The isIntersecting member will be false if no point was found.
+	 * @return true if a point was found, false if not
+	 */
+	public boolean closestPoint(Point3f _point, float _fMaxDist, Geometry _geometry, Intersection _result) {
+		float fBest = (_fMaxDist != 0) ? _fMaxDist * _fMaxDist : Float.POSITIVE_INFINITY;
+		int nBest = -1;
+
+		VertexBuffer vbuf = _geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		int[] vertices = m_triangleVertices;
+		int nCount = _geometry.getTriangleCount();
+		for (int t = 0; t < nCount; t++) {
+			_geometry.getTriangle(t, vertices, 0);
+			loadTriangle(vbuf, coords, vertices, 0);
+			float d = closestDistanceSquared(_point);
+			if (d <= fBest) {
+				fBest = d;
+				nBest = t;
+			}
+		}
+
+		if (nBest >= 0) {
+			_geometry.getTriangle(nBest, vertices, 0);
+			loadTriangle(vbuf, coords, vertices, 0);
+			setResult(_point, nBest, _result);
+		}
+		_result.setIntersecting(nBest >= 0);
+		return _result.isIntersecting();
+	}
+
+	/**
+	 * Finds the point on the surface of the Geometry closest to the given
+	 * point using a bounding volume hierarchy built for the Geometry.
+	 * Nodes are visited nearest first and skipped once they are further
+	 * away than the closest point found so far, so usually only a few
+	 * triangles need to be tested.
+	 *
+	 * @param _point The point to find the closest surface point for
+	 * @param _fMaxDist The maximum distance to look for surface points. If the value is zero, it is ignored
+	 * @param _bvh The bounding volume hierarchy of the Geometry to test
+	 * @param _result Will hold the closest point, its distance, triangle and barycentric coordinates and the normal of the triangle. The isIntersecting member will be false if no point was found.
+	 * @return true if a point was found, false if not
+	 */
+	public boolean closestPoint(Point3f _point, float _fMaxDist, BoundingVolumeHierarchy _bvh, Intersection _result) {
+		int nBest = closestSlot(_point, (_fMaxDist != 0) ? _fMaxDist * _fMaxDist : Float.POSITIVE_INFINITY, _bvh);
+		if (nBest >= 0) {
+			VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+			loadTriangle(vbuf, vbuf.getVertices(), _bvh.m_triVertices, nBest * 3);
+			setResult(_point, _bvh.getTriangle(nBest), _result);
+		}
+		_result.setIntersecting(nBest >= 0);
+		return _result.isIntersecting();
+	}
+
+	private int closestSlot(Point3f _point, float _fMaxDistSquared, BoundingVolumeHierarchy _bvh) {
+		if (_bvh.m_nNodeCount == 0) {
+			return -1;
+		}
+		ensureStackSize(_bvh.m_nDepth);
+
+		float[] bounds = _bvh.m_bounds;
+		int[] nodes = _bvh.m_nodes;
+		int[] triVertices = _bvh.m_triVertices;
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+
+		float fBest = _fMaxDistSquared;
+		int nBest = -1;
+		int nStackSize = 0;
+		int nNode = 0;
+		if (distanceSquared(_point, bounds, 0) > fBest) {
+			return -1;
+		}
+
+		while (true) {
+			int nInfo = nodes[nNode * 2 + 1];
+			if (nInfo > 0) {
+				// A leaf, test all its triangles
+				int nEnd = nodes[nNode * 2] + nInfo;
+				for (int i = nodes[nNode * 2]; i < nEnd; i++) {
+					loadTriangle(vbuf, coords, triVertices, i * 3);
+					float d = closestDistanceSquared(_point);
+					if (d <= fBest) {
+						fBest = d;
+						nBest = i;
+					}
+				}
+			} else {
+				// Visit the nearest child first and save the other one for later
+				int nLeft = nNode + 1;
+				int nRight = nodes[nNode * 2];
+				float fLeftD = distanceSquared(_point, bounds, nLeft);
+				float fRightD = distanceSquared(_point, bounds, nRight);
+				if (fLeftD <= fBest) {
+					if (fRightD <= fBest) {
+						if (fRightD < fLeftD) {
+							m_nodeStack[nStackSize] = nLeft;
+							m_nodeStackD[nStackSize++] = fLeftD;
+							nNode = nRight;
+						} else {
+							m_nodeStack[nStackSize] = nRight;
+							m_nodeStackD[nStackSize++] = fRightD;
+							nNode = nLeft;
+						}
+					} else {
+						nNode = nLeft;
+					}
+					continue;
+				} else if (fRightD <= fBest) {
+					nNode = nRight;
+					continue;
+				}
+			}
+
+			// Continue with the nearest node saved for later that's still in reach
+			do {
+				if (nStackSize == 0) {
+					return nBest;
+				}
+				nStackSize--;
+			} while (m_nodeStackD[nStackSize] > fBest);
+			nNode = m_nodeStack[nStackSize];
+		}
+	}
+
+	private float closestDistanceSquared(Point3f _point) {
+		closestPoint(_point.x, _point.y, _point.z);
+		float dx = _point.x - m_fPX;
+		float dy = _point.y - m_fPY;
+		float dz = _point.z - m_fPZ;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static float distanceSquared(Point3f _point, float[] _bounds, int _nNode) {
+		int b = _nNode * 6;
+		return outside(_point.x, _bounds[b], _bounds[b + 3])
+			+ outside(_point.y, _bounds[b + 1], _bounds[b + 4])
+			+ outside(_point.z, _bounds[b + 2], _bounds[b + 5]);
+	}
+
+	private void setResult(Point3f _point, int _nTriangle, Intersection _result) {
+		float d = closestDistanceSquared(_point);
+		calculateNormal();
+		_result.getPoint().set(m_fPX, m_fPY, m_fPZ);
+		_result.getNormal().set(m_fNX, m_fNY, m_fNZ);
+		_result.setDistanceSquared(d);
+		_result.setTriangle(_nTriangle);
+		_result.setBarycentric(m_fU, m_fV);
+	}
+
+	private void ensureStackSize(int _nDepth) {
+		// Each level of the hierarchy pushes at most one node
+		if (m_nodeStack.length < _nDepth + 1) {
+			m_nodeStack = new int[_nDepth + 1];
+			m_nodeStackD = new float[_nDepth + 1];
+		}
+	}
+
+	private void setSphere(Point3f _center, float _fRadius) {
+		m_nShape = SHAPE_SPHERE;
+		m_fCX = _center.x;
+		m_fCY = _center.y;
+		m_fCZ = _center.z;
+		m_fRadius = _fRadius;
+		float[] qb = m_queryBounds;
+		qb[0] = m_fCX - _fRadius;
+		qb[1] = m_fCY - _fRadius;
+		qb[2] = m_fCZ - _fRadius;
+		qb[3] = m_fCX + _fRadius;
+		qb[4] = m_fCY + _fRadius;
+		qb[5] = m_fCZ + _fRadius;
+	}
+
+	private void setBox(Point3f _min, Point3f _max) {
+		m_nShape = SHAPE_BOX;
+		m_fCX = (_min.x + _max.x) * 0.5f;
+		m_fCY = (_min.y + _max.y) * 0.5f;
+		m_fCZ = (_min.z + _max.z) * 0.5f;
+		m_fEX = (_max.x - _min.x) * 0.5f;
+		m_fEY = (_max.y - _min.y) * 0.5f;
+		m_fEZ = (_max.z - _min.z) * 0.5f;
+		float[] qb = m_queryBounds;
+		qb[0] = _min.x;
+		qb[1] = _min.y;
+		qb[2] = _min.z;
+		qb[3] = _max.x;
+		qb[4] = _max.y;
+		qb[5] = _max.z;
+	}
+
+	private void setSweep(Point3f _start, Point3f _end, float _fRadius) {
+		m_nShape = SHAPE_SWEEP;
+		m_fCX = _start.x;
+		m_fCY = _start.y;
+		m_fCZ = _start.z;
+		m_fDX = _end.x - _start.x;
+		m_fDY = _end.y - _start.y;
+		m_fDZ = _end.z - _start.z;
+		m_fIDX = 1.0f / ((m_fDX != 0) ? m_fDX : IntersectionTester.TINY);
+		m_fIDY = 1.0f / ((m_fDY != 0) ? m_fDY : IntersectionTester.TINY);
+		m_fIDZ = 1.0f / ((m_fDZ != 0) ? m_fDZ : IntersectionTester.TINY);
+		m_fRadius = _fRadius;
+		float[] qb = m_queryBounds;
+		qb[0] = Math.min(_start.x, _end.x) - _fRadius;
+		qb[1] = Math.min(_start.y, _end.y) - _fRadius;
+		qb[2] = Math.min(_start.z, _end.z) - _fRadius;
+		qb[3] = Math.max(_start.x, _end.x) + _fRadius;
+		qb[4] = Math.max(_start.y, _end.y) + _fRadius;
+		qb[5] = Math.max(_start.z, _end.z) + _fRadius;
+	}
+
+	private int query(Geometry _geometry, ContactBuffer _contacts) {
+		int nStart = _contacts.getCount();
+		VertexBuffer vbuf = _geometry.getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+		int[] vertices = m_triangleVertices;
+		int nCount = _geometry.getTriangleCount();
+		for (int t = 0; t < nCount; t++) {
+			_geometry.getTriangle(t, vertices, 0);
+			loadTriangle(vbuf, coords, vertices, 0);
+			testTriangle(t, _contacts);
+		}
+		return _contacts.getCount() - nStart;
+	}
+
+	private int query(BoundingVolumeHierarchy _bvh, ContactBuffer _contacts) {
+		if ((_bvh.m_nNodeCount == 0) || !overlapsNode(_bvh.m_bounds, 0)) {
+			return 0;
+		}
+		ensureStackSize(_bvh.m_nDepth);
+
+		int nStart = _contacts.getCount();
+		float[] bounds = _bvh.m_bounds;
+		int[] nodes = _bvh.m_nodes;
+		int[] triVertices = _bvh.m_triVertices;
+		VertexBuffer vbuf = _bvh.getGeometry().getBuffer();
+		FloatBuffer coords = vbuf.getVertices();
+
+		int nStackSize = 0;
+		int nNode = 0;
+		while (true) {
+			int nInfo = nodes[nNode * 2 + 1];
+			if (nInfo > 0) {
+				// A leaf, test all its triangles
+				int nEnd = nodes[nNode * 2] + nInfo;
+				for (int i = nodes[nNode * 2]; i < nEnd; i++) {
+					loadTriangle(vbuf, coords, triVertices, i * 3);
+					testTriangle(_bvh.getTriangle(i), _contacts);
+				}
+			} else {
+				int nLeft = nNode + 1;
+				int nRight = nodes[nNode * 2];
+				boolean bLeft = overlapsNode(bounds, nLeft);
+				boolean bRight = overlapsNode(bounds, nRight);
+				if (bLeft) {
+					if (bRight) {
+						m_nodeStack[nStackSize++] = nRight;
+					}
+					nNode = nLeft;
+					continue;
+				} else if (bRight) {
+					nNode = nRight;
+					continue;
+				}
+			}
+
+			if (nStackSize == 0) {
+				return _contacts.getCount() - nStart;
+			}
+			nNode = m_nodeStack[--nStackSize];
+		}
+	}
+
+	private void loadTriangle(VertexBuffer _vbuf, FloatBuffer _coords, int[] _vertices, int _nOffset) {
+		float[] v = m_triangle;
+		for (int i = 0; i < 3; i++) {
+			int nIdx = _vbuf.getVertexOffset(_vertices[_nOffset + i]);
+			v[i * 3] = _coords.get(nIdx);
+			v[i * 3 + 1] = _coords.get(nIdx + 1);
+			v[i * 3 + 2] = _coords.get(nIdx + 2);
+		}
+	}
+
+	/**
+	 * Determines if the given node of a bounding volume hierarchy can
+	 * contain triangles touched by the current shape
+	 */
+	private boolean overlapsNode(float[] _bounds, int _nNode) {
+		int b = _nNode * 6;
+		float[] qb = m_queryBounds;
+		if ((_bounds[b] > qb[3]) || (_bounds[b + 3] < qb[0])
+				|| (_bounds[b + 1] > qb[4]) || (_bounds[b + 4] < qb[1])
+				|| (_bounds[b + 2] > qb[5]) || (_bounds[b + 5] < qb[2])) {
+			return false;
+		}
+		switch (m_nShape) {
+		case SHAPE_SPHERE:
+			// The squared distance from the center of the sphere to the box
+			float d = 0;
+			d += outside(m_fCX, _bounds[b], _bounds[b + 3]);
+			d += outside(m_fCY, _bounds[b + 1], _bounds[b + 4]);
+			d += outside(m_fCZ, _bounds[b + 2], _bounds[b + 5]);
+			return (d <= m_fRadius * m_fRadius);
+		case SHAPE_SWEEP:
+			// Slab test of the movement against the box grown by the radius
+			float r = m_fRadius;
+			float fT0 = 0.0f;
+			float fT1 = 1.0f;
+			float t1 = (_bounds[b] - r - m_fCX) * m_fIDX;
+			float t2 = (_bounds[b + 3] + r - m_fCX) * m_fIDX;
+			fT0 = Math.max(fT0, Math.min(t1, t2));
+			fT1 = Math.min(fT1, Math.max(t1, t2));
+			t1 = (_bounds[b + 1] - r - m_fCY) * m_fIDY;
+			t2 = (_bounds[b + 4] + r - m_fCY) * m_fIDY;
+			fT0 = Math.max(fT0, Math.min(t1, t2));
+			fT1 = Math.min(fT1, Math.max(t1, t2));
+			t1 = (_bounds[b + 2] - r - m_fCZ) * m_fIDZ;
+			t2 = (_bounds[b + 5] + r - m_fCZ) * m_fIDZ;
+			fT0 = Math.max(fT0, Math.min(t1, t2));
+			fT1 = Math.min(fT1, Math.max(t1, t2));
+			return (fT0 <= fT1);
+		default:
+			return true;
+		}
+	}
+
+	private static float outside(float _fValue, float _fMin, float _fMax) {
+		if (_fValue < _fMin) {
+			return (_fMin - _fValue) * (_fMin - _fValue);
+		} else if (_fValue > _fMax) {
+			return (_fValue - _fMax) * (_fValue - _fMax);
+		}
+		return 0.0f;
+	}
+
+	/**
+	 * Tests the current triangle against the current shape and adds
+	 * a contact to the buffer if they touch
+	 */
+	private void testTriangle(int _nTriangle, ContactBuffer _contacts) {
+		float[] v = m_triangle;
+		float[] qb = m_queryBounds;
+		if ((Math.min(v[0], Math.min(v[3], v[6])) > qb[3]) || (Math.max(v[0], Math.max(v[3], v[6])) < qb[0])
+				|| (Math.min(v[1], Math.min(v[4], v[7])) > qb[4]) || (Math.max(v[1], Math.max(v[4], v[7])) < qb[1])
+				|| (Math.min(v[2], Math.min(v[5], v[8])) > qb[5]) || (Math.max(v[2], Math.max(v[5], v[8])) < qb[2])) {
+			return;
+		}
+
+		switch (m_nShape) {
+		case SHAPE_SPHERE:
+			closestPoint(m_fCX, m_fCY, m_fCZ);
+			addContact(_nTriangle, m_fCX, m_fCY, m_fCZ, 0.0f, _contacts);
+			break;
+		case SHAPE_BOX:
+			if (overlapsBox()) {
+				closestPoint(m_fCX, m_fCY, m_fCZ);
+				calculateNormal();
+				// Push the box out along the normal towards the side its center is on
+				float s = m_fNX * (m_fCX - v[0]) + m_fNY * (m_fCY - v[1]) + m_fNZ * (m_fCZ - v[2]);
+				if (s < 0) {
+					m_fNX = -m_fNX;
+					m_fNY = -m_fNY;
+					m_fNZ = -m_fNZ;
+					s = -s;
+				}
+				float r = m_fEX * Math.abs(m_fNX) + m_fEY * Math.abs(m_fNY) + m_fEZ * Math.abs(m_fNZ);
+				_contacts.add(_nTriangle, m_fPX, m_fPY, m_fPZ, m_fNX, m_fNY, m_fNZ, Math.max(r - s, 0.0f), 0.0f);
+			}
+			break;
+		case SHAPE_SWEEP:
+			closestPoint(m_fCX, m_fCY, m_fCZ);
+			float dx = m_fCX - m_fPX;
+			float dy = m_fCY - m_fPY;
+			float dz = m_fCZ - m_fPZ;
+			if (dx * dx + dy * dy + dz * dz <= m_fRadius * m_fRadius) {
+				// Already touching at the start of the movement
+				addContact(_nTriangle, m_fCX, m_fCY, m_fCZ, 0.0f, _contacts);
+			} else {
+				float t = sweepTriangle();
+				if (t >= 0) {
+					addContact(_nTriangle, m_fCX + m_fDX * t, m_fCY + m_fDY * t, m_fCZ + m_fDZ * t, t, _contacts);
+				}
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Adds a contact between the current triangle at the last point found
+	 * and a sphere at the given position if they touch
+	 */
+	private void addContact(int _nTriangle, float _fX, float _fY, float _fZ, float _fTime, ContactBuffer _contacts) {
+		float dx = _fX - m_fPX;
+		float dy = _fY - m_fPY;
+		float dz = _fZ - m_fPZ;
+		float fDistSquared = dx * dx + dy * dy + dz * dz;
+		// Allow for rounding errors in the time of impact
+		if (fDistSquared > m_fRadius * m_fRadius * 1.0001f) {
+			return;
+		}
+		float fDist = (float)Math.sqrt(fDistSquared);
+		if (fDist > 0) {
+			dx /= fDist;
+			dy /= fDist;
+			dz /= fDist;
+		} else {
+			// The center lies on the triangle, use its normal
+			calculateNormal();
+			dx = m_fNX;
+			dy = m_fNY;
+			dz = m_fNZ;
+		}
+		_contacts.add(_nTriangle, m_fPX, m_fPY, m_fPZ, dx, dy, dz, Math.max(m_fRadius - fDist, 0.0f), _fTime);
+	}
+
+	private void calculateNormal() {
+		float[] v = m_triangle;
+		float e1x = v[3] - v[0];
+		float e1y = v[4] - v[1];
+		float e1z = v[5] - v[2];
+		float e2x = v[6] - v[0];
+		float e2y = v[7] - v[1];
+		float e2z = v[8] - v[2];
+		float nx = e1y * e2z - e1z * e2y;
+		float ny = e1z * e2x - e1x * e2z;
+		float nz = e1x * e2y - e1y * e2x;
+		float fLength = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (fLength > 0) {
+			nx /= fLength;
+			ny /= fLength;
+			nz /= fLength;
+		}
+		m_fNX = nx;
+		m_fNY = ny;
+		m_fNZ = nz;
+	}
+
+	/**
+	 * Calculates the point on the current triangle closest to the given point
+	 * together with its barycentric coordinates by determining which of the
+	 * Voronoi regions of the triangle the point lies in
+	 * (see Ericson, "Real-Time Collision Detection", 5.1.5)
+	 */
+	void closestPoint(float _fX, float _fY, float _fZ) {
+		float[] v = m_triangle;
+		float ax = v[0], ay = v[1], az = v[2];
+		float abx = v[3] - ax, aby = v[4] - ay, abz = v[5] - az;
+		float acx = v[6] - ax, acy = v[7] - ay, acz = v[8] - az;
+		float apx = _fX - ax, apy = _fY - ay, apz = _fZ - az;
+
+		float d1 = abx * apx + aby * apy + abz * apz;
+		float d2 = acx * apx + acy * apy + acz * apz;
+		if ((d1 <= 0) && (d2 <= 0)) {
+			setClosestPoint(0, 0);
+			return;
+		}
+
+		float bpx = _fX - v[3], bpy = _fY - v[4], bpz = _fZ - v[5];
+		float d3 = abx * bpx + aby * bpy + abz * bpz;
+		float d4 = acx * bpx + acy * bpy + acz * bpz;
+		if ((d3 >= 0) && (d4 <= d3)) {
+			setClosestPoint(1, 0);
+			return;
+		}
+
+		float vc = d1 * d4 - d3 * d2;
+		if ((vc <= 0) && (d1 >= 0) && (d3 <= 0)) {
+			setClosestPoint(d1 / (d1 - d3), 0);
+			return;
+		}
+
+		float cpx = _fX - v[6], cpy = _fY - v[7], cpz = _fZ - v[8];
+		float d5 = abx * cpx + aby * cpy + abz * cpz;
+		float d6 = acx * cpx + acy * cpy + acz * cpz;
+		if ((d6 >= 0) && (d5 <= d6)) {
+			setClosestPoint(0, 1);
+			return;
+		}
+
+		float vb = d5 * d2 - d1 * d6;
+		if ((vb <= 0) && (d2 >= 0) && (d6 <= 0)) {
+			setClosestPoint(0, d2 / (d2 - d6));
+			return;
+		}
+
+		float va = d3 * d6 - d5 * d4;
+		if ((va <= 0) && ((d4 - d3) >= 0) && ((d5 - d6) >= 0)) {
+			float w = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+			setClosestPoint(1 - w, w);
+			return;
+		}
+
+		float fDenom = va + vb + vc;
+		if (fDenom == 0) {
+			// A degenerate triangle that isn't caught by the tests above
+			setClosestPoint(0, 0);
+			return;
+		}
+		setClosestPoint(vb / fDenom, vc / fDenom);
+	}
+
+	private void setClosestPoint(float _fU, float _fV) {
+		float[] v = m_triangle;
+		m_fU = _fU;
+		m_fV = _fV;
+		m_fPX = v[0] + (v[3] - v[0]) * _fU + (v[6] - v[0]) * _fV;
+		m_fPY = v[1] + (v[4] - v[1]) * _fU + (v[7] - v[1]) * _fV;
+		m_fPZ = v[2] + (v[5] - v[2]) * _fU + (v[8] - v[2]) * _fV;
+	}
+
+	/**
+	 * Determines if the current triangle overlaps the current box using
+	 * the separating axis test of Akenine-Möller: the three box axes,
+	 * the normal of the triangle and the nine cross products of the box
+	 * axes and the triangle edges
+	 */
+	private boolean overlapsBox() {
+		float[] v = m_triangle;
+		float[] l = m_localTriangle;
+		for (int i = 0; i < 9; i += 3) {
+			l[i] = v[i] - m_fCX;
+			l[i + 1] = v[i + 1] - m_fCY;
+			l[i + 2] = v[i + 2] - m_fCZ;
+		}
+
+		if ((Math.min(l[0], Math.min(l[3], l[6])) > m_fEX) || (Math.max(l[0], Math.max(l[3], l[6])) < -m_fEX)
+				|| (Math.min(l[1], Math.min(l[4], l[7])) > m_fEY) || (Math.max(l[1], Math.max(l[4], l[7])) < -m_fEY)
+				|| (Math.min(l[2], Math.min(l[5], l[8])) > m_fEZ) || (Math.max(l[2], Math.max(l[5], l[8])) < -m_fEZ)) {
+			return false;
+		}
+
+		for (int i = 0; i < 9; i += 3) {
+			int j = (i + 3) % 9;
+			float ex = l[j] - l[i];
+			float ey = l[j + 1] - l[i + 1];
+			float ez = l[j + 2] - l[i + 2];
+			if (separates(0, -ez, ey) || separates(ez, 0, -ex) || separates(-ey, ex, 0)) {
+				return false;
+			}
+		}
+
+		float e1x = l[3] - l[0], e1y = l[4] - l[1], e1z = l[5] - l[2];
+		float e2x = l[6] - l[0], e2y = l[7] - l[1], e2z = l[8] - l[2];
+		return !separates(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x);
+	}
+
+	/**
+	 * Determines if the given axis separates the triangle in local
+	 * coordinates from the box
+	 */
+	private boolean separates(float _fX, float _fY, float _fZ) {
+		float[] l = m_localTriangle;
+		float p0 = l[0] * _fX + l[1] * _fY + l[2] * _fZ;
+		float p1 = l[3] * _fX + l[4] * _fY + l[5] * _fZ;
+		float p2 = l[6] * _fX + l[7] * _fY + l[8] * _fZ;
+		float r = m_fEX * Math.abs(_fX) + m_fEY * Math.abs(_fY) + m_fEZ * Math.abs(_fZ);
+		return (Math.min(p0, Math.min(p1, p2)) > r) || (Math.max(p0, Math.max(p1, p2)) < -r);
+	}
+
+	/**
+	 * Determines the time of impact of the current sweep with the current
+	 * triangle, which is known not to touch the sphere at its start position.
+	 * The sphere either hits the inside of the triangle, which is found by
+	 * moving it to the plane of the triangle, or one of its edges or corners,
+	 * which is found by intersecting the movement with the cylinders and
+	 * spheres around them (see Fauerby, "Improved Collision detection and Response").
+	 * The point of impact on the triangle is stored as the last point found.
+	 * @return The time of impact or -1 if the sphere doesn't touch the triangle
+	 */
+	private float sweepTriangle() {
+		float[] v = m_triangle;
+		double r = m_fRadius;
+		double sx = m_fCX, sy = m_fCY, sz = m_fCZ;
+		double dx = m_fDX, dy = m_fDY, dz = m_fDZ;
+
+		double e1x = v[3] - v[0], e1y = v[4] - v[1], e1z = v[5] - v[2];
+		double e2x = v[6] - v[0], e2y = v[7] - v[1], e2z = v[8] - v[2];
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		double fLength = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (fLength > 0) {
+			nx /= fLength;
+			ny /= fLength;
+			nz /= fLength;
+			double fDist = nx * (sx - v[0]) + ny * (sy - v[1]) + nz * (sz - v[2]);
+			double fSpeed = nx * dx + ny * dy + nz * dz;
+			if (Math.abs(fDist) > r) {
+				if (fDist * fSpeed >= 0) {
+					// Moving away from or parallel to the plane of the triangle
+					return -1;
+				}
+				double fSide = (fDist > 0) ? r : -r;
+				double t = (fSide - fDist) / fSpeed;
+				if (t > 1) {
+					// Doesn't get close enough to the plane
+					return -1;
+				}
+				double px = sx + dx * t - nx * fSide;
+				double py = sy + dy * t - ny * fSide;
+				double pz = sz + dz * t - nz * fSide;
+				if (isInsideTriangle(px - v[0], py - v[1], pz - v[2], e1x, e1y, e1z, e2x, e2y, e2z)) {
+					m_fPX = (float)px;
+					m_fPY = (float)py;
+					m_fPZ = (float)pz;
+					return (float)t;
+				}
+			}
+		}
+
+		// Find the earliest impact with any of the corners and edges
+		double fSpeedSquared = dx * dx + dy * dy + dz * dz;
+		double fMaxT = 1.0;
+		boolean bHit = false;
+		for (int i = 0; i < 9; i += 3) {
+			double wx = v[i] - sx, wy = v[i + 1] - sy, wz = v[i + 2] - sz;
+			double fWW = wx * wx + wy * wy + wz * wz;
+			double fDW = dx * wx + dy * wy + dz * wz;
+
+			double t = lowestRoot(fSpeedSquared, -2.0 * fDW, fWW - r * r, fMaxT);
+			if (t >= 0) {
+				fMaxT = t;
+				bHit = true;
+				m_fPX = v[i];
+				m_fPY = v[i + 1];
+				m_fPZ = v[i + 2];
+			}
+
+			int j = (i + 3) % 9;
+			double ex = v[j] - v[i], ey = v[j + 1] - v[i + 1], ez = v[j + 2] - v[i + 2];
+			double fEE = ex * ex + ey * ey + ez * ez;
+			double fED = ex * dx + ey * dy + ez * dz;
+			double fEW = ex * wx + ey * wy + ez * wz;
+			t = lowestRoot(fEE * -fSpeedSquared + fED * fED,
+					fEE * 2.0 * fDW - 2.0 * fED * fEW,
+					fEE * (r * r - fWW) + fEW * fEW,
+					fMaxT);
+			if (t >= 0) {
+				double f = (fED * t - fEW) / fEE;
+				if ((f >= 0) && (f <= 1)) {
+					fMaxT = t;
+					bHit = true;
+					m_fPX = (float)(v[i] + ex * f);
+					m_fPY = (float)(v[i + 1] + ey * f);
+					m_fPZ = (float)(v[i + 2] + ez * f);
+				}
+			}
+		}
+		return bHit ? (float)fMaxT : -1;
+	}
+
+	private static boolean isInsideTriangle(double _fPX, double _fPY, double _fPZ, double _fE1X, double _fE1Y, double _fE1Z, double _fE2X, double _fE2Y, double _fE2Z) {
+		double d00 = _fE1X * _fE1X + _fE1Y * _fE1Y + _fE1Z * _fE1Z;
+		double d01 = _fE1X * _fE2X + _fE1Y * _fE2Y + _fE1Z * _fE2Z;
+		double d11 = _fE2X * _fE2X + _fE2Y * _fE2Y + _fE2Z * _fE2Z;
+		double d20 = _fPX * _fE1X + _fPY * _fE1Y + _fPZ * _fE1Z;
+		double d21 = _fPX * _fE2X + _fPY * _fE2Y + _fPZ * _fE2Z;
+		double fDenom = d00 * d11 - d01 * d01;
+		double u = (d11 * d20 - d01 * d21) / fDenom;
+		double v = (d00 * d21 - d01 * d20) / fDenom;
+		return (u >= 0) && (v >= 0) && (u + v <= 1);
+	}
+
+	/**
+	 * Returns the lowest root of the given quadratic equation within the
+	 * range 0 .. _fMax or -1 if there is none
+	 */
+	private static double lowestRoot(double _fA, double _fB, double _fC, double _fMax) {
+		if (_fA == 0) {
+			return -1;
+		}
+		double fDet = _fB * _fB - 4.0 * _fA * _fC;
+		if (fDet < 0) {
+			return -1;
+		}
+		double fSqrt = Math.sqrt(fDet);
+		double r1 = (-_fB - fSqrt) / (2.0 * _fA);
+		double r2 = (-_fB + fSqrt) / (2.0 * _fA);
+		if (r1 > r2) {
+			double tmp = r1;
+			r1 = r2;
+			r2 = tmp;
+		}
+		if ((r1 >= 0) && (r1 < _fMax)) {
+			return r1;
+		}
+		if ((r2 >= 0) && (r2 < _fMax)) {
+			return r2;
+		}
+		return -1;
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -57,6 +57,21 @@ public class TriangleArrayGeometry extends GeometryBase {
 		return m_polyIter;
 	}
 	
+	public int getTriangleCount() {
+		return getBuffer().getSize() / 3;
+	}
+	
+	public void getTriangle(int _nTriangle, int[] _indices, int _nOffset) {
+		int nIdx = _nTriangle * 3;
+		_indices[_nOffset + 0] = getVertexIndex(nIdx + 0);
+		_indices[_nOffset + 1] = getVertexIndex(nIdx + 1);
+		_indices[_nOffset + 2] = getVertexIndex(nIdx + 2);
+	}
+	
+	protected boolean hasTrianglePolygons() {
+		return true;
+	}
+	
 	private class PolygonIterator implements Iterator<Polygon> {
 		private Polygon m_polygon;
 		private int m_nIndex;
@@ -0,0 +1,155 @@
+/*
+ * [utils4gl] OpenGL game-oriented GUI library
+ * 
+ * Copyright (C) 2003 Tako Schotanus
+ * 
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation; either version 2.1 of the License, or (at your
+ * option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License
+ * for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ * 
+ * Created on Oct 19, 2026
+ */
+package org.codejive.utils4gl.geometries;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A copy of the vertex coordinates of all triangles of a Geometry stored
+ * as structure-of-arrays, one array per corner and axis, so intersection
+ * tests can read a triangle from a few contiguous arrays instead of going
+ * through the index and the interleaved data of the VertexBuffer.
+ * <p>
+ * Ray tests against TriangleData use the watertight algorithm of Woop,
+ * Benthin and Wald, which guarantees that a ray hitting an edge shared
+ * by two triangles hits at least one of them. This only works because the
+ * vertices are copied exactly, which is why no edges or other derived
+ * values are stored.
+ * <p>
+ * The data can be created for a GeometryBase using buildTriangleData(), in
+ * which case the triangles are stored in the order of the Geometry, or be
+ * kept by a BoundingVolumeHierarchy built with BUILD_TRIANGLE_DATA, in which
+ * case they are stored in slot order.
+ *
+ * @author Tako
+ * @version $Revision$
+ */
+public class TriangleData {
+	private Geometry m_geometry;
+	private VertexBuffer m_buffer;
+	private int m_nVertexStamp;
+	private int m_nIndexStamp;
+
+	int m_nTriangleCount;
+	/** The three vertex indices of each triangle */
+	int[] m_vertices;
+	/** The coordinates, one array per corner and axis (corner * 3 + axis) */
+	float[][] m_coords;
+
+	/**
+	 * Creates the triangle data for the given Geometry in the order of its triangles
+	 * @param _geometry The Geometry whose triangles to copy
+	 */
+	public TriangleData(Geometry _geometry) {
+		m_geometry = _geometry;
+		m_buffer = _geometry.getBuffer();
+		m_coords = new float[9][];
+		collect();
+	}
+
+	/**
+	 * Creates the triangle data for the triangles with the given vertex
+	 * indices, used by BoundingVolumeHierarchy for its slot order
+	 */
+	TriangleData(VertexBuffer _buffer, int[] _vertices) {
+		m_buffer = _buffer;
+		m_coords = new float[9][];
+		setVertices(_vertices);
+	}
+
+	/**
+	 * Returns the Geometry this data was created for
+	 * @return The Geometry or null if the data belongs to a bounding volume hierarchy
+	 */
+	public Geometry getGeometry() {
+		return m_geometry;
+	}
+
+	/**
+	 * Returns the number of triangles
+	 * @return The number of triangles
+	 */
+	public int getTriangleCount() {
+		return m_nTriangleCount;
+	}
+
+	/**
+	 * Brings the data up-to-date with the Geometry. The triangles are
+	 * collected again if those of the Geometry have changed and the
+	 * coordinates are copied again if only its vertices have moved.
+	 * @return true if anything was changed
+	 */
+	public boolean update() {
+		if ((m_geometry != null) && ((m_buffer.getIndexModificationCount() != m_nIndexStamp) || (m_geometry.getTriangleCount() != m_nTriangleCount))) {
+			collect();
+			return true;
+		} else if (m_buffer.getVertexModificationCount() != m_nVertexStamp) {
+			load();
+			return true;
+		}
+		return false;
+	}
+
+	private void collect() {
+		m_nIndexStamp = m_buffer.getIndexModificationCount();
+		int nCount = m_geometry.getTriangleCount();
+		int[] vertices = new int[nCount * 3];
+		for (int i = 0; i < nCount; i++) {
+			m_geometry.getTriangle(i, vertices, i * 3);
+		}
+		setVertices(vertices);
+	}
+
+	void setVertices(int[] _vertices) {
+		m_vertices = _vertices;
+		m_nTriangleCount = _vertices.length / 3;
+		if ((m_coords[0] == null) || (m_coords[0].length != m_nTriangleCount)) {
+			for (int i = 0; i < 9; i++) {
+				m_coords[i] = new float[m_nTriangleCount];
+			}
+		}
+		load();
+	}
+
+	/**
+	 * Copies the current coordinates of all vertices from the VertexBuffer
+	 */
+	void load() {
+		m_nVertexStamp = m_buffer.getVertexModificationCount();
+		FloatBuffer coords = m_buffer.getVertices();
+		for (int c = 0; c < 3; c++) {
+			float[] xs = m_coords[c * 3];
+			float[] ys = m_coords[c * 3 + 1];
+			float[] zs = m_coords[c * 3 + 2];
+			for (int i = 0; i < m_nTriangleCount; i++) {
+				int nIdx = m_buffer.getVertexOffset(m_vertices[i * 3 + c]);
+				xs[i] = coords.get(nIdx);
+				ys[i] = coords.get(nIdx + 1);
+				zs[i] = coords.get(nIdx + 2);
+			}
+		}
+	}
+}
+
+/*
+ * $Log$
+ */
@@ -57,6 +57,23 @@ public class TriangleStripGeometry extends GeometryBase {
 		return m_polyIter;
 	}
 	
+	public int getTriangleCount() {
+		return Math.max(getBuffer().getSize() - 2, 0);
+	}
+	
+	public void getTriangle(int _nTriangle, int[] _indices, int _nOffset) {
+		// Every other triangle in a strip has its winding reversed,
+		// so we swap the first two vertices to make them consistent
+		int nOdd = _nTriangle & 1;
+		_indices[_nOffset + 0] = getVertexIndex(_nTriangle + nOdd);
+		_indices[_nOffset + 1] = getVertexIndex(_nTriangle + 1 - nOdd);
+		_indices[_nOffset + 2] = getVertexIndex(_nTriangle + 2);
+	}
+	
+	protected boolean hasTrianglePolygons() {
+		return true;
+	}
+	
 	private class PolygonIterator implements Iterator<Polygon> {
 		private Polygon m_polygon;
 		private int m_nIndex;
@@ -137,6 +137,8 @@ public class VertexBuffer {
 	
 	private int m_nVertexCount;
 	private int m_nIndexCount;
+	private int m_nVertexModificationCount;
+	private int m_nIndexModificationCount;
 	private FloatBuffer m_vertices;
 	private FloatBuffer m_textureCoords;
 	private FloatBuffer m_colors;
@@ -416,6 +418,45 @@ public class VertexBuffer {
 	 */
 	public void reset() {
 		m_nVertexCount = 0;
+		m_nVertexModificationCount++;
+	}
+
+	/**
+	 * Returns a counter that gets incremented each time vertex coordinates
+	 * are added or changed. Can be used to determine if any derived data
+	 * (like a BoundingVolumeHierarchy) needs to be updated.
+	 * 
+	 * @return The vertex modification count
+	 */
+	public int getVertexModificationCount() {
+		return m_nVertexModificationCount;
+	}
+
+	/**
+	 * Returns a counter that gets incremented each time vertex indices
+	 * are added or changed.
+	 * 
+	 * @return The index modification count
+	 */
+	public int getIndexModificationCount() {
+		return m_nIndexModificationCount;
+	}
+
+	/**
+	 * Marks the vertex coordinates as modified. Must be called after
+	 * changing coordinates directly in the buffer returned by getVertices()
+	 * or getBuffer().
+	 */
+	public void markVerticesModified() {
+		m_nVertexModificationCount++;
+	}
+
+	/**
+	 * Marks the vertex indices as modified. Must be called after
+	 * changing indices directly in the buffer returned by getIndices().
+	 */
+	public void markIndicesModified() {
+		m_nIndexModificationCount++;
 	}
 
 	/**
@@ -581,6 +622,7 @@ public class VertexBuffer {
 		m_vertices.put(nIdx + 1, _fY);
 		m_vertices.put(nIdx + 2, _fZ);
 		m_nVertexCount++;
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -594,6 +636,7 @@ public class VertexBuffer {
 		m_vertices.put(nIdx + 1, _tuple.y);
 		m_vertices.put(nIdx + 2, _tuple.z);
 		m_nVertexCount++;
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -613,6 +656,7 @@ public class VertexBuffer {
 			_nOffset += 3;
 		}
 		m_nVertexCount += _nCount;
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -628,6 +672,7 @@ public class VertexBuffer {
 		m_vertices.put(nIdx + 0, _fX);
 		m_vertices.put(nIdx + 1, _fY);
 		m_vertices.put(nIdx + 2, _fZ);
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -641,6 +686,7 @@ public class VertexBuffer {
 		m_vertices.put(nIdx + 0, _tuple.x);
 		m_vertices.put(nIdx + 1, _tuple.y);
 		m_vertices.put(nIdx + 2, _tuple.z);
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -660,6 +706,7 @@ public class VertexBuffer {
 			nIdx += m_nVertexInfoSize;
 			_nOffset += 3;
 		}
+		m_nVertexModificationCount++;
 	}
 
 	/**
@@ -1232,6 +1279,7 @@ public class VertexBuffer {
 	 */
 	public void addIndex(int _nVertexIndex) {
 		m_indices.put(m_nIndexCount++, _nVertexIndex);
+		m_nIndexModificationCount++;
 	}
 
 	/**
@@ -1243,6 +1291,7 @@ public class VertexBuffer {
 	 */
 	public void addIndices(int[] _indices, int _nOffset, int _nCount) {
 		m_indices.put(_indices, _nOffset, _nCount);
+		m_nIndexModificationCount++;
 	}
 
 	/**
@@ -1253,6 +1302,7 @@ public class VertexBuffer {
 	 */
 	public void setIndex(int _nIndex, int _nVertexIndex) {
 		m_indices.put(_nIndex, _nVertexIndex);
+		m_nIndexModificationCount++;
 	}
 
 	/**
@@ -1266,6 +1316,7 @@ public class VertexBuffer {
 	public void setIndices(int _nIndex, int[] _indices, int _nOffset, int _nCount) {
 		m_normals.position(_nIndex);
 		m_indices.put(_indices, _nOffset, _nCount);
+		m_nIndexModificationCount++;
 	}
 }
 
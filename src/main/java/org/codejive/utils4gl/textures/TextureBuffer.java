@@ -117,10 +117,11 @@ public class TextureBuffer {
 	}
 	
 	/**
-	 * Binds the texture making it ready for use
+	 * Binds the texture making it ready for use. Nothing is sent to
+	 * OpenGL if the texture is bound already.
 	 */
 	public void bind() {
-		m_context.getGl().glBindTexture(GL2.GL_TEXTURE_2D, getHandle());
+		m_context.bindTexture(GL2.GL_TEXTURE_2D, getHandle());
 		if (m_bUnbound) {
 			makeTexture();
 			m_bUnbound = false;